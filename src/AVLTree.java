@@ -15,6 +15,12 @@
 // ******************ERRORS********************************
 // Throws util.UnderflowException as appropriate
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
 //import bst.BinaryNode;
 //import bst.BinarySearchTree;
 
@@ -23,7 +29,7 @@
  * Note that all "matching" is based on the compareTo method.
  * @author Mikyung Han
  */
-public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implements TInterface<E, E>{
+public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implements TInterface<E, E>, TreeShape{
     private static final int ALLOWED_IMBALANCE = 1;
 
      public void remove() {
@@ -39,15 +45,150 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
 
     @Override
     public void insert(E target) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations;
         overallRoot = insert(new AvlNode<E>(target), overallRoot);
+        if(event.slow()) event.commit("AVLTree", "insert", target, depthOf(target), rotations - rotationsBefore);
     }
 
     public void insert(E key, E value) {
-        overallRoot = insert(new AvlNode<E>(key), overallRoot);
+        insert(key);
     }
 
+    //returns the stored item equal to key, or null if there is none
     public E get(E key) {
-        return key;
+        BinaryNode<E> root = overallRoot;
+        while(root != null) {
+            int cmp = compare(key, root.data);
+            if(cmp == 0) return root.data;
+            root = cmp < 0 ? root.left : root.right;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a sorted batch of keys in one pass: each node on the union of
+     * the search paths is visited once and the keys routed through it are split
+     * around its data by binary search.
+     * @param keys the keys, in strictly ascending order
+     * @param results receives the stored item equal to keys[i], or null
+     * @return the number of keys found
+     */
+    public int getAll(E[] keys, E[] results) {
+        TInterface.checkBatch(keys, results.length);
+        return getAll(overallRoot, keys, results, 0, keys.length);
+    }
+
+    private int getAll(BinaryNode<E> root, E[] keys, E[] results, int lo, int hi) {
+        if(lo >= hi) return 0;
+        if(root == null) {
+            Arrays.fill(results, lo, hi, null);
+            return 0;
+        }
+        int i = Arrays.binarySearch(keys, lo, hi, root.data);
+        int split = i >= 0 ? i : -i - 1;
+        int found = getAll(root.left, keys, results, lo, split);
+        if(i >= 0) {
+            results[i] = root.data;
+            found++;
+            split++;
+        }
+        return found + getAll(root.right, keys, results, split, hi);
+    }
+
+    /**
+     * Inserts a sorted batch in one pass, routing the keys down the tree as
+     * getAll does. A run of keys that reaches an empty subtree is built into a
+     * balanced subtree there, so an empty tree is built in linear time with no
+     * rotations, and each node on the way back up is joined to its new
+     * subtrees, which rebalances however much they grew. Items already
+     * present are kept, as in insert(x).
+     * @param keys the keys, in strictly ascending order
+     * @param values ignored, as in insert(key, value)
+     */
+    public void insertAll(E[] keys, E[] values) {
+        TInterface.checkBatch(keys, values.length);
+        overallRoot = insertAll(overallRoot, keys, 0, keys.length);
+    }
+
+    private BinaryNode<E> insertAll(BinaryNode<E> root, E[] keys, int lo, int hi) {
+        if(lo >= hi) return root;
+        if(root == null) return build(keys, lo, hi);
+        if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.NODES_VISITED);
+        int i = Arrays.binarySearch(keys, lo, hi, root.data);
+        int split = i >= 0 ? i : -i - 1;
+        BinaryNode<E> left = insertAll(root.left, keys, lo, split);
+        BinaryNode<E> right = insertAll(root.right, keys, i >= 0 ? split + 1 : split, hi);
+        return join(left, root, right);
+    }
+
+    //makes node the root over left and right, whose items lie below and above
+    //its data, descending the spine of the taller one if they differ too much
+    private BinaryNode<E> join(BinaryNode<E> left, BinaryNode<E> node, BinaryNode<E> right) {
+        if(height(left) > height(right) + ALLOWED_IMBALANCE) {
+            left.right = join(left.right, node, right);
+            return balance(left);
+        }
+        if(height(right) > height(left) + ALLOWED_IMBALANCE) {
+            right.left = join(left, node, right.left);
+            return balance(right);
+        }
+        node.left = left;
+        node.right = right;
+        update(node);
+        return node;
+    }
+
+    //builds a perfectly balanced subtree from keys[lo..hi), setting depths bottom-up
+    private AvlNode<E> build(E[] keys, int lo, int hi) {
+        if(lo >= hi) return null;
+        int mid = (lo + hi) >>> 1;
+        AvlNode<E> node = new AvlNode<E>(keys[mid], build(keys, lo, mid), build(keys, mid + 1, hi));
+        update(node);
+        return node;
+    }
+
+    /**
+     * Writes the items in sorted order in the {@link Snapshot} format.
+     * @param out receives the snapshot; it is flushed but not closed
+     * @param codec serializes the items
+     */
+    public void snapshot(OutputStream out, Codec<E> codec) throws IOException {
+        Snapshot.Writer<E, E> writer = new Snapshot.Writer<E, E>(out, size(), codec, null);
+        snapshot(overallRoot, writer);
+        writer.finish();
+    }
+
+    private void snapshot(BinaryNode<E> root, Snapshot.Writer<E, E> writer) throws IOException {
+        while(root != null) {
+            snapshot(root.left, writer);
+            writer.write(root.data, null);
+            root = root.right;
+        }
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot in linear time: the sorted items are
+     * built into a perfectly balanced tree with its depths set, instead of
+     * being inserted and rebalanced one by one.
+     * @param in the snapshot
+     * @param codec reads the items back
+     * @return the restored tree
+     * @throws IOException if reading fails or the items are not in ascending order
+     */
+    public static <E extends Comparable<E>> AVLTree<E> restore(InputStream in, Codec<E> codec) throws IOException {
+        Snapshot.Reader<E, E> reader = new Snapshot.Reader<E, E>(in, codec, null);
+        if (reader.size() < 0) throw new IOException("negative snapshot size " + reader.size());
+        @SuppressWarnings("unchecked")
+        E[] items = (E[]) Array.newInstance(Comparable.class, reader.size());
+        for(int i = 0; i < items.length; i++) {
+            items[i] = reader.nextKey();
+            if (i > 0 && items[i - 1].compareTo(items[i]) >= 0)
+                throw new IOException("snapshot items are not in ascending order at " + items[i]);
+        }
+        AVLTree<E> tree = new AVLTree<E>();
+        tree.overallRoot = tree.build(items, 0, items.length);
+        return tree;
     }
 
     @Override
@@ -69,23 +210,31 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
         if(height(root.left) - height(root.right) > ALLOWED_IMBALANCE) {
             if(height (root.left.left) >= height (root.left.right)){
                 //case 1: single rotation with left child
+                if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.ROTATIONS);
+                rotations++;
                 root = singleRotationWithLeftChild(root);
             } else {
                 //case 2: double rotation with left child
+                if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.DOUBLE_ROTATIONS);
+                rotations += 2;
                 root = doubleRotationWithLeftChild(root);
             }
         }else if(height(root.right) - height(root.left) > ALLOWED_IMBALANCE) {
             //case 3 and 4 means right child is longer than the left child
             if(height (root.right.right) >= height (root.right.left)){
                 //case 4: single rotation with right child
+                if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.ROTATIONS);
+                rotations++;
                 root = singleRotationWithRightChild(root);
             } else {
                 //case 3: double rotation with right child
+                if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.DOUBLE_ROTATIONS);
+                rotations += 2;
                 root = doubleRotationWithRightChild(root);
             }
         }
 
-        ((AvlNode<E>)root).depth = Math.max( height(root.left), height(root.right)) + 1;
+        update(root);
         return root;
     }
 
@@ -94,8 +243,8 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
         AvlNode<E> k1 = (AvlNode<E>) k2.left;
         k2.left = k1.right;
         k1.right = k2;
-        ((AvlNode<E>)k2).depth = Math.max( height(k2.left), height(k2.right)) + 1;
-        k1.depth = Math.max( height(k1.left), ((AvlNode<E>)k2).depth) + 1;
+        update(k2);
+        update(k1);
         return k1; //k1 is now promoted as root
     }
 
@@ -116,9 +265,8 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
         AvlNode<E> k2 = (AvlNode<E>) k1.right;
         k1.right = k2.left;
         k2.left = k1;
-        ((AvlNode<E>)k1).depth = Math.max( height(k1.left), height(k1.right)) + 1;
-//        k2.depth = Math.max( height(k2.left), height(k2.right)) + 1;
-        k2.depth = Math.max( ((AvlNode<E>)k1).depth, height(k2.right) ) + 1;
+        update(k1);
+        update(k2);
         return k2; //k2 is now promoted as root
     }
 
@@ -149,6 +297,11 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
             throw new IllegalStateException("right child does not have the correct depth "+
                     "should be "+ right_height + "but it says " + height(t.right));
         }
+        AvlNode<E> node = (AvlNode<E>) t;
+        if(node.size != 1 + size(t.left) + size(t.right)
+                || node.pathLength != pathLength(t.left) + size(t.left) + pathLength(t.right) + size(t.right)){
+            throw new IllegalStateException("node " + t.data + " has a stale size or path length");
+        }
         return Math.max(left_height, right_height) + 1 ; //Overwrite this code
     }
 
@@ -156,4 +309,34 @@ public class AVLTree<E extends Comparable<E>> extends BinarySearchTree<E> implem
     protected int height(BinaryNode<E> root) {
         return root == null ? -1 : ((AvlNode<E>)root).depth;
     }
+
+    /**
+     * Number of items in the tree, kept in the nodes like their depth.
+     */
+    public int size() {
+        return size(overallRoot);
+    }
+
+    private int size(BinaryNode<E> root) {
+        return root == null ? 0 : ((AvlNode<E>)root).size;
+    }
+
+    /**
+     * Sum of the depths of all nodes, the root being at depth 0.
+     */
+    public long pathLength() {
+        return pathLength(overallRoot);
+    }
+
+    private long pathLength(BinaryNode<E> root) {
+        return root == null ? 0 : ((AvlNode<E>)root).pathLength;
+    }
+
+    //recomputes the depth, size and path length of a node from its children
+    private void update(BinaryNode<E> root) {
+        AvlNode<E> node = (AvlNode<E>) root;
+        node.depth = Math.max( height(root.left), height(root.right)) + 1;
+        node.size = 1 + size(root.left) + size(root.right);
+        node.pathLength = pathLength(root.left) + size(root.left) + pathLength(root.right) + size(root.right);
+    }
 }
\ No newline at end of file
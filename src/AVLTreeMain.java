@@ -1,3 +1,6 @@
+import java.util.Random;
+import java.util.TreeSet;
+
 /**
  * Created by mhan on 4/3/2017.
  */
@@ -43,6 +46,7 @@ public class AVLTreeMain implements Tester{
             if( t.contains( i ) )
                 System.out.println( "Find error2!" );
         }
+        insertAllTests( );
     }
 
     public static void doTests(AVLTree<Integer> t) {
@@ -85,10 +89,38 @@ public class AVLTreeMain implements Tester{
         }
     }
 
+    //sorted batches of every size into trees of every size stay balanced and complete
+    public static void insertAllTests() {
+        Random random = new Random(28);
+        for( int round = 0; round < 200; round++ )
+        {
+            AVLTree<Integer> t = new AVLTree<>( );
+            TreeSet<Integer> model = new TreeSet<>( );
+            int range = 1 + random.nextInt(2000);
+            for( int batch = 0; batch < 4; batch++ )
+            {
+                TreeSet<Integer> picked = new TreeSet<>( );
+                int count = random.nextInt(range);
+                for( int i = 0; i < count; i++ )
+                    picked.add(random.nextInt(range));
+                Integer[] keys = picked.toArray(new Integer[0]);
+                t.insertAll(keys, keys);
+                model.addAll(picked);
+                t.checkBalance( );
+                if( t.size( ) != model.size( ) )
+                    throw new IllegalStateException("size " + t.size( ) + ", expected " + model.size( ));
+            }
+            for( int i = 0; i < range; i++ )
+                if( t.contains( i ) != model.contains( i ) )
+                    throw new IllegalStateException("contains(" + i + ") is wrong after insertAll");
+        }
+    }
+
     @Override
      public void test() {
         AVLTree<Integer> t = new AVLTree<>( );
         doTests(t);
+        insertAllTests();
      }
 
      @Override
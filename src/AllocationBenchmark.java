@@ -0,0 +1,357 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Reports the bytes each {@link TInterface} operation allocates, per
+ * implementation, and checks them against the operations each implementation
+ * declares allocation-free.
+ * <p>
+ * Allocation is read from the current thread's allocated-bytes counter
+ * ({@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}),
+ * which counts every byte the thread allocates, whether or not it survives.
+ * Each operation runs n times over pre-boxed keys and the total is divided by
+ * n. The workload runs twice before it is measured, so that what is measured
+ * is compiled code, with whatever allocations escape analysis removes already
+ * removed.
+ * <pre>
+ *     java AllocationBenchmark [n] [output.csv]
+ * </pre>
+ * exits with status 1 if an operation declared allocation-free allocates.
+ */
+public final class AllocationBenchmark {
+    public static final String CSV_HEADER = "structure,operation,operations,bytes_per_operation,allocation_free,status";
+
+    /**
+     * The operations measured, in the order they run against a structure
+     * holding n keys: lookups of present and absent keys, batched lookups
+     * (per key), inserts replacing the value of a present key, removing every
+     * key, and inserting them all again. There is no update result for a
+     * structure that rejects inserting a key it already holds.
+     */
+    public static final String[] OPERATIONS = {"get", "get-miss", "contains", "getAll", "update", "remove", "insert"};
+
+    // Times through the workload; only the last is kept
+    private static final int ROUNDS = 3;
+
+    // Keys per getAll() call
+    private static final int BATCH = 64;
+
+    // An operation that allocates less than this per call, averaged, is
+    // allocation-free; it allows for a stray allocation by the JIT or the
+    // counter itself within a run
+    private static final double TOLERANCE = 0.5;
+
+    private AllocationBenchmark() {
+    }
+
+    /**
+     * The operations each structure in {@link LatencyBenchmark#structures()}
+     * promises not to allocate. Lookups never allocate. Removing allocates
+     * in RedBlackTree, which hangs a NilNode in place of a removed black leaf,
+     * and in LockFreeBST, whose nodes are immutable and are replaced, as they
+     * are on update. AVLTree builds the node to insert before it finds the key
+     * already present.
+     */
+    public static Map<String, Set<String>> allocationFree() {
+        Set<String> lookups = Set.of("get", "get-miss", "contains", "getAll");
+        Map<String, Set<String>> free = new LinkedHashMap<>();
+        free.put("BSTPrinceton", union(lookups, "update", "remove"));
+        free.put("AVLTree", union(lookups, "remove"));
+        free.put("RedBlackTree", union(lookups, "update"));
+        free.put("SplayTree", union(lookups, "update", "remove"));
+        free.put("SkipList", union(lookups, "update", "remove"));
+        free.put("LockFreeBST", lookups);
+        free.put("BTree", union(lookups, "update", "remove"));
+        free.put("ArrayAVLTree", union(lookups, "update", "remove", "insert"));
+        free.put("IntAVLMap", union(lookups, "update", "remove"));
+        return free;
+    }
+
+    private static Set<String> union(Set<String> set, String... more) {
+        Set<String> union = new HashSet<>(set);
+        union.addAll(Arrays.asList(more));
+        return Collections.unmodifiableSet(union);
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            throw new IllegalStateException("this VM does not count allocated bytes per thread");
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        if (!counting.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("this VM does not count allocated bytes per thread");
+        }
+        if (!counting.isThreadAllocatedMemoryEnabled()) {
+            counting.setThreadAllocatedMemoryEnabled(true);
+        }
+        return counting;
+    }
+
+    /** Bytes per call of one operation on one structure. */
+    public static final class Result {
+        public final String structure;
+        public final String operation;
+        public final long operations;
+        public final long bytes;
+        public final boolean allocationFree;
+
+        Result(String structure, String operation, long operations, long bytes, boolean allocationFree) {
+            this.structure = structure;
+            this.operation = operation;
+            this.operations = operations;
+            this.bytes = bytes;
+            this.allocationFree = allocationFree;
+        }
+
+        public double bytesPerOperation() {
+            return (double) bytes / operations;
+        }
+
+        /** True if the operation is declared allocation-free but allocates. */
+        public boolean failed() {
+            return allocationFree && bytesPerOperation() >= TOLERANCE;
+        }
+
+        /** One CSV line in the order of {@link #CSV_HEADER}, without the line break. */
+        public String csvRow() {
+            return String.format("%s,%s,%d,%.2f,%s,%s", structure, operation, operations, bytesPerOperation(),
+                    allocationFree, failed() ? "FAIL" : "ok");
+        }
+
+        @Override
+        public String toString() {
+            return csvRow();
+        }
+    }
+
+    /**
+     * Runs the workload against {@code tree}, which must be empty, and
+     * measures it the last time through.
+     *
+     * @param allocationFree the operations expected not to allocate
+     */
+    public static List<Result> run(String structure, TInterface<Integer, Integer> tree, int n, Set<String> allocationFree) {
+        com.sun.management.ThreadMXBean threads = threads();
+        Integer[] present = new Integer[n];
+        Integer[] absent = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            present[i] = LatencyBenchmark.scramble(i);
+            absent[i] = LatencyBenchmark.scramble(n + i);
+        }
+        Integer[] sorted = present.clone();
+        Arrays.sort(sorted);
+        Integer[] values = new Integer[BATCH];
+        Integer[][] batches = new Integer[(n + BATCH - 1) / BATCH][];
+        for (int b = 0; b < batches.length; b++) {
+            batches[b] = Arrays.copyOfRange(sorted, b * BATCH, Math.min(n, (b + 1) * BATCH));
+        }
+        for (Integer key : present) {
+            tree.insert(key, key);
+        }
+
+        long[] bytes = new long[OPERATIONS.length];
+        // false once the structure rejects inserting a key it holds
+        boolean updates = true;
+        for (int round = 0; round < ROUNDS; round++) {
+            long found = 0;
+            long start = threads.getCurrentThreadAllocatedBytes();
+            long overhead = threads.getCurrentThreadAllocatedBytes() - start;
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer key : present) {
+                if (tree.get(key) != null) found++;
+            }
+            bytes[0] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer key : absent) {
+                tree.get(key);
+            }
+            bytes[1] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer key : present) {
+                if (tree.contains(key)) found++;
+            }
+            bytes[2] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer[] batch : batches) {
+                found += tree.getAll(batch, values);
+            }
+            bytes[3] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            if (updates) {
+                start = threads.getCurrentThreadAllocatedBytes();
+                try {
+                    for (Integer key : present) {
+                        tree.insert(key, key);
+                    }
+                } catch (IllegalArgumentException e) {
+                    updates = false;
+                }
+                bytes[4] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+            }
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer key : present) {
+                tree.remove(key);
+            }
+            bytes[5] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (Integer key : present) {
+                tree.insert(key, key);
+            }
+            bytes[6] = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+
+            if (found != 3L * n) {
+                throw new IllegalStateException(structure + " did not find its " + n + " keys");
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (i == 4 && !updates) continue;
+            results.add(new Result(structure, OPERATIONS[i], n, bytes[i], allocationFree.contains(OPERATIONS[i])));
+        }
+        return results;
+    }
+
+    /** Measures every structure in {@link LatencyBenchmark#structures()}. */
+    public static List<Result> run(int n) {
+        Map<String, Set<String>> allocationFree = allocationFree();
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : LatencyBenchmark.structures().entrySet()) {
+            Set<String> free = allocationFree.getOrDefault(structure.getKey(), Set.of());
+            results.addAll(run(structure.getKey(), structure.getValue().get(), n, free));
+        }
+        return results;
+    }
+
+    /** Writes the header and one CSV line per result. */
+    public static void writeCsv(List<Result> results, Appendable out) {
+        try {
+            out.append(CSV_HEADER).append('\n');
+            for (Result result : results) {
+                out.append(result.csvRow()).append('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        List<Result> results = run(n);
+        StringBuilder csv = new StringBuilder();
+        writeCsv(results, csv);
+        if (args.length > 1) {
+            Files.write(Paths.get(args[1]), csv.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(csv);
+        }
+        boolean failed = false;
+        for (Result result : results) {
+            if (result.failed()) {
+                System.err.printf("%s.%s allocates %.2f bytes per call but is declared allocation-free%n",
+                        result.structure, result.operation, result.bytesPerOperation());
+                failed = true;
+            }
+        }
+        if (failed) System.exit(1);
+    }
+}
+
+class AllocationBenchmarkTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Allocates an array on every lookup, where escape analysis cannot remove it
+    private static final class AllocatingTree extends BSTPrinceton<Integer, Integer> {
+        volatile int[] last;
+
+        @Override
+        public Integer get(Integer key) {
+            last = new int[4];
+            return super.get(key);
+        }
+    }
+
+    private static AllocationBenchmark.Result find(List<AllocationBenchmark.Result> results, String structure, String operation) {
+        for (AllocationBenchmark.Result result : results) {
+            if (result.structure.equals(structure) && result.operation.equals(operation)) return result;
+        }
+        return null;
+    }
+
+    public static void doTests(int n) {
+        // what the structures declare allocation-free is
+        List<AllocationBenchmark.Result> results = AllocationBenchmark.run(n);
+        for (AllocationBenchmark.Result result : results) {
+            if (result.failed()) throw new RuntimeException(result.toString());
+        }
+
+        // inserts allocate a node, or part of a block for BTree
+        for (String structure : AllocationBenchmark.allocationFree().keySet()) {
+            AllocationBenchmark.Result insert = find(results, structure, "insert");
+            myAssert(insert.bytesPerOperation() > 0 || structure.equals("ArrayAVLTree"));
+        }
+        myAssert(find(results, "SkipList", "insert").bytesPerOperation() > find(results, "BSTPrinceton", "insert").bytesPerOperation());
+        myAssert(find(results, "RedBlackTree", "remove").bytesPerOperation() > 0);
+        // RedBlackTree replaces a key it already holds in place
+        myAssert(find(results, "RedBlackTree", "update") != null && !find(results, "RedBlackTree", "update").failed());
+        myAssert(new RedBlackTree<Integer>().get(1) == null);
+
+        // an allocating lookup is caught
+        List<AllocationBenchmark.Result> allocating = AllocationBenchmark.run("AllocatingTree", new AllocatingTree(), n,
+                AllocationBenchmark.allocationFree().get("BSTPrinceton"));
+        AllocationBenchmark.Result get = find(allocating, "AllocatingTree", "get");
+        myAssert(get.failed() && get.bytesPerOperation() >= 16);
+        myAssert(get.csvRow().endsWith(",true,FAIL"));
+        myAssert(find(allocating, "AllocatingTree", "get-miss").failed());
+        myAssert(!find(allocating, "AllocatingTree", "update").failed());
+
+        StringBuilder csv = new StringBuilder();
+        AllocationBenchmark.writeCsv(results, csv);
+        String[] lines = csv.toString().split("\n");
+        myAssert(lines.length == 1 + results.size());
+        myAssert(lines[1].equals("BSTPrinceton,get," + n + ",0.00,true,ok"));
+    }
+
+    @Override
+    public void test() {
+        doTests(20000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(20000);
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * An AVL tree whose nodes live in parallel arrays instead of node objects.
+ * <p>
+ * Node i is slot i of {@code left}, {@code right} and {@code height} (plain
+ * {@code int} arrays, which the garbage collector never has to scan) and of
+ * {@code keys} and {@code values}. Children are array indices, with slot 0 as
+ * the empty tree. A tree of ten million entries is therefore five large arrays
+ * rather than ten million {@link AvlNode} objects, each with a header, two
+ * child references and a depth, and the GC traces two reference arrays
+ * instead of a pointer graph.
+ * <p>
+ * Removed slots go on a free list threaded through {@code left} and are reused
+ * by later inserts. When no slot is free, the arrays grow by half. Like
+ * {@link BSTPrinceton}, values cannot be {@code null}: inserting a
+ * {@code null} value removes the key.
+ */
+public class ArrayAVLTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value> {
+    private static final int ALLOWED_IMBALANCE = 1;
+    private static final int DEFAULT_CAPACITY = 16;
+    // slot 0 is the empty tree: height 0, children 0
+    private static final int NIL = 0;
+
+    private int[] left;
+    private int[] right;
+    // a leaf has height 1, so that NIL's 0 needs no special case
+    private int[] height;
+    private Object[] keys;
+    private Object[] values;
+    private int root = NIL;
+    private int size;
+    // head of the free list, linked through left; NIL if empty
+    private int free = NIL;
+    // slots [1, used) have been handed out at least once
+    private int used = 1;
+
+    public ArrayAVLTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes an empty tree with room for {@code capacity} entries before
+     * the arrays first grow.
+     *
+     * @param capacity the initial capacity
+     */
+    public ArrayAVLTree(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("negative capacity " + capacity);
+        int slots = capacity + 1;
+        left = new int[slots];
+        right = new int[slots];
+        height = new int[slots];
+        keys = new Object[slots];
+        values = new Object[slots];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of entries the arrays can hold before growing.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return left.length - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Key key(int node) {
+        return (Key) keys[node];
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(key(node));
+            if (cmp < 0) node = left[node];
+            else if (cmp > 0) node = right[node];
+            else return (Value) values[node];
+        }
+        return null;
+    }
+
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    // -- Updates ------------------------------------------------------------------------------------
+
+    public void insert(Key key, Value value) {
+        if (key == null) throw new IllegalArgumentException("calls insert() with a null key");
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        root = insert(root, key, value);
+    }
+
+    private int insert(int node, Key key, Value value) {
+        if (node == NIL) return allocate(key, value);
+        int cmp = key.compareTo(key(node));
+        // the recursive call may grow the arrays, so it must finish before
+        // the store picks which left or right array to write to
+        if (cmp < 0) {
+            int child = insert(left[node], key, value);
+            left[node] = child;
+        } else if (cmp > 0) {
+            int child = insert(right[node], key, value);
+            right[node] = child;
+        } else {
+            values[node] = value;
+            return node;
+        }
+        return balance(node);
+    }
+
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls remove() with a null key");
+        root = remove(root, key);
+    }
+
+    private int remove(int node, Key key) {
+        if (node == NIL) return NIL;
+        int cmp = key.compareTo(key(node));
+        if (cmp < 0) {
+            left[node] = remove(left[node], key);
+        } else if (cmp > 0) {
+            right[node] = remove(right[node], key);
+        } else {
+            int l = left[node];
+            int r = right[node];
+            release(node);
+            if (l == NIL) return r;
+            if (r == NIL) return l;
+            // the successor takes the removed node's place
+            int successor = r;
+            while (left[successor] != NIL) successor = left[successor];
+            right[successor] = removeMin(r);
+            left[successor] = l;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private int removeMin(int node) {
+        if (left[node] == NIL) return right[node];
+        left[node] = removeMin(left[node]);
+        return balance(node);
+    }
+
+    // -- Slot management ----------------------------------------------------------------------------
+
+    private int allocate(Key key, Value value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (used == left.length) grow();
+            node = used++;
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        keys[node] = key;
+        values[node] = value;
+        size++;
+        return node;
+    }
+
+    // Puts the slot on the free list, dropping its references for the GC
+    private void release(int node) {
+        keys[node] = null;
+        values[node] = null;
+        left[node] = free;
+        free = node;
+        size--;
+    }
+
+    private void grow() {
+        int slots = Math.max(DEFAULT_CAPACITY, left.length + (left.length >> 1));
+        left = Arrays.copyOf(left, slots);
+        right = Arrays.copyOf(right, slots);
+        height = Arrays.copyOf(height, slots);
+        keys = Arrays.copyOf(keys, slots);
+        values = Arrays.copyOf(values, slots);
+    }
+
+    // -- Balancing ----------------------------------------------------------------------------------
+
+    private int balance(int node) {
+        int l = left[node];
+        int r = right[node];
+        if (height[l] - height[r] > ALLOWED_IMBALANCE) {
+            if (height[left[l]] < height[right[l]]) left[node] = rotateLeft(l);
+            node = rotateRight(node);
+        } else if (height[r] - height[l] > ALLOWED_IMBALANCE) {
+            if (height[right[r]] < height[left[r]]) right[node] = rotateRight(r);
+            node = rotateLeft(node);
+        } else {
+            height[node] = Math.max(height[l], height[r]) + 1;
+        }
+        return node;
+    }
+
+    private int rotateRight(int k2) {
+        int k1 = left[k2];
+        left[k2] = right[k1];
+        right[k1] = k2;
+        height[k2] = Math.max(height[left[k2]], height[right[k2]]) + 1;
+        height[k1] = Math.max(height[left[k1]], height[k2]) + 1;
+        return k1;
+    }
+
+    private int rotateLeft(int k1) {
+        int k2 = right[k1];
+        right[k1] = left[k2];
+        left[k2] = k1;
+        height[k1] = Math.max(height[left[k1]], height[right[k1]]) + 1;
+        height[k2] = Math.max(height[k1], height[right[k2]]) + 1;
+        return k2;
+    }
+
+    /**
+     * Returns the height of the tree, counting edges as {@link AVLTree} does:
+     * -1 when empty, 0 for a single entry.
+     *
+     * @return the height of the tree
+     */
+    public int height() {
+        return height[root] - 1;
+    }
+
+    // Throws IllegalStateException if a node is out of order, unbalanced or has a stale height
+    public void checkBalance() {
+        int counted = check(root, null, null);
+        if (height[NIL] != 0 || left[NIL] != NIL || right[NIL] != NIL) {
+            throw new IllegalStateException("the empty-tree slot was written to");
+        }
+        int freeSlots = 0;
+        for (int node = free; node != NIL; node = left[node]) {
+            freeSlots++;
+        }
+        if (counted != size || size + freeSlots != used - 1) {
+            throw new IllegalStateException(size + " entries, " + freeSlots + " free slots, " + (used - 1) + " used");
+        }
+    }
+
+    // Returns the number of nodes in the subtree
+    private int check(int node, Key lo, Key hi) {
+        if (node == NIL) return 0;
+        Key key = key(node);
+        if ((lo != null && key.compareTo(lo) <= 0) || (hi != null && key.compareTo(hi) >= 0)) {
+            throw new IllegalStateException("key " + key + " out of order");
+        }
+        int count = 1 + check(left[node], lo, key) + check(right[node], key, hi);
+        if (Math.abs(height[left[node]] - height[right[node]]) > ALLOWED_IMBALANCE) {
+            throw new IllegalStateException("tree is imbalanced at " + key);
+        }
+        if (height[node] != Math.max(height[left[node]], height[right[node]]) + 1) {
+            throw new IllegalStateException("stale height at " + key);
+        }
+        return count;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        toString(root, sb);
+        return sb.toString();
+    }
+
+    private void toString(int node, StringBuilder sb) {
+        while (node != NIL) {
+            toString(left[node], sb);
+            sb.append(keys[node]).append('=').append(values[node]).append(' ');
+            node = right[node];
+        }
+    }
+}
+
+class ArrayAVLTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int ops) {
+        ArrayAVLTree<Integer, Integer> tree = new ArrayAVLTree<>();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        Random random = new Random(38);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            int key = random.nextInt(range);
+            if (random.nextInt(3) == 0) {
+                tree.remove(key);
+                model.remove(key);
+            } else {
+                tree.insert(key, op);
+                model.put(key, op);
+            }
+            if (op % 1000 == 0) tree.checkBalance();
+        }
+        tree.checkBalance();
+        myAssert(tree.size() == model.size());
+        for (int key = -1; key <= range; key++) {
+            myAssert(Objects.equals(tree.get(key), model.get(key)));
+        }
+
+        // freed slots are reused before the arrays grow
+        int capacity = -1;
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < range; key++) {
+                tree.remove(key);
+            }
+            myAssert(tree.isEmpty() && tree.height() == -1);
+            for (int key = 0; key < range; key++) {
+                tree.insert(key, key);
+            }
+            tree.checkBalance();
+            if (round == 0) capacity = tree.capacity();
+        }
+        myAssert(tree.size() == range && tree.capacity() == capacity);
+    }
+
+    // The AVLTreeMain workload, with the heap each tree leaves behind
+    public static void benchmark(int n) {
+        final int gap = 37;
+        for (int round = 0; round < 2; round++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            AVLTree<Integer> objects = new AVLTree<>();
+            for (int i = gap; i != 0; i = (i + gap) % n) {
+                objects.insert(i);
+            }
+            long objectNs = System.nanoTime() - start;
+            long objectBytes = usedHeap() - before;
+            myAssert(objects.contains(n / 2));
+            objects = null;
+
+            before = usedHeap();
+            start = System.nanoTime();
+            ArrayAVLTree<Integer, Integer> arrays = new ArrayAVLTree<>();
+            for (int i = gap; i != 0; i = (i + gap) % n) {
+                arrays.insert(i, i);
+            }
+            long arrayNs = System.nanoTime() - start;
+            long arrayBytes = usedHeap() - before;
+            myAssert(arrays.contains(n / 2));
+            System.out.printf("n=%d AVLTree: %d ms, %d bytes/entry; ArrayAVLTree: %d ms, %d bytes/entry (boxed keys included)%n",
+                    n, objectNs / 1000000, objectBytes / n, arrayNs / 1000000, arrayBytes / n);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public void test() {
+        doTests(100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(100000);
+        benchmark(1000000);
+    }
+}
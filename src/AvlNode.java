@@ -1,5 +1,7 @@
 public class AvlNode<E> extends BinaryNode<E> {
     public int depth;
+    public int size = 1;        //nodes in the subtree
+    public long pathLength;     //sum of the depths of the subtree's nodes below it
 
     //Implement this class
     public AvlNode(E data){
@@ -24,6 +24,11 @@
  *
  ******************************************************************************/
 
+ import java.io.IOException;
+ import java.io.InputStream;
+ import java.io.OutputStream;
+ import java.lang.reflect.Array;
+ import java.util.Arrays;
  import java.util.LinkedList;
  import java.util.NoSuchElementException;
  import java.util.Queue;
@@ -68,7 +73,8 @@
   * @author Robert Sedgewick
   * @author Kevin Wayne
   */
- public class BSTPrinceton<Key extends Comparable<Key>, Value> implements TInterface<Key, Value> {
+ public class BSTPrinceton<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>, TreeShape {
+     private static final OpMetrics METRICS = OpMetrics.of(BSTPrinceton.class);
      private Node root;             // root of BST
     
      private class Node {
@@ -76,6 +82,8 @@
          private Value val;         // associated data
          private Node left, right;  // left and right subtrees
          private int size;          // number of nodes in subtree
+         private int height;        // edges on the longest path down
+         private long pathLength;   // sum of the depths of the subtree's nodes below it
  
          public Node(Key key, Value val, int size) {
              this.key = key;
@@ -117,6 +125,29 @@
          if (x == null) return 0;
          else return x.size;
      }
+
+     private long pathLength(Node x) {
+         if (x == null) return 0;
+         else return x.pathLength;
+     }
+
+     // recompute the size, height and path length of x from its children
+     private void update(Node x) {
+         x.size = 1 + size(x.left) + size(x.right);
+         x.height = 1 + Math.max(height(x.left), height(x.right));
+         x.pathLength = pathLength(x.left) + size(x.left) + pathLength(x.right) + size(x.right);
+     }
+
+     /**
+      * Returns the sum of the depths of all nodes, the root being at depth 0.
+      * One more than the average depth is the average number of compares in
+      * a search hit.
+      *
+      * @return the internal path length of the BST
+      */
+     public long pathLength() {
+         return pathLength(root);
+     }
  
      /**
       * Does this symbol table contain the given key?
@@ -140,13 +171,16 @@
       * @throws IllegalArgumentException if {@code key} is {@code null}
       */
      public Value get(Key key) {
-         return get(root, key);
+         SlowOperationEvent event = SlowOperationEvent.start();
+         Value value = get(root, key);
+         if (event.slow()) event.commit("BSTPrinceton", "get", key, depthOf(key), 0);
+         return value;
      }
  
      private Value get(Node x, Key key) {
          if (key == null) throw new IllegalArgumentException("calls get() with a null key");
          if (x == null) return null;
-         int cmp = key.compareTo(x.key);
+         int cmp = compare(key, x);
          if (cmp < 0) return get(x.left, key);
          else if (cmp > 0) return get(x.right, key);
          else return x.val;
@@ -168,24 +202,180 @@
              delete(key);
              return;
          }
+         SlowOperationEvent event = SlowOperationEvent.start();
          root = put(root, key, val);
          assert check();
+         if (event.slow()) event.commit("BSTPrinceton", "put", key, depthOf(key), 0);
      }
 
      public void insert(Key key, Value val) {
         put(key, val);
      }
+
+     // Number of nodes on the search path for key, for a SlowOperationEvent
+     private int depthOf(Key key) {
+         int depth = 0;
+         for (Node x = root; x != null; depth++) {
+             int cmp = key.compareTo(x.key);
+             if (cmp == 0) return depth + 1;
+             x = cmp < 0 ? x.left : x.right;
+         }
+         return depth;
+     }
+
+     // key.compareTo(x.key), counted as a visit to x when metrics are enabled
+     private int compare(Key key, Node x) {
+         if (OpMetrics.enabled) {
+             METRICS.count(OpMetrics.Counter.NODES_VISITED);
+             METRICS.count(OpMetrics.Counter.COMPARISONS);
+         }
+         return key.compareTo(x.key);
+     }
  
      private Node put(Node x, Key key, Value val) {
          if (x == null) return new Node(key, val, 1);
-         int cmp = key.compareTo(x.key);
+         int cmp = compare(key, x);
          if (cmp < 0) x.left = put(x.left, key, val);
          else if (cmp > 0) x.right = put(x.right, key, val);
          else x.val = val;
-         x.size = 1 + size(x.left) + size(x.right);
+         update(x);
          return x;
      }
  
+     /**
+      * Looks up a batch of keys in a single pass over the tree. Each node on the
+      * union of the search paths is visited once, and the keys routed through it
+      * are split around its key by binary search, so the common prefix of the
+      * search paths is walked only once.
+      *
+      * @param keys the keys, in strictly ascending order
+      * @param results receives the value for {@code keys[i]} (or {@code null}) at index {@code i}
+      * @return the number of keys found
+      * @throws IllegalArgumentException if a key is {@code null}, the keys are not
+      *                                  ascending, or {@code results} is too short
+      */
+     public int getAll(Key[] keys, Value[] results) {
+         TInterface.checkBatch(keys, results.length);
+         return getAll(root, keys, results, 0, keys.length);
+     }
+
+     // Resolve keys[lo..hi), all of which fall inside the subtree rooted at x.
+     private int getAll(Node x, Key[] keys, Value[] results, int lo, int hi) {
+         if (lo >= hi) return 0;
+         if (x == null) {
+             Arrays.fill(results, lo, hi, null);
+             return 0;
+         }
+         int i = Arrays.binarySearch(keys, lo, hi, x.key);
+         int split = i >= 0 ? i : -i - 1;
+         int found = getAll(x.left, keys, results, lo, split);
+         if (i >= 0) {
+             results[i] = x.val;
+             found++;
+             split++;
+         }
+         return found + getAll(x.right, keys, results, split, hi);
+     }
+
+     /**
+      * Inserts a batch of key-value pairs in a single pass over the tree, in the
+      * same way as {@link #getAll}. Keys that fall off the bottom of the tree are
+      * attached as perfectly balanced subtrees, so a batch loaded into an empty
+      * tree yields a balanced tree rather than a path.
+      *
+      * @param keys the keys, in strictly ascending order
+      * @param vals the values, {@code vals[i]} belonging to {@code keys[i]}
+      * @throws IllegalArgumentException if a key or value is {@code null}, the keys
+      *                                  are not ascending, or {@code vals} is too short
+      */
+     public void insertAll(Key[] keys, Value[] vals) {
+         TInterface.checkBatch(keys, vals.length);
+         for (int i = 0; i < keys.length; i++) {
+             if (vals[i] == null) throw new IllegalArgumentException("calls insertAll() with a null value");
+         }
+         root = putAll(root, keys, vals, 0, keys.length);
+         assert check();
+     }
+
+     private Node putAll(Node x, Key[] keys, Value[] vals, int lo, int hi) {
+         if (lo >= hi) return x;
+         if (x == null) return build(keys, vals, lo, hi);
+         int i = Arrays.binarySearch(keys, lo, hi, x.key);
+         int split = i >= 0 ? i : -i - 1;
+         x.left = putAll(x.left, keys, vals, lo, split);
+         if (i >= 0) {
+             x.val = vals[i];
+             split++;
+         }
+         x.right = putAll(x.right, keys, vals, split, hi);
+         update(x);
+         return x;
+     }
+
+     // Build a perfectly balanced subtree from keys[lo..hi)
+     private Node build(Key[] keys, Value[] vals, int lo, int hi) {
+         if (lo >= hi) return null;
+         int mid = (lo + hi) >>> 1;
+         Node x = new Node(keys[mid], vals[mid], hi - lo);
+         x.left = build(keys, vals, lo, mid);
+         x.right = build(keys, vals, mid + 1, hi);
+         update(x);
+         return x;
+     }
+
+     /**
+      * Writes the symbol table in key order in the {@link Snapshot} format.
+      *
+      * @param  out receives the snapshot; it is flushed but not closed
+      * @param  keyCodec serializes the keys
+      * @param  valueCodec serializes the values
+      * @throws IOException if writing fails
+      */
+     public void snapshot(OutputStream out, Codec<Key> keyCodec, Codec<Value> valueCodec) throws IOException {
+         Snapshot.Writer<Key, Value> writer = new Snapshot.Writer<>(out, size(), keyCodec, valueCodec);
+         snapshot(root, writer);
+         writer.finish();
+     }
+
+     private void snapshot(Node x, Snapshot.Writer<Key, Value> writer) throws IOException {
+         while (x != null) {
+             snapshot(x.left, writer);
+             writer.write(x.key, x.val);
+             x = x.right;
+         }
+     }
+
+     /**
+      * Rebuilds a symbol table from a snapshot in linear time, as a perfectly
+      * balanced tree with its subtree sizes set.
+      *
+      * @param  in the snapshot
+      * @param  keyCodec reads the keys back
+      * @param  valueCodec reads the values back
+      * @return the restored symbol table
+      * @throws IOException if reading fails, the input is not a snapshot or
+      *         its keys are not in ascending order
+      */
+     public static <Key extends Comparable<Key>, Value> BSTPrinceton<Key, Value> restore(
+             InputStream in, Codec<Key> keyCodec, Codec<Value> valueCodec) throws IOException {
+         Snapshot.Reader<Key, Value> reader = new Snapshot.Reader<>(in, keyCodec, valueCodec);
+         if (reader.size() < 0) throw new IOException("negative snapshot size " + reader.size());
+         @SuppressWarnings("unchecked")
+         Key[] keys = (Key[]) Array.newInstance(Comparable.class, reader.size());
+         @SuppressWarnings("unchecked")
+         Value[] vals = (Value[]) new Object[keys.length];
+         for (int i = 0; i < keys.length; i++) {
+             keys[i] = reader.nextKey();
+             if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0)
+                 throw new IOException("snapshot keys are not in ascending order at " + keys[i]);
+             vals[i] = reader.nextValue();
+         }
+         BSTPrinceton<Key, Value> st = new BSTPrinceton<>();
+         st.root = st.build(keys, vals, 0, keys.length);
+         assert st.check();
+         return st;
+     }
+
  
      /**
       * Removes the smallest key and associated value from the symbol table.
@@ -201,7 +391,7 @@
      private Node deleteMin(Node x) {
          if (x.left == null) return x.right;
          x.left = deleteMin(x.left);
-         x.size = size(x.left) + size(x.right) + 1;
+         update(x);
          return x;
      }
  
@@ -219,7 +409,7 @@
      private Node deleteMax(Node x) {
          if (x.right == null) return x.left;
          x.right = deleteMax(x.right);
-         x.size = size(x.left) + size(x.right) + 1;
+         update(x);
          return x;
      }
  
@@ -232,8 +422,10 @@
       */
      public void delete(Key key) {
          if (key == null) throw new IllegalArgumentException("calls delete() with a null key");
+         SlowOperationEvent event = SlowOperationEvent.start();
          root = delete(root, key);
          assert check();
+         if (event.slow()) event.commit("BSTPrinceton", "remove", key, depthOf(key), 0);
      }
 
      public void remove(Key key) {
@@ -243,7 +435,7 @@
      private Node delete(Node x, Key key) {
          if (x == null) return null;
  
-         int cmp = key.compareTo(x.key);
+         int cmp = compare(key, x);
          if (cmp < 0) x.left = delete(x.left, key);
          else if (cmp > 0) x.right = delete(x.right, key);
          else {
@@ -254,7 +446,7 @@
              x.right = deleteMin(t.right);
              x.left = t.left;
          }
-         x.size = size(x.left) + size(x.right) + 1;
+         update(x);
          return x;
      }
  
@@ -471,7 +663,7 @@
      }
  
      /**
-      * Returns the height of the BST (for debugging).
+      * Returns the height of the BST, kept up to date by every update.
       *
       * @return the height of the BST (a 1-node tree has height 0)
       */
@@ -481,7 +673,7 @@
  
      private int height(Node x) {
          if (x == null) return -1;
-         return 1 + Math.max(height(x.left), height(x.right));
+         return x.height;
      }
  
      /*************************************************************************
@@ -510,7 +702,7 @@
          return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
      }
  
-     // are the size fields correct?
+     // are the size, height and path length fields correct?
      private boolean isSizeConsistent() {
          return isSizeConsistent(root);
      }
@@ -518,8 +710,15 @@
      private boolean isSizeConsistent(Node x) {
          if (x == null) return true;
          if (x.size != size(x.left) + size(x.right) + 1) return false;
+         if (x.height != 1 + Math.max(height(x.left), height(x.right))) return false;
+         if (x.pathLength != pathLength(x.left) + size(x.left) + pathLength(x.right) + size(x.right)) return false;
          return isSizeConsistent(x.left) && isSizeConsistent(x.right);
      }
+
+     // throws if a stored size, height or path length is stale, for tests run without -ea
+     void checkShape() {
+         if (!isSizeConsistent()) throw new IllegalStateException("subtree shape fields are not consistent");
+     }
  
      // check that ranks are consistent
      private boolean isRankConsistent() {
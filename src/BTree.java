@@ -0,0 +1,701 @@
+import java.lang.reflect.Array;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * An ordered symbol table backed by an in-memory B-tree.
+ * <p>
+ * Every node holds up to {@code fanout - 1} keys, their values and
+ * {@code fanout} children in arrays, so a lookup in a tree of <em>n</em>
+ * keys visits only about log<sub>fanout</sub> <em>n</em> nodes: with the
+ * default fan-out of {@value #DEFAULT_FANOUT}, four or five for ten million
+ * keys, against twenty-odd for a balanced binary tree. Each node visit is a
+ * likely cache miss in a large map, while the binary search within a node
+ * touches one contiguous array.
+ * <p>
+ * Apart from the root, every node is at least half full, and all leaves are
+ * at the same depth. Inserting splits a full node in two, pushing its middle
+ * key up; removing refills an underfull node from a sibling or merges the two.
+ * Each node records the number of keys in its subtree, so {@code rank} and
+ * {@code select} take O(fanout &middot; log n) time like the other ordered
+ * operations.
+ * <p>
+ * Like {@link BSTPrinceton}, values cannot be {@code null}: inserting a
+ * {@code null} value removes the key.
+ */
+public class BTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value> {
+    public static final int DEFAULT_FANOUT = 32;
+
+    private final int fanout;
+    private final int minKeys;
+    private Node root;
+
+    private final class Node {
+        int n;
+        // one spare slot each, for the moment between an insert and a split
+        final Key[] keys;
+        final Value[] vals;
+        final Node[] children;
+        // keys in this subtree
+        int size;
+
+        @SuppressWarnings("unchecked")
+        Node(boolean leaf) {
+            keys = (Key[]) Array.newInstance(Comparable.class, fanout);
+            vals = (Value[]) new Object[fanout];
+            children = leaf ? null : (Node[]) Array.newInstance(Node.class, fanout + 1);
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        // Index of key in this node, or -(insertion point) - 1, as Arrays.binarySearch
+        int search(Key key) {
+            int lo = 0;
+            int hi = n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = keys[mid].compareTo(key);
+                if (cmp < 0) lo = mid + 1;
+                else if (cmp > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+    }
+
+    /**
+     * Initializes an empty B-tree with the default fan-out.
+     */
+    public BTree() {
+        this(DEFAULT_FANOUT);
+    }
+
+    /**
+     * Initializes an empty B-tree.
+     *
+     * @param fanout the maximum number of children per node; even and at least 4
+     * @throws IllegalArgumentException if {@code fanout} is odd or less than 4
+     */
+    public BTree(int fanout) {
+        if (fanout < 4 || fanout % 2 != 0) throw new IllegalArgumentException("fan-out must be even and at least 4: " + fanout);
+        this.fanout = fanout;
+        this.minKeys = fanout / 2 - 1;
+        this.root = new Node(true);
+    }
+
+    public int size() {
+        return root.size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the height of the tree; a tree with only a root has height 0.
+     *
+     * @return the height of the tree
+     */
+    public int height() {
+        int height = 0;
+        for (Node x = root; !x.isLeaf(); x = x.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        Node x = root;
+        while (true) {
+            int i = x.search(key);
+            if (i >= 0) return x.vals[i];
+            if (x.isLeaf()) return null;
+            x = x.children[-i - 1];
+        }
+    }
+
+    public boolean contains(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to contains() is null");
+        return get(key) != null;
+    }
+
+    // -- Insertion ----------------------------------------------------------------------------------
+
+    public void insert(Key key, Value value) {
+        put(key, value);
+    }
+
+    /**
+     * Inserts the key-value pair, replacing the old value if the key is
+     * already present; a {@code null} value removes the key.
+     *
+     * @param key the key
+     * @param val the value
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public void put(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("calls put() with a null key");
+        if (val == null) {
+            remove(key);
+            return;
+        }
+        put(root, key, val);
+        if (root.n == fanout) {
+            // the root overflowed: split it under a new root
+            Node newRoot = new Node(false);
+            newRoot.children[0] = root;
+            newRoot.size = root.size;
+            split(newRoot, 0);
+            root = newRoot;
+        }
+    }
+
+    // Inserts into the subtree at x, which may be left holding one key too many;
+    // returns true if the key was new
+    private boolean put(Node x, Key key, Value val) {
+        int i = x.search(key);
+        if (i >= 0) {
+            x.vals[i] = val;
+            return false;
+        }
+        i = -i - 1;
+        if (x.isLeaf()) {
+            shiftRight(x, i);
+            x.keys[i] = key;
+            x.vals[i] = val;
+            x.n++;
+            x.size++;
+            return true;
+        }
+        Node child = x.children[i];
+        boolean added = put(child, key, val);
+        if (added) x.size++;
+        if (child.n == fanout) split(x, i);
+        return added;
+    }
+
+    // Splits the overfull child i of x, moving its middle key up into x
+    private void split(Node x, int i) {
+        Node left = x.children[i];
+        Node right = new Node(left.isLeaf());
+        int mid = fanout / 2 - 1;
+        right.n = left.n - mid - 1;
+        System.arraycopy(left.keys, mid + 1, right.keys, 0, right.n);
+        System.arraycopy(left.vals, mid + 1, right.vals, 0, right.n);
+        if (!left.isLeaf()) {
+            System.arraycopy(left.children, mid + 1, right.children, 0, right.n + 1);
+        }
+        Key up = left.keys[mid];
+        Value upVal = left.vals[mid];
+        clear(left, mid, left.n);
+        left.n = mid;
+        left.size = subtreeSize(left);
+        right.size = subtreeSize(right);
+
+        shiftRight(x, i);
+        x.keys[i] = up;
+        x.vals[i] = upVal;
+        x.children[i + 1] = right;
+        x.n++;
+    }
+
+    // Opens a gap at key slot i (and child slot i+1) of x
+    private void shiftRight(Node x, int i) {
+        System.arraycopy(x.keys, i, x.keys, i + 1, x.n - i);
+        System.arraycopy(x.vals, i, x.vals, i + 1, x.n - i);
+        if (!x.isLeaf()) System.arraycopy(x.children, i + 1, x.children, i + 2, x.n - i);
+    }
+
+    // Drops the references in key slots [from, to) and the children after them
+    private void clear(Node x, int from, int to) {
+        for (int j = from; j < to; j++) {
+            x.keys[j] = null;
+            x.vals[j] = null;
+            if (!x.isLeaf()) x.children[j + 1] = null;
+        }
+    }
+
+    private int subtreeSize(Node x) {
+        int size = x.n;
+        if (!x.isLeaf()) {
+            for (int j = 0; j <= x.n; j++) {
+                size += x.children[j].size;
+            }
+        }
+        return size;
+    }
+
+    // -- Removal ------------------------------------------------------------------------------------
+
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls remove() with a null key");
+        remove(root, key);
+        if (root.n == 0 && !root.isLeaf()) {
+            root = root.children[0];
+        }
+    }
+
+    // Removes key from the subtree at x, which may be left underfull; returns
+    // true if the key was there
+    private boolean remove(Node x, Key key) {
+        int i = x.search(key);
+        if (x.isLeaf()) {
+            if (i < 0) return false;
+            deleteAt(x, i, false);
+            x.size--;
+            return true;
+        }
+        boolean removed;
+        int child;
+        if (i >= 0) {
+            // swap in the predecessor and remove that from the left subtree
+            Node pred = x.children[i];
+            while (!pred.isLeaf()) {
+                pred = pred.children[pred.n];
+            }
+            x.keys[i] = pred.keys[pred.n - 1];
+            x.vals[i] = pred.vals[pred.n - 1];
+            child = i;
+            removed = removeMax(x.children[i]);
+        } else {
+            child = -i - 1;
+            removed = remove(x.children[child], key);
+        }
+        if (removed) x.size--;
+        if (x.children[child].n < minKeys) refill(x, child);
+        return removed;
+    }
+
+    private boolean removeMax(Node x) {
+        x.size--;
+        if (x.isLeaf()) {
+            deleteAt(x, x.n - 1, false);
+            return true;
+        }
+        removeMax(x.children[x.n]);
+        if (x.children[x.n].n < minKeys) refill(x, x.n);
+        return true;
+    }
+
+    // Removes key slot i of x and, if withChild, child slot i+1
+    private void deleteAt(Node x, int i, boolean withChild) {
+        System.arraycopy(x.keys, i + 1, x.keys, i, x.n - i - 1);
+        System.arraycopy(x.vals, i + 1, x.vals, i, x.n - i - 1);
+        if (withChild) System.arraycopy(x.children, i + 2, x.children, i + 1, x.n - i - 1);
+        x.n--;
+        x.keys[x.n] = null;
+        x.vals[x.n] = null;
+        if (withChild) x.children[x.n + 1] = null;
+    }
+
+    // Child i of x has one key too few: borrow one through x from a sibling
+    // that can spare it, or else merge with a sibling
+    private void refill(Node x, int i) {
+        Node child = x.children[i];
+        if (i > 0 && x.children[i - 1].n > minKeys) {
+            Node left = x.children[i - 1];
+            shiftRight(child, 0);
+            if (!child.isLeaf()) {
+                child.children[1] = child.children[0];
+                child.children[0] = left.children[left.n];
+            }
+            child.keys[0] = x.keys[i - 1];
+            child.vals[0] = x.vals[i - 1];
+            child.n++;
+            x.keys[i - 1] = left.keys[left.n - 1];
+            x.vals[i - 1] = left.vals[left.n - 1];
+            int moved = 1 + (left.isLeaf() ? 0 : left.children[left.n].size);
+            left.keys[left.n - 1] = null;
+            left.vals[left.n - 1] = null;
+            if (!left.isLeaf()) left.children[left.n] = null;
+            left.n--;
+            left.size -= moved;
+            child.size += moved;
+        } else if (i < x.n && x.children[i + 1].n > minKeys) {
+            Node right = x.children[i + 1];
+            child.keys[child.n] = x.keys[i];
+            child.vals[child.n] = x.vals[i];
+            child.n++;
+            int moved = 1;
+            if (!child.isLeaf()) {
+                child.children[child.n] = right.children[0];
+                moved += right.children[0].size;
+                System.arraycopy(right.children, 1, right.children, 0, right.n);
+                right.children[right.n] = null;
+            }
+            x.keys[i] = right.keys[0];
+            x.vals[i] = right.vals[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+            System.arraycopy(right.vals, 1, right.vals, 0, right.n - 1);
+            right.n--;
+            right.keys[right.n] = null;
+            right.vals[right.n] = null;
+            right.size -= moved;
+            child.size += moved;
+        } else {
+            merge(x, i > 0 ? i - 1 : i);
+        }
+    }
+
+    // Merges child i+1 of x, and the key between them, into child i
+    private void merge(Node x, int i) {
+        Node left = x.children[i];
+        Node right = x.children[i + 1];
+        left.keys[left.n] = x.keys[i];
+        left.vals[left.n] = x.vals[i];
+        System.arraycopy(right.keys, 0, left.keys, left.n + 1, right.n);
+        System.arraycopy(right.vals, 0, left.vals, left.n + 1, right.n);
+        if (!left.isLeaf()) {
+            System.arraycopy(right.children, 0, left.children, left.n + 1, right.n + 1);
+        }
+        left.n += right.n + 1;
+        left.size += right.size + 1;
+        deleteAt(x, i, true);
+    }
+
+    // -- Ordered operations -------------------------------------------------------------------------
+
+    /**
+     * Returns the smallest key in the symbol table.
+     *
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("calls min() with empty symbol table");
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = x.children[0];
+        }
+        return x.keys[0];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     *
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("calls max() with empty symbol table");
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = x.children[x.n];
+        }
+        return x.keys[x.n - 1];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to {@code key}.
+     *
+     * @param key the key
+     * @return the largest key in the symbol table less than or equal to {@code key}
+     * @throws NoSuchElementException   if there is no such key
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public Key floor(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to floor() is null");
+        if (isEmpty()) throw new NoSuchElementException("calls floor() with empty symbol table");
+        Key best = null;
+        for (Node x = root; x != null; ) {
+            int i = x.search(key);
+            if (i >= 0) return x.keys[i];
+            i = -i - 1;
+            if (i > 0) best = x.keys[i - 1];
+            x = x.isLeaf() ? null : x.children[i];
+        }
+        if (best == null) throw new NoSuchElementException("argument to floor() is too small");
+        return best;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to {@code key}.
+     *
+     * @param key the key
+     * @return the smallest key in the symbol table greater than or equal to {@code key}
+     * @throws NoSuchElementException   if there is no such key
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public Key ceiling(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to ceiling() is null");
+        if (isEmpty()) throw new NoSuchElementException("calls ceiling() with empty symbol table");
+        Key best = null;
+        for (Node x = root; x != null; ) {
+            int i = x.search(key);
+            if (i >= 0) return x.keys[i];
+            i = -i - 1;
+            if (i < x.n) best = x.keys[i];
+            x = x.isLeaf() ? null : x.children[i];
+        }
+        if (best == null) throw new NoSuchElementException("argument to ceiling() is too large");
+        return best;
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than {@code key}.
+     *
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than {@code key}
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public int rank(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to rank() is null");
+        int rank = 0;
+        for (Node x = root; x != null; ) {
+            int i = x.search(key);
+            int below = i >= 0 ? i : -i - 1;
+            rank += below;
+            if (!x.isLeaf()) {
+                for (int j = 0; j < below; j++) {
+                    rank += x.children[j].size;
+                }
+                if (i >= 0) return rank + x.children[i].size;
+            }
+            if (i >= 0) return rank;
+            x = x.isLeaf() ? null : x.children[below];
+        }
+        return rank;
+    }
+
+    /**
+     * Return the key in the symbol table of a given {@code rank}.
+     *
+     * @param rank the order statistic
+     * @return the key in the symbol table of given {@code rank}
+     * @throws IllegalArgumentException unless {@code rank} is between 0 and
+     *                                  <em>n</em>–1
+     */
+    public Key select(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + rank);
+        }
+        Node x = root;
+        while (true) {
+            if (x.isLeaf()) return x.keys[rank];
+            for (int j = 0; ; j++) {
+                int childSize = x.children[j].size;
+                if (rank < childSize) {
+                    x = x.children[j];
+                    break;
+                }
+                if (rank == childSize) return x.keys[j];
+                rank -= childSize + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns all keys in the symbol table in ascending order.
+     *
+     * @return all keys in the symbol table in ascending order
+     */
+    public Iterable<Key> keys() {
+        if (isEmpty()) return new LinkedList<>();
+        return keys(min(), max());
+    }
+
+    /**
+     * Returns all keys in the symbol table in the given range
+     * in ascending order, as an {@code Iterable}.
+     *
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @return all keys in the symbol table between {@code lo}
+     * (inclusive) and {@code hi} (inclusive) in ascending order
+     * @throws IllegalArgumentException if either {@code lo} or {@code hi}
+     *                                  is {@code null}
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        Queue<Key> queue = new LinkedList<>();
+        keys(root, queue, lo, hi);
+        return queue;
+    }
+
+    private void keys(Node x, Queue<Key> queue, Key lo, Key hi) {
+        int i = x.search(lo);
+        int start = i >= 0 ? i : -i - 1;
+        for (int j = start; j <= x.n; j++) {
+            if (!x.isLeaf() && (j > start || i < 0)) keys(x.children[j], queue, lo, hi);
+            if (j == x.n || x.keys[j].compareTo(hi) > 0) return;
+            queue.add(x.keys[j]);
+        }
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     *
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @return the number of keys in the symbol table between {@code lo}
+     * (inclusive) and {@code hi} (inclusive)
+     * @throws IllegalArgumentException if either {@code lo} or {@code hi}
+     *                                  is {@code null}
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+    // -- Checks -------------------------------------------------------------------------------------
+
+    /**
+     * Checks the B-tree invariants: keys in order, nodes between half full
+     * and full, leaves all at one depth and subtree sizes correct.
+     *
+     * @return true if the tree is consistent
+     */
+    boolean check() {
+        return check(root, null, null, height()) >= 0;
+    }
+
+    // Returns the subtree size, or -1 if an invariant fails
+    private int check(Node x, Key lo, Key hi, int depth) {
+        if (x.n > fanout - 1 || (x != root && x.n < minKeys)) return -1;
+        if (x.isLeaf() != (depth == 0)) return -1;
+        int size = x.n;
+        for (int j = 0; j < x.n; j++) {
+            if (j > 0 && x.keys[j - 1].compareTo(x.keys[j]) >= 0) return -1;
+            if (lo != null && x.keys[j].compareTo(lo) <= 0) return -1;
+            if (hi != null && x.keys[j].compareTo(hi) >= 0) return -1;
+        }
+        if (!x.isLeaf()) {
+            for (int j = 0; j <= x.n; j++) {
+                int childSize = check(x.children[j], j == 0 ? lo : x.keys[j - 1], j == x.n ? hi : x.keys[j], depth - 1);
+                if (childSize < 0) return -1;
+                size += childSize;
+            }
+        }
+        return size == x.size ? size : -1;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Key key : keys()) {
+            sb.append(key).append('=').append(get(key)).append(' ');
+        }
+        return sb.toString();
+    }
+}
+
+class BTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Random puts and removes against BSTPrinceton, including the ordered operations
+    public static void doTests(int fanout, int ops) {
+        BTree<Integer, Integer> tree = new BTree<>(fanout);
+        BSTPrinceton<Integer, Integer> model = new BSTPrinceton<>();
+        Random random = new Random(36 + fanout);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            int key = random.nextInt(range);
+            if (random.nextInt(3) == 0) {
+                tree.remove(key);
+                model.delete(key);
+            } else {
+                tree.put(key, op);
+                model.put(key, op);
+            }
+            if (op % 1000 == 0) myAssert(tree.check());
+        }
+        myAssert(tree.check());
+        myAssert(tree.size() == model.size());
+        for (int key = -1; key <= range; key++) {
+            myAssert(Objects.equals(tree.get(key), model.get(key)));
+            myAssert(tree.rank(key) == model.rank(key));
+            if (key > model.min()) myAssert(tree.floor(key).equals(model.floor(key)));
+            if (key < model.max()) myAssert(tree.ceiling(key).equals(model.ceiling(key)));
+        }
+        for (int r = 0; r < model.size(); r++) {
+            myAssert(tree.select(r).equals(model.select(r)));
+        }
+        myAssert(tree.keys(range / 3, range / 2).toString().equals(model.keys(range / 3, range / 2).toString()));
+        myAssert(tree.size(range / 3, range / 2) == model.size(range / 3, range / 2));
+        for (int key = 0; key < range; key++) {
+            tree.remove(key);
+        }
+        myAssert(tree.isEmpty() && tree.height() == 0 && tree.check());
+    }
+
+    // Lookup cost against the binary trees for n random keys
+    public static void benchmark(int n) {
+        Random random = new Random(36);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        BTree<Integer, Integer> btree = new BTree<>();
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> rb = new RedBlackTree<>();
+        for (Integer key : keys) {
+            btree.put(key, key);
+            avl.insert(key);
+            if (!rb.contains(key)) rb.insertNode(key);
+        }
+        Integer[] probes = new Integer[1 << 20];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = keys[random.nextInt(n)];
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (Integer probe : probes) {
+                if (btree.contains(probe)) found++;
+            }
+            long btreeNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Integer probe : probes) {
+                if (avl.contains(probe)) found++;
+            }
+            long avlNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Integer probe : probes) {
+                if (rb.contains(probe)) found++;
+            }
+            long rbNs = System.nanoTime() - start;
+            myAssert(found == 3 * probes.length);
+            System.out.printf("n=%d ns/lookup: BTree(fanout=%d, height=%d)=%.0f AVLTree=%.0f RedBlackTree=%.0f%n",
+                    n, BTree.DEFAULT_FANOUT, btree.height(), (double) btreeNs / probes.length,
+                    (double) avlNs / probes.length, (double) rbNs / probes.length);
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(4, 20000);
+        doTests(BTree.DEFAULT_FANOUT, 100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(4, 20000);
+        doTests(6, 20000);
+        doTests(BTree.DEFAULT_FANOUT, 100000);
+        benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two {@link RegressionBenchmark} result files series by series and
+ * fails if the candidate is slower than the baseline by more than a threshold.
+ * <p>
+ * Each structure, operation and size present in both files gets a 95%
+ * confidence interval on the change in mean time per call (Welch's t
+ * interval, which does not assume the two runs are equally noisy), expressed
+ * relative to the baseline mean. A series is a regression only when the
+ * whole interval lies above the threshold, and an improvement only when it
+ * lies wholly below minus the threshold; anything the noise cannot separate
+ * from the threshold is left unchanged, so a noisy run does not fail the
+ * gate and more trials narrow the interval. Series in only one file are
+ * reported but never fail it.
+ * <pre>
+ *     java BenchmarkCompare baseline.json candidate.json [threshold%]
+ * </pre>
+ * exits 0 if nothing regressed, 1 if something did and 2 if the files could
+ * not be read.
+ */
+public final class BenchmarkCompare {
+    public static final double DEFAULT_THRESHOLD = 0.10;
+
+    // Two-sided 95% quantiles of Student's t, for 1..30 degrees of freedom
+    private static final double[] T_975 = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+    private static final double Z_975 = 1.959964;
+
+    private BenchmarkCompare() {
+    }
+
+    public enum Verdict {REGRESSION, IMPROVEMENT, UNCHANGED, MISSING, NEW}
+
+    /** One series in the baseline, the candidate, or both. */
+    public static final class Comparison {
+        public final String key;
+        public final RegressionBenchmark.Series baseline;
+        public final RegressionBenchmark.Series candidate;
+        /** Relative change in mean and its 95% interval; NaN unless in both files. */
+        public final double change;
+        public final double lower;
+        public final double upper;
+        public final Verdict verdict;
+
+        Comparison(String key, RegressionBenchmark.Series baseline, RegressionBenchmark.Series candidate, double threshold) {
+            this.key = key;
+            this.baseline = baseline;
+            this.candidate = candidate;
+            if (baseline == null || candidate == null) {
+                change = lower = upper = Double.NaN;
+                verdict = baseline == null ? Verdict.NEW : Verdict.MISSING;
+                return;
+            }
+            double base = baseline.mean();
+            double difference = candidate.mean() - base;
+            double margin = margin(baseline, candidate);
+            change = difference / base;
+            lower = (difference - margin) / base;
+            upper = (difference + margin) / base;
+            if (lower > threshold) {
+                verdict = Verdict.REGRESSION;
+            } else if (upper < -threshold) {
+                verdict = Verdict.IMPROVEMENT;
+            } else {
+                verdict = Verdict.UNCHANGED;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (Double.isNaN(change)) {
+                RegressionBenchmark.Series only = baseline == null ? candidate : baseline;
+                return String.format("%-11s %-36s %10.1f ns/op", verdict, key, only.mean());
+            }
+            return String.format("%-11s %-36s %10.1f -> %10.1f ns/op  %+7.1f%% [%+7.1f%%, %+7.1f%%]",
+                    verdict, key, baseline.mean(), candidate.mean(), 100 * change, 100 * lower, 100 * upper);
+        }
+    }
+
+    /** The two-sided 97.5% quantile of Student's t with {@code df} degrees of freedom. */
+    static double tQuantile(double df) {
+        if (!(df >= 1)) throw new IllegalArgumentException("degrees of freedom below 1: " + df);
+        int whole = (int) Math.floor(df);
+        if (whole <= T_975.length) return T_975[whole - 1];
+        // Cornish-Fisher expansion about the normal quantile; within 1e-4 past 30
+        double z = Z_975, z3 = z * z * z, z5 = z3 * z * z;
+        return z + (z3 + z) / (4 * df) + (5 * z5 + 16 * z3 + 3 * z) / (96 * df * df);
+    }
+
+    // Half-width of the 95% interval on the difference of means (Welch)
+    static double margin(RegressionBenchmark.Series baseline, RegressionBenchmark.Series candidate) {
+        double vb = baseline.variance() / baseline.count();
+        double vc = candidate.variance() / candidate.count();
+        double se2 = vb + vc;
+        if (se2 == 0) return 0;
+        if (baseline.count() < 2 || candidate.count() < 2) {
+            // no spread from one side; give the other side's its own degrees of freedom
+            int df = Math.max(baseline.count(), candidate.count()) - 1;
+            return tQuantile(df) * Math.sqrt(se2);
+        }
+        double df = se2 * se2 / (vb * vb / (baseline.count() - 1) + vc * vc / (candidate.count() - 1));
+        return tQuantile(df) * Math.sqrt(se2);
+    }
+
+    /** Every series of either run, in baseline order and then the candidate's new ones. */
+    public static List<Comparison> compare(List<RegressionBenchmark.Series> baseline,
+                                           List<RegressionBenchmark.Series> candidate, double threshold) {
+        if (!(threshold >= 0)) throw new IllegalArgumentException("threshold must be non-negative: " + threshold);
+        Map<String, RegressionBenchmark.Series> candidates = new LinkedHashMap<>();
+        for (RegressionBenchmark.Series series : candidate) {
+            candidates.put(series.key(), series);
+        }
+        List<Comparison> comparisons = new ArrayList<>();
+        for (RegressionBenchmark.Series series : baseline) {
+            comparisons.add(new Comparison(series.key(), series, candidates.remove(series.key()), threshold));
+        }
+        for (RegressionBenchmark.Series series : candidates.values()) {
+            comparisons.add(new Comparison(series.key(), null, series, threshold));
+        }
+        return comparisons;
+    }
+
+    public static boolean regressed(List<Comparison> comparisons) {
+        for (Comparison comparison : comparisons) {
+            if (comparison.verdict == Verdict.REGRESSION) return true;
+        }
+        return false;
+    }
+
+    private static String read(String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: java BenchmarkCompare baseline.json candidate.json [threshold%]");
+            System.exit(2);
+        }
+        List<Comparison> comparisons;
+        double threshold;
+        try {
+            threshold = args.length > 2 ? Double.parseDouble(args[2].replace("%", "")) / 100 : DEFAULT_THRESHOLD;
+            String baseline = read(args[0]);
+            String candidate = read(args[1]);
+            System.out.println("baseline:  " + RegressionBenchmark.metadata(baseline));
+            System.out.println("candidate: " + RegressionBenchmark.metadata(candidate));
+            comparisons = compare(RegressionBenchmark.fromJson(baseline), RegressionBenchmark.fromJson(candidate), threshold);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        int regressions = 0;
+        for (Comparison comparison : comparisons) {
+            System.out.println(comparison);
+            if (comparison.verdict == Verdict.REGRESSION) regressions++;
+        }
+        System.out.printf("%d regression(s) beyond %.1f%% at 95%% confidence%n", regressions, 100 * threshold);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+}
+
+class BenchmarkCompareTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // n (even) samples centred on mean, in pairs spread by up to +-1.5 noise
+    static RegressionBenchmark.Series series(String structure, double mean, double noise, int n) {
+        double[] samples = new double[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = mean + (i % 2 == 0 ? noise : -noise) * (1 + i / 2 % 3) / 2;
+        }
+        return new RegressionBenchmark.Series(structure, "get", 1000, samples);
+    }
+
+    static BenchmarkCompare.Verdict verdict(RegressionBenchmark.Series baseline, RegressionBenchmark.Series candidate) {
+        return BenchmarkCompare.compare(List.of(baseline), List.of(candidate), 0.10).get(0).verdict;
+    }
+
+    public static void doTests(int n) {
+        // t quantiles: the table, the expansion past it, and the normal limit
+        myAssert(BenchmarkCompare.tQuantile(1) == 12.706 && BenchmarkCompare.tQuantile(9.7) == 2.262);
+        myAssert(Math.abs(BenchmarkCompare.tQuantile(40) - 2.021) < 1e-3);
+        myAssert(Math.abs(BenchmarkCompare.tQuantile(120) - 1.980) < 1e-3);
+        myAssert(Math.abs(BenchmarkCompare.tQuantile(1e9) - 1.960) < 1e-3);
+
+        // 50% slower with little noise is a regression, 50% faster an improvement
+        myAssert(verdict(series("T", 100, 2, n), series("T", 150, 2, n)) == BenchmarkCompare.Verdict.REGRESSION);
+        myAssert(verdict(series("T", 100, 2, n), series("T", 50, 2, n)) == BenchmarkCompare.Verdict.IMPROVEMENT);
+        // 3% slower is within the threshold however sure it is
+        myAssert(verdict(series("T", 100, 0.1, n), series("T", 103, 0.1, n)) == BenchmarkCompare.Verdict.UNCHANGED);
+        // 20% slower, but too noisy to tell from 10%
+        myAssert(verdict(series("T", 100, 40, n), series("T", 120, 40, n)) == BenchmarkCompare.Verdict.UNCHANGED);
+        // the same 20% with a tenth of the noise is
+        myAssert(verdict(series("T", 100, 4, n), series("T", 120, 4, n)) == BenchmarkCompare.Verdict.REGRESSION);
+
+        BenchmarkCompare.Comparison c = BenchmarkCompare.compare(
+                List.of(series("T", 100, 2, n)), List.of(series("T", 150, 2, n)), 0.10).get(0);
+        myAssert(Math.abs(c.change - 0.5) < 1e-9 && c.lower < c.change && c.change < c.upper);
+
+        // series in one file only are listed but do not fail the gate
+        List<BenchmarkCompare.Comparison> comparisons = BenchmarkCompare.compare(
+                List.of(series("Gone", 100, 1, n), series("Same", 100, 1, n)),
+                List.of(series("Same", 101, 1, n), series("Added", 100, 1, n)), 0.10);
+        myAssert(comparisons.size() == 3);
+        myAssert(comparisons.get(0).verdict == BenchmarkCompare.Verdict.MISSING);
+        myAssert(comparisons.get(1).verdict == BenchmarkCompare.Verdict.UNCHANGED);
+        myAssert(comparisons.get(2).verdict == BenchmarkCompare.Verdict.NEW);
+        myAssert(!BenchmarkCompare.regressed(comparisons));
+        myAssert(BenchmarkCompare.regressed(BenchmarkCompare.compare(
+                List.of(series("T", 100, 2, n)), List.of(series("T", 150, 2, n)), 0.10)));
+
+        // a run against itself never regresses, end to end through the JSON
+        List<RegressionBenchmark.Series> run = RegressionBenchmark.fromJson(RegressionBenchmark.toJson(
+                List.of(series("A", 100, 5, n), series("B", 10, 1, n))));
+        for (BenchmarkCompare.Comparison same : BenchmarkCompare.compare(run, run, 0.10)) {
+            myAssert(same.verdict == BenchmarkCompare.Verdict.UNCHANGED && Math.abs(same.change) < 1e-12);
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(10);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(10);
+    }
+}
@@ -25,6 +25,12 @@ public class BinarySearchTree<E extends Comparable<? super E>>
     /** The tree overallRoot. */
     protected BinaryNode<E> overallRoot;
 
+    /** Counters for the subclass actually instantiated, see {@link OpMetrics}. */
+    protected final OpMetrics metrics = OpMetrics.of(getClass());
+
+    /** Rotations performed so far, for {@link SlowOperationEvent}; subclasses that rotate count them. */
+    protected long rotations;
+
     /**
      * Construct the tree.
      */
@@ -37,15 +43,19 @@ public class BinarySearchTree<E extends Comparable<? super E>>
      * @param target the item to remove.
      */
     public void remove(E target) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations;
         overallRoot = remove(target, overallRoot);
+        if(event.slow()) event.commit(getClass().getSimpleName(), "remove", target, depthOf(target), rotations - rotationsBefore);
     }
 
     protected BinaryNode<E> remove(E target, BinaryNode<E> root){
         if(root == null) return root;
+        if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.NODES_VISITED);
 
-        if(target.compareTo(root.data) < 0) {
+        if(compare(target, root.data) < 0) {
             root.left = remove(target, root.left);
-        } else if (target.compareTo(root.data) > 0) {
+        } else if (compare(target, root.data) > 0) {
             root.right = remove(target, root.right);
         } else { //target is equal to root's data (removing root!!!)
             if(root.left == null && root.right == null) { //case 1: both are null
@@ -66,7 +76,9 @@ public class BinarySearchTree<E extends Comparable<? super E>>
      * @param target the item to insert.
      */
     public void insert(E target) {
+        SlowOperationEvent event = SlowOperationEvent.start();
         overallRoot = insert(new BinaryNode<E>(target), overallRoot);
+        if(event.slow()) event.commit(getClass().getSimpleName(), "insert", target, depthOf(target), 0);
     }
 
     /**
@@ -75,18 +87,25 @@ public class BinarySearchTree<E extends Comparable<? super E>>
      * @return the new overallRoot of the subtree
      */
     protected BinaryNode<E> insert(BinaryNode<E> targetNode, BinaryNode<E> root){
+        if(root != null && OpMetrics.enabled) metrics.count(OpMetrics.Counter.NODES_VISITED);
         if(root == null) {
             root = targetNode;
         }
-        else if(targetNode.data.compareTo(root.data) > 0)
+        else if(compare(targetNode.data, root.data) > 0)
             root.right = insert(targetNode, root.right);
-        else if(targetNode.data.compareTo(root.data) < 0)
+        else if(compare(targetNode.data, root.data) < 0)
             root.left = insert(targetNode, root.left);
         else
             ; //we are ignoring the dupe
         return root;
     }
 
+    //compareTo(), counted when metrics are enabled
+    protected int compare(E a, E b) {
+        if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.COMPARISONS);
+        return a.compareTo(b);
+    }
+
     /**
      * Find the height of the tree
      */
@@ -139,13 +158,28 @@ public class BinarySearchTree<E extends Comparable<? super E>>
      * @return true if not found.
      */
     public boolean contains(E target) {
-        return contains(target, overallRoot);
+        SlowOperationEvent event = SlowOperationEvent.start();
+        boolean found = contains(target, overallRoot);
+        if(event.slow()) event.commit(getClass().getSimpleName(), "contains", target, depthOf(target), 0);
+        return found;
+    }
+
+    //number of nodes on the search path for target, for a SlowOperationEvent
+    protected int depthOf(E target) {
+        int depth = 0;
+        for(BinaryNode<E> root = overallRoot; root != null; depth++) {
+            int cmp = target.compareTo(root.data);
+            if(cmp == 0) return depth + 1;
+            root = cmp < 0 ? root.left : root.right;
+        }
+        return depth;
     }
 
     private boolean contains(E target, BinaryNode<E> root){
         if(root == null) return false;
-        if( target.compareTo(root.data) == 0)  return true;
-        if( target.compareTo(root.data) < 0)
+        if(OpMetrics.enabled) metrics.count(OpMetrics.Counter.NODES_VISITED);
+        if( compare(target, root.data) == 0)  return true;
+        if( compare(target, root.data) < 0)
             return contains(target, root.left);
         return contains(target, root.right); // target is greater than root
     }
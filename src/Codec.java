@@ -0,0 +1,61 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys or values into bytes and back, for the structures that persist
+ * a {@link TInterface} to disk.
+ */
+public interface Codec<T> {
+    public void write(DataOutput out, T value) throws IOException;
+    public T read(DataInput in) throws IOException;
+
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        public void write(DataOutput out, Long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    // Length-prefixed UTF-8, with no 64K limit unlike DataOutput.writeUTF()
+    public static final Codec<String> STRING = new Codec<String>() {
+        public void write(DataOutput out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        public String read(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        public void write(DataOutput out, byte[] value) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        public byte[] read(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    };
+}
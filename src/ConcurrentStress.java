@@ -0,0 +1,616 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A stress test for thread-safe {@link TInterface} implementations: many
+ * threads run random inserts, removes, gets and contains against one shared
+ * structure, every call is recorded with the times it was invoked and
+ * returned, and the history is then checked for linearizability against a
+ * sequential map.
+ * <p>
+ * A history is linearizable if every operation can be given a single point
+ * between its invocation and its response such that, taken in that order,
+ * the results are those of a plain sequential map. Every operation here
+ * touches one key, and linearizability is local (Herlihy and Wing, 1990): the
+ * history is linearizable exactly when each key's part of it is, against a
+ * single register holding the key's value or nothing. Each key is checked
+ * with Wing and Gong's search, which tries to linearize the pending
+ * operations one at a time and backs out on a dead end, with Lowe's
+ * memoization of (linearized operations, register value) pairs already
+ * explored so overlapping operations do not make it exponential. Every insert
+ * writes a value no other insert writes, so a read names the write it saw.
+ * <p>
+ * Keys are drawn from a small range so that threads collide on the same keys
+ * all the time. An {@code audit} can run repeatedly on its own thread while
+ * the workers run, for structures that can check themselves under a lock
+ * (such as {@code LockedTree.withWriteLock(avl::checkBalance)}), and a
+ * {@code finalCheck} once they have stopped, for structures that can only be
+ * checked at rest (such as {@link LockFreeBST#checkShape}).
+ * <p>
+ * An operation that throws is recorded with its exception; the sequential
+ * map never throws, so it is reported both as an exception and as a
+ * linearizability violation.
+ * <pre>
+ *     java ConcurrentStress [threads] [ops per thread] [keys]
+ * </pre>
+ */
+public final class ConcurrentStress {
+    public enum Kind { INSERT, REMOVE, GET, CONTAINS }
+
+    // Operation mix, in percent
+    private static final int INSERT_PERCENT = 35;
+    private static final int REMOVE_PERCENT = 30;
+    private static final int GET_PERCENT = 25;
+
+    private final TInterface<Integer, Integer> tree;
+    private final int threads;
+    private final int keys;
+
+    /**
+     * @param tree    the structure under test, which must be safe to share between threads
+     * @param threads the number of worker threads
+     * @param keys    the number of distinct keys, 0 to keys - 1; fewer keys mean more collisions
+     */
+    public ConcurrentStress(TInterface<Integer, Integer> tree, int threads, int keys) {
+        if (tree == null) throw new IllegalArgumentException("tree is null");
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        if (keys < 1) throw new IllegalArgumentException("keys must be positive: " + keys);
+        this.tree = tree;
+        this.threads = threads;
+        this.keys = keys;
+    }
+
+    /** One recorded call. Times are {@link System#nanoTime()} readings. */
+    public static final class Operation {
+        public final int thread;
+        public final Kind kind;
+        public final int key;
+        /** The value written by an insert, else null. */
+        public final Integer argument;
+        /** What a get or contains returned, else null. */
+        public final Object result;
+        /** What the call threw, or null. */
+        public final Throwable thrown;
+        public final long invoked;
+        public final long responded;
+
+        public Operation(int thread, Kind kind, int key, Integer argument, Object result, Throwable thrown,
+                         long invoked, long responded) {
+            if (responded < invoked) throw new IllegalArgumentException("responded before invoked");
+            this.thread = thread;
+            this.kind = kind;
+            this.key = key;
+            this.argument = argument;
+            this.result = result;
+            this.thrown = thrown;
+            this.invoked = invoked;
+            this.responded = responded;
+        }
+
+        @Override
+        public String toString() {
+            String call;
+            switch (kind) {
+                case INSERT: call = "insert(" + key + ", " + argument + ")"; break;
+                case REMOVE: call = "remove(" + key + ")"; break;
+                case GET: call = "get(" + key + ") -> " + result; break;
+                default: call = "contains(" + key + ") -> " + result;
+            }
+            if (thrown != null) call += " threw " + thrown;
+            return "T" + thread + " " + call + " [" + invoked + ", " + responded + "]";
+        }
+    }
+
+    // -- Running ------------------------------------------------------------------------------------
+
+    /**
+     * Runs {@code opsPerThread} random operations on each worker thread and
+     * checks the result.
+     *
+     * @param audit      run over and over while the workers run, or null
+     * @param finalCheck run once after they finish, or null
+     */
+    public Result run(int opsPerThread, long seed, Runnable audit, Runnable finalCheck) throws InterruptedException {
+        if (opsPerThread < 1) throw new IllegalArgumentException("opsPerThread must be positive: " + opsPerThread);
+        List<List<Operation>> logs = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (int t = 0; t < threads; t++) {
+            List<Operation> log = new ArrayList<>(opsPerThread);
+            logs.add(log);
+            int id = t;
+            SplittableRandom random = seeds.split();
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        // unique across the run: thread, then sequence number
+                        log.add(step(id, random, id * opsPerThread + i + 1));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "stress-" + t));
+        }
+
+        AtomicReference<Throwable> invariantFailure = new AtomicReference<>();
+        Thread auditor = null;
+        if (audit != null) {
+            auditor = new Thread(() -> {
+                while (done.getCount() > 0 && invariantFailure.get() == null) {
+                    try {
+                        audit.run();
+                    } catch (RuntimeException | Error e) {
+                        invariantFailure.compareAndSet(null, e);
+                    }
+                    Thread.yield();
+                }
+            }, "stress-audit");
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        if (auditor != null) auditor.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (auditor != null) auditor.join();
+
+        // a final read of every key, in the history like any other
+        List<Operation> history = new ArrayList<>();
+        for (List<Operation> log : logs) {
+            history.addAll(log);
+        }
+        for (int key = 0; key < keys; key++) {
+            history.add(call(threads, Kind.GET, key, null));
+        }
+        Runnable[] checks = finalCheck == null ? new Runnable[]{audit} : new Runnable[]{audit, finalCheck};
+        for (Runnable check : checks) {
+            if (check == null || invariantFailure.get() != null) continue;
+            try {
+                check.run();
+            } catch (RuntimeException | Error e) {
+                invariantFailure.set(e);
+            }
+        }
+        return new Result(history, invariantFailure.get());
+    }
+
+    private Operation step(int thread, SplittableRandom random, int value) {
+        int key = random.nextInt(keys);
+        int dice = random.nextInt(100);
+        if (dice < INSERT_PERCENT) return call(thread, Kind.INSERT, key, value);
+        if (dice < INSERT_PERCENT + REMOVE_PERCENT) return call(thread, Kind.REMOVE, key, null);
+        if (dice < INSERT_PERCENT + REMOVE_PERCENT + GET_PERCENT) return call(thread, Kind.GET, key, null);
+        return call(thread, Kind.CONTAINS, key, null);
+    }
+
+    private Operation call(int thread, Kind kind, int key, Integer value) {
+        Object result = null;
+        Throwable thrown = null;
+        long invoked = System.nanoTime();
+        try {
+            switch (kind) {
+                case INSERT: tree.insert(key, value); break;
+                case REMOVE: tree.remove(key); break;
+                case GET: result = tree.get(key); break;
+                default: result = tree.contains(key);
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            thrown = e;
+        }
+        return new Operation(thread, kind, key, value, result, thrown, invoked, System.nanoTime());
+    }
+
+    // -- Checking -----------------------------------------------------------------------------------
+
+    /** A history and what was wrong with it. */
+    public static final class Result {
+        public final List<Operation> history;
+        /** One line per key whose operations have no linearization. */
+        public final List<String> violations;
+        /** Operations that threw. */
+        public final List<Operation> exceptions = new ArrayList<>();
+        /** What the audit or final check threw, or null. */
+        public final Throwable invariantFailure;
+
+        Result(List<Operation> history, Throwable invariantFailure) {
+            this.history = history;
+            this.invariantFailure = invariantFailure;
+            this.violations = check(history);
+            for (Operation op : history) {
+                if (op.thrown != null) exceptions.add(op);
+            }
+        }
+
+        public boolean ok() {
+            return violations.isEmpty() && exceptions.isEmpty() && invariantFailure == null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(history.size()).append(" operations: ").append(ok() ? "linearizable" : "FAILED");
+            for (String violation : violations) {
+                sb.append("\n  not linearizable: ").append(violation);
+            }
+            for (int i = 0; i < Math.min(exceptions.size(), 5); i++) {
+                sb.append("\n  threw: ").append(exceptions.get(i));
+            }
+            if (exceptions.size() > 5) sb.append("\n  ... ").append(exceptions.size() - 5).append(" more exceptions");
+            if (invariantFailure != null) sb.append("\n  invariant: ").append(invariantFailure);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Checks a history key by key; returns one line for each key whose
+     * operations have no linearization, naming the operation the search
+     * could not get past.
+     */
+    public static List<String> check(List<Operation> history) {
+        Map<Integer, List<Operation>> byKey = new TreeMap<>();
+        for (Operation op : history) {
+            byKey.computeIfAbsent(op.key, k -> new ArrayList<>()).add(op);
+        }
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<Integer, List<Operation>> entry : byKey.entrySet()) {
+            Operation stuck = linearize(entry.getValue());
+            if (stuck != null) {
+                violations.add("key " + entry.getKey() + " (" + entry.getValue().size() + " operations), no order explains " + stuck);
+            }
+        }
+        return violations;
+    }
+
+    // The sequential register: the value after op, or FAIL if op cannot
+    // return what it did from this value
+    private static final Object FAIL = new Object();
+
+    private static Object apply(Integer value, Operation op) {
+        if (op.thrown != null) return FAIL;
+        switch (op.kind) {
+            case INSERT: return op.argument;
+            case REMOVE: return null;
+            case GET: return Objects.equals(op.result, value) ? value : FAIL;
+            default: return Objects.equals(op.result, value != null) ? value : FAIL;
+        }
+    }
+
+    // A call or return in the time-ordered list the search walks; linearizing
+    // an operation unlinks both of its entries
+    private static final class Entry {
+        final Operation op;
+        final int id;
+        final boolean call;
+        Entry match;    // the call's return
+        Entry prev, next;
+
+        Entry(Operation op, int id, boolean call) {
+            this.op = op;
+            this.id = id;
+            this.call = call;
+        }
+
+        void lift() {
+            prev.next = next;
+            next.prev = prev;
+            match.prev.next = match.next;
+            if (match.next != null) match.next.prev = match.prev;
+        }
+
+        void unlift() {
+            match.prev.next = match;
+            if (match.next != null) match.next.prev = match;
+            prev.next = this;
+            next.prev = this;
+        }
+    }
+
+    private static final class Explored {
+        final BitSet linearized;
+        final Integer value;
+
+        Explored(BitSet linearized, Integer value) {
+            this.linearized = linearized;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Explored)) return false;
+            Explored other = (Explored) o;
+            return linearized.equals(other.linearized) && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return linearized.hashCode() * 31 + Objects.hashCode(value);
+        }
+    }
+
+    /**
+     * Searches for a linearization of one key's operations, the key starting
+     * absent. Returns null if there is one, else the operation whose response
+     * the deepest attempt could not reach.
+     */
+    static Operation linearize(List<Operation> ops) {
+        // calls before returns at the same instant, which only widens the overlap
+        List<Entry> entries = new ArrayList<>(2 * ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            Entry call = new Entry(ops.get(i), i, true);
+            Entry ret = new Entry(ops.get(i), i, false);
+            call.match = ret;
+            entries.add(call);
+            entries.add(ret);
+        }
+        entries.sort(Comparator.<Entry>comparingLong(e -> e.call ? e.op.invoked : e.op.responded)
+                .thenComparing(e -> !e.call));
+        Entry head = new Entry(null, -1, true);
+        Entry last = head;
+        for (Entry e : entries) {
+            last.next = e;
+            e.prev = last;
+            last = e;
+        }
+
+        BitSet linearized = new BitSet(ops.size());
+        Set<Explored> explored = new HashSet<>();
+        List<Entry> stack = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        Integer value = null;
+        Operation deepest = null;
+        int deepestDepth = -1;
+        Entry entry = head.next;
+        while (head.next != null) {
+            if (entry.call) {
+                Object after = apply(value, entry.op);
+                if (after != FAIL) {
+                    BitSet next = (BitSet) linearized.clone();
+                    next.set(entry.id);
+                    if (explored.add(new Explored(next, (Integer) after))) {
+                        stack.add(entry);
+                        values.add(value);
+                        value = (Integer) after;
+                        linearized = next;
+                        entry.lift();
+                        entry = head.next;
+                        continue;
+                    }
+                }
+                entry = entry.next;
+            } else {
+                // a response with its operation not yet placed: back out the last choice
+                if (stack.size() > deepestDepth) {
+                    deepestDepth = stack.size();
+                    deepest = entry.op;
+                }
+                if (stack.isEmpty()) return deepest;
+                Entry undo = stack.remove(stack.size() - 1);
+                value = values.remove(values.size() - 1);
+                linearized = (BitSet) linearized.clone();
+                linearized.clear(undo.id);
+                undo.unlift();
+                entry = undo.next;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        boolean failed = false;
+
+        LockFreeBST<Integer, Integer> lockFree = new LockFreeBST<>();
+        Result result = new ConcurrentStress(lockFree, threads, keys).run(ops, 1, null, lockFree::checkShape);
+        System.out.println("LockFreeBST: " + result);
+        failed |= !result.ok();
+
+        ArrayAVLTree<Integer, Integer> avl = new ArrayAVLTree<>();
+        LockedTree<Integer, Integer> locked = LockedTree.wrap(avl);
+        result = new ConcurrentStress(locked, threads, keys).run(ops, 1, () -> locked.withWriteLock(avl::checkBalance), null);
+        System.out.println("LockedTree(ArrayAVLTree): " + result);
+        failed |= !result.ok();
+
+        SkipList<Integer, Integer> skipList = new SkipList<>();
+        LockedTree<Integer, Integer> lockedSkipList = LockedTree.wrap(skipList);
+        result = new ConcurrentStress(lockedSkipList, threads, keys).run(ops, 1, () -> lockedSkipList.withWriteLock(skipList::checkShape), null);
+        System.out.println("LockedTree(SkipList): " + result);
+        failed |= !result.ok();
+
+        BTree<Integer, Integer> bTree = new BTree<>(4);
+        LockedTree<Integer, Integer> lockedBTree = LockedTree.wrap(bTree);
+        result = new ConcurrentStress(lockedBTree, threads, keys).run(ops, 1, () -> lockedBTree.withWriteLock(() -> {
+            if (!bTree.check()) throw new IllegalStateException("B-tree invariants do not hold");
+        }), null);
+        System.out.println("LockedTree(BTree): " + result);
+        failed |= !result.ok();
+
+        SplayTree<Integer, Integer> splay = new SplayTree<>();
+        LockedTree<Integer, Integer> lockedSplay = LockedTree.wrap(splay);
+        result = new ConcurrentStress(lockedSplay, threads, keys).run(ops, 1, () -> lockedSplay.withWriteLock(splay::checkShape), null);
+        System.out.println("LockedTree(SplayTree): " + result);
+        failed |= !result.ok();
+
+        System.exit(failed ? 1 : 0);
+    }
+}
+
+class ConcurrentStressTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    static ConcurrentStress.Operation op(int thread, ConcurrentStress.Kind kind, int key, Integer argument, Object result,
+                                         long invoked, long responded) {
+        return new ConcurrentStress.Operation(thread, kind, key, argument, result, null, invoked, responded);
+    }
+
+    // Answers reads from what it last read, so a read can miss a later write
+    private static final class StaleReadTree implements TInterface<Integer, Integer> {
+        private final TInterface<Integer, Integer> tree = LockedTree.wrap(new BSTPrinceton<Integer, Integer>());
+        private final Map<Integer, Integer> cache = new ConcurrentHashMap<>();
+
+        public Integer get(Integer key) {
+            Integer cached = cache.get(key);
+            if (cached != null) return cached;
+            Integer value = tree.get(key);
+            if (value != null) cache.put(key, value);
+            return value;
+        }
+
+        public void insert(Integer key, Integer value) {
+            tree.insert(key, value);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+    }
+
+    public static void doTests(int n) throws InterruptedException {
+        ConcurrentStress.Kind insert = ConcurrentStress.Kind.INSERT;
+        ConcurrentStress.Kind remove = ConcurrentStress.Kind.REMOVE;
+        ConcurrentStress.Kind get = ConcurrentStress.Kind.GET;
+        ConcurrentStress.Kind contains = ConcurrentStress.Kind.CONTAINS;
+
+        // a read overlapping a write may see either side of it
+        myAssert(ConcurrentStress.linearize(List.of(
+                op(0, insert, 1, 10, null, 0, 10),
+                op(1, get, 1, null, null, 2, 4),
+                op(2, get, 1, null, 10, 3, 5))) == null);
+        // but once one read has seen the write, a later read cannot miss it
+        myAssert(ConcurrentStress.linearize(List.of(
+                op(0, insert, 1, 10, null, 0, 10),
+                op(1, get, 1, null, 10, 2, 4),
+                op(2, get, 1, null, null, 5, 6))) != null);
+        // reading a value nobody wrote
+        myAssert(ConcurrentStress.linearize(List.of(op(0, get, 1, null, 7, 0, 1))) != null);
+        // a removed key stays gone, and contains agrees with get
+        myAssert(ConcurrentStress.linearize(List.of(
+                op(0, insert, 1, 10, null, 0, 1),
+                op(0, remove, 1, null, null, 2, 3),
+                op(1, contains, 1, null, true, 4, 5))) != null);
+        myAssert(ConcurrentStress.linearize(List.of(
+                op(0, insert, 1, 10, null, 0, 1),
+                op(1, remove, 1, null, null, 2, 6),
+                op(0, insert, 1, 11, null, 3, 4),
+                op(2, get, 1, null, 11, 7, 8))) == null);
+        // two overlapping writes may land in either order, but then stay put
+        myAssert(ConcurrentStress.linearize(List.of(
+                op(0, insert, 1, 10, null, 0, 5),
+                op(1, insert, 1, 11, null, 1, 6),
+                op(2, get, 1, null, 10, 7, 8),
+                op(2, get, 1, null, 11, 9, 10))) != null);
+
+        // keys are independent: a clean key does not hide a broken one
+        List<ConcurrentStress.Operation> history = new ArrayList<>();
+        history.add(op(0, insert, 1, 10, null, 0, 1));
+        history.add(op(0, get, 2, null, 10, 2, 3));
+        List<String> violations = ConcurrentStress.check(history);
+        myAssert(violations.size() == 1 && violations.get(0).startsWith("key 2"));
+
+        // twelve overlapping writes and a read of the first one: 12! orders to
+        // try without the memo, a few thousand states with it
+        List<ConcurrentStress.Operation> crowded = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            crowded.add(op(i, insert, 1, i + 1, null, i, 100 + i));
+        }
+        crowded.add(op(0, get, 1, null, 1, 200, 201));
+        myAssert(ConcurrentStress.linearize(crowded) == null);
+        crowded.set(12, op(0, get, 1, null, 13, 200, 201));
+        myAssert(ConcurrentStress.linearize(crowded) != null);
+
+        // the real thing, with invariants checked during and after
+        LockFreeBST<Integer, Integer> lockFree = new LockFreeBST<>();
+        ConcurrentStress.Result result = new ConcurrentStress(lockFree, 4, 16).run(n, 1, null, lockFree::checkShape);
+        myAssert(result.ok());
+        myAssert(result.history.size() == 4 * n + 16);
+
+        ArrayAVLTree<Integer, Integer> avl = new ArrayAVLTree<>();
+        LockedTree<Integer, Integer> locked = LockedTree.wrap(avl);
+        result = new ConcurrentStress(locked, 4, 16).run(n, 2, () -> locked.withWriteLock(avl::checkBalance), null);
+        myAssert(result.ok());
+
+        // SkipList lookups leave its finger alone, so shared reads are enough
+        SkipList<Integer, Integer> skipList = new SkipList<>();
+        LockedTree<Integer, Integer> lockedSkipList = LockedTree.wrap(skipList);
+        myAssert(lockedSkipList.readMode() == LockedTree.ReadMode.SHARED);
+        result = new ConcurrentStress(lockedSkipList, 4, 16).run(n, 6, () -> lockedSkipList.withWriteLock(skipList::checkShape), null);
+        myAssert(result.ok());
+
+        // BTree reads run optimistically against writers that split and merge nodes
+        BTree<Integer, Integer> bTree = new BTree<>(4);
+        LockedTree<Integer, Integer> lockedBTree = LockedTree.wrap(bTree);
+        myAssert(lockedBTree.readMode() == LockedTree.ReadMode.OPTIMISTIC);
+        result = new ConcurrentStress(lockedBTree, 4, 16).run(n, 7, () -> lockedBTree.withWriteLock(() -> {
+            if (!bTree.check()) throw new IllegalStateException("B-tree invariants do not hold");
+        }), null);
+        myAssert(result.ok());
+
+        // a stale cache is caught even without a race, and so is a failing invariant
+        result = new ConcurrentStress(new StaleReadTree(), 2, 4).run(n, 3, null, null);
+        myAssert(!result.ok() && !result.violations.isEmpty() && result.exceptions.isEmpty());
+        result = new ConcurrentStress(LockedTree.wrap(new BSTPrinceton<Integer, Integer>()), 2, 4).run(n, 4,
+                () -> { throw new IllegalStateException("broken"); }, null);
+        myAssert(!result.ok() && result.violations.isEmpty() && result.invariantFailure != null);
+        // an exception is both reported and unexplainable
+        BSTPrinceton<Integer, Integer> strict = new BSTPrinceton<Integer, Integer>() {
+            @Override
+            public void remove(Integer key) {
+                if (!contains(key)) throw new NoSuchElementException("no key " + key);
+                super.remove(key);
+            }
+        };
+        result = new ConcurrentStress(LockedTree.wrap(strict), 2, 4).run(n, 5, null, null);
+        myAssert(!result.exceptions.isEmpty() && !result.violations.isEmpty());
+    }
+
+    @Override
+    public void test() {
+        try {
+            doTests(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        doTests(2000);
+    }
+}
@@ -0,0 +1,606 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A differential fuzzer: runs long seeded sequences of random operations
+ * against each {@link TInterface} implementation in lockstep with a
+ * {@link TreeMap}, and reports the shortest sequence it can find that makes
+ * the two disagree.
+ * <p>
+ * A run is split into cases of {@link #CASE_LENGTH} operations, each on a
+ * fresh structure, with the key range drawn per case so that some cases
+ * churn a handful of keys (repeated inserts, removes of absent keys) and
+ * others grow a deep structure. Keys are mostly uniform, with ascending
+ * runs mixed in for the sequential fast paths. Every result is compared as
+ * it comes back, and every {@link #CHECK_EVERY} operations the structure's
+ * own invariant check runs, its size is compared if it reports one, and
+ * every key in the range is looked up.
+ * <p>
+ * A failing case is cut off at the failing operation and then shrunk by
+ * delta debugging: chunks of operations are dropped, halving the chunk size
+ * down to single operations, for as long as the remaining sequence still
+ * fails. What is reported is a short, replayable list of calls.
+ * <p>
+ * Structures whose values are their keys ({@link AVLTree},
+ * {@link RedBlackTree}) are given each key as its value. Long-keyed maps go
+ * through an adapter, and {@link SlabValueTree} through one that stores each
+ * value as four bytes. {@link DurableTree} is left out: it forces its log on
+ * every write, and the tree it wraps is fuzzed directly.
+ * <pre>
+ *     java DifferentialFuzzer [ops per structure] [seed]
+ * </pre>
+ * exits 1 if any structure failed.
+ */
+public final class DifferentialFuzzer {
+    public static final int CASE_LENGTH = 10_000;
+    public static final int CHECK_EVERY = 1_000;
+
+    private static final int[] KEY_RANGES = {8, 64, 512, 4096};
+    private static final int MAX_BATCH = 16;
+
+    private DifferentialFuzzer() {
+    }
+
+    public enum Kind { INSERT, REMOVE, GET, CONTAINS, GET_ALL, INSERT_ALL }
+
+    /** One call, with its arguments. */
+    public static final class Op {
+        public final Kind kind;
+        public final int key;
+        public final int value;
+        /** Batch keys, ascending, and their values; null unless a batch. */
+        final Integer[] keys;
+        final Integer[] values;
+
+        Op(Kind kind, int key, int value, Integer[] keys, Integer[] values) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case INSERT: return "insert(" + key + ", " + value + ")";
+                case REMOVE: return "remove(" + key + ")";
+                case GET: return "get(" + key + ")";
+                case CONTAINS: return "contains(" + key + ")";
+                case GET_ALL: return "getAll(" + Arrays.toString(keys) + ")";
+                default: return "insertAll(" + Arrays.toString(keys) + ", " + Arrays.toString(values) + ")";
+            }
+        }
+    }
+
+    /** A structure to fuzz: how to make one and how it checks itself. */
+    public static final class Target<T extends TInterface<Integer, Integer>> {
+        public final String name;
+        private final Supplier<T> factory;
+        private final boolean valuesAreKeys;
+        private final Consumer<T> invariant;
+
+        /**
+         * @param valuesAreKeys the structure stores each key as its own value
+         * @param invariant     throws if the structure is corrupt, or null
+         */
+        public Target(String name, Supplier<T> factory, boolean valuesAreKeys, Consumer<T> invariant) {
+            if (name == null || factory == null) throw new IllegalArgumentException("name or factory is null");
+            this.name = name;
+            this.factory = factory;
+            this.valuesAreKeys = valuesAreKeys;
+            this.invariant = invariant;
+        }
+    }
+
+    /** A sequence of operations and the key range it was drawn from. */
+    public static final class Case {
+        public final int keyRange;
+        public final List<Op> ops;
+
+        Case(int keyRange, List<Op> ops) {
+            this.keyRange = keyRange;
+            this.ops = ops;
+        }
+    }
+
+    /** What went wrong, after which operation of which case. */
+    public static final class Failure {
+        public final String target;
+        public final long seed;
+        public final Case failing;
+        /** Index of the operation after which the failure showed, -1 if before any. */
+        public final int index;
+        public final String message;
+
+        Failure(String target, long seed, Case failing, int index, String message) {
+            this.target = target;
+            this.seed = seed;
+            this.failing = failing;
+            this.index = index;
+            this.message = message;
+        }
+
+        Failure withSeed(long seed) {
+            return new Failure(target, seed, failing, index, message);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(target).append(" (case seed ").append(seed).append(", keys 0..")
+                    .append(failing.keyRange - 1).append("): ").append(message);
+            for (int i = 0; i < failing.ops.size(); i++) {
+                sb.append("\n    ").append(i == index ? "-> " : "   ").append(failing.ops.get(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    // -- Targets ------------------------------------------------------------------------------------
+
+    /**
+     * Every in-memory implementation, and the file-backed ones with their
+     * files under {@code scratch}.
+     */
+    public static List<Target<?>> targets(Path scratch) {
+        List<Target<?>> targets = new ArrayList<>();
+        targets.add(new Target<BSTPrinceton<Integer, Integer>>("BSTPrinceton", BSTPrinceton::new, false, BSTPrinceton::checkShape));
+        targets.add(new Target<AVLTree<Integer>>("AVLTree", AVLTree::new, true, AVLTree::checkBalance));
+        targets.add(new Target<RedBlackTree<Integer>>("RedBlackTree", RedBlackTree::new, true, RedBlackTree::check));
+        targets.add(new Target<SplayTree<Integer, Integer>>("SplayTree", SplayTree::new, false, SplayTree::checkShape));
+        targets.add(new Target<SkipList<Integer, Integer>>("SkipList", SkipList::new, false, SkipList::checkShape));
+        targets.add(new Target<BTree<Integer, Integer>>("BTree", () -> new BTree<>(4), false,
+                t -> holds(t.check(), "B-tree invariants")));
+        targets.add(new Target<ArrayAVLTree<Integer, Integer>>("ArrayAVLTree", () -> new ArrayAVLTree<>(4), false, ArrayAVLTree::checkBalance));
+        targets.add(new Target<IntAVLMap<Integer>>("IntAVLMap", IntAVLMap::new, false, IntAVLMap::checkBalance));
+        targets.add(new Target<LockFreeBST<Integer, Integer>>("LockFreeBST", LockFreeBST::new, false, LockFreeBST::checkShape));
+        targets.add(new Target<LockedTree<Integer, Integer>>("LockedTree(SkipList)",
+                () -> LockedTree.wrap(new SkipList<Integer, Integer>()), false, null));
+        targets.add(new Target<LongKeys<LongRedBlackMap<Integer>>>("LongRedBlackMap",
+                () -> new LongKeys<>(new LongRedBlackMap<>()), false, t -> holds(t.tree.check(), "red-black invariants")));
+        targets.add(new Target<LongKeys<OffHeapRedBlackTree.OfLong<Integer>>>("OffHeapRedBlackTree",
+                () -> new LongKeys<>(OffHeapRedBlackTree.ofLongs(Codec.INTEGER)), false, t -> t.tree.check()));
+        targets.add(new Target<SlabValues>("SlabValueTree", SlabValues::new, false, t -> t.slab.check()));
+        targets.add(new Target<TInterface<Integer, Integer>>("DiskBPlusTree",
+                () -> new DiskBPlusTree<>(scratchFile(scratch), Codec.INTEGER, Codec.INTEGER, 512, 16), false, null));
+        targets.add(new Target<TInterface<Integer, Integer>>("LsmTree",
+                () -> new LsmTree<>(scratchDirectory(scratch), Codec.INTEGER, Codec.INTEGER, 256), false, null));
+        return targets;
+    }
+
+    private static Path scratchFile(Path scratch) {
+        try {
+            Path file = Files.createTempFile(scratch, "fuzz", ".db");
+            Files.delete(file);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path scratchDirectory(Path scratch) {
+        try {
+            return Files.createTempDirectory(scratch, "fuzz");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Deletes everything under dir, and dir unless keepDir
+    static void deleteTree(Path dir, boolean keepDir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                if (!keepDir || !path.equals(dir)) Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Adapts the structures whose check reports a boolean
+    private static void holds(boolean valid, String invariants) {
+        if (!valid) throw new IllegalStateException(invariants + " do not hold");
+    }
+
+    // Integer keys onto a long-keyed map
+    static final class LongKeys<T extends TInterface<Long, Integer>> implements TInterface<Integer, Integer> {
+        final T tree;
+
+        LongKeys(T tree) {
+            this.tree = tree;
+        }
+
+        public void insert(Integer key, Integer value) {
+            tree.insert(key.longValue(), value);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key.longValue());
+        }
+
+        public Integer get(Integer key) {
+            return tree.get(key.longValue());
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key.longValue());
+        }
+
+        public int getAll(Integer[] keys, Integer[] results) {
+            return tree.getAll(longs(keys), results);
+        }
+
+        public void insertAll(Integer[] keys, Integer[] values) {
+            tree.insertAll(longs(keys), values);
+        }
+
+        private static Long[] longs(Integer[] keys) {
+            Long[] longs = new Long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                longs[i] = keys[i] == null ? null : keys[i].longValue();
+            }
+            return longs;
+        }
+    }
+
+    // Integer values as four bytes in a SlabValueTree over a RedBlackTree
+    static final class SlabValues implements TInterface<Integer, Integer> {
+        final ValueSlab slab = new ValueSlab();
+        final SlabValueTree<Integer> tree = SlabValueTree.overSet(new RedBlackTree<>(), slab);
+
+        public void insert(Integer key, Integer value) {
+            tree.insert(key, value == null ? null : ByteBuffer.allocate(4).putInt(0, value));
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public Integer get(Integer key) {
+            ByteBuffer value = tree.get(key);
+            return value == null ? null : value.getInt(value.position());
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+    }
+
+    // -- Generating ---------------------------------------------------------------------------------
+
+    /** A case drawn from {@code seed}: the same seed gives the same case. */
+    public static Case generate(long seed, int length, boolean valuesAreKeys) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int keyRange = KEY_RANGES[random.nextInt(KEY_RANGES.length)];
+        List<Op> ops = new ArrayList<>(length);
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            // mostly uniform keys, with ascending runs mixed in
+            int key = random.nextInt(8) == 0 ? (last + 1) % keyRange : random.nextInt(keyRange);
+            last = key;
+            int value = valuesAreKeys ? key : random.nextInt(1000);
+            int dice = random.nextInt(100);
+            if (dice < 30) {
+                ops.add(new Op(Kind.INSERT, key, value, null, null));
+            } else if (dice < 50) {
+                ops.add(new Op(Kind.REMOVE, key, 0, null, null));
+            } else if (dice < 75) {
+                ops.add(new Op(Kind.GET, key, 0, null, null));
+            } else if (dice < 85) {
+                ops.add(new Op(Kind.CONTAINS, key, 0, null, null));
+            } else {
+                TreeSet<Integer> batch = new TreeSet<>();
+                int size = 1 + random.nextInt(MAX_BATCH);
+                for (int b = 0; b < size; b++) {
+                    batch.add(random.nextInt(keyRange));
+                }
+                Integer[] keys = batch.toArray(new Integer[0]);
+                if (dice < 93) {
+                    ops.add(new Op(Kind.GET_ALL, 0, 0, keys, null));
+                } else {
+                    Integer[] values = new Integer[keys.length];
+                    for (int b = 0; b < keys.length; b++) {
+                        values[b] = valuesAreKeys ? keys[b] : random.nextInt(1000);
+                    }
+                    ops.add(new Op(Kind.INSERT_ALL, 0, 0, keys, values));
+                }
+            }
+        }
+        return new Case(keyRange, ops);
+    }
+
+    // -- Replaying ----------------------------------------------------------------------------------
+
+    /**
+     * Runs a case on a fresh structure beside a {@code TreeMap}, checking the
+     * structure every {@code checkEvery} operations and after the last one.
+     *
+     * @return the first disagreement, or null if there was none
+     */
+    public static <T extends TInterface<Integer, Integer>> Failure replay(Target<T> target, Case c, int checkEvery) {
+        T tree;
+        try {
+            tree = target.factory.get();
+        } catch (RuntimeException e) {
+            return new Failure(target.name, 0, c, -1, "could not be created: " + e);
+        }
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        try {
+            for (int i = 0; i < c.ops.size(); i++) {
+                String problem;
+                try {
+                    problem = apply(tree, model, c.ops.get(i));
+                    if (problem == null && ((i + 1) % checkEvery == 0 || i == c.ops.size() - 1)) {
+                        problem = check(target, tree, model, c.keyRange);
+                    }
+                } catch (RuntimeException | StackOverflowError e) {
+                    problem = "threw " + e;
+                }
+                if (problem != null) return new Failure(target.name, 0, c, i, problem);
+            }
+            return null;
+        } finally {
+            if (tree instanceof Closeable) {
+                try {
+                    ((Closeable) tree).close();
+                } catch (IOException | RuntimeException e) {
+                    // the failure, if any, has been recorded; a close error on top adds nothing
+                }
+            }
+        }
+    }
+
+    // Applies op to both; returns how they disagree, or null
+    private static String apply(TInterface<Integer, Integer> tree, TreeMap<Integer, Integer> model, Op op) {
+        switch (op.kind) {
+            case INSERT:
+                tree.insert(op.key, op.value);
+                model.put(op.key, op.value);
+                return null;
+            case REMOVE:
+                tree.remove(op.key);
+                model.remove(op.key);
+                return null;
+            case GET: {
+                Integer got = tree.get(op.key);
+                Integer expected = model.get(op.key);
+                return Objects.equals(got, expected) ? null : "returned " + got + ", expected " + expected;
+            }
+            case CONTAINS: {
+                boolean got = tree.contains(op.key);
+                boolean expected = model.containsKey(op.key);
+                return got == expected ? null : "returned " + got + ", expected " + expected;
+            }
+            case GET_ALL: {
+                Integer[] results = new Integer[op.keys.length];
+                int found = tree.getAll(op.keys, results);
+                Integer[] expected = new Integer[op.keys.length];
+                int expectedFound = 0;
+                for (int i = 0; i < op.keys.length; i++) {
+                    expected[i] = model.get(op.keys[i]);
+                    if (expected[i] != null) expectedFound++;
+                }
+                if (found == expectedFound && Arrays.equals(results, expected)) return null;
+                return "returned " + found + " " + Arrays.toString(results) + ", expected " + expectedFound + " " + Arrays.toString(expected);
+            }
+            default:
+                tree.insertAll(op.keys.clone(), op.values.clone());
+                for (int i = 0; i < op.keys.length; i++) {
+                    model.put(op.keys[i], op.values[i]);
+                }
+                return null;
+        }
+    }
+
+    // Runs the invariant check, compares the size and looks up every key
+    private static <T extends TInterface<Integer, Integer>> String check(Target<T> target, T tree,
+                                                                        TreeMap<Integer, Integer> model, int keyRange) {
+        if (target.invariant != null) {
+            try {
+                target.invariant.accept(tree);
+            } catch (IllegalStateException | AssertionError e) {
+                return "invariant broken: " + e.getMessage();
+            }
+        }
+        if (tree instanceof TreeShape && ((TreeShape) tree).size() != model.size()) {
+            return "size() is " + ((TreeShape) tree).size() + ", expected " + model.size();
+        }
+        for (int key = 0; key < keyRange; key++) {
+            Integer got = tree.get(key);
+            if (!Objects.equals(got, model.get(key))) {
+                return "afterwards get(" + key + ") returns " + got + ", expected " + model.get(key);
+            }
+        }
+        return null;
+    }
+
+    // -- Shrinking ----------------------------------------------------------------------------------
+
+    /**
+     * The shortest failing case delta debugging finds from {@code failure}:
+     * the case is cut after the failing operation, then chunks of it are
+     * dropped, from half its length down to single operations, as long as
+     * what remains still fails.
+     */
+    public static <T extends TInterface<Integer, Integer>> Failure shrink(Target<T> target, Failure failure) {
+        List<Op> ops = new ArrayList<>(failure.failing.ops.subList(0, failure.index + 1));
+        int keyRange = failure.failing.keyRange;
+        Failure best = replay(target, new Case(keyRange, ops), 1);
+        if (best == null) return failure;   // only fails with the later checkpoints' timing; keep it whole
+        ops = new ArrayList<>(best.failing.ops.subList(0, best.index + 1));
+        for (int chunk = Math.max(1, ops.size() / 2); chunk >= 1; chunk /= 2) {
+            for (int start = 0; start < ops.size(); ) {
+                List<Op> fewer = new ArrayList<>(ops.subList(0, start));
+                fewer.addAll(ops.subList(Math.min(ops.size(), start + chunk), ops.size()));
+                Failure smaller = fewer.isEmpty() ? null : replay(target, new Case(keyRange, fewer), 1);
+                if (smaller != null) {
+                    best = smaller;
+                    ops = new ArrayList<>(fewer.subList(0, smaller.index + 1));
+                } else {
+                    start += chunk;
+                }
+            }
+        }
+        return new Failure(best.target, failure.seed, new Case(keyRange, ops), best.index, best.message);
+    }
+
+    // -- Running ------------------------------------------------------------------------------------
+
+    /**
+     * Runs at least {@code ops} operations against {@code target}, in cases
+     * seeded from {@code seed}.
+     *
+     * @return the first failure, shrunk, or null if there was none
+     */
+    public static <T extends TInterface<Integer, Integer>> Failure fuzz(Target<T> target, long ops, long seed) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (long done = 0; done < ops; done += CASE_LENGTH) {
+            long caseSeed = seeds.nextLong();
+            Failure failure = replay(target, generate(caseSeed, CASE_LENGTH, target.valuesAreKeys), CHECK_EVERY);
+            if (failure != null) return shrink(target, failure.withSeed(caseSeed)).withSeed(caseSeed);
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long ops = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        System.out.println("seed " + seed + ", " + ops + " operations per structure");
+        Path scratch = Files.createTempDirectory("fuzz");
+        boolean failed = false;
+        try {
+            for (Target<?> target : targets(scratch)) {
+                long start = System.nanoTime();
+                Failure failure = fuzz(target, ops, seed);
+                deleteTree(scratch, true);
+                System.out.printf("%-20s %s in %.1f s%n", target.name, failure == null ? "ok" : "FAILED",
+                        (System.nanoTime() - start) / 1e9);
+                if (failure != null) {
+                    System.out.println("  " + failure);
+                    failed = true;
+                }
+            }
+        } finally {
+            deleteTree(scratch, false);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
+
+class DifferentialFuzzerTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // AVLTree.get as it once was: every key looks present
+    private static final class EchoingAVLTree extends AVLTree<Integer> {
+        @Override
+        public Integer get(Integer key) {
+            return key;
+        }
+    }
+
+    // Silently keeps its largest key when asked to remove it from three or more
+    private static final class StickyMaxTree extends BSTPrinceton<Integer, Integer> {
+        @Override
+        public void remove(Integer key) {
+            if (size() >= 3 && key.equals(max())) return;
+            super.remove(key);
+        }
+    }
+
+    // Every lookup answers right, but inserts leave the root red
+    private static final class RedRootTree extends RedBlackTree<Integer> {
+        @Override
+        public void insert(Integer key, Integer value) {
+            super.insert(key, value);
+            root.color = RED;
+        }
+    }
+
+    public static void doTests(long ops) throws IOException {
+        // a seed always gives the same case
+        myAssert(DifferentialFuzzer.generate(42, 100, false).ops.toString()
+                .equals(DifferentialFuzzer.generate(42, 100, false).ops.toString()));
+        DifferentialFuzzer.Case keyed = DifferentialFuzzer.generate(42, 1000, true);
+        for (DifferentialFuzzer.Op op : keyed.ops) {
+            myAssert(op.kind != DifferentialFuzzer.Kind.INSERT || op.key == op.value);
+        }
+
+        // every implementation agrees with TreeMap
+        Path scratch = Files.createTempDirectory("fuzz");
+        try {
+            for (DifferentialFuzzer.Target<?> target : DifferentialFuzzer.targets(scratch)) {
+                DifferentialFuzzer.Failure failure = DifferentialFuzzer.fuzz(target, ops, 1);
+                if (failure != null) System.out.println(failure);
+                myAssert(failure == null);
+                DifferentialFuzzer.deleteTree(scratch, true);
+            }
+        } finally {
+            DifferentialFuzzer.deleteTree(scratch, false);
+        }
+
+        // a lookup bug shrinks to the one lookup
+        DifferentialFuzzer.Target<EchoingAVLTree> echoing =
+                new DifferentialFuzzer.Target<>("EchoingAVLTree", EchoingAVLTree::new, true, AVLTree::checkBalance);
+        DifferentialFuzzer.Failure failure = DifferentialFuzzer.fuzz(echoing, ops, 1);
+        myAssert(failure != null && failure.failing.ops.size() == 1);
+        myAssert(failure.failing.ops.get(0).kind == DifferentialFuzzer.Kind.GET);
+
+        // a bug needing three keys and a remove shrinks to those five calls or so, and still fails
+        DifferentialFuzzer.Target<StickyMaxTree> sticky =
+                new DifferentialFuzzer.Target<>("StickyMaxTree", StickyMaxTree::new, false, BSTPrinceton::checkShape);
+        failure = DifferentialFuzzer.fuzz(sticky, ops, 2);
+        myAssert(failure != null && failure.failing.ops.size() <= 5);
+        myAssert(failure.index == failure.failing.ops.size() - 1);
+        myAssert(DifferentialFuzzer.replay(sticky, failure.failing, 1) != null);
+        System.out.println(failure);
+
+        // corruption no lookup can see is caught by the invariant check alone
+        DifferentialFuzzer.Target<RedRootTree> redRoot =
+                new DifferentialFuzzer.Target<>("RedRootTree", RedRootTree::new, true, RedBlackTree::check);
+        failure = DifferentialFuzzer.fuzz(redRoot, ops, 1);
+        myAssert(failure != null && failure.message.startsWith("invariant broken"));
+    }
+
+    @Override
+    public void test() {
+        try {
+            doTests(50_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        doTests(50_000);
+    }
+}
@@ -0,0 +1,769 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A B+tree stored in fixed-size pages of a file, for sorted maps larger than
+ * the heap.
+ * <p>
+ * Only a bounded number of nodes are held in memory at a time, in a buffer
+ * pool with clock (second-chance) eviction; the rest are read back from the
+ * file when a search reaches them. Keys and values live in the leaves, which
+ * are linked left to right for range scans ({@link #scan}). Keys and values
+ * are serialized with a {@link Codec} and may vary in size; a node splits when
+ * its encoding outgrows a page.
+ * <p>
+ * Pages are updated copy-on-write. Nodes are named by logical ids, and a page
+ * table maps each id to the physical page holding its latest version. A
+ * changed node is never written over a page that the last commit refers to:
+ * it goes to a free page and the page table is updated, so parent and sibling
+ * links, which hold logical ids, never change. {@link #commit()} writes every
+ * dirty node, then the page table, forces the file and finally flips the
+ * double-buffered meta page; a crash at any point leaves the previous commit
+ * intact, and reopening the file returns to it. Pages freed by a commit are
+ * reused by later ones. {@link #close()} commits.
+ * <p>
+ * Removal does not merge underfull nodes; a page emptied by removals is reused
+ * by the keys that later fall into its range. The page table is kept in memory,
+ * eight bytes per node. Like the other structures this one is not thread-safe,
+ * and because every read may evict, {@link LockedTree#wrap} guards its reads
+ * with the write lock.
+ * <p>
+ * File layout: physical pages 0 and 1 are the meta slots; node pages hold a
+ * type byte, an entry count and the next-leaf id, then the entries; page table
+ * pages hold a next-page link, a count and the physical page of each node.
+ */
+public class DiskBPlusTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>, Closeable {
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final int DEFAULT_POOL_PAGES = 256;
+    // enough for the pinned path of any realistic height plus a split
+    private static final int MIN_POOL_PAGES = 16;
+    private static final int MAGIC = 0x42505452; // "BPTR"
+    private static final int VERSION = 1;
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+    private static final long NONE = -1;
+    // type, entry count, next leaf
+    private static final int NODE_HEADER = 1 + 4 + 8;
+    // next page, count
+    private static final int TABLE_HEADER = 8 + 4;
+    private static final int META_BYTES = 4 + 4 + 4 + 8 * 6 + 4;
+
+    private static final class Node<K, V> {
+        final long id;
+        final boolean leaf;
+        final List<K> keys = new ArrayList<>();
+        // leaves only
+        final List<V> values;
+        // inner nodes only: children.get(i) holds the keys below keys.get(i)
+        final List<Long> children;
+        long next = NONE;
+        // encoded size in bytes
+        int bytes;
+        boolean dirty;
+
+        Node(long id, boolean leaf) {
+            this.id = id;
+            this.leaf = leaf;
+            this.values = leaf ? new ArrayList<>() : null;
+            this.children = leaf ? null : new ArrayList<>();
+        }
+    }
+
+    private final FileChannel channel;
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+    private final int pageSize;
+    private final int maxEntryBytes;
+
+    // Tree state; everything except pendingFree and fresh is saved by commit()
+    private long root;
+    private long size;
+    private long seq;
+    private long nodeCount;
+    private long[] physicalOf = new long[64];
+    private long pageCount;
+    private final List<Integer> tablePages = new ArrayList<>();
+    // pages referenced by nothing, not even the last commit
+    private final BitSet free = new BitSet();
+    // pages the last commit still references but the live tree no longer does
+    private final BitSet pendingFree = new BitSet();
+    // pages written since the last commit, which may be overwritten in place
+    private final BitSet fresh = new BitSet();
+
+    // Buffer pool
+    private final Node<Key, Value>[] frames;
+    private final boolean[] referenced;
+    private final int[] pins;
+    private final Map<Long, Integer> frameOf = new HashMap<>();
+    private int hand;
+    private long pageReads;
+    private long pageWrites;
+
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final ByteBuffer page;
+
+    /**
+     * Opens (or creates) a tree with the default page size and pool size.
+     */
+    public DiskBPlusTree(Path file, Codec<Key> keyCodec, Codec<Value> valueCodec) {
+        this(file, keyCodec, valueCodec, DEFAULT_PAGE_SIZE, DEFAULT_POOL_PAGES);
+    }
+
+    /**
+     * Opens the tree stored in {@code file}, or creates an empty one.
+     *
+     * @param file the tree file
+     * @param keyCodec serializes keys
+     * @param valueCodec serializes values
+     * @param pageSize the page size in bytes; must match an existing file
+     * @param poolPages the number of nodes the buffer pool holds in memory
+     * @throws UncheckedIOException if the file cannot be opened or is corrupt
+     */
+    public DiskBPlusTree(Path file, Codec<Key> keyCodec, Codec<Value> valueCodec, int pageSize, int poolPages) {
+        if (keyCodec == null || valueCodec == null) throw new IllegalArgumentException("codec is null");
+        if (pageSize < 256 || pageSize % 8 != 0) throw new IllegalArgumentException("bad page size " + pageSize);
+        if (poolPages < MIN_POOL_PAGES) throw new IllegalArgumentException("pool needs at least " + MIN_POOL_PAGES + " pages");
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.pageSize = pageSize;
+        // an overfull node then always splits into two that fit
+        this.maxEntryBytes = (pageSize - NODE_HEADER - 8) / 4;
+        this.page = ByteBuffer.allocate(pageSize);
+        @SuppressWarnings("unchecked")
+        Node<Key, Value>[] frames = (Node<Key, Value>[]) Array.newInstance(Node.class, poolPages);
+        this.frames = frames;
+        this.referenced = new boolean[poolPages];
+        this.pins = new int[poolPages];
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (!loadMeta()) {
+                pageCount = 2;
+                root = newNode(true).id;
+                commit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open B+tree " + file, e);
+        }
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        Node<Key, Value> leaf = findLeaf(key);
+        int i = Collections.binarySearch(leaf.keys, key);
+        return i >= 0 ? leaf.values.get(i) : null;
+    }
+
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    private Node<Key, Value> findLeaf(Key key) {
+        Node<Key, Value> node = fetch(root, false);
+        while (!node.leaf) {
+            node = fetch(node.children.get(childIndex(node, key)), false);
+        }
+        return node;
+    }
+
+    // The child whose range holds key: separators equal to key route right
+    private int childIndex(Node<Key, Value> node, Key key) {
+        int i = Collections.binarySearch(node.keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * Calls {@code action} for every entry with {@code lo <= key <= hi}, in key
+     * order, walking the leaf chain.
+     *
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @param action receives each key and value
+     */
+    public void scan(Key lo, Key hi, BiConsumer<? super Key, ? super Value> action) {
+        if (lo == null || hi == null) throw new IllegalArgumentException("calls scan() with a null endpoint");
+        Node<Key, Value> leaf = findLeaf(lo);
+        int i = Collections.binarySearch(leaf.keys, lo);
+        i = i >= 0 ? i : -i - 1;
+        while (true) {
+            for (; i < leaf.keys.size(); i++) {
+                Key key = leaf.keys.get(i);
+                if (key.compareTo(hi) > 0) return;
+                action.accept(key, leaf.values.get(i));
+            }
+            if (leaf.next == NONE) return;
+            leaf = fetch(leaf.next, false);
+            i = 0;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // -- Updates ------------------------------------------------------------------------------------
+
+    // A null value removes the key, as in BSTPrinceton.put
+    public void insert(Key key, Value value) {
+        if (key == null) throw new IllegalArgumentException("calls insert() with a null key");
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        int entryBytes = sizeOf(keyCodec, key) + sizeOf(valueCodec, value);
+        if (entryBytes > maxEntryBytes) {
+            throw new IllegalArgumentException("entry of " + entryBytes + " bytes exceeds " + maxEntryBytes);
+        }
+        List<Long> pinned = new ArrayList<>();
+        try {
+            Node<Key, Value> rootNode = fetch(root, true);
+            pinned.add(root);
+            Node<Key, Value> right = insert(rootNode, key, value, pinned);
+            if (right != null) {
+                // take the separator before newNode() can evict right
+                Key separator = separator(right);
+                Node<Key, Value> newRoot = newNode(false);
+                newRoot.keys.add(separator);
+                newRoot.children.add(rootNode.id);
+                newRoot.children.add(right.id);
+                newRoot.bytes = measure(newRoot);
+                root = newRoot.id;
+            }
+        } finally {
+            unpin(pinned);
+        }
+    }
+
+    // Inserts below node; if node had to split, returns its new right sibling
+    private Node<Key, Value> insert(Node<Key, Value> node, Key key, Value value, List<Long> pinned) {
+        if (node.leaf) {
+            int i = Collections.binarySearch(node.keys, key);
+            if (i >= 0) {
+                node.bytes += sizeOf(valueCodec, value) - sizeOf(valueCodec, node.values.get(i));
+                node.values.set(i, value);
+            } else {
+                node.keys.add(-i - 1, key);
+                node.values.add(-i - 1, value);
+                node.bytes += sizeOf(keyCodec, key) + sizeOf(valueCodec, value);
+                size++;
+            }
+            node.dirty = true;
+            return node.bytes > pageSize ? split(node) : null;
+        }
+        int i = childIndex(node, key);
+        long childId = node.children.get(i);
+        Node<Key, Value> child = fetch(childId, true);
+        pinned.add(childId);
+        Node<Key, Value> right = insert(child, key, value, pinned);
+        if (right == null) return null;
+        Key separator = separator(right);
+        node.keys.add(i, separator);
+        node.children.add(i + 1, right.id);
+        node.bytes += sizeOf(keyCodec, separator) + 8;
+        node.dirty = true;
+        return node.bytes > pageSize ? split(node) : null;
+    }
+
+    // Moves the upper half (by bytes) of an overfull node into a new right sibling
+    private Node<Key, Value> split(Node<Key, Value> node) {
+        Node<Key, Value> right = newNode(node.leaf);
+        int half = node.bytes / 2;
+        // an inner node keeps a key for the right side besides the one moving up
+        int last = node.keys.size() - (node.leaf ? 1 : 2);
+        int m = 0;
+        for (int used = NODE_HEADER; m < last && used < half; m++) {
+            used += sizeOf(keyCodec, node.keys.get(m))
+                    + (node.leaf ? sizeOf(valueCodec, node.values.get(m)) : 8);
+        }
+        m = Math.max(m, 1);
+        if (node.leaf) {
+            move(node.keys, m, right.keys);
+            move(node.values, m, right.values);
+            right.next = node.next;
+            node.next = right.id;
+        } else {
+            // keys[m] moves up to the parent: it is re-read from right.keys later,
+            // so keep it there as the first key and strip it in separator()
+            move(node.keys, m, right.keys);
+            move(node.children, m + 1, right.children);
+        }
+        node.bytes = measure(node);
+        right.bytes = measure(right);
+        return right;
+    }
+
+    // The key the parent uses to route to right; for an inner node it is removed
+    // from right, since it moves up rather than being copied
+    private Key separator(Node<Key, Value> right) {
+        if (right.leaf) return right.keys.get(0);
+        Key separator = right.keys.remove(0);
+        right.bytes -= sizeOf(keyCodec, separator);
+        return separator;
+    }
+
+    private static <T> void move(List<T> from, int start, List<T> to) {
+        List<T> tail = from.subList(start, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls remove() with a null key");
+        List<Long> pinned = new ArrayList<>();
+        try {
+            Node<Key, Value> node = fetch(root, true);
+            pinned.add(root);
+            while (!node.leaf) {
+                long childId = node.children.get(childIndex(node, key));
+                node = fetch(childId, true);
+                pinned.add(childId);
+            }
+            int i = Collections.binarySearch(node.keys, key);
+            if (i < 0) return;
+            node.bytes -= sizeOf(keyCodec, key) + sizeOf(valueCodec, node.values.get(i));
+            node.keys.remove(i);
+            node.values.remove(i);
+            node.dirty = true;
+            size--;
+        } finally {
+            unpin(pinned);
+        }
+    }
+
+    // -- Buffer pool --------------------------------------------------------------------------------
+
+    // Returns the node, reading it into the pool if it is not resident
+    private Node<Key, Value> fetch(long id, boolean pin) {
+        Integer frame = frameOf.get(id);
+        if (frame == null) {
+            frame = victim();
+            frames[frame] = read(id);
+            frameOf.put(id, frame);
+        }
+        referenced[frame] = true;
+        if (pin) pins[frame]++;
+        return frames[frame];
+    }
+
+    private void unpin(List<Long> ids) {
+        for (long id : ids) {
+            pins[frameOf.get(id)]--;
+        }
+    }
+
+    // Clock: sweep the frames, clearing reference bits, until an unpinned
+    // frame that has not been used since the last sweep turns up
+    private int victim() {
+        for (int step = 0; step < 2 * frames.length + 1; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            Node<Key, Value> node = frames[frame];
+            if (node == null) return frame;
+            if (pins[frame] > 0) continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (node.dirty) write(node);
+            frameOf.remove(node.id);
+            frames[frame] = null;
+            return frame;
+        }
+        throw new IllegalStateException("every buffer pool page is pinned");
+    }
+
+    private Node<Key, Value> newNode(boolean leaf) {
+        long id = nodeCount++;
+        if (id == physicalOf.length) physicalOf = Arrays.copyOf(physicalOf, physicalOf.length * 2);
+        physicalOf[(int) id] = NONE;
+        Node<Key, Value> node = new Node<>(id, leaf);
+        node.bytes = measure(node);
+        node.dirty = true;
+        int frame = victim();
+        frames[frame] = node;
+        frameOf.put(id, frame);
+        referenced[frame] = true;
+        return node;
+    }
+
+    // -- Pages --------------------------------------------------------------------------------------
+
+    private Node<Key, Value> read(long id) {
+        try {
+            readPage(physicalOf[(int) id]);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(page.array()));
+            byte type = in.readByte();
+            if (type != LEAF && type != INNER) throw new IOException("page of node " + id + " is not a node");
+            Node<Key, Value> node = new Node<>(id, type == LEAF);
+            int count = in.readInt();
+            node.next = in.readLong();
+            if (!node.leaf) node.children.add(in.readLong());
+            for (int i = 0; i < count; i++) {
+                node.keys.add(keyCodec.read(in));
+                if (node.leaf) node.values.add(valueCodec.read(in));
+                else node.children.add(in.readLong());
+            }
+            node.bytes = pageSize - in.available();
+            return node;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read node " + id, e);
+        }
+    }
+
+    // Copy-on-write: a page the last commit refers to is never overwritten
+    private void write(Node<Key, Value> node) {
+        try {
+            scratch.reset();
+            scratchOut.writeByte(node.leaf ? LEAF : INNER);
+            scratchOut.writeInt(node.keys.size());
+            scratchOut.writeLong(node.next);
+            if (!node.leaf) scratchOut.writeLong(node.children.get(0));
+            for (int i = 0; i < node.keys.size(); i++) {
+                keyCodec.write(scratchOut, node.keys.get(i));
+                if (node.leaf) valueCodec.write(scratchOut, node.values.get(i));
+                else scratchOut.writeLong(node.children.get(i + 1));
+            }
+            int physical = (int) physicalOf[(int) node.id];
+            if (physical == NONE || !fresh.get(physical)) {
+                if (physical != NONE) pendingFree.set(physical);
+                physical = allocatePage();
+                physicalOf[(int) node.id] = physical;
+            }
+            writePage(physical, scratch.toByteArray());
+            node.dirty = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write node " + node.id, e);
+        }
+    }
+
+    private int allocatePage() {
+        int p = free.nextSetBit(0);
+        if (p >= 0) {
+            free.clear(p);
+        } else {
+            if (pageCount >= Integer.MAX_VALUE) throw new IllegalStateException("B+tree file is full");
+            p = (int) pageCount++;
+        }
+        fresh.set(p);
+        return p;
+    }
+
+    private void readPage(long p) throws IOException {
+        page.clear();
+        while (page.hasRemaining()) {
+            if (channel.read(page, p * pageSize + page.position()) < 0) throw new EOFException("page " + p);
+        }
+        pageReads++;
+    }
+
+    private void writePage(long p, byte[] bytes) throws IOException {
+        if (bytes.length > pageSize) throw new IllegalStateException("node of " + bytes.length + " bytes overflows a page");
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        buffer.put(bytes).clear();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, p * pageSize + buffer.position());
+        }
+        pageWrites++;
+    }
+
+    private <T> int sizeOf(Codec<T> codec, T value) {
+        try {
+            scratch.reset();
+            codec.write(scratchOut, value);
+            return scratch.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot encode " + value, e);
+        }
+    }
+
+    private int measure(Node<Key, Value> node) {
+        int bytes = NODE_HEADER + (node.leaf ? 0 : 8);
+        for (int i = 0; i < node.keys.size(); i++) {
+            bytes += sizeOf(keyCodec, node.keys.get(i)) + (node.leaf ? sizeOf(valueCodec, node.values.get(i)) : 8);
+        }
+        return bytes;
+    }
+
+    // -- Commit -------------------------------------------------------------------------------------
+
+    /**
+     * Makes every change so far durable and atomic: writes the dirty nodes and
+     * the page table to unused pages, forces them, then switches the meta page.
+     *
+     * @throws UncheckedIOException if writing fails; the last commit stays intact
+     */
+    public void commit() {
+        try {
+            for (Node<Key, Value> node : frames) {
+                if (node != null && node.dirty) write(node);
+            }
+            int perPage = (pageSize - TABLE_HEADER) / 8;
+            int tableCount = (int) ((nodeCount + perPage - 1) / perPage);
+            List<Integer> newTable = new ArrayList<>();
+            for (int i = 0; i < tableCount; i++) {
+                newTable.add(allocatePage());
+            }
+            for (int i = 0; i < tableCount; i++) {
+                ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+                int from = i * perPage;
+                int count = (int) Math.min(perPage, nodeCount - from);
+                buffer.putLong(i + 1 < tableCount ? newTable.get(i + 1) : NONE).putInt(count);
+                for (int j = 0; j < count; j++) {
+                    buffer.putLong(physicalOf[from + j]);
+                }
+                writePage(newTable.get(i), buffer.array());
+            }
+            channel.force(false);
+
+            ByteBuffer meta = ByteBuffer.allocate(META_BYTES);
+            meta.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putLong(seq + 1).putLong(root)
+                    .putLong(nodeCount).putLong(size).putLong(tableCount == 0 ? NONE : newTable.get(0))
+                    .putLong(pageCount);
+            CRC32 crc = new CRC32();
+            crc.update(meta.array(), 0, META_BYTES - 4);
+            meta.putInt((int) crc.getValue());
+            writePage((seq + 1) % 2, meta.array());
+            channel.force(false);
+            seq++;
+
+            // the old versions are unreferenced now
+            for (int p : tablePages) {
+                pendingFree.set(p);
+            }
+            tablePages.clear();
+            tablePages.addAll(newTable);
+            free.or(pendingFree);
+            pendingFree.clear();
+            fresh.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot commit B+tree", e);
+        }
+    }
+
+    // Loads the newer valid meta slot and the page table; false for a new file
+    private boolean loadMeta() throws IOException {
+        ByteBuffer best = null;
+        long bestSeq = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            if (channel.size() < (slot + 1L) * pageSize) break;
+            readPage(slot);
+            ByteBuffer meta = ByteBuffer.wrap(page.array().clone(), 0, META_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(meta.array(), 0, META_BYTES - 4);
+            if (meta.getInt(0) != MAGIC || meta.getInt(META_BYTES - 4) != (int) crc.getValue()) continue;
+            if (meta.getLong(12) > bestSeq) {
+                bestSeq = meta.getLong(12);
+                best = meta;
+            }
+        }
+        if (best == null) {
+            if (channel.size() > 0) throw new IOException("no valid meta page");
+            return false;
+        }
+        best.getInt();
+        int version = best.getInt();
+        if (version != VERSION) throw new IOException("unsupported B+tree version " + version);
+        int filePageSize = best.getInt();
+        if (filePageSize != pageSize) throw new IOException("file has page size " + filePageSize);
+        seq = best.getLong();
+        root = best.getLong();
+        nodeCount = best.getLong();
+        size = best.getLong();
+        long tablePage = best.getLong();
+        pageCount = best.getLong();
+
+        physicalOf = new long[(int) Math.max(64, nodeCount)];
+        BitSet used = new BitSet();
+        used.set(0, 2);
+        int loaded = 0;
+        while (tablePage != NONE) {
+            tablePages.add((int) tablePage);
+            used.set((int) tablePage);
+            readPage(tablePage);
+            ByteBuffer table = page.duplicate();
+            table.clear();
+            tablePage = table.getLong();
+            int count = table.getInt();
+            for (int j = 0; j < count; j++) {
+                physicalOf[loaded] = table.getLong();
+                used.set((int) physicalOf[loaded]);
+                loaded++;
+            }
+        }
+        if (loaded != nodeCount) throw new IOException("page table holds " + loaded + " of " + nodeCount + " nodes");
+        // pages past a torn commit's end are simply unused
+        free.set(2, (int) pageCount);
+        free.andNot(used);
+        return true;
+    }
+
+    /**
+     * Returns the number of pages read from the file, i.e. buffer pool misses.
+     *
+     * @return the number of page reads
+     */
+    public long pageReads() {
+        return pageReads;
+    }
+
+    /**
+     * Returns the number of pages written to the file.
+     *
+     * @return the number of page writes
+     */
+    public long pageWrites() {
+        return pageWrites;
+    }
+
+    public void close() throws IOException {
+        commit();
+        channel.close();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        scanAll((key, value) -> sb.append(key).append('=').append(value).append(' '));
+        return sb.toString();
+    }
+
+    private void scanAll(BiConsumer<Key, Value> action) {
+        Node<Key, Value> node = fetch(root, false);
+        while (!node.leaf) {
+            node = fetch(node.children.get(0), false);
+        }
+        while (true) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                action.accept(node.keys.get(i), node.values.get(i));
+            }
+            if (node.next == NONE) return;
+            node = fetch(node.next, false);
+        }
+    }
+}
+
+class DiskBPlusTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Random inserts and removes through a small pool, checked against a TreeMap
+    public static void modelTests(Path file, int ops) throws IOException {
+        TreeMap<Integer, String> model = new TreeMap<>();
+        Random random = new Random(34);
+        try (DiskBPlusTree<Integer, String> tree = new DiskBPlusTree<>(file, Codec.INTEGER, Codec.STRING, 512, 16)) {
+            for (int op = 0; op < ops; op++) {
+                int key = random.nextInt(ops / 2);
+                if (random.nextInt(4) == 0) {
+                    tree.remove(key);
+                    model.remove(key);
+                } else {
+                    String value = "v" + key + "-" + op;
+                    tree.insert(key, value);
+                    model.put(key, value);
+                }
+                if (op % 1000 == 0) tree.commit();
+            }
+            myAssert(tree.size() == model.size());
+            for (int key = -1; key <= ops / 2; key++) {
+                String expected = model.get(key);
+                myAssert(expected == null ? tree.get(key) == null : expected.equals(tree.get(key)));
+            }
+            List<Integer> scanned = new ArrayList<>();
+            tree.scan(100, 2000, (k, v) -> scanned.add(k));
+            myAssert(scanned.equals(new ArrayList<>(model.subMap(100, true, 2000, true).keySet())));
+            System.out.println("page reads=" + tree.pageReads() + " writes=" + tree.pageWrites());
+        }
+        // reopen: the close() commit is what comes back
+        try (DiskBPlusTree<Integer, String> tree = new DiskBPlusTree<>(file, Codec.INTEGER, Codec.STRING, 512, 16)) {
+            myAssert(tree.size() == model.size());
+            for (Map.Entry<Integer, String> e : model.entrySet()) {
+                myAssert(e.getValue().equals(tree.get(e.getKey())));
+            }
+        }
+    }
+
+    // Uncommitted changes vanish; committed ones survive
+    public static void commitTests(Path file) throws IOException {
+        DiskBPlusTree<Integer, Integer> tree = new DiskBPlusTree<>(file, Codec.INTEGER, Codec.INTEGER, 512, 16);
+        for (int i = 0; i < 5000; i++) {
+            tree.insert(i, i);
+        }
+        tree.commit();
+        for (int i = 0; i < 5000; i++) {
+            tree.insert(i, -i);
+        }
+        for (int i = 5000; i < 6000; i++) {
+            tree.insert(i, i);
+        }
+        // abandon the tree as a crash would: whatever was evicted is on disk
+        // already, but only in pages the committed state does not refer to
+        DiskBPlusTree<Integer, Integer> reopened = new DiskBPlusTree<>(file, Codec.INTEGER, Codec.INTEGER, 512, 16);
+        myAssert(reopened.size() == 5000);
+        for (int i = 0; i < 6000; i++) {
+            myAssert(i < 5000 ? reopened.get(i) == i : reopened.get(i) == null);
+        }
+        reopened.close();
+    }
+
+    @Override
+    public void test() {
+        try {
+            main(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("bptree");
+        Path file = dir.resolve("model.db");
+        modelTests(file, 40000);
+        Files.delete(file);
+        file = dir.resolve("commit.db");
+        commitTests(file);
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,399 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Makes any {@link TInterface} durable with a write-ahead log.
+ * <p>
+ * Every {@code insert} and {@code remove} is applied to the wrapped structure
+ * and appended to the log as one record, and the call returns only once the
+ * record has been forced to disk. Inserting a {@code null} value is a remove,
+ * as in the structures it wraps. Opening the log replays it into the
+ * structure, so the contents survive a restart or a crash. A record torn by a
+ * crash (short, or failing its checksum) ends the replay and is cut off.
+ * <p>
+ * Forcing is done by <em>group commit</em>: the first writer to find no flush
+ * in progress becomes the leader and writes and forces every record appended
+ * so far, while the other writers wait for it. Under concurrent load one
+ * {@code force()} therefore covers many writes instead of one each.
+ * <p>
+ * Records are appended and applied under one lock so that the log order is the
+ * order the structure saw. The wrapped structure only needs to be thread-safe
+ * for the readers ({@code get}, {@code contains}); wrap it in a
+ * {@link LockedTree} when it is shared. A write is visible to readers slightly
+ * before it is durable.
+ * <p>
+ * Record layout: {@code int payloadLength, int crc32(payload), payload}, where
+ * the payload is an opcode byte, the key and, for an insert, the value.
+ */
+public class DurableTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>, Closeable {
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_BYTES = 8;
+
+    private final TInterface<Key, Value> tree;
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+    private final FileChannel channel;
+
+    // Guarded by appendLock: records appended but not yet handed to a leader
+    private final Object appendLock = new Object();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private long appendedSeq;
+
+    // Guarded by commitLock: how far the log is durable, and whether a leader is flushing
+    private final Object commitLock = new Object();
+    private long durableSeq;
+    private boolean flushing;
+    private IOException failure;
+    private long syncs;
+    private long replayed;
+
+    /**
+     * Opens (or creates) the log at {@code log} and replays it into {@code tree}.
+     *
+     * @param log the log file
+     * @param tree the structure to make durable, normally empty
+     * @param keyCodec serializes keys
+     * @param valueCodec serializes values
+     * @throws UncheckedIOException if the log cannot be opened or read
+     */
+    public DurableTree(Path log, TInterface<Key, Value> tree, Codec<Key> keyCodec, Codec<Value> valueCodec) {
+        if (tree == null) throw new IllegalArgumentException("tree is null");
+        this.tree = tree;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        try {
+            this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long end = replay();
+            // drop a torn tail so new records follow the last good one
+            channel.truncate(end);
+            channel.position(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open write-ahead log " + log, e);
+        }
+    }
+
+    // Applies every intact record to the tree; returns the offset just past the last one
+    private long replay() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (offset + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, offset);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || offset + HEADER_BYTES + length > size) break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, offset + HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+            try {
+                byte op = in.readByte();
+                Key key = keyCodec.read(in);
+                if (op == INSERT) {
+                    tree.insert(key, valueCodec.read(in));
+                } else if (op == REMOVE) {
+                    tree.remove(key);
+                } else {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            offset += HEADER_BYTES + length;
+            replayed++;
+        }
+        return offset;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    // A null value removes the key, and is logged as a remove
+    public void insert(Key key, Value value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        long seq;
+        synchronized (appendLock) {
+            encode(INSERT, key, value);
+            tree.insert(key, value);
+            seq = append();
+        }
+        awaitDurable(seq);
+    }
+
+    // A write is encoded before the tree sees it, so one the codec cannot log
+    // never becomes visible, and appended after, so one the tree rejects is
+    // never replayed
+    public void remove(Key key) {
+        long seq;
+        synchronized (appendLock) {
+            encode(REMOVE, key, null);
+            tree.remove(key);
+            seq = append();
+        }
+        awaitDurable(seq);
+    }
+
+    public Value get(Key key) {
+        return tree.get(key);
+    }
+
+    public boolean contains(Key key) {
+        return tree.contains(key);
+    }
+
+    // Encodes a record into the record buffer; caller holds appendLock
+    private void encode(byte op, Key key, Value value) {
+        try {
+            record.reset();
+            recordOut.writeByte(op);
+            keyCodec.write(recordOut, key);
+            if (op == INSERT) valueCodec.write(recordOut, value);
+            recordOut.flush();
+        } catch (IOException e) {
+            // in-memory streams do not fail; a codec may
+            throw new UncheckedIOException("cannot encode log record", e);
+        }
+    }
+
+    // Frames the encoded record into the pending batch; caller holds appendLock
+    private long append() {
+        try {
+            crc.reset();
+            crc.update(record.toByteArray(), 0, record.size());
+            pendingOut.writeInt(record.size());
+            pendingOut.writeInt((int) crc.getValue());
+            record.writeTo(pendingOut);
+            pendingOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot append log record", e);
+        }
+        return ++appendedSeq;
+    }
+
+    // Returns once record seq is on disk, leading a flush if nobody else is
+    private void awaitDurable(long seq) {
+        while (true) {
+            synchronized (commitLock) {
+                while (durableSeq < seq && flushing && failure == null) {
+                    try {
+                        commitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted while waiting for the log", e);
+                    }
+                }
+                if (failure != null) throw new UncheckedIOException("write-ahead log failed", failure);
+                if (durableSeq >= seq) return;
+                flushing = true;
+            }
+
+            byte[] batch;
+            long batchSeq;
+            synchronized (appendLock) {
+                batch = pending.toByteArray();
+                pending.reset();
+                batchSeq = appendedSeq;
+            }
+            IOException error = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (commitLock) {
+                // after a failed force nothing later can be trusted to be durable
+                if (error != null) failure = error;
+                else durableSeq = batchSeq;
+                syncs++;
+                flushing = false;
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of {@code force()} calls made so far; compared with the
+     * number of writes it shows how well group commit is batching.
+     *
+     * @return the number of forces
+     */
+    public long syncCount() {
+        synchronized (commitLock) {
+            return syncs;
+        }
+    }
+
+    /**
+     * Returns the number of records replayed when the log was opened.
+     *
+     * @return the number of replayed records
+     */
+    public long replayedCount() {
+        return replayed;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public String toString() {
+        return tree.toString();
+    }
+}
+
+class DurableTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Codec.STRING, except that it refuses values starting with '!'
+    static final Codec<String> PICKY = new Codec<String>() {
+        public void write(DataOutput out, String value) throws IOException {
+            if (value.startsWith("!")) throw new IOException("rejected " + value);
+            Codec.STRING.write(out, value);
+        }
+
+        public String read(DataInput in) throws IOException {
+            return Codec.STRING.read(in);
+        }
+    };
+
+    public static void recoveryTests(Path log) throws IOException {
+        try (DurableTree<Integer, String> tree = new DurableTree<>(log, new BSTPrinceton<>(), Codec.INTEGER, PICKY)) {
+            for (int i = 0; i < 100; i++) {
+                tree.insert(i, "v" + i);
+            }
+            for (int i = 0; i < 100; i += 3) {
+                tree.remove(i);
+            }
+            tree.insert(1, "one");
+            // the codec cannot log this value, so the tree must not see it either
+            boolean thrown = false;
+            try {
+                tree.insert(2, "!v2");
+            } catch (UncheckedIOException e) {
+                thrown = true;
+            }
+            myAssert(thrown && "v2".equals(tree.get(2)));
+            // a null value removes the key, and is logged as a remove
+            tree.insert(5, null);
+            myAssert(!tree.contains(5));
+        }
+        // simulate a crash in the middle of the next record
+        Files.write(log, new byte[] {0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        try (DurableTree<Integer, String> tree = new DurableTree<>(log, new SkipList<>(), Codec.INTEGER, Codec.STRING)) {
+            myAssert(tree.replayedCount() == 100 + 34 + 1 + 1);
+            for (int i = 0; i < 100; i++) {
+                String expected = i % 3 == 0 || i == 5 ? null : (i == 1 ? "one" : "v" + i);
+                myAssert(expected == null ? tree.get(i) == null : expected.equals(tree.get(i)));
+            }
+            // appends after the torn tail must survive the next replay
+            tree.insert(1000, "after");
+        }
+        try (DurableTree<Integer, String> tree = new DurableTree<>(log, new SkipList<>(), Codec.INTEGER, Codec.STRING)) {
+            myAssert("after".equals(tree.get(1000)));
+        }
+    }
+
+    public static void groupCommitTests(Path log) throws IOException, InterruptedException {
+        final int threads = 8;
+        final int perThread = 500;
+        try (DurableTree<Integer, Integer> tree = new DurableTree<>(log,
+                LockedTree.wrap(new SkipList<Integer, Integer>()), Codec.INTEGER, Codec.INTEGER)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        tree.insert(i * threads + id, id);
+                    }
+                }));
+            }
+            for (Thread w : workers) {
+                w.start();
+            }
+            for (Thread w : workers) {
+                w.join();
+            }
+            System.out.println("writes=" + threads * perThread + " forces=" + tree.syncCount());
+        }
+        try (DurableTree<Integer, Integer> tree = new DurableTree<>(log, new SkipList<>(), Codec.INTEGER, Codec.INTEGER)) {
+            for (int i = 0; i < threads * perThread; i++) {
+                myAssert(tree.get(i) == i % threads);
+            }
+        }
+    }
+
+    @Override
+    public void test() {
+        try {
+            main(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("wal");
+        Path log = dir.resolve("recovery.log");
+        recoveryTests(log);
+        Files.delete(log);
+        log = dir.resolve("group.log");
+        groupCommitTests(log);
+        Files.delete(log);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,565 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicStampedReference;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
+
+/**
+ * Measures what an entry costs in memory in each in-memory {@link TInterface}
+ * implementation, per key type, and reports it as CSV.
+ * <p>
+ * Each structure is filled with n distinct keys (each key is also its own
+ * value) at several sizes and measured two ways:
+ * <ul>
+ * <li>with an {@link ObjectGraph} walk, which counts every object reachable
+ * from the structure and sizes it from its fields and the layout of the
+ * running VM. This is exact up to field packing and repeatable, so it is the
+ * figure to compare between node layouts;</li>
+ * <li>with the used heap from {@link MemoryMXBean} after full collections,
+ * with the structure and again once it is dropped. This is what the
+ * structure retains as the collector sees it, a check on the walk that
+ * includes anything the walk cannot see into.</li>
+ * </ul>
+ * The tests hold the two to within 10% of each other, since the heap reading
+ * also counts whatever the collector has yet to reclaim. Key objects stay
+ * alive throughout and are reported in their own column, so
+ * {@code bytes_per_entry} is the cost of the structure alone: nodes, towers,
+ * arrays and link objects.
+ * <pre>
+ *     java FootprintBenchmark [n,n,...] [output.csv]
+ * </pre>
+ */
+public final class FootprintBenchmark {
+    public static final String CSV_HEADER =
+            "structure,key_type,entries,bytes_per_entry,objects_per_entry,heap_bytes_per_entry,key_bytes_per_entry";
+
+    // -- VM layout -----------------------------------------------------------------------------
+
+    static final int REFERENCE_BYTES;
+    static final int HEADER_BYTES;
+    static final int ALIGNMENT;
+
+    static {
+        boolean compressedOops = true;
+        boolean compressedClassPointers = true;
+        int alignment = 8;
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            compressedOops = Boolean.parseBoolean(option(hotSpot, "UseCompressedOops", "true"));
+            compressedClassPointers = Boolean.parseBoolean(option(hotSpot, "UseCompressedClassPointers", "true"));
+            alignment = Integer.parseInt(option(hotSpot, "ObjectAlignmentInBytes", "8"));
+        } catch (RuntimeException e) {
+            // not HotSpot: assume the defaults of a 64-bit VM with a heap under 32 GB
+        }
+        REFERENCE_BYTES = compressedOops ? 4 : 8;
+        HEADER_BYTES = compressedClassPointers ? 12 : 16;
+        ALIGNMENT = alignment;
+    }
+
+    private static String option(HotSpotDiagnosticMXBean hotSpot, String name, String otherwise) {
+        if (hotSpot == null) return otherwise;
+        VMOption option = hotSpot.getVMOption(name);
+        return option == null ? otherwise : option.getValue();
+    }
+
+    private FootprintBenchmark() {
+    }
+
+    static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int fieldBytes(Class<?> type) {
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        if (type == byte.class || type == boolean.class) return 1;
+        return REFERENCE_BYTES;
+    }
+
+    /** Size of an array of {@code length} elements of {@code componentType}. */
+    static long arrayBytes(Class<?> componentType, int length) {
+        int element = fieldBytes(componentType);
+        // the length follows the header; elements start aligned to their own size
+        long base = (HEADER_BYTES + 4 + element - 1) / element * element;
+        return align(base + (long) element * length);
+    }
+
+    // -- Object graph --------------------------------------------------------------------------
+
+    /**
+     * Counts and sizes the objects reachable from the roots added to it, each
+     * object once however many times it is reached.
+     * <p>
+     * Instance sizes are the header plus the instance fields, rounded up to
+     * the object alignment. HotSpot packs fields into gaps, so this can
+     * overstate a class with mixed field sizes by a few bytes, never
+     * understate it. Static fields are not followed.
+     * <p>
+     * JDK classes cannot be opened reflectively from here, so their private
+     * fields are not followed. The ones the structures keep per entry are
+     * handled through their public API instead: {@code String} (with its
+     * character array), {@link AtomicReference}, and
+     * {@link AtomicStampedReference} and {@link AtomicMarkableReference} (with
+     * their pair objects). Any other JDK object counts at its own size only.
+     */
+    public static final class ObjectGraph {
+        private final IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private final Map<Class<?>, Layout> layouts = new HashMap<>();
+        private long objects;
+        private long bytes;
+
+        // The shallow size of a class and the reference fields it can follow
+        private static final class Layout {
+            final long bytes;
+            final Field[] references;
+
+            Layout(long bytes, Field[] references) {
+                this.bytes = bytes;
+                this.references = references;
+            }
+        }
+
+        /** Adds everything reachable from {@code root} that has not been counted yet. */
+        public ObjectGraph add(Object root) {
+            push(root);
+            while (!pending.isEmpty()) {
+                visit(pending.pop());
+            }
+            return this;
+        }
+
+        public long objects() {
+            return objects;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        private void push(Object o) {
+            if (o != null && visited.put(o, Boolean.TRUE) == null) {
+                pending.push(o);
+            }
+        }
+
+        private void count(long size) {
+            objects++;
+            bytes += size;
+        }
+
+        private void visit(Object o) {
+            Class<?> type = o.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(o);
+                count(arrayBytes(type.getComponentType(), length));
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) o) {
+                        push(element);
+                    }
+                }
+                return;
+            }
+            Layout layout = layout(type);
+            count(layout.bytes);
+            if (o instanceof String) {
+                String s = (String) o;
+                boolean latin1 = s.chars().allMatch(c -> c < 256);
+                count(arrayBytes(byte.class, latin1 ? s.length() : 2 * s.length()));
+            } else if (o instanceof AtomicStampedReference) {
+                count(pairBytes(int.class));
+                push(((AtomicStampedReference<?>) o).getReference());
+            } else if (o instanceof AtomicMarkableReference) {
+                count(pairBytes(boolean.class));
+                push(((AtomicMarkableReference<?>) o).getReference());
+            } else if (o instanceof AtomicReference) {
+                push(((AtomicReference<?>) o).get());
+            }
+            for (Field field : layout.references) {
+                try {
+                    push(field.get(o));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(field + " was opened but cannot be read", e);
+                }
+            }
+        }
+
+        // The immutable {reference, stamp or mark} pair behind the atomic references
+        private static long pairBytes(Class<?> second) {
+            return align(HEADER_BYTES + REFERENCE_BYTES + fieldBytes(second));
+        }
+
+        private Layout layout(Class<?> type) {
+            Layout layout = layouts.get(type);
+            if (layout == null) {
+                long size = HEADER_BYTES;
+                List<Field> references = new ArrayList<>();
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) continue;
+                        size += fieldBytes(field.getType());
+                        if (!field.getType().isPrimitive() && field.trySetAccessible()) {
+                            references.add(field);
+                        }
+                    }
+                }
+                layout = new Layout(align(size), references.toArray(new Field[0]));
+                layouts.put(type, layout);
+            }
+            return layout;
+        }
+    }
+
+    // -- Heap readings -------------------------------------------------------------------------
+
+    /**
+     * Heap in use after full collections: the lowest reading over five of
+     * them. The serial and parallel collectors leave some dead objects in
+     * place rather than move live ones on most full collections, and compact
+     * fully only every fourth, so a single reading can overstate the live heap.
+     */
+    public static long settledUsedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    // -- Suite ---------------------------------------------------------------------------------
+
+    /**
+     * The structures to measure for keys of {@code keyType}, by name. Each
+     * stores its keys as their own values. {@link IntAVLMap} and
+     * {@link LongRedBlackMap} keep primitive keys and are only listed for
+     * their own key type.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <K extends Comparable<K>> Map<String, Supplier<TInterface<K, K>>> structures(Class<K> keyType) {
+        Map<String, Supplier<TInterface<K, K>>> structures = new LinkedHashMap<>();
+        structures.put("BSTPrinceton", BSTPrinceton::new);
+        structures.put("AVLTree", AVLTree::new);
+        structures.put("RedBlackTree", RedBlackTree::new);
+        structures.put("SplayTree", SplayTree::new);
+        structures.put("SkipList", SkipList::new);
+        structures.put("LockFreeBST", LockFreeBST::new);
+        structures.put("BTree", BTree::new);
+        structures.put("ArrayAVLTree", ArrayAVLTree::new);
+        if (keyType == Integer.class) {
+            structures.put("IntAVLMap", () -> (TInterface) new IntAVLMap<K>());
+        }
+        if (keyType == Long.class) {
+            structures.put("LongRedBlackMap", () -> (TInterface) new LongRedBlackMap<K>());
+        }
+        return structures;
+    }
+
+    /** The key types measured by {@link #main}, by name, each giving n distinct keys in no particular order. */
+    public static final Map<String, IntFunction<? extends Comparable<?>>> KEY_TYPES = keyTypes();
+
+    private static Map<String, IntFunction<? extends Comparable<?>>> keyTypes() {
+        Map<String, IntFunction<? extends Comparable<?>>> keyTypes = new LinkedHashMap<>();
+        keyTypes.put("Integer", i -> LatencyBenchmark.scramble(i));
+        keyTypes.put("Long", i -> (long) LatencyBenchmark.scramble(i) << 16);
+        // eight hex digits
+        keyTypes.put("String", i -> Long.toHexString(0x100000000L | (LatencyBenchmark.scramble(i) & 0xFFFFFFFFL)).substring(1));
+        return keyTypes;
+    }
+
+    /** The footprint of one structure holding {@code entries} keys. */
+    public static final class Footprint {
+        public final String structure;
+        public final String keyType;
+        public final int entries;
+        /** Bytes and objects reachable from the structure, not counting the keys. */
+        public final long bytes;
+        public final long objects;
+        /** Growth of the settled used heap while the structure was built. */
+        public final long heapBytes;
+        /** Bytes of the key objects. */
+        public final long keyBytes;
+
+        Footprint(String structure, String keyType, int entries, long bytes, long objects, long heapBytes, long keyBytes) {
+            this.structure = structure;
+            this.keyType = keyType;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.objects = objects;
+            this.heapBytes = heapBytes;
+            this.keyBytes = keyBytes;
+        }
+
+        public double bytesPerEntry() {
+            return (double) bytes / entries;
+        }
+
+        public double objectsPerEntry() {
+            return (double) objects / entries;
+        }
+
+        public double heapBytesPerEntry() {
+            return (double) heapBytes / entries;
+        }
+
+        public double keyBytesPerEntry() {
+            return (double) keyBytes / entries;
+        }
+
+        /** One CSV line in the order of {@link #CSV_HEADER}, without the line break. */
+        public String csvRow() {
+            return String.format("%s,%s,%d,%.1f,%.2f,%.1f,%.1f", structure, keyType, entries,
+                    bytesPerEntry(), objectsPerEntry(), heapBytesPerEntry(), keyBytesPerEntry());
+        }
+
+        @Override
+        public String toString() {
+            return csvRow();
+        }
+    }
+
+    // Keeps the structure being measured alive until it is dropped on purpose;
+    // a local variable can be dead to the compiler well before it is cleared
+    private static volatile Object held;
+
+    /**
+     * Builds a structure from {@code supplier} holding keys 0..n-1 of
+     * {@code keys} and measures it.
+     *
+     * @param keys the i-th distinct key, for i in 0..n-1
+     */
+    public static <K extends Comparable<K>> Footprint measure(String structure, Supplier<TInterface<K, K>> supplier,
+                                                             String keyType, IntFunction<K> keys, int n) {
+        List<K> keyList = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keyList.add(keys.apply(i));
+        }
+        TInterface<K, K> tree = supplier.get();
+        for (K key : keyList) {
+            tree.insert(key, key);
+        }
+
+        ObjectGraph keyGraph = new ObjectGraph();
+        for (K key : keyList) {
+            keyGraph.add(key);
+        }
+        ObjectGraph graph = new ObjectGraph().add(tree);
+        if (graph.objects() < keyGraph.objects()) {
+            throw new IllegalStateException(structure + " does not reach all of its " + n + " keys");
+        }
+        long keyBytes = keyGraph.bytes();
+        long bytes = graph.bytes() - keyBytes;
+        long objects = graph.objects() - keyGraph.objects();
+        // the walk's visited set would keep the structure alive
+        graph = null;
+        keyGraph = null;
+
+        // retained by the structure: the heap with it, less the heap once it is dropped
+        held = tree;
+        tree = null;
+        long heapBytes = settledUsedHeap();
+        held = null;
+        heapBytes -= settledUsedHeap();
+        Reference.reachabilityFence(keyList);
+        return new Footprint(structure, keyType, n, bytes, objects, heapBytes, keyBytes);
+    }
+
+    /** Measures every structure for keys of {@code keyType} at each size. */
+    public static <K extends Comparable<K>> List<Footprint> run(String keyType, Class<K> type, IntFunction<K> keys, int[] sizes) {
+        List<Footprint> footprints = new ArrayList<>();
+        for (Map.Entry<String, Supplier<TInterface<K, K>>> structure : structures(type).entrySet()) {
+            for (int n : sizes) {
+                footprints.add(measure(structure.getKey(), structure.getValue(), keyType, keys, n));
+            }
+        }
+        return footprints;
+    }
+
+    /** Writes the header and one CSV line per footprint. */
+    public static void writeCsv(List<Footprint> footprints, Appendable out) {
+        try {
+            out.append(CSV_HEADER).append('\n');
+            for (Footprint footprint : footprints) {
+                out.append(footprint.csvRow()).append('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Measures every structure for keys of one of the {@link #KEY_TYPES} at each size. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static List<Footprint> run(String keyType, int[] sizes) {
+        IntFunction keys = KEY_TYPES.get(keyType);
+        if (keys == null) throw new IllegalArgumentException("unknown key type " + keyType);
+        return run(keyType, (Class) keys.apply(0).getClass(), keys, sizes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        List<Footprint> footprints = new ArrayList<>();
+        for (String keyType : KEY_TYPES.keySet()) {
+            footprints.addAll(run(keyType, sizes));
+        }
+        StringBuilder csv = new StringBuilder();
+        writeCsv(footprints, csv);
+        if (args.length > 1) {
+            Files.write(Paths.get(args[1]), csv.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(csv);
+        }
+    }
+}
+
+class FootprintBenchmarkTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    private static final class Pair {
+        Pair other;
+        long value;
+    }
+
+    private static void walker() {
+        int header = FootprintBenchmark.HEADER_BYTES;
+        int reference = FootprintBenchmark.REFERENCE_BYTES;
+        FootprintBenchmark.ObjectGraph graph = new FootprintBenchmark.ObjectGraph().add(new Object());
+        myAssert(graph.objects() == 1 && graph.bytes() == FootprintBenchmark.align(header));
+
+        // a cycle is counted once per object
+        Pair a = new Pair();
+        Pair b = new Pair();
+        a.other = b;
+        b.other = a;
+        graph = new FootprintBenchmark.ObjectGraph().add(a);
+        myAssert(graph.objects() == 2);
+        myAssert(graph.bytes() == 2 * FootprintBenchmark.align(header + reference + 8));
+        myAssert(graph.add(b).objects() == 2);
+
+        // arrays: the array itself plus its distinct elements
+        Integer shared = 1000;
+        graph = new FootprintBenchmark.ObjectGraph().add(new Object[] {shared, shared, null});
+        myAssert(graph.objects() == 2);
+        myAssert(graph.bytes() == FootprintBenchmark.arrayBytes(Object.class, 3) + FootprintBenchmark.align(header + 4));
+        myAssert(FootprintBenchmark.arrayBytes(long.class, 0) >= header + 4);
+        myAssert(FootprintBenchmark.arrayBytes(int.class, 10) - FootprintBenchmark.arrayBytes(int.class, 2) == 32);
+
+        // a String brings its character array
+        graph = new FootprintBenchmark.ObjectGraph().add("abcdefgh");
+        myAssert(graph.objects() == 2);
+        myAssert(graph.bytes() > FootprintBenchmark.arrayBytes(byte.class, 8));
+    }
+
+    public static void doTests(int n) {
+        walker();
+
+        // BSTPrinceton is one node per entry: key, value, two children, size,
+        // height and path length
+        FootprintBenchmark.Footprint bst = FootprintBenchmark.measure("BSTPrinceton", BSTPrinceton::new,
+                "Integer", i -> LatencyBenchmark.scramble(i), n);
+        int reference = FootprintBenchmark.REFERENCE_BYTES;
+        long node = FootprintBenchmark.align(FootprintBenchmark.HEADER_BYTES + 4L * reference + 4 + 4 + 8);
+        myAssert(bst.objects >= n && bst.objects <= n + 20);
+        myAssert(bst.bytes >= n * node && bst.bytes <= n * node + 1024);
+        myAssert(bst.keyBytes == n * FootprintBenchmark.align(FootprintBenchmark.HEADER_BYTES + 4));
+        // the collector sees what the walk counts
+        myAssert(Math.abs(bst.heapBytes - bst.bytes) < bst.bytes / 10);
+
+        // the link objects of the lock-free tree are followed: a leaf, an
+        // internal node and two stamped references, each with its pair, per entry
+        FootprintBenchmark.Footprint lockFree = FootprintBenchmark.measure("LockFreeBST", LockFreeBST::new,
+                "Integer", i -> LatencyBenchmark.scramble(i), n);
+        myAssert(Math.abs(lockFree.objectsPerEntry() - 6) < 0.01);
+
+        // every structure reaches all of its keys, whatever the key type
+        for (String keyType : FootprintBenchmark.KEY_TYPES.keySet()) {
+            List<FootprintBenchmark.Footprint> footprints = FootprintBenchmark.run(keyType, new int[] {n / 10});
+            for (FootprintBenchmark.Footprint footprint : footprints) {
+                myAssert(footprint.objectsPerEntry() > 0 && footprint.bytesPerEntry() > 0);
+                myAssert(footprint.keyBytes > 0);
+            }
+            StringBuilder csv = new StringBuilder();
+            FootprintBenchmark.writeCsv(footprints, csv);
+            String[] lines = csv.toString().split("\n");
+            myAssert(lines.length == 1 + footprints.size());
+            myAssert(lines[1].startsWith("BSTPrinceton," + keyType + "," + n / 10 + ","));
+        }
+
+        // primitive keys save the key object but not the value it is stored as
+        List<FootprintBenchmark.Footprint> integers = FootprintBenchmark.run("Integer", new int[] {n});
+        myAssert(find(integers, "IntAVLMap").bytes < find(integers, "AVLTree").bytes);
+
+        // budgets per entry with compressed references, to catch a node that grows
+        if (FootprintBenchmark.REFERENCE_BYTES == 4 && FootprintBenchmark.HEADER_BYTES == 12) {
+            String[] structures = {"BSTPrinceton", "AVLTree", "RedBlackTree", "SkipList", "LockFreeBST",
+                    "BTree", "ArrayAVLTree", "IntAVLMap"};
+            double[] budgets = {48, 40, 56, 104, 160, 20, 28, 32};
+            for (int i = 0; i < structures.length; i++) {
+                FootprintBenchmark.Footprint footprint = find(integers, structures[i]);
+                if (footprint.bytesPerEntry() > budgets[i] + 0.5) {
+                    throw new RuntimeException(footprint.structure + " takes " + footprint.bytesPerEntry()
+                            + " bytes per entry, over its budget of " + budgets[i]);
+                }
+            }
+        }
+    }
+
+    private static FootprintBenchmark.Footprint find(List<FootprintBenchmark.Footprint> footprints, String structure) {
+        for (FootprintBenchmark.Footprint footprint : footprints) {
+            if (footprint.structure.equals(structure)) return footprint;
+        }
+        throw new IllegalArgumentException(structure);
+    }
+
+    @Override
+    public void test() {
+        doTests(20000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(20000);
+    }
+}
@@ -0,0 +1,387 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * An AVL tree map from {@code int} keys to values, with no boxing.
+ * <p>
+ * {@link AVLTree} is generic over {@code Comparable}, so every key is an
+ * {@code Integer} object and every comparison is an interface call. Here the
+ * key is an {@code int} field of the node and comparisons are plain integer
+ * compares: a node is one 32-byte object instead of an {@link AvlNode} plus
+ * a boxed key, and lookups touch no key objects at all.
+ * <p>
+ * The primitive methods ({@code get(int)}, {@code put(int, V)},
+ * {@code remove(int)}, {@code floor}, {@code ceiling}, {@code keys(lo, hi)},
+ * {@code forEach(lo, hi, visitor)}) are the fast path. The map also
+ * implements {@link TInterface} through boxed bridge methods, so it can be
+ * used wherever the other structures are. Values cannot be {@code null}:
+ * putting a {@code null} value removes the key.
+ */
+public class IntAVLMap<V> implements TInterface<Integer, V> {
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    /** Receives the entries of a range scan. */
+    public interface EntryVisitor<V> {
+        void visit(int key, V value);
+    }
+
+    private static final class Node<V> {
+        final int key;
+        V value;
+        Node<V> left;
+        Node<V> right;
+        int height;
+
+        Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private Node<V> root;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    public V get(int key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key < node.key) node = node.left;
+            else if (key > node.key) node = node.right;
+            else return node.value;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the largest key less than or equal to {@code key}.
+     *
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int floor(int key) {
+        Node<V> best = null;
+        for (Node<V> node = root; node != null; ) {
+            if (key < node.key) {
+                node = node.left;
+            } else {
+                best = node;
+                if (key == node.key) break;
+                node = node.right;
+            }
+        }
+        if (best == null) throw new NoSuchElementException("argument to floor() is too small");
+        return best.key;
+    }
+
+    /**
+     * Returns the smallest key greater than or equal to {@code key}.
+     *
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int ceiling(int key) {
+        Node<V> best = null;
+        for (Node<V> node = root; node != null; ) {
+            if (key > node.key) {
+                node = node.right;
+            } else {
+                best = node;
+                if (key == node.key) break;
+                node = node.left;
+            }
+        }
+        if (best == null) throw new NoSuchElementException("argument to ceiling() is too large");
+        return best.key;
+    }
+
+    public int min() {
+        if (root == null) throw new NoSuchElementException("calls min() with empty map");
+        Node<V> node = root;
+        while (node.left != null) node = node.left;
+        return node.key;
+    }
+
+    public int max() {
+        if (root == null) throw new NoSuchElementException("calls max() with empty map");
+        Node<V> node = root;
+        while (node.right != null) node = node.right;
+        return node.key;
+    }
+
+    /**
+     * Returns the keys between {@code lo} and {@code hi}, both inclusive, in
+     * ascending order.
+     */
+    public int[] keys(int lo, int hi) {
+        int[][] out = {new int[16]};
+        int[] count = {0};
+        forEach(lo, hi, (key, value) -> {
+            if (count[0] == out[0].length) out[0] = Arrays.copyOf(out[0], count[0] * 2);
+            out[0][count[0]++] = key;
+        });
+        return Arrays.copyOf(out[0], count[0]);
+    }
+
+    /**
+     * Visits the entries with keys between {@code lo} and {@code hi}, both
+     * inclusive, in ascending key order.
+     */
+    public void forEach(int lo, int hi, EntryVisitor<? super V> visitor) {
+        forEach(root, lo, hi, visitor);
+    }
+
+    private void forEach(Node<V> node, int lo, int hi, EntryVisitor<? super V> visitor) {
+        while (node != null) {
+            if (lo < node.key) forEach(node.left, lo, hi, visitor);
+            if (lo <= node.key && node.key <= hi) visitor.visit(node.key, node.value);
+            if (hi <= node.key) return;
+            node = node.right;
+        }
+    }
+
+    // -- Updates ------------------------------------------------------------------------------------
+
+    public void put(int key, V value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        root = put(root, key, value);
+    }
+
+    private Node<V> put(Node<V> node, int key, V value) {
+        if (node == null) {
+            size++;
+            return new Node<>(key, value);
+        }
+        if (key < node.key) node.left = put(node.left, key, value);
+        else if (key > node.key) node.right = put(node.right, key, value);
+        else {
+            node.value = value;
+            return node;
+        }
+        return balance(node);
+    }
+
+    public void remove(int key) {
+        root = remove(root, key);
+    }
+
+    private Node<V> remove(Node<V> node, int key) {
+        if (node == null) return null;
+        if (key < node.key) {
+            node.left = remove(node.left, key);
+        } else if (key > node.key) {
+            node.right = remove(node.right, key);
+        } else {
+            size--;
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+            // replace by the successor, unlinked from the right subtree
+            Node<V> successor = node.right;
+            while (successor.left != null) successor = successor.left;
+            successor.right = removeMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private Node<V> removeMin(Node<V> node) {
+        if (node.left == null) return node.right;
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    // -- Balancing ----------------------------------------------------------------------------------
+
+    private static int height(Node<?> node) {
+        return node == null ? -1 : node.height;
+    }
+
+    private Node<V> balance(Node<V> node) {
+        if (height(node.left) - height(node.right) > ALLOWED_IMBALANCE) {
+            if (height(node.left.left) < height(node.left.right)) node.left = rotateLeft(node.left);
+            node = rotateRight(node);
+        } else if (height(node.right) - height(node.left) > ALLOWED_IMBALANCE) {
+            if (height(node.right.right) < height(node.right.left)) node.right = rotateRight(node.right);
+            node = rotateLeft(node);
+        }
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        return node;
+    }
+
+    private Node<V> rotateRight(Node<V> k2) {
+        Node<V> k1 = k2.left;
+        k2.left = k1.right;
+        k1.right = k2;
+        k2.height = Math.max(height(k2.left), height(k2.right)) + 1;
+        k1.height = Math.max(height(k1.left), k2.height) + 1;
+        return k1;
+    }
+
+    private Node<V> rotateLeft(Node<V> k1) {
+        Node<V> k2 = k1.right;
+        k1.right = k2.left;
+        k2.left = k1;
+        k1.height = Math.max(height(k1.left), height(k1.right)) + 1;
+        k2.height = Math.max(k1.height, height(k2.right)) + 1;
+        return k2;
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    // Throws IllegalStateException if a node is out of order, unbalanced or has a stale height
+    public void checkBalance() {
+        check(root, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private int check(Node<V> node, long lo, long hi) {
+        if (node == null) return -1;
+        if (node.key <= lo || node.key >= hi) throw new IllegalStateException("key " + node.key + " out of order");
+        int left = check(node.left, lo, node.key);
+        int right = check(node.right, node.key, hi);
+        if (Math.abs(left - right) > ALLOWED_IMBALANCE) {
+            throw new IllegalStateException("tree is imbalanced at " + node.key);
+        }
+        if (node.height != Math.max(left, right) + 1) {
+            throw new IllegalStateException("stale height at " + node.key);
+        }
+        return node.height;
+    }
+
+    // -- TInterface (boxed) -------------------------------------------------------------------------
+
+    public void insert(Integer key, V value) {
+        put(unbox(key), value);
+    }
+
+    public void remove(Integer key) {
+        remove(unbox(key));
+    }
+
+    public V get(Integer key) {
+        return get(unbox(key));
+    }
+
+    public boolean contains(Integer key) {
+        return containsKey(unbox(key));
+    }
+
+    private static int unbox(Integer key) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        return key;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach(Integer.MIN_VALUE, Integer.MAX_VALUE, (key, value) -> sb.append(key).append('=').append(value).append(' '));
+        return sb.toString();
+    }
+}
+
+class IntAVLMapTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int ops) {
+        IntAVLMap<Integer> map = new IntAVLMap<>();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        Random random = new Random(37);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            int key = random.nextInt(range) - range / 2;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                model.remove(key);
+            } else {
+                map.put(key, op);
+                model.put(key, op);
+            }
+        }
+        map.checkBalance();
+        myAssert(map.size() == model.size());
+        for (int key = -range / 2 - 1; key <= range / 2; key++) {
+            myAssert(Objects.equals(map.get(key), model.get(key)));
+            Integer floor = model.floorKey(key);
+            Integer ceiling = model.ceilingKey(key);
+            if (floor != null) myAssert(map.floor(key) == floor);
+            if (ceiling != null) myAssert(map.ceiling(key) == ceiling);
+        }
+        int[] keys = map.keys(-10, range / 4);
+        int i = 0;
+        for (int key : model.subMap(-10, true, range / 4, true).keySet()) {
+            myAssert(keys[i++] == key);
+        }
+        myAssert(i == keys.length);
+    }
+
+    // The AVLTreeMain workload: 1M inserts of GAP-strided keys, then lookups
+    public static void benchmark(int n) {
+        final int gap = 37;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            AVLTree<Integer> boxed = new AVLTree<>();
+            for (int i = gap; i != 0; i = (i + gap) % n) {
+                boxed.insert(i);
+            }
+            int found = 0;
+            for (int i = 1; i < n; i++) {
+                if (boxed.contains(i)) found++;
+            }
+            long boxedNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            IntAVLMap<Boolean> primitive = new IntAVLMap<>();
+            for (int i = gap; i != 0; i = (i + gap) % n) {
+                primitive.put(i, Boolean.TRUE);
+            }
+            for (int i = 1; i < n; i++) {
+                if (primitive.containsKey(i)) found++;
+            }
+            long primitiveNs = System.nanoTime() - start;
+            myAssert(found == 2 * (n - 1));
+            System.out.printf("n=%d insert+lookup: AVLTree<Integer>=%d ms IntAVLMap=%d ms%n",
+                    n, boxedNs / 1000000, primitiveNs / 1000000);
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(100000);
+        benchmark(1000000);
+    }
+}
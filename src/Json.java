@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The little JSON the benchmark result files need: quoting strings for
+ * output, and parsing a document into plain Java values.
+ * <p>
+ * {@link #parse} maps objects to {@code LinkedHashMap<String, Object>} (in
+ * document order), arrays to {@code List<Object>}, numbers to {@code Double},
+ * and {@code true}, {@code false} and {@code null} to themselves. Malformed
+ * input throws {@link IllegalArgumentException} naming the offset.
+ */
+public final class Json {
+    private final String text;
+    private int at;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /** {@code s} as a JSON string literal, quotes included. */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Parses a complete JSON document. */
+    public static Object parse(String text) {
+        if (text == null) throw new IllegalArgumentException("text is null");
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.at != text.length()) throw json.error("trailing characters");
+        return value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("bad JSON at offset " + at + ": " + message);
+    }
+
+    private void skipWhitespace() {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+            at++;
+        }
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if (at >= text.length()) throw error("unexpected end");
+        return text.charAt(at);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("expected '" + c + "'");
+        at++;
+    }
+
+    private Object value() {
+        char c = peek();
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        expect('{');
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (peek() == '}') {
+            at++;
+            return map;
+        }
+        while (true) {
+            if (peek() != '"') throw error("expected a member name");
+            String name = string();
+            expect(':');
+            map.put(name, value());
+            char c = peek();
+            at++;
+            if (c == '}') return map;
+            if (c != ',') throw error("expected ',' or '}'");
+        }
+    }
+
+    private List<Object> array() {
+        expect('[');
+        List<Object> list = new ArrayList<>();
+        if (peek() == ']') {
+            at++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            char c = peek();
+            at++;
+            if (c == ']') return list;
+            if (c != ',') throw error("expected ',' or ']'");
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (at >= text.length()) throw error("unterminated string");
+            char c = text.charAt(at++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (at >= text.length()) throw error("unterminated string");
+            char escaped = text.charAt(at++);
+            switch (escaped) {
+                case '"': case '\\': case '/': sb.append(escaped); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (at + 4 > text.length()) throw error("short \\u escape");
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad \\u escape");
+                    }
+                    at += 4;
+                    break;
+                default:
+                    throw error("bad escape '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Double number() {
+        int start = at;
+        while (at < text.length() && "+-0123456789.eE".indexOf(text.charAt(at)) >= 0) {
+            at++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, at));
+        } catch (NumberFormatException e) {
+            at = start;
+            throw error("bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, at)) throw error("expected " + word);
+        at += word.length();
+        return value;
+    }
+}
+
+class JsonTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    static boolean rejects(String text) {
+        try {
+            Json.parse(text);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void doTests(int n) {
+        Map<String, Object> document = (Map<String, Object>) Json.parse(
+                " {\"a\": [1, -2.5, 3e2], \"b\": {\"c\": true, \"d\": null}, \"e\": \"x\\\"y\\u0041\", \"f\": []} ");
+        myAssert(List.of("a", "b", "e", "f").equals(List.copyOf(document.keySet())));
+        myAssert(List.of(1.0, -2.5, 300.0).equals(document.get("a")));
+        Map<String, Object> b = (Map<String, Object>) document.get("b");
+        myAssert(Boolean.TRUE.equals(b.get("c")) && b.containsKey("d") && b.get("d") == null);
+        myAssert("x\"yA".equals(document.get("e")));
+        myAssert(((List<Object>) document.get("f")).isEmpty());
+
+        String awkward = "tab\there \"quoted\" back\\slash\nnew line \u0001";
+        myAssert(awkward.equals(Json.parse(Json.quote(awkward))));
+
+        myAssert(rejects(""));
+        myAssert(rejects("{\"a\": 1"));
+        myAssert(rejects("[1 2]"));
+        myAssert(rejects("{a: 1}"));
+        myAssert(rejects("\"open"));
+        myAssert(rejects("1 2"));
+        myAssert(rejects("-"));
+        myAssert(rejects("tru"));
+    }
+
+    @Override
+    public void test() {
+        doTests(0);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(0);
+    }
+}
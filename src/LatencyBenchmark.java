@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Times every operation of a fixed workload against each in-memory
+ * {@link TInterface} implementation and reports the latency distribution
+ * per structure and operation as CSV, so implementations can be compared
+ * on their tails and not only their averages.
+ * <p>
+ * The workload inserts n distinct keys in a scrambled order, looks each one
+ * up in a shuffled order, then removes them all, timing each call with
+ * {@link System#nanoTime()} into a {@link LatencyHistogram}. A warm-up run
+ * of the same workload is discarded first. The timer itself costs a few
+ * tens of nanoseconds, which is included in every value.
+ * <pre>
+ *     java LatencyBenchmark [n] [output.csv]
+ * </pre>
+ */
+public final class LatencyBenchmark {
+    public static final String[] OPERATIONS = {"insert", "get", "remove"};
+
+    private LatencyBenchmark() {
+    }
+
+    /**
+     * The structures to compare, by name.
+     */
+    public static Map<String, Supplier<TInterface<Integer, Integer>>> structures() {
+        Map<String, Supplier<TInterface<Integer, Integer>>> structures = new LinkedHashMap<>();
+        structures.put("BSTPrinceton", BSTPrinceton::new);
+        structures.put("AVLTree", AVLTree::new);
+        structures.put("RedBlackTree", RedBlackTree::new);
+        structures.put("SplayTree", SplayTree::new);
+        structures.put("SkipList", SkipList::new);
+        structures.put("LockFreeBST", LockFreeBST::new);
+        structures.put("BTree", BTree::new);
+        structures.put("ArrayAVLTree", ArrayAVLTree::new);
+        structures.put("IntAVLMap", IntAVLMap::new);
+        return structures;
+    }
+
+    // A bijection on int, so distinct i give distinct keys in no particular order
+    static int scramble(int i) {
+        return i * 0x9E3779B1;
+    }
+
+    /**
+     * Runs the workload once against an empty structure.
+     *
+     * @return a histogram of nanoseconds per operation, keyed by the names in {@link #OPERATIONS}
+     */
+    public static Map<String, LatencyHistogram> run(TInterface<Integer, Integer> tree, int n, long seed) {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            histograms.put(operation, new LatencyHistogram());
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        LatencyHistogram insert = histograms.get("insert");
+        for (int i = 0; i < n; i++) {
+            Integer key = scramble(i);
+            long start = System.nanoTime();
+            tree.insert(key, key);
+            insert.recordSince(start);
+        }
+        LatencyHistogram get = histograms.get("get");
+        for (int i = 0; i < n; i++) {
+            Integer key = scramble(order[i]);
+            long start = System.nanoTime();
+            Integer value = tree.get(key);
+            get.recordSince(start);
+            if (value == null) throw new IllegalStateException(tree.getClass().getSimpleName() + " lost key " + key);
+        }
+        LatencyHistogram remove = histograms.get("remove");
+        for (int i = 0; i < n; i++) {
+            Integer key = scramble(order[i]);
+            long start = System.nanoTime();
+            tree.remove(key);
+            remove.recordSince(start);
+        }
+        return histograms;
+    }
+
+    /** Writes the CSV header line: structure, operation and the {@link LatencyHistogram#CSV_HEADER} columns. */
+    public static void writeCsvHeader(Appendable out) {
+        try {
+            out.append("structure,operation,").append(LatencyHistogram.CSV_HEADER).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Writes one CSV line per operation, values in nanoseconds. */
+    public static void writeCsv(String structure, Map<String, LatencyHistogram> histograms, Appendable out) {
+        try {
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                out.append(structure).append(',').append(entry.getKey()).append(',')
+                        .append(entry.getValue().toCsvRow()).append('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        StringBuilder csv = new StringBuilder();
+        writeCsvHeader(csv);
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : structures().entrySet()) {
+            run(structure.getValue().get(), n, 1);
+            writeCsv(structure.getKey(), run(structure.getValue().get(), n, 2), csv);
+        }
+        if (args.length > 1) {
+            Files.write(Paths.get(args[1]), csv.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(csv);
+        }
+    }
+}
+
+class LatencyBenchmarkTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int n) {
+        StringBuilder csv = new StringBuilder();
+        LatencyBenchmark.writeCsvHeader(csv);
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : LatencyBenchmark.structures().entrySet()) {
+            TInterface<Integer, Integer> tree = structure.getValue().get();
+            Map<String, LatencyHistogram> histograms = LatencyBenchmark.run(tree, n, 3);
+            for (String operation : LatencyBenchmark.OPERATIONS) {
+                LatencyHistogram histogram = histograms.get(operation);
+                myAssert(histogram.count() == n);
+                myAssert(histogram.valueAt(50) <= histogram.valueAt(99) && histogram.valueAt(99) <= histogram.max());
+            }
+            myAssert(!tree.contains(LatencyBenchmark.scramble(0)));
+            LatencyBenchmark.writeCsv(structure.getKey(), histograms, csv);
+        }
+        String[] lines = csv.toString().split("\n");
+        myAssert(lines.length == 1 + LatencyBenchmark.structures().size() * LatencyBenchmark.OPERATIONS.length);
+        myAssert(lines[0].startsWith("structure,operation,count,"));
+        myAssert(lines[1].startsWith("BSTPrinceton,insert," + n + ","));
+    }
+
+    @Override
+    public void test() {
+        doTests(2000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(2000);
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of latencies (or any non-negative long values),
+ * recorded without locks or allocation and queried by percentile.
+ * <p>
+ * Values below 2^{@code precisionBits} get a bucket each. Above that, every
+ * power of two is split into 2^({@code precisionBits} - 1) equal buckets,
+ * so a bucket's width is under 2^-({@code precisionBits} - 1) of the values
+ * in it: about 1.6% with the default of 7 bits. All of 0 to
+ * {@link Long#MAX_VALUE} is covered by a fixed table of 3712 counts (64 per
+ * power of two), allocated up front.
+ * <p>
+ * {@link #record(long)} is one atomic increment, plus a compare-and-set in
+ * the rare case it sets a new minimum or maximum. It is safe for several
+ * threads at once, but each thread recording into its own histogram and
+ * {@link #add(LatencyHistogram) merging} them afterwards avoids contention
+ * on the hot buckets. A query made while others are still recording may
+ * miss their latest values, which is fine for reporting.
+ * <p>
+ * {@link #valueAt(double)} returns the highest value of the bucket holding
+ * the requested rank, capped at the maximum recorded, so percentiles are
+ * never under-reported.
+ */
+public final class LatencyHistogram {
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    /** Header of the {@link #toCsvRow()} columns; values are in the recorded unit. */
+    public static final String CSV_HEADER = "count,min,mean,p50,p90,p99,p99.9,p99.99,max";
+
+    private static final double[] CSV_PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final int precisionBits;
+    private final int halfBucketCount;
+    private final AtomicLongArray counts;
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param precisionBits log2 of the number of buckets below which every
+     *                      value is exact, 2 to 16
+     */
+    public LatencyHistogram(int precisionBits) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException("precisionBits must be 2 to 16: " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+        this.halfBucketCount = 1 << (precisionBits - 1);
+        this.counts = new AtomicLongArray((65 - precisionBits) * halfBucketCount);
+    }
+
+    // -- Buckets --------------------------------------------------------------------------------
+
+    int bucketOf(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude < precisionBits) return (int) value;
+        int shift = magnitude - precisionBits + 1;
+        return shift * halfBucketCount + (int) (value >>> shift);
+    }
+
+    long lowestValueIn(int bucket) {
+        if (bucket < 2 * halfBucketCount) return bucket;
+        int shift = bucket / halfBucketCount - 1;
+        return (long) (bucket - shift * halfBucketCount) << shift;
+    }
+
+    long highestValueIn(int bucket) {
+        return bucket == counts.length() - 1 ? Long.MAX_VALUE : lowestValueIn(bucket + 1) - 1;
+    }
+
+    // -- Recording ------------------------------------------------------------------------------
+
+    /**
+     * Counts one occurrence of {@code value}.
+     *
+     * @throws IllegalArgumentException if {@code value} is negative
+     */
+    public void record(long value) {
+        if (value < 0) throw new IllegalArgumentException("negative value " + value);
+        counts.getAndIncrement(bucketOf(value));
+        long seen = min.get();
+        while (value < seen && !min.compareAndSet(seen, value)) {
+            seen = min.get();
+        }
+        seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /** Records the nanoseconds elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void recordSince(long startNanos) {
+        record(Math.max(0, System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Adds every count of {@code other} to this histogram.
+     *
+     * @throws IllegalArgumentException if the precisions differ
+     */
+    public void add(LatencyHistogram other) {
+        if (other.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("cannot add a histogram of precision " + other.precisionBits
+                    + " to one of precision " + precisionBits);
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) counts.getAndAdd(i, count);
+        }
+        long otherMin = other.min.get();
+        long seen = min.get();
+        while (otherMin < seen && !min.compareAndSet(seen, otherMin)) {
+            seen = min.get();
+        }
+        long otherMax = other.max.get();
+        seen = max.get();
+        while (otherMax > seen && !max.compareAndSet(seen, otherMax)) {
+            seen = max.get();
+        }
+    }
+
+    /** Forgets every value. Not atomic with respect to concurrent recording. */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    // -- Queries --------------------------------------------------------------------------------
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** Returns the smallest value recorded, or 0 if empty. */
+    public long min() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /** Returns the largest value recorded, or 0 if empty. */
+    public long max() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+    /** Returns the mean, taking each value as the middle of its bucket; 0 if empty. */
+    public double mean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long n = counts.get(i);
+            if (n == 0) continue;
+            count += n;
+            total += n * ((lowestValueIn(i) + (double) highestValueIn(i)) / 2);
+        }
+        return count == 0 ? 0 : Math.min(max(), Math.max(min(), total / count));
+    }
+
+    /**
+     * Returns a value that at least {@code percentile} percent of the recorded
+     * values are less than or equal to: the top of the bucket holding that
+     * rank, capped at the maximum. Returns 0 if empty.
+     *
+     * @param percentile 0 to 100; 0 gives the minimum and 100 the maximum
+     * @throws IllegalArgumentException if {@code percentile} is out of range
+     */
+    public long valueAt(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be 0 to 100: " + percentile);
+        }
+        long count = count();
+        if (count == 0) return 0;
+        if (percentile == 0) return min();
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueIn(i), max());
+        }
+        return max();
+    }
+
+    // -- Export ---------------------------------------------------------------------------------
+
+    /** Returns the summary in the columns of {@link #CSV_HEADER}, without a line break. */
+    public String toCsvRow() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count()).append(',').append(min()).append(',').append(String.format("%.1f", mean()));
+        for (double percentile : CSV_PERCENTILES) {
+            sb.append(',').append(valueAt(percentile));
+        }
+        return sb.append(',').append(max()).toString();
+    }
+
+    /**
+     * Writes one CSV line per non-empty bucket, with its value range, count
+     * and the percentage of values up to its top, for plotting the whole
+     * distribution.
+     */
+    public void writeBucketsCsv(Appendable out) {
+        try {
+            out.append("from,to,count,cumulative_percent\n");
+            long total = count();
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                long n = counts.get(i);
+                if (n == 0) continue;
+                seen += n;
+                out.append(String.format("%d,%d,%d,%.4f%n", lowestValueIn(i), highestValueIn(i), n, 100.0 * seen / total));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String toString() {
+        return String.format("count=%d min=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d",
+                count(), min(), mean(), valueAt(50), valueAt(99), valueAt(99.9), max());
+    }
+}
+
+class LatencyHistogramTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int n) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        myAssert(histogram.count() == 0 && histogram.valueAt(99) == 0 && histogram.max() == 0);
+
+        // buckets tile the whole range without gaps, each within the precision
+        for (int bucket = 0; bucket < 3712 - 1; bucket++) {
+            long low = histogram.lowestValueIn(bucket);
+            long high = histogram.highestValueIn(bucket);
+            myAssert(histogram.bucketOf(low) == bucket && histogram.bucketOf(high) == bucket);
+            myAssert(histogram.lowestValueIn(bucket + 1) == high + 1);
+            myAssert(high - low <= low / 64);
+        }
+        myAssert(histogram.bucketOf(Long.MAX_VALUE) == 3711);
+
+        // small values are exact
+        for (long v = 1; v <= 100; v++) {
+            histogram.record(v);
+        }
+        myAssert(histogram.count() == 100 && histogram.min() == 1 && histogram.max() == 100);
+        myAssert(histogram.valueAt(50) == 50 && histogram.valueAt(99) == 99 && histogram.valueAt(100) == 100);
+        myAssert(histogram.valueAt(0) == 1);
+        myAssert(Math.abs(histogram.mean() - 50.5) < 1);
+
+        // large values are within 1/64, never below the true percentile
+        Random random = new Random(44);
+        long[] values = new long[n];
+        LatencyHistogram large = new LatencyHistogram();
+        for (int i = 0; i < n; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            large.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {10, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * n) - 1];
+            long reported = large.valueAt(percentile);
+            myAssert(reported >= exact && reported - exact <= exact / 64);
+        }
+        myAssert(large.valueAt(100) == values[n - 1]);
+
+        // merging equals recording everything into one histogram
+        LatencyHistogram left = new LatencyHistogram();
+        LatencyHistogram right = new LatencyHistogram();
+        for (int i = 0; i < n; i++) {
+            (i % 2 == 0 ? left : right).record(values[i]);
+        }
+        left.add(right);
+        myAssert(left.count() == n && left.toCsvRow().equals(large.toCsvRow()));
+        boolean rejected = false;
+        try {
+            left.add(new LatencyHistogram(5));
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        myAssert(rejected);
+
+        // concurrent recording loses nothing
+        LatencyHistogram shared = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    shared.record(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        myAssert(shared.count() == 4L * n && shared.max() == Math.min(n, 1000) - 1);
+
+        StringBuilder csv = new StringBuilder();
+        histogram.writeBucketsCsv(csv);
+        myAssert(csv.toString().startsWith("from,to,count,cumulative_percent\n1,1,1,"));
+        myAssert(csv.toString().trim().endsWith("100,100,1,100.0000"));
+        myAssert(histogram.toCsvRow().split(",").length == LatencyHistogram.CSV_HEADER.split(",").length);
+        histogram.reset();
+        myAssert(histogram.count() == 0 && histogram.min() == 0);
+    }
+
+    // Cost of record() from one thread and from four threads sharing a histogram
+    public static void benchmark(int n) {
+        for (int round = 0; round < 3; round++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                histogram.record(i & 0xFFFF);
+            }
+            long single = System.nanoTime() - start;
+            Thread[] threads = new Thread[4];
+            start = System.nanoTime();
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < n; i++) {
+                        histogram.record(1000 + (i & 0xFF));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            long shared = System.nanoTime() - start;
+            System.out.printf("record(), n=%d: %d ns single thread, %d ns per record with 4 threads sharing%n",
+                    n, single / n, shared / (4L * n));
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(100000);
+        benchmark(10000000);
+    }
+}
@@ -0,0 +1,416 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * An open-loop load generator: it issues operations against a shared,
+ * thread-safe {@link TInterface} at a fixed target rate, whether or not
+ * earlier operations have finished, and measures each one's latency from
+ * the time it was <em>scheduled</em> to start.
+ * <p>
+ * A closed loop (call, wait, call again, as in {@link AVLTreeMain} or
+ * {@link LatencyBenchmark}) slows its own arrivals down whenever the
+ * structure stalls, so the requests that would have queued up behind a
+ * stall are never sent and never measured (coordinated omission). Here
+ * operation k is due at {@code start + k / rate}. A pool of worker threads
+ * takes the next due operation from a shared counter, waits for its time,
+ * runs it and records completion minus due time, which includes any time
+ * the operation spent waiting for a free worker. When the structure cannot
+ * keep up, that queueing delay grows and shows in the percentiles.
+ * <p>
+ * Operations still waiting once twice the run's duration has passed are
+ * not run but are still recorded, with how late they were at that point,
+ * so an overloaded run ends in bounded time without hiding its backlog.
+ * <p>
+ * Reads look up keys of a fixed populated set. Writes go to keys owned by
+ * one worker, which alternates inserting and removing them and therefore
+ * always knows whether a key is present; every insert is of a new key and
+ * every remove of a present one, which all implementations accept.
+ * <p>
+ * {@link #sweep} raises the offered rate until the structure saturates, to
+ * find its capacity under concurrent traffic. One platform thread per
+ * worker stands in for a thread per request; with enough workers to cover
+ * the longest stall, the measured queueing is the structure's.
+ * <pre>
+ *     java LoadGenerator [workers] [seconds per step] [output.csv]
+ * </pre>
+ */
+public final class LoadGenerator {
+    /** A run is saturated if it completes less than this share of the offered operations per second. */
+    public static final double MIN_ACHIEVED_SHARE = 0.95;
+
+    // Waits shorter than this are spun instead of parked, as a parked thread
+    // can wake tens of microseconds late, which would count as latency. With
+    // one processor a spinning worker only delays the one it waits for.
+    private static final long SPIN_NANOS = Runtime.getRuntime().availableProcessors() > 1 ? 100_000 : 0;
+
+    private final TInterface<Integer, Integer> tree;
+    private final int workers;
+    private final double readFraction;
+    private final Integer[] readKeys;
+    private final Integer[][] writeKeys;
+
+    /** The outcome of one run at one offered rate. */
+    public static final class Result {
+        private final double offeredRate;
+        private final double achievedRate;
+        private final long unserved;
+        private final LatencyHistogram latency;
+        private final LatencyHistogram service;
+
+        Result(double offeredRate, double achievedRate, long unserved, LatencyHistogram latency, LatencyHistogram service) {
+            this.offeredRate = offeredRate;
+            this.achievedRate = achievedRate;
+            this.unserved = unserved;
+            this.latency = latency;
+            this.service = service;
+        }
+
+        /** Operations per second scheduled. */
+        public double offeredRate() {
+            return offeredRate;
+        }
+
+        /** Operations per second completed, from the start to the last completion. */
+        public double achievedRate() {
+            return achievedRate;
+        }
+
+        /** Operations dropped for arriving too late; they are included in {@link #latency()}. */
+        public long unserved() {
+            return unserved;
+        }
+
+        /** Nanoseconds from each operation's scheduled start to its completion. */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /** Nanoseconds from each operation's actual start to its completion. */
+        public LatencyHistogram service() {
+            return service;
+        }
+
+        /**
+         * True if the run fell behind its schedule: it dropped operations,
+         * completed under {@link #MIN_ACHIEVED_SHARE} of the offered rate or
+         * had a 99th percentile latency over {@code p99LimitNanos}.
+         */
+        public boolean saturated(long p99LimitNanos) {
+            return unserved > 0 || achievedRate < MIN_ACHIEVED_SHARE * offeredRate
+                    || latency.valueAt(99) > p99LimitNanos;
+        }
+    }
+
+    /**
+     * Creates a generator and populates {@code tree} with its read keys.
+     *
+     * @param tree a structure that is safe to share, e.g. a {@link LockedTree} or {@link LockFreeBST}
+     * @param workers threads issuing operations
+     * @param keys keys populated for reads
+     * @param readFraction share of operations that are reads, 0 to 1
+     */
+    public LoadGenerator(TInterface<Integer, Integer> tree, int workers, int keys, double readFraction) {
+        if (tree == null) throw new IllegalArgumentException("tree is null");
+        if (workers < 1 || keys < 1) throw new IllegalArgumentException("workers and keys must be positive");
+        if (!(readFraction >= 0 && readFraction <= 1)) {
+            throw new IllegalArgumentException("readFraction must be 0 to 1: " + readFraction);
+        }
+        this.tree = tree;
+        this.workers = workers;
+        this.readFraction = readFraction;
+        // boxed once, so the measured loop does not allocate keys
+        readKeys = new Integer[keys];
+        for (int i = 0; i < keys; i++) {
+            readKeys[i] = LatencyBenchmark.scramble(i);
+            tree.insert(readKeys[i], readKeys[i]);
+        }
+        int perWorker = Math.max(16, keys / workers);
+        writeKeys = new Integer[workers][perWorker];
+        for (int w = 0; w < workers; w++) {
+            for (int i = 0; i < perWorker; i++) {
+                writeKeys[w][i] = LatencyBenchmark.scramble(keys + w * perWorker + i);
+            }
+        }
+    }
+
+    /**
+     * Offers {@code rate} operations per second for {@code durationNanos}.
+     * Each worker records into its own histograms, merged at the end.
+     */
+    public Result run(double rate, long durationNanos, long seed) {
+        if (!(rate > 0) || durationNanos <= 0) throw new IllegalArgumentException("rate and duration must be positive");
+        long total = Math.max(1, (long) (rate * durationNanos / 1e9));
+        double interval = 1e9 / rate;
+        AtomicLong next = new AtomicLong();
+        AtomicLong unserved = new AtomicLong();
+        AtomicLong lastCompletion = new AtomicLong();
+        AtomicLong completed = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LatencyHistogram[] latencies = new LatencyHistogram[workers];
+        LatencyHistogram[] services = new LatencyHistogram[workers];
+        Thread[] threads = new Thread[workers];
+        long start = System.nanoTime() + 10_000_000; // lets every worker start before the first operation is due
+        long cutoff = start + 2 * durationNanos;
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            latencies[w] = new LatencyHistogram();
+            services[w] = new LatencyHistogram();
+            threads[w] = new Thread(() -> {
+                try {
+                    SplittableRandom random = new SplittableRandom(seed * 31 + worker);
+                    Integer[] owned = writeKeys[worker];
+                    boolean[] present = new boolean[owned.length];
+                    LatencyHistogram latency = latencies[worker];
+                    LatencyHistogram service = services[worker];
+                    long done = 0;
+                    long served = 0;
+                    for (long k = next.getAndIncrement(); k < total && failure.get() == null; k = next.getAndIncrement()) {
+                        long due = start + (long) (k * interval);
+                        awaitTime(due);
+                        long began = System.nanoTime();
+                        if (began > cutoff) {
+                            latency.record(began - due);
+                            unserved.incrementAndGet();
+                            continue;
+                        }
+                        if (random.nextDouble() < readFraction) {
+                            Integer key = readKeys[random.nextInt(readKeys.length)];
+                            if (tree.get(key) == null) throw new IllegalStateException("lost key " + key);
+                        } else {
+                            int i = random.nextInt(owned.length);
+                            if (present[i]) {
+                                tree.remove(owned[i]);
+                            } else {
+                                tree.insert(owned[i], owned[i]);
+                            }
+                            present[i] = !present[i];
+                        }
+                        done = System.nanoTime();
+                        latency.record(done - due);
+                        service.record(done - began);
+                        served++;
+                    }
+                    lastCompletion.accumulateAndGet(done, Math::max);
+                    completed.addAndGet(served);
+                    // leave the write keys absent for the next run
+                    for (int i = 0; i < owned.length; i++) {
+                        if (present[i]) tree.remove(owned[i]);
+                    }
+                } catch (Throwable e) {
+                    // stops the other workers too; run() rethrows it
+                    failure.compareAndSet(null, e);
+                }
+            }, "load-" + w);
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the workers", e);
+            }
+        }
+        if (failure.get() != null) throw new IllegalStateException("load worker failed", failure.get());
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram service = new LatencyHistogram();
+        for (int w = 0; w < workers; w++) {
+            latency.add(latencies[w]);
+            service.add(services[w]);
+        }
+        double elapsed = Math.max(lastCompletion.get() - start, interval);
+        return new Result(rate, completed.get() * 1e9 / elapsed, unserved.get(), latency, service);
+    }
+
+    // Parks until shortly before due, then spins; returns at once if due has passed
+    private static void awaitTime(long due) {
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            if (wait > SPIN_NANOS) {
+                LockSupport.parkNanos(wait - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Runs at {@code startRate}, then at {@code factor} times the previous
+     * rate, until a run is {@link Result#saturated saturated} or
+     * {@code maxSteps} runs are done. The last unsaturated rate is the
+     * structure's capacity at this load mix.
+     *
+     * @return the results, in increasing rate
+     */
+    public List<Result> sweep(double startRate, double factor, int maxSteps, long durationNanos, long p99LimitNanos) {
+        if (!(factor > 1)) throw new IllegalArgumentException("factor must be above 1: " + factor);
+        List<Result> results = new ArrayList<>();
+        double rate = startRate;
+        for (int step = 0; step < maxSteps; step++, rate *= factor) {
+            Result result = run(rate, durationNanos, step);
+            results.add(result);
+            if (result.saturated(p99LimitNanos)) break;
+        }
+        return results;
+    }
+
+    /** Returns the highest rate of {@code results} that did not saturate, or 0 if the first did. */
+    public static double capacity(List<Result> results, long p99LimitNanos) {
+        double capacity = 0;
+        for (Result result : results) {
+            if (result.saturated(p99LimitNanos)) break;
+            capacity = result.offeredRate();
+        }
+        return capacity;
+    }
+
+    public static final String CSV_HEADER = "structure,offered_per_s,achieved_per_s,unserved,"
+            + LatencyHistogram.CSV_HEADER + ",service_p99";
+
+    static String csvRow(String structure, Result result) {
+        return String.format("%s,%.0f,%.0f,%d,%s,%d", structure, result.offeredRate(), result.achievedRate(),
+                result.unserved(), result.latency().toCsvRow(), result.service().valueAt(99));
+    }
+
+    // Wraps everything but the lock-free tree in a LockedTree
+    static TInterface<Integer, Integer> shared(TInterface<Integer, Integer> tree) {
+        return tree instanceof LockFreeBST ? tree : LockedTree.wrap(tree);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4 * Runtime.getRuntime().availableProcessors();
+        long duration = (long) ((args.length > 1 ? Double.parseDouble(args[1]) : 1.0) * 1e9);
+        long p99Limit = 10_000_000;
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : LatencyBenchmark.structures().entrySet()) {
+            LoadGenerator generator = new LoadGenerator(shared(structure.getValue().get()), workers, 100_000, 0.9);
+            generator.run(20_000, duration / 2, -1); // warm-up
+            List<Result> results = generator.sweep(20_000, 2, 12, duration, p99Limit);
+            for (Result result : results) {
+                csv.append(csvRow(structure.getKey(), result)).append('\n');
+            }
+            summary.append(String.format("%s: capacity %.0f ops/s with %d workers, p99 under %d ms%n",
+                    structure.getKey(), capacity(results, p99Limit), workers, p99Limit / 1_000_000));
+        }
+        if (args.length > 2) {
+            Files.write(Paths.get(args[2]), csv.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(csv);
+        }
+        System.out.print(summary);
+    }
+}
+
+class LoadGeneratorTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Takes a fixed time per get, like a structure with a slow lock
+    private static final class SlowTree implements TInterface<Integer, Integer> {
+        private final TInterface<Integer, Integer> tree = LockedTree.wrap(new AVLTree<Integer>());
+        private final long getNanos;
+
+        SlowTree(long getNanos) {
+            this.getNanos = getNanos;
+        }
+
+        public synchronized Integer get(Integer key) {
+            long until = System.nanoTime() + getNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            return tree.get(key);
+        }
+
+        public void insert(Integer key, Integer value) {
+            tree.insert(key, value);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+    }
+
+    public static void doTests(int n) {
+        // every structure serves a light load
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : LatencyBenchmark.structures().entrySet()) {
+            TInterface<Integer, Integer> tree = LoadGenerator.shared(structure.getValue().get());
+            LoadGenerator generator = new LoadGenerator(tree, 2, n, 0.5);
+            LoadGenerator.Result result = generator.run(5_000, 100_000_000, 1);
+            myAssert(result.latency().count() == 500 && result.service().count() == 500);
+            myAssert(result.unserved() == 0);
+            // latency counts from the schedule, so it is never below the service time
+            myAssert(result.latency().valueAt(50) >= result.service().valueAt(50) && result.latency().max() >= result.service().max());
+            // the write keys are left absent, the read keys present
+            myAssert(tree.contains(LatencyBenchmark.scramble(0)) && !tree.contains(LatencyBenchmark.scramble(n)));
+        }
+
+        // 1 ms per get caps a tree at 1000 gets/s. Offered 2000/s, a closed
+        // loop would see 1 ms every time; measured from the schedule, the
+        // backlog shows up as latency far above the service time.
+        LoadGenerator slow = new LoadGenerator(new SlowTree(1_000_000), 4, n, 1.0);
+        LoadGenerator.Result overloaded = slow.run(2_000, 200_000_000, 2);
+        myAssert(overloaded.service().valueAt(50) < 5_000_000);
+        myAssert(overloaded.latency().valueAt(99) > 50_000_000);
+        myAssert(overloaded.achievedRate() < 1_500);
+        myAssert(overloaded.saturated(10_000_000));
+        myAssert(overloaded.latency().count() == 400);
+
+        List<LoadGenerator.Result> results = new LoadGenerator(new SlowTree(1_000_000), 4, n, 1.0)
+                .sweep(250, 2, 6, 200_000_000, 10_000_000);
+        myAssert(results.get(results.size() - 1).saturated(10_000_000));
+        double capacity = LoadGenerator.capacity(results, 10_000_000);
+        myAssert(capacity >= 250 && capacity <= 1_000);
+        myAssert(LoadGenerator.csvRow("Slow", results.get(0)).split(",").length == LoadGenerator.CSV_HEADER.split(",").length);
+
+        // a worker that fails fails the run, rather than leaving a rate that counts what it never did
+        TInterface<Integer, Integer> forgetful = LockedTree.wrap(new BSTPrinceton<Integer, Integer>() {
+            public Integer get(Integer key) {
+                return null;
+            }
+        });
+        boolean thrown = false;
+        try {
+            new LoadGenerator(forgetful, 2, n, 1.0).run(5_000, 100_000_000, 3);
+        } catch (IllegalStateException e) {
+            thrown = e.getCause() != null && e.getCause().getMessage().startsWith("lost key");
+        }
+        myAssert(thrown);
+    }
+
+    @Override
+    public void test() {
+        doTests(1000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(1000);
+    }
+}
@@ -0,0 +1,472 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicStampedReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, leaf-oriented (external) binary search tree.
+ * <p>
+ * Keys and values live only in the leaves; internal nodes just route the
+ * search. Removal works on edges rather than nodes, following
+ * Natarajan and Mittal, "Fast Concurrent Lock-Free Binary Search Trees"
+ * (PPoPP 2014): a remover first <em>flags</em> the edge to the leaf it
+ * deletes, then <em>tags</em> the sibling edge so that it can no longer
+ * change, and finally swings the edge above the parent over to the sibling
+ * with a single CAS. Any thread that runs into a flagged or tagged edge helps
+ * finish the pending removal before retrying its own operation, so no thread
+ * ever blocks on another.
+ * <p>
+ * {@code insert}, {@code remove} and {@code get} are linearizable. Inserting a
+ * key that is already present replaces its leaf with a CAS on the parent edge
+ * instead of writing into the old leaf, so an overwrite can never be lost to a
+ * concurrent removal of the same key.
+ * <p>
+ * Like {@link BSTPrinceton} the tree is not balanced, so it is intended for
+ * random-key workloads. Null keys are rejected and, as in
+ * {@code BSTPrinceton}, inserting a {@code null} value removes the key.
+ * <p>
+ * cite: <a href="https://dl.acm.org/doi/10.1145/2555243.2555256">Natarajan and Mittal, PPoPP 2014</a>
+ */
+public class LockFreeBST<Key extends Comparable<Key>, Value> implements TInterface<Key, Value> {
+    // Stamp bits carried on every child edge
+    private static final int FLAG = 1;  // the leaf below this edge is being removed
+    private static final int TAG = 2;   // this edge is frozen, its parent is being spliced out
+
+    // Sentinel keys: every real key is smaller than INF0 < INF1 < INF2
+    private static final int INF0 = 1;
+    private static final int INF1 = 2;
+    private static final int INF2 = 3;
+
+    private final Node root;            // R, keyed INF2
+    private final Node sentinel;        // S, keyed INF1, left child of R
+    private final LongAdder size = new LongAdder();
+
+    private class Node {
+        private final Key key;          // null for the sentinel keys
+        private final int inf;          // 0 for a real key, INF0..INF2 otherwise
+        private final Value val;        // only meaningful in a leaf
+        // both null for a leaf, both non-null for an internal node
+        private final AtomicStampedReference<Node> left, right;
+
+        // leaf
+        Node(Key key, int inf, Value val) {
+            this.key = key;
+            this.inf = inf;
+            this.val = val;
+            this.left = null;
+            this.right = null;
+        }
+
+        // internal node
+        Node(Key key, int inf, Node left, Node right) {
+            this.key = key;
+            this.inf = inf;
+            this.val = null;
+            this.left = new AtomicStampedReference<>(left, 0);
+            this.right = new AtomicStampedReference<>(right, 0);
+        }
+
+        boolean isLeaf() {
+            return left == null;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("[");
+            sb.append(inf == 0 ? String.valueOf(key) : "inf" + (inf - 1));
+            if (isLeaf()) {
+                sb.append(",");
+                sb.append(val);
+            }
+            sb.append("]");
+            return sb.toString();
+        }
+    }
+
+    // Result of seek(): the last untagged edge ancestor -> successor on the
+    // access path, and the leaf where the search for the key ended.
+    private class SeekRecord {
+        Node ancestor;
+        Node successor;
+        Node parent;
+        Node leaf;
+    }
+
+    public LockFreeBST() {
+        Node inf0 = new Node(null, INF0, (Value) null);
+        Node inf1 = new Node(null, INF1, (Value) null);
+        Node inf2 = new Node(null, INF2, (Value) null);
+        sentinel = new Node(null, INF1, inf0, inf1);
+        root = new Node(null, INF2, sentinel, inf2);
+    }
+
+    // compare a real key against a node, treating the sentinels as +infinity
+    private int compare(Key key, Node x) {
+        if (x.inf != 0) return -1;
+        return key.compareTo(x.key);
+    }
+
+    private boolean matches(Key key, Node leaf) {
+        return leaf.inf == 0 && key.compareTo(leaf.key) == 0;
+    }
+
+    private AtomicStampedReference<Node> child(Node x, Key key) {
+        return compare(key, x) < 0 ? x.left : x.right;
+    }
+
+    private SeekRecord seek(Key key) {
+        SeekRecord s = new SeekRecord();
+        s.ancestor = root;
+        s.successor = sentinel;
+        s.parent = sentinel;
+        s.leaf = sentinel.left.getReference();
+
+        AtomicStampedReference<Node> parentField = sentinel.left;
+        AtomicStampedReference<Node> currentField = s.leaf.left;
+        Node current = currentField == null ? null : currentField.getReference();
+        while (current != null) {
+            // move the ancestor down only across untagged edges
+            if ((parentField.getStamp() & TAG) == 0) {
+                s.ancestor = s.parent;
+                s.successor = s.leaf;
+            }
+            s.parent = s.leaf;
+            s.leaf = current;
+
+            parentField = currentField;
+            currentField = child(current, key);
+            current = currentField == null ? null : currentField.getReference();
+        }
+        return s;
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param key the key
+     * @return the value associated with the given key, or {@code null} if absent
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = child(x, key).getReference();
+        }
+        return matches(key, x) ? x.val : null;
+    }
+
+    public boolean contains(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to contains() is null");
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the key-value pair, replacing the value if the key is already
+     * present. A {@code null} value removes the key.
+     *
+     * @param key the key
+     * @param val the value
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public void insert(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("calls insert() with a null key");
+        if (val == null) {
+            remove(key);
+            return;
+        }
+        int[] stamp = new int[1];
+        while (true) {
+            SeekRecord s = seek(key);
+            Node leaf = s.leaf;
+            AtomicStampedReference<Node> childField = child(s.parent, key);
+
+            Node newLeaf = new Node(key, 0, val);
+            Node replacement;
+            boolean added;
+            if (matches(key, leaf)) {
+                replacement = newLeaf;
+                added = false;
+            } else if (compare(key, leaf) < 0) {
+                // the new internal node routes on the larger of the two keys
+                replacement = new Node(leaf.key, leaf.inf, newLeaf, leaf);
+                added = true;
+            } else {
+                replacement = new Node(key, 0, leaf, newLeaf);
+                added = true;
+            }
+
+            if (childField.compareAndSet(leaf, replacement, 0, 0)) {
+                if (added) size.increment();
+                return;
+            }
+            // the edge changed under us; if a removal owns it, help it finish
+            Node address = childField.get(stamp);
+            if (address == leaf && stamp[0] != 0) {
+                cleanup(key, s);
+            }
+        }
+    }
+
+    /**
+     * Removes the key and its value, if present.
+     *
+     * @param key the key
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls remove() with a null key");
+        int[] stamp = new int[1];
+        boolean injected = false;
+        Node leaf = null;
+        while (true) {
+            SeekRecord s = seek(key);
+            AtomicStampedReference<Node> childField = child(s.parent, key);
+            if (!injected) {
+                leaf = s.leaf;
+                if (!matches(key, leaf)) return;
+                // injection: flag the edge to the leaf, this is the linearization point
+                if (childField.compareAndSet(leaf, leaf, 0, FLAG)) {
+                    injected = true;
+                    size.decrement();
+                    if (cleanup(key, s)) return;
+                } else {
+                    Node address = childField.get(stamp);
+                    if (address == leaf && stamp[0] != 0) {
+                        cleanup(key, s);
+                    }
+                }
+            } else {
+                // cleanup: someone may have already spliced the leaf out for us
+                if (s.leaf != leaf) return;
+                if (cleanup(key, s)) return;
+            }
+        }
+    }
+
+    // Splice out s.parent together with its flagged child. Returns true if
+    // this call performed the splice.
+    private boolean cleanup(Key key, SeekRecord s) {
+        Node ancestor = s.ancestor;
+        Node successor = s.successor;
+        Node parent = s.parent;
+
+        AtomicStampedReference<Node> successorField = child(ancestor, key);
+        AtomicStampedReference<Node> childField;
+        AtomicStampedReference<Node> siblingField;
+        if (compare(key, parent) < 0) {
+            childField = parent.left;
+            siblingField = parent.right;
+        } else {
+            childField = parent.right;
+            siblingField = parent.left;
+        }
+        // if our side is not flagged, the leaf being removed is on the other side
+        if ((childField.getStamp() & FLAG) == 0) {
+            siblingField = childField;
+        }
+
+        // freeze the edge that survives so it cannot change while we move it up
+        int[] stamp = new int[1];
+        Node sibling;
+        while (true) {
+            sibling = siblingField.get(stamp);
+            if ((stamp[0] & TAG) != 0) break;
+            if (siblingField.compareAndSet(sibling, sibling, stamp[0], stamp[0] | TAG)) {
+                stamp[0] |= TAG;
+                break;
+            }
+        }
+
+        // move the sibling up, keeping its flag but dropping the tag
+        return successorField.compareAndSet(successor, sibling, 0, stamp[0] & FLAG);
+    }
+
+    /**
+     * Returns the number of key-value pairs. The count is exact when the tree
+     * is quiescent and approximate while updates are in flight.
+     *
+     * @return the number of key-value pairs
+     */
+    public int size() {
+        return size.intValue();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Throws IllegalStateException if an edge is still flagged or tagged, a
+    // leaf is on the wrong side of a routing key, or the size is off. Only
+    // meaningful while no update is in flight.
+    void checkShape() {
+        int leaves = checkShape(root, null, null);
+        if (leaves != size()) {
+            throw new IllegalStateException(leaves + " keys in the leaves but size() is " + size());
+        }
+    }
+
+    // Checks the subtree of x, whose nodes lie in [lo, hi); returns its number of real leaves
+    private int checkShape(Node x, Node lo, Node hi) {
+        if ((lo != null && order(x, lo) < 0) || (hi != null && order(x, hi) >= 0)) {
+            throw new IllegalStateException("Node " + x + " is outside [" + lo + ", " + hi + ")");
+        }
+        if (x.isLeaf()) return x.inf == 0 ? 1 : 0;
+        if (x.left.getStamp() != 0 || x.right.getStamp() != 0) {
+            throw new IllegalStateException("Node " + x + " has a pending removal below it");
+        }
+        return checkShape(x.left.getReference(), lo, x) + checkShape(x.right.getReference(), x, hi);
+    }
+
+    // orders nodes by key, the sentinels above every real key
+    private int order(Node a, Node b) {
+        if (a.inf != b.inf) return Integer.compare(a.inf, b.inf);
+        return a.inf == 0 ? a.key.compareTo(b.key) : 0;
+    }
+
+    // -- toString() -----------------------------------------------------------------------------
+    // Adapted from https://www.baeldung.com/java-print-binary-tree-diagram
+    public void traverseNodes(StringBuilder sb, String padding, String pointer, Node node,
+                              boolean hasRightSibling) {
+        sb.append("\n");
+        sb.append(padding);
+        sb.append(pointer);
+        sb.append(node);
+        if (node.isLeaf()) return;
+
+        StringBuilder paddingBuilder = new StringBuilder(padding);
+        if (hasRightSibling) {
+            paddingBuilder.append("│  ");
+        } else {
+            paddingBuilder.append("   ");
+        }
+
+        String paddingForBoth = paddingBuilder.toString();
+        traverseNodes(sb, paddingForBoth, "├──", node.left.getReference(), true);
+        traverseNodes(sb, paddingForBoth, "└──", node.right.getReference(), false);
+    }
+
+    public String traversePreOrder(Node root) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(root);
+        traverseNodes(sb, "", "├──", root.left.getReference(), true);
+        traverseNodes(sb, "", "└──", root.right.getReference(), false);
+        return sb.toString();
+    }
+
+    // Prints only the part of the tree holding real keys, which hangs off the
+    // left edge of the internal node keyed INF0 below the sentinel
+    public String toString() {
+        Node x = sentinel.left.getReference();
+        if (x.isLeaf()) {
+            return "";
+        }
+        x = x.left.getReference();
+        if (x.isLeaf()) {
+            return x.toString();
+        }
+        return traversePreOrder(x);
+    }
+}
+
+class LockFreeBSTTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    private static void insertKV(LockFreeBST<Integer, Integer> bst, Integer key, Integer value) {
+        myAssert(!bst.contains(key));
+        bst.insert(key, value);
+        myAssert(bst.contains(key));
+    }
+
+    private static void deleteK(LockFreeBST<Integer, Integer> bst, Integer key) {
+        myAssert(bst.contains(key));
+        bst.remove(key);
+        myAssert(!bst.contains(key));
+    }
+
+    public static void doTests(LockFreeBST<Integer, Integer> bst) {
+        Integer[] keys = {3, 1, 5, 0, 2, 4, 7, 6};
+        Integer[] values = {13, 11, 15, 10, 12, 14, 17, 16};
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            myAssert(bst.size() == size++);
+            insertKV(bst, keys[i], values[i]);
+            System.out.println(bst);
+        }
+        bst.insert(5, 50);
+        myAssert(bst.get(5) == 50);
+        myAssert(bst.size() == keys.length);
+        bst.checkShape();
+        for (Integer key : keys) {
+            deleteK(bst, key);
+        }
+        myAssert(bst.isEmpty());
+        bst.checkShape();
+    }
+
+    // Each thread owns a disjoint stripe of keys, so the final contents are known.
+    // Keys go in shuffled because the tree is unbalanced.
+    public static void concurrentTests(LockFreeBST<Integer, Integer> bst) throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 20000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    order.add(i);
+                }
+                Collections.shuffle(order, new Random(id));
+                for (int i : order) {
+                    bst.insert(i * threads + id, i);
+                }
+                for (int i : order) {
+                    if (i % 2 == 0) bst.remove(i * threads + id);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        for (int i = 0; i < perThread; i++) {
+            for (int t = 0; t < threads; t++) {
+                myAssert(bst.contains(i * threads + t) == (i % 2 == 1));
+            }
+        }
+        myAssert(bst.size() == threads * perThread / 2);
+        bst.checkShape();
+    }
+
+    @Override
+    public void test() {
+        doTests(new LockFreeBST<>());
+        try {
+            concurrentTests(new LockFreeBST<>());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        doTests(new LockFreeBST<>());
+        concurrentTests(new LockFreeBST<>());
+    }
+}
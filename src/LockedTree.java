@@ -0,0 +1,448 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Makes any {@link TInterface} safe to share between threads by guarding it
+ * with a {@link StampedLock}, and records how long each operation waited for
+ * the lock and how long it held it.
+ * <p>
+ * Writes ({@code insert}, {@code remove}) always take the write lock. How
+ * reads ({@code get}, {@code contains}) are guarded depends on the
+ * {@link ReadMode}:
+ * <ul>
+ * <li>{@code OPTIMISTIC} runs the read without locking and validates the stamp
+ * afterwards, retrying under the read lock if a writer got in. A read that
+ * trips over a half-finished write (and throws) is retried the same way.
+ * Only structures whose reads are known to terminate while a writer is
+ * mid-rotation may use it; a racy descent through an ordinary tree can meet
+ * a transient cycle and never come back.</li>
+ * <li>{@code SHARED} takes the read lock.</li>
+ * <li>{@code EXCLUSIVE} takes the write lock, for structures such as
+ * {@link SplayTree} whose {@code get} restructures the tree.</li>
+ * </ul>
+ * {@link #wrap(TInterface)} picks {@code EXCLUSIVE} for a {@code SplayTree}
+ * and a {@link DiskBPlusTree}, whose reads can evict pages, {@code OPTIMISTIC} for
+ * the structures in {@link #OPTIMISTIC_SAFE} and {@code SHARED} for
+ * everything else.
+ * <p>
+ * The lock statistics are meant as a baseline for judging lock contention
+ * before reaching for a lock-free structure such as {@link LockFreeBST}.
+ */
+public class LockedTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value> {
+    public enum ReadMode { OPTIMISTIC, SHARED, EXCLUSIVE }
+
+    public enum Op { GET, CONTAINS, INSERT, REMOVE, GET_ALL, INSERT_ALL }
+
+    /**
+     * The structures whose reads stay bounded and side-effect free however a
+     * concurrent writer interleaves with them, matched by exact class.
+     * <p>
+     * A {@link BTree} node never changes level: splits and merges move keys
+     * and children between nodes of one level and only add or drop a root, so
+     * even a descent through stale links moves one level down per step and
+     * stops within the height. A half-built node shows up as a null key or
+     * child, which throws and is retried. {@link AVLTree} and
+     * {@link RedBlackTree} are left out: a rotation moves nodes between levels,
+     * and a reader that sees half of one can loop between two nodes forever.
+     */
+    static final Set<Class<?>> OPTIMISTIC_SAFE = Set.of(LockFreeBST.class, BTree.class);
+
+    private final TInterface<Key, Value> tree;
+    private final ReadMode readMode;
+    private final StampedLock lock = new StampedLock();
+    private final Map<Op, OpStats> stats = new EnumMap<>(Op.class);
+
+    public LockedTree(TInterface<Key, Value> tree, ReadMode readMode) {
+        if (tree == null) throw new IllegalArgumentException("tree is null");
+        if (readMode == null) throw new IllegalArgumentException("readMode is null");
+        if (readMode == ReadMode.OPTIMISTIC && !OPTIMISTIC_SAFE.contains(tree.getClass())) {
+            throw new IllegalArgumentException(tree.getClass().getSimpleName() + " is not safe for optimistic reads");
+        }
+        this.tree = tree;
+        this.readMode = readMode;
+        for (Op op : Op.values()) {
+            stats.put(op, new OpStats());
+        }
+    }
+
+    /**
+     * Wraps {@code tree}, choosing the read mode from its type.
+     *
+     * @param tree the structure to guard
+     * @return the thread-safe wrapper
+     */
+    public static <Key extends Comparable<Key>, Value> LockedTree<Key, Value> wrap(TInterface<Key, Value> tree) {
+        boolean mutatingReads = tree instanceof SplayTree || tree instanceof DiskBPlusTree;
+        ReadMode mode = mutatingReads ? ReadMode.EXCLUSIVE
+                : OPTIMISTIC_SAFE.contains(tree.getClass()) ? ReadMode.OPTIMISTIC : ReadMode.SHARED;
+        return new LockedTree<>(tree, mode);
+    }
+
+    public ReadMode readMode() {
+        return readMode;
+    }
+
+    public void insert(Key key, Value value) {
+        OpStats s = stats.get(Op.INSERT);
+        long start = System.nanoTime();
+        long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        try {
+            tree.insert(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    public void remove(Key key) {
+        OpStats s = stats.get(Op.REMOVE);
+        long start = System.nanoTime();
+        long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        try {
+            tree.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    public Value get(Key key) {
+        OpStats s = stats.get(Op.GET);
+        if (readMode == ReadMode.OPTIMISTIC) {
+            long start = System.nanoTime();
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Value value = tree.get(key);
+                    if (lock.validate(stamp)) {
+                        s.recordOptimistic(System.nanoTime() - start);
+                        return value;
+                    }
+                } catch (RuntimeException | StackOverflowError e) {
+                    // a writer moved things under us, or the key is genuinely bad;
+                    // the locked retry below tells the two apart
+                }
+            }
+            s.optimisticFailures.increment();
+        }
+        long start = System.nanoTime();
+        long stamp = readMode == ReadMode.EXCLUSIVE ? lock.writeLock() : lock.readLock();
+        long acquired = System.nanoTime();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.unlock(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    public boolean contains(Key key) {
+        OpStats s = stats.get(Op.CONTAINS);
+        if (readMode == ReadMode.OPTIMISTIC) {
+            long start = System.nanoTime();
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    boolean found = tree.contains(key);
+                    if (lock.validate(stamp)) {
+                        s.recordOptimistic(System.nanoTime() - start);
+                        return found;
+                    }
+                } catch (RuntimeException | StackOverflowError e) {
+                    // see get()
+                }
+            }
+            s.optimisticFailures.increment();
+        }
+        long start = System.nanoTime();
+        long stamp = readMode == ReadMode.EXCLUSIVE ? lock.writeLock() : lock.readLock();
+        long acquired = System.nanoTime();
+        try {
+            return tree.contains(key);
+        } finally {
+            lock.unlock(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    // A batch holds the lock once for all of its keys. Batches are long enough
+    // that an optimistic attempt would rarely validate, so they take the read lock.
+    public int getAll(Key[] keys, Value[] results) {
+        OpStats s = stats.get(Op.GET_ALL);
+        long start = System.nanoTime();
+        long stamp = readMode == ReadMode.EXCLUSIVE ? lock.writeLock() : lock.readLock();
+        long acquired = System.nanoTime();
+        try {
+            return tree.getAll(keys, results);
+        } finally {
+            lock.unlock(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    public void insertAll(Key[] keys, Value[] values) {
+        OpStats s = stats.get(Op.INSERT_ALL);
+        long start = System.nanoTime();
+        long stamp = lock.writeLock();
+        long acquired = System.nanoTime();
+        try {
+            tree.insertAll(keys, values);
+        } finally {
+            lock.unlockWrite(stamp);
+            s.record(acquired - start, System.nanoTime() - acquired);
+        }
+    }
+
+    /**
+     * Runs {@code action} on the wrapped structure under the write lock, for
+     * operations that {@link TInterface} does not cover.
+     *
+     * @param action the action to run
+     */
+    public void withWriteLock(Runnable action) {
+        long stamp = lock.writeLock();
+        try {
+            action.run();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // -- Lock statistics ----------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the lock statistics for one operation type.
+     *
+     * @param op the operation
+     * @return the statistics recorded since construction or the last reset
+     */
+    public LockStats stats(Op op) {
+        return stats.get(op).snapshot(op);
+    }
+
+    public void resetStats() {
+        for (OpStats s : stats.values()) {
+            s.reset();
+        }
+    }
+
+    /**
+     * Returns one line per operation type with its lock statistics.
+     *
+     * @return the formatted statistics
+     */
+    public String statsReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Op op : Op.values()) {
+            sb.append(stats(op)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    // Counters are LongAdders so that recording does not itself become a
+    // point of contention between the threads we are measuring.
+    private static class OpStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder holdNanos = new LongAdder();
+        final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+        final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder optimisticHits = new LongAdder();
+        final LongAdder optimisticFailures = new LongAdder();
+
+        void record(long wait, long hold) {
+            count.increment();
+            waitNanos.add(wait);
+            holdNanos.add(hold);
+            maxWaitNanos.accumulate(wait);
+            maxHoldNanos.accumulate(hold);
+        }
+
+        // a validated optimistic read never waits; its whole duration counts as hold time
+        void recordOptimistic(long hold) {
+            optimisticHits.increment();
+            record(0, hold);
+        }
+
+        void reset() {
+            count.reset();
+            waitNanos.reset();
+            holdNanos.reset();
+            maxWaitNanos.reset();
+            maxHoldNanos.reset();
+            optimisticHits.reset();
+            optimisticFailures.reset();
+        }
+
+        LockStats snapshot(Op op) {
+            return new LockStats(op, count.sum(), waitNanos.sum(), maxWaitNanos.get(),
+                    holdNanos.sum(), maxHoldNanos.get(), optimisticHits.sum(), optimisticFailures.sum());
+        }
+    }
+
+    /**
+     * Immutable snapshot of the lock statistics for one operation type.
+     * All times are in nanoseconds.
+     */
+    public static class LockStats {
+        public final Op op;
+        public final long count;
+        public final long totalWaitNanos;
+        public final long maxWaitNanos;
+        public final long totalHoldNanos;
+        public final long maxHoldNanos;
+        public final long optimisticHits;
+        public final long optimisticFailures;
+
+        LockStats(Op op, long count, long totalWaitNanos, long maxWaitNanos, long totalHoldNanos,
+                  long maxHoldNanos, long optimisticHits, long optimisticFailures) {
+            this.op = op;
+            this.count = count;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.totalHoldNanos = totalHoldNanos;
+            this.maxHoldNanos = maxHoldNanos;
+            this.optimisticHits = optimisticHits;
+            this.optimisticFailures = optimisticFailures;
+        }
+
+        public double meanWaitNanos() {
+            return count == 0 ? 0 : (double) totalWaitNanos / count;
+        }
+
+        public double meanHoldNanos() {
+            return count == 0 ? 0 : (double) totalHoldNanos / count;
+        }
+
+        public String toString() {
+            return String.format("%-10s n=%d wait(mean=%.0fns max=%dns) hold(mean=%.0fns max=%dns) optimistic(hit=%d miss=%d)",
+                    op, count, meanWaitNanos(), maxWaitNanos, meanHoldNanos(), maxHoldNanos,
+                    optimisticHits, optimisticFailures);
+        }
+    }
+
+    public String toString() {
+        long stamp = readMode == ReadMode.EXCLUSIVE ? lock.writeLock() : lock.readLock();
+        try {
+            return tree.toString();
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+}
+
+class LockedTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Writers own disjoint stripes of keys while readers hammer the same tree
+    public static void concurrentTests(LockedTree<Integer, Integer> tree) throws InterruptedException {
+        final int writers = 4;
+        final int readers = 4;
+        final int perThread = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    order.add(i);
+                }
+                Collections.shuffle(order, new Random(id));
+                for (int i : order) {
+                    tree.insert(i * writers + id, i);
+                }
+                for (int i : order) {
+                    if (i % 2 == 0) tree.remove(i * writers + id);
+                }
+            }));
+        }
+        for (int t = 0; t < readers; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(100 + id);
+                for (int i = 0; i < perThread * 2; i++) {
+                    int key = random.nextInt(perThread * writers);
+                    Integer value = tree.get(key);
+                    myAssert(value == null || value == key / writers);
+                    tree.contains(key);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < perThread; i++) {
+            for (int t = 0; t < writers; t++) {
+                myAssert(tree.contains(i * writers + t) == (i % 2 == 1));
+            }
+        }
+        myAssert(tree.stats(LockedTree.Op.INSERT).count == writers * perThread);
+        System.out.println(tree.readMode());
+        System.out.print(tree.statsReport());
+    }
+
+    // Only whitelisted structures read optimistically; the rest default to the read lock
+    public static void readModeTests() {
+        myAssert(LockedTree.wrap(new BSTPrinceton<Integer, Integer>()).readMode() == LockedTree.ReadMode.SHARED);
+        myAssert(LockedTree.wrap(new RedBlackTree<Integer>()).readMode() == LockedTree.ReadMode.SHARED);
+        myAssert(LockedTree.wrap(new LockFreeBST<Integer, Integer>()).readMode() == LockedTree.ReadMode.OPTIMISTIC);
+        myAssert(LockedTree.wrap(new BTree<Integer, Integer>()).readMode() == LockedTree.ReadMode.OPTIMISTIC);
+        myAssert(LockedTree.wrap(new SplayTree<Integer, Integer>()).readMode() == LockedTree.ReadMode.EXCLUSIVE);
+        boolean thrown = false;
+        try {
+            new LockedTree<>(new AVLTree<Integer>(), LockedTree.ReadMode.OPTIMISTIC);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        myAssert(thrown);
+    }
+
+    @Override
+    public void test() {
+        readModeTests();
+        try {
+            concurrentTests(LockedTree.wrap(new BSTPrinceton<Integer, Integer>()));
+            concurrentTests(LockedTree.wrap(new LockFreeBST<Integer, Integer>()));
+            concurrentTests(LockedTree.wrap(new BTree<Integer, Integer>(4)));
+            concurrentTests(LockedTree.wrap(new SkipList<Integer, Integer>()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        readModeTests();
+        concurrentTests(LockedTree.wrap(new BSTPrinceton<Integer, Integer>()));
+        concurrentTests(LockedTree.wrap(new LockFreeBST<Integer, Integer>()));
+        concurrentTests(LockedTree.wrap(new BTree<Integer, Integer>(4)));
+        concurrentTests(LockedTree.wrap(new SkipList<Integer, Integer>()));
+        concurrentTests(LockedTree.wrap(new SplayTree<Integer, Integer>()));
+    }
+}
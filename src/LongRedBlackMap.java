@@ -0,0 +1,435 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * A red-black tree map from {@code long} keys to values, with no boxing.
+ * <p>
+ * This is the left-leaning red-black tree of Sedgewick's <i>Algorithms</i>
+ * (the family {@link BSTPrinceton} comes from) with the key held in a
+ * {@code long} field of the node. Left-leaning trees need no parent pointers,
+ * so a node is the key, the value, two children and a colour bit; compared
+ * with {@link RedBlackTree} there is no parent link and no {@code Long} object
+ * per key, and comparisons are plain {@code long} compares.
+ * <p>
+ * As with {@link IntAVLMap}, the primitive methods are the fast path and the
+ * {@link TInterface} methods are boxed bridges. Values cannot be {@code null}:
+ * putting a {@code null} value removes the key.
+ */
+public class LongRedBlackMap<V> implements TInterface<Long, V> {
+    private static final boolean RED = true;
+    private static final boolean BLACK = false;
+
+    /** Receives the entries of a range scan. */
+    public interface EntryVisitor<V> {
+        void visit(long key, V value);
+    }
+
+    private static final class Node<V> {
+        long key;
+        V value;
+        Node<V> left;
+        Node<V> right;
+        boolean color;
+
+        Node(long key, V value) {
+            this.key = key;
+            this.value = value;
+            this.color = RED;
+        }
+    }
+
+    private Node<V> root;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    public V get(long key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key < node.key) node = node.left;
+            else if (key > node.key) node = node.right;
+            else return node.value;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the largest key less than or equal to {@code key}.
+     *
+     * @throws NoSuchElementException if there is no such key
+     */
+    public long floor(long key) {
+        Node<V> best = null;
+        for (Node<V> node = root; node != null; ) {
+            if (key < node.key) {
+                node = node.left;
+            } else {
+                best = node;
+                if (key == node.key) break;
+                node = node.right;
+            }
+        }
+        if (best == null) throw new NoSuchElementException("argument to floor() is too small");
+        return best.key;
+    }
+
+    /**
+     * Returns the smallest key greater than or equal to {@code key}.
+     *
+     * @throws NoSuchElementException if there is no such key
+     */
+    public long ceiling(long key) {
+        Node<V> best = null;
+        for (Node<V> node = root; node != null; ) {
+            if (key > node.key) {
+                node = node.right;
+            } else {
+                best = node;
+                if (key == node.key) break;
+                node = node.left;
+            }
+        }
+        if (best == null) throw new NoSuchElementException("argument to ceiling() is too large");
+        return best.key;
+    }
+
+    public long min() {
+        if (root == null) throw new NoSuchElementException("calls min() with empty map");
+        return min(root).key;
+    }
+
+    public long max() {
+        if (root == null) throw new NoSuchElementException("calls max() with empty map");
+        Node<V> node = root;
+        while (node.right != null) node = node.right;
+        return node.key;
+    }
+
+    private Node<V> min(Node<V> node) {
+        while (node.left != null) node = node.left;
+        return node;
+    }
+
+    /**
+     * Returns the keys between {@code lo} and {@code hi}, both inclusive, in
+     * ascending order.
+     */
+    public long[] keys(long lo, long hi) {
+        long[][] out = {new long[16]};
+        int[] count = {0};
+        forEach(lo, hi, (key, value) -> {
+            if (count[0] == out[0].length) out[0] = Arrays.copyOf(out[0], count[0] * 2);
+            out[0][count[0]++] = key;
+        });
+        return Arrays.copyOf(out[0], count[0]);
+    }
+
+    /**
+     * Visits the entries with keys between {@code lo} and {@code hi}, both
+     * inclusive, in ascending key order.
+     */
+    public void forEach(long lo, long hi, EntryVisitor<? super V> visitor) {
+        forEach(root, lo, hi, visitor);
+    }
+
+    private void forEach(Node<V> node, long lo, long hi, EntryVisitor<? super V> visitor) {
+        while (node != null) {
+            if (lo < node.key) forEach(node.left, lo, hi, visitor);
+            if (lo <= node.key && node.key <= hi) visitor.visit(node.key, node.value);
+            if (hi <= node.key) return;
+            node = node.right;
+        }
+    }
+
+    // -- Insertion ----------------------------------------------------------------------------------
+
+    public void put(long key, V value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        root = put(root, key, value);
+        root.color = BLACK;
+    }
+
+    private Node<V> put(Node<V> h, long key, V value) {
+        if (h == null) {
+            size++;
+            return new Node<>(key, value);
+        }
+        if (key < h.key) h.left = put(h.left, key, value);
+        else if (key > h.key) h.right = put(h.right, key, value);
+        else h.value = value;
+        return balance(h);
+    }
+
+    // -- Deletion -----------------------------------------------------------------------------------
+
+    public void remove(long key) {
+        if (!containsKey(key)) return;
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right)) root.color = RED;
+        root = remove(root, key);
+        if (root != null) root.color = BLACK;
+    }
+
+    // Precondition: key is in the subtree rooted at h
+    private Node<V> remove(Node<V> h, long key) {
+        if (key < h.key) {
+            if (!isRed(h.left) && !isRed(h.left.left)) h = moveRedLeft(h);
+            h.left = remove(h.left, key);
+        } else {
+            if (isRed(h.left)) h = rotateRight(h);
+            if (key == h.key && h.right == null) {
+                size--;
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left)) h = moveRedRight(h);
+            if (key == h.key) {
+                Node<V> successor = min(h.right);
+                h.key = successor.key;
+                h.value = successor.value;
+                h.right = removeMin(h.right);
+                size--;
+            } else {
+                h.right = remove(h.right, key);
+            }
+        }
+        return balance(h);
+    }
+
+    private Node<V> removeMin(Node<V> h) {
+        if (h.left == null) return null;
+        if (!isRed(h.left) && !isRed(h.left.left)) h = moveRedLeft(h);
+        h.left = removeMin(h.left);
+        return balance(h);
+    }
+
+    // -- Red-black helpers --------------------------------------------------------------------------
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && node.color == RED;
+    }
+
+    private Node<V> rotateRight(Node<V> h) {
+        Node<V> x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private Node<V> rotateLeft(Node<V> h) {
+        Node<V> x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private void flipColors(Node<V> h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming h is red and both h.left and h.left.left are black,
+    // make h.left or one of its children red
+    private Node<V> moveRedLeft(Node<V> h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming h is red and both h.right and h.right.left are black,
+    // make h.right or one of its children red
+    private Node<V> moveRedRight(Node<V> h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Restores the left-leaning invariant on the way back up
+    private Node<V> balance(Node<V> h) {
+        if (isRed(h.right) && !isRed(h.left)) h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right)) flipColors(h);
+        return h;
+    }
+
+    /**
+     * Checks that keys are in order, no node has a red right link or two red
+     * links in a row, and every path has the same number of black links.
+     *
+     * @return true if the tree is a valid left-leaning red-black tree
+     */
+    boolean check() {
+        return !isRed(root) && blackHeight(root, Long.MIN_VALUE, Long.MAX_VALUE, false, false) >= 0;
+    }
+
+    // Returns the black height of the subtree, or -1 if an invariant fails
+    private int blackHeight(Node<V> node, long lo, long hi, boolean hasLo, boolean hasHi) {
+        if (node == null) return 0;
+        if ((hasLo && node.key <= lo) || (hasHi && node.key >= hi)) return -1;
+        if (isRed(node.right)) return -1;
+        if (isRed(node) && isRed(node.left)) return -1;
+        int left = blackHeight(node.left, lo, node.key, hasLo, true);
+        int right = blackHeight(node.right, node.key, hi, true, hasHi);
+        if (left < 0 || left != right) return -1;
+        return left + (isRed(node) ? 0 : 1);
+    }
+
+    // -- TInterface (boxed) -------------------------------------------------------------------------
+
+    public void insert(Long key, V value) {
+        put(unbox(key), value);
+    }
+
+    public void remove(Long key) {
+        remove(unbox(key));
+    }
+
+    public V get(Long key) {
+        return get(unbox(key));
+    }
+
+    public boolean contains(Long key) {
+        return containsKey(unbox(key));
+    }
+
+    private static long unbox(Long key) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        return key;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach(Long.MIN_VALUE, Long.MAX_VALUE, (key, value) -> sb.append(key).append('=').append(value).append(' '));
+        return sb.toString();
+    }
+}
+
+class LongRedBlackMapTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int ops) {
+        LongRedBlackMap<Integer> map = new LongRedBlackMap<>();
+        TreeMap<Long, Integer> model = new TreeMap<>();
+        Random random = new Random(37);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            // spread keys beyond the int range
+            long key = (random.nextInt(range) - range / 2) * 3000000000L;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                model.remove(key);
+            } else {
+                map.put(key, op);
+                model.put(key, op);
+            }
+            if (op % 1000 == 0) myAssert(map.check());
+        }
+        myAssert(map.check());
+        myAssert(map.size() == model.size());
+        for (int k = -range / 2 - 1; k <= range / 2; k++) {
+            long key = k * 3000000000L + (k % 2);
+            myAssert(Objects.equals(map.get(key), model.get(key)));
+            Long floor = model.floorKey(key);
+            Long ceiling = model.ceilingKey(key);
+            if (floor != null) myAssert(map.floor(key) == floor);
+            if (ceiling != null) myAssert(map.ceiling(key) == ceiling);
+        }
+        long[] keys = map.keys(-30000000000L, Long.MAX_VALUE);
+        int i = 0;
+        for (long key : model.tailMap(-30000000000L, true).keySet()) {
+            myAssert(keys[i++] == key);
+        }
+        myAssert(i == keys.length);
+        for (long key : model.keySet()) {
+            map.remove(key);
+        }
+        myAssert(map.isEmpty() && map.check());
+    }
+
+    // 1M inserts and lookups, against RedBlackTree with boxed keys
+    public static void benchmark(int n) {
+        Random random = new Random(37);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextLong();
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            RedBlackTree<Long> boxed = new RedBlackTree<>();
+            for (long key : keys) {
+                boxed.insertNode(key);
+            }
+            int found = 0;
+            for (long key : keys) {
+                if (boxed.contains(key)) found++;
+            }
+            long boxedNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LongRedBlackMap<Boolean> primitive = new LongRedBlackMap<>();
+            for (long key : keys) {
+                primitive.put(key, Boolean.TRUE);
+            }
+            for (long key : keys) {
+                if (primitive.containsKey(key)) found++;
+            }
+            long primitiveNs = System.nanoTime() - start;
+            myAssert(found == 2 * n);
+            System.out.printf("n=%d insert+lookup: RedBlackTree<Long>=%d ms LongRedBlackMap=%d ms%n",
+                    n, boxedNs / 1000000, primitiveNs / 1000000);
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(100000);
+        benchmark(1000000);
+    }
+}
@@ -0,0 +1,886 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A log-structured merge tree: a sorted map whose writes never update data
+ * on disk in place.
+ * <p>
+ * Writes go to an in-memory {@link SkipList} memtable; {@code remove} writes a
+ * tombstone. When the memtable fills up it is written out, in one sequential
+ * pass, as an immutable sorted <em>run</em> file at level 0. A background
+ * thread compacts the runs: when level 0 holds {@value #L0_COMPACTION_TRIGGER}
+ * runs they are merged with the overlapping runs of level 1, and when level
+ * i holds more than ten times as many entries as level i-1 may, one of its runs
+ * is merged into level i+1. Levels from 1 down hold runs with disjoint key
+ * ranges. A merge keeps the newest version of each key and drops tombstones
+ * once nothing older lies below them. If compaction falls behind, writers
+ * wait once level 0 holds {@value #L0_STOP_TRIGGER} runs.
+ * <p>
+ * A lookup checks the memtable, then the level 0 runs from newest to oldest,
+ * then the one run per deeper level whose range covers the key. Each run keeps
+ * a Bloom filter and a sparse index (every {@value #INDEX_INTERVAL}th key) in
+ * memory, so a run that does not hold the key usually costs no I/O and one
+ * that does costs a single read.
+ * <p>
+ * The list of live runs is kept in a manifest that is replaced atomically
+ * after every flush and compaction. The memtable is not logged: writes since
+ * the last flush are lost in a crash unless the tree is wrapped in a
+ * {@link DurableTree} or {@link #flush()} is called. {@link #close()} flushes.
+ * Keys' {@code hashCode} must be the same across runs of the JVM, as it is for
+ * {@code Integer}, {@code Long} and {@code String}. All methods are
+ * thread-safe.
+ * <p>
+ * The memtable is a {@code SkipList} rather than a {@code RedBlackTree}
+ * because the latter stores keys only. Flushing walks it in key order.
+ */
+public class LsmTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>, Closeable {
+    public static final int DEFAULT_MEMTABLE_ENTRIES = 1 << 16;
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final int L0_STOP_TRIGGER = 12;
+    private static final int LEVEL_FANOUT = 10;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int MAGIC = 0x4c534d52; // "LSMR"
+    private static final int FOOTER_BYTES = 8 + 8 + 8 + 4;
+    private static final byte VALUE = 0;
+    private static final byte DELETED = 1;
+    private static final String MANIFEST = "MANIFEST";
+    private static final Object TOMBSTONE = new Object();
+
+    private final Path dir;
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+    private final int memtableEntries;
+
+    // Guarded by this
+    private SkipList<Key, Object> memtable = new SkipList<>();
+    // levels.get(0) newest first; deeper levels sorted by key range
+    private final List<List<Run>> levels = new ArrayList<>();
+    private long nextRunId;
+    private boolean closed;
+    private boolean compacting;
+    private RuntimeException failure;
+    private long flushes;
+    private long compactions;
+    private final Thread compactor;
+
+    /**
+     * Opens the tree in {@code dir} with the default memtable size.
+     */
+    public LsmTree(Path dir, Codec<Key> keyCodec, Codec<Value> valueCodec) {
+        this(dir, keyCodec, valueCodec, DEFAULT_MEMTABLE_ENTRIES);
+    }
+
+    /**
+     * Opens (or creates) the tree stored in {@code dir} and starts its
+     * compaction thread.
+     *
+     * @param dir the directory holding the manifest and run files
+     * @param keyCodec serializes keys
+     * @param valueCodec serializes values
+     * @param memtableEntries the number of entries at which the memtable is flushed
+     * @throws UncheckedIOException if the directory cannot be read
+     */
+    public LsmTree(Path dir, Codec<Key> keyCodec, Codec<Value> valueCodec, int memtableEntries) {
+        if (keyCodec == null || valueCodec == null) throw new IllegalArgumentException("codec is null");
+        if (memtableEntries < 1) throw new IllegalArgumentException("memtable must hold at least one entry");
+        this.dir = dir;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.memtableEntries = memtableEntries;
+        try {
+            Files.createDirectories(dir);
+            loadManifest();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open LSM tree in " + dir, e);
+        }
+        compactor = new Thread(this::compactLoop, "lsm-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    // -- Reads --------------------------------------------------------------------------------------
+
+    public synchronized Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        checkOpen();
+        Object found = memtable.get(key);
+        if (found == null) {
+            found = searchRuns(key);
+        }
+        return found == TOMBSTONE ? null : cast(found);
+    }
+
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Value cast(Object value) {
+        return (Value) value;
+    }
+
+    // The newest version of key on disk: a value, TOMBSTONE, or null if absent
+    private Object searchRuns(Key key) {
+        int hash = key.hashCode();
+        for (Run run : levels.get(0)) {
+            Object found = run.get(key, hash);
+            if (found != null) return found;
+        }
+        for (int level = 1; level < levels.size(); level++) {
+            Run run = covering(levels.get(level), key);
+            if (run == null) continue;
+            Object found = run.get(key, hash);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    // The run of a sorted, disjoint level whose range holds key, if any
+    private Run covering(List<Run> level, Key key) {
+        int lo = 0;
+        int hi = level.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Run run = level.get(mid);
+            if (key.compareTo(run.min) < 0) hi = mid - 1;
+            else if (key.compareTo(run.max) > 0) lo = mid + 1;
+            else return run;
+        }
+        return null;
+    }
+
+    // -- Writes -------------------------------------------------------------------------------------
+
+    // A null value removes the key, as in BSTPrinceton.put
+    public void insert(Key key, Value value) {
+        if (key == null) throw new IllegalArgumentException("calls insert() with a null key");
+        write(key, value == null ? TOMBSTONE : value);
+    }
+
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls remove() with a null key");
+        write(key, TOMBSTONE);
+    }
+
+    private synchronized void write(Key key, Object value) {
+        checkOpen();
+        memtable.put(key, value);
+        if (memtable.size() >= memtableEntries) {
+            // stall while compaction catches up with level 0
+            while (levels.get(0).size() >= L0_STOP_TRIGGER && failure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for compaction", e);
+                }
+            }
+            checkOpen();
+            flush();
+        }
+    }
+
+    /**
+     * Writes the memtable out as a level 0 run, making every write so far
+     * durable.
+     *
+     * @throws UncheckedIOException if the run cannot be written
+     */
+    public synchronized void flush() {
+        if (memtable.empty()) return;
+        final SkipList<Key, Object> full = memtable;
+        final Iterator<Key> keys = full.iterator();
+        Iterator<Entry<Key>> entries = new Iterator<Entry<Key>>() {
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            public Entry<Key> next() {
+                Key key = keys.next();
+                return new Entry<>(key, full.get(key), 0);
+            }
+        };
+        try {
+            List<Run> runs = writeRuns(entries, Long.MAX_VALUE, false);
+            levels.get(0).addAll(0, runs);
+            writeManifest();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot flush memtable", e);
+        }
+        memtable = new SkipList<>();
+        flushes++;
+        notifyAll();
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("LSM tree is closed");
+        if (failure != null) throw new IllegalStateException("compaction failed", failure);
+    }
+
+    // -- Compaction ---------------------------------------------------------------------------------
+
+    private final class Job {
+        final int target;
+        final List<Run> inputs;
+        final boolean dropTombstones;
+
+        Job(int target, List<Run> inputs, boolean dropTombstones) {
+            this.target = target;
+            this.inputs = inputs;
+            this.dropTombstones = dropTombstones;
+        }
+    }
+
+    private void compactLoop() {
+        while (true) {
+            Job job = null;
+            synchronized (this) {
+                while (!closed && (job = pickJob()) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                compacting = true;
+            }
+            try {
+                // merging reads and writes only immutable files, so the lock is free meanwhile
+                List<Run> outputs = merge(job);
+                synchronized (this) {
+                    install(job, outputs);
+                    compactions++;
+                }
+                for (Run input : job.inputs) {
+                    input.delete();
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    failure = e instanceof RuntimeException ? (RuntimeException) e
+                            : new UncheckedIOException((IOException) e);
+                }
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                    notifyAll();
+                }
+            }
+            synchronized (this) {
+                if (failure != null) return;
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private Job pickJob() {
+        if (failure != null) return null;
+        List<Run> l0 = levels.get(0);
+        if (l0.size() >= L0_COMPACTION_TRIGGER) {
+            List<Run> inputs = new ArrayList<>(l0);
+            Key min = null;
+            Key max = null;
+            for (Run run : l0) {
+                if (min == null || run.min.compareTo(min) < 0) min = run.min;
+                if (max == null || run.max.compareTo(max) > 0) max = run.max;
+            }
+            inputs.addAll(overlapping(1, min, max));
+            return new Job(1, inputs, isBottom(1));
+        }
+        long limit = (long) memtableEntries * L0_COMPACTION_TRIGGER;
+        for (int level = 1; level < levels.size(); level++) {
+            limit *= LEVEL_FANOUT;
+            List<Run> runs = levels.get(level);
+            if (entries(runs) > limit) {
+                // the largest run frees the most room
+                Run largest = Collections.max(runs, (a, b) -> Long.compare(a.count, b.count));
+                List<Run> inputs = new ArrayList<>();
+                inputs.add(largest);
+                inputs.addAll(overlapping(level + 1, largest.min, largest.max));
+                return new Job(level + 1, inputs, isBottom(level + 1));
+            }
+        }
+        return null;
+    }
+
+    private List<Run> overlapping(int level, Key min, Key max) {
+        List<Run> result = new ArrayList<>();
+        if (level < levels.size()) {
+            for (Run run : levels.get(level)) {
+                if (run.max.compareTo(min) >= 0 && run.min.compareTo(max) <= 0) result.add(run);
+            }
+        }
+        return result;
+    }
+
+    // True if no level below target holds anything a tombstone could hide
+    private boolean isBottom(int target) {
+        for (int level = target + 1; level < levels.size(); level++) {
+            if (!levels.get(level).isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private long entries(List<Run> runs) {
+        long total = 0;
+        for (Run run : runs) {
+            total += run.count;
+        }
+        return total;
+    }
+
+    // k-way merge of the inputs; for equal keys the input listed first (newest) wins
+    private List<Run> merge(Job job) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = a.current.key.compareTo(b.current.key);
+            return cmp != 0 ? cmp : Integer.compare(a.age, b.age);
+        });
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < job.inputs.size(); i++) {
+                RunReader reader = new RunReader(job.inputs.get(i), i);
+                readers.add(reader);
+                if (reader.advance()) queue.add(reader);
+            }
+            Iterator<Entry<Key>> merged = new Iterator<Entry<Key>>() {
+                public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                public Entry<Key> next() {
+                    RunReader newest = queue.poll();
+                    Entry<Key> entry = newest.current;
+                    advance(newest);
+                    // skip the older versions of the same key
+                    while (!queue.isEmpty() && queue.peek().current.key.compareTo(entry.key) == 0) {
+                        advance(queue.poll());
+                    }
+                    return entry;
+                }
+
+                private void advance(RunReader reader) {
+                    try {
+                        if (reader.advance()) queue.add(reader);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            long runEntries = (long) memtableEntries * L0_COMPACTION_TRIGGER;
+            return writeRuns(merged, runEntries, job.dropTombstones);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void install(Job job, List<Run> outputs) throws IOException {
+        Set<Run> inputs = new HashSet<>(job.inputs);
+        for (List<Run> level : levels) {
+            level.removeIf(inputs::contains);
+        }
+        while (levels.size() <= job.target) {
+            levels.add(new ArrayList<>());
+        }
+        List<Run> target = levels.get(job.target);
+        target.addAll(outputs);
+        target.sort((a, b) -> a.min.compareTo(b.min));
+        writeManifest();
+    }
+
+    /**
+     * Blocks until the compaction thread has nothing left to do.
+     */
+    public synchronized void awaitCompaction() throws InterruptedException {
+        while (failure == null && !closed && (compacting || pickJob() != null)) {
+            wait();
+        }
+        checkOpen();
+    }
+
+    /**
+     * Returns the number of runs in each level, shallowest first.
+     *
+     * @return the run counts
+     */
+    public synchronized int[] runsPerLevel() {
+        int[] counts = new int[levels.size()];
+        for (int level = 0; level < counts.length; level++) {
+            counts[level] = levels.get(level).size();
+        }
+        return counts;
+    }
+
+    public synchronized long flushCount() {
+        return flushes;
+    }
+
+    public synchronized long compactionCount() {
+        return compactions;
+    }
+
+    // -- Run files ----------------------------------------------------------------------------------
+
+    private static final class Entry<K> {
+        final K key;
+        // a value or TOMBSTONE
+        final Object value;
+        final int age;
+
+        Entry(K key, Object value, int age) {
+            this.key = key;
+            this.value = value;
+            this.age = age;
+        }
+    }
+
+    /**
+     * An immutable sorted run. File layout: the entries (a flag byte, the key
+     * and, unless deleted, the value), then the sparse index (count, then key
+     * and offset pairs, then the largest key), then the Bloom filter, then a
+     * footer with the index and filter offsets, the entry count and the magic.
+     */
+    private final class Run {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final long count;
+        final Key min;
+        final Key max;
+        final List<Key> indexKeys = new ArrayList<>();
+        final long[] indexOffsets;
+        final long dataEnd;
+        final BloomFilter bloom;
+
+        Run(long id) throws IOException {
+            this.id = id;
+            this.path = runPath(id);
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer footer = read(channel.size() - FOOTER_BYTES, FOOTER_BYTES);
+            long indexAt = footer.getLong();
+            long bloomAt = footer.getLong();
+            this.count = footer.getLong();
+            if (footer.getInt() != MAGIC) throw new IOException(path + " is not a run file");
+            this.dataEnd = indexAt;
+
+            DataInputStream index = stream(read(indexAt, (int) (bloomAt - indexAt)));
+            int n = index.readInt();
+            this.indexOffsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                indexKeys.add(keyCodec.read(index));
+                indexOffsets[i] = index.readLong();
+            }
+            this.min = indexKeys.get(0);
+            this.max = keyCodec.read(index);
+
+            DataInputStream filter = stream(read(bloomAt, (int) (channel.size() - FOOTER_BYTES - bloomAt)));
+            this.bloom = BloomFilter.read(filter);
+        }
+
+        // The entry for key in this run: a value, TOMBSTONE, or null if absent
+        Object get(Key key, int hash) {
+            if (key.compareTo(min) < 0 || key.compareTo(max) > 0 || !bloom.mightContain(hash)) return null;
+            int i = Collections.binarySearch(indexKeys, key);
+            int block = i >= 0 ? i : -i - 2;
+            long from = indexOffsets[block];
+            long to = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+            try {
+                DataInputStream in = stream(read(from, (int) (to - from)));
+                while (in.available() > 0) {
+                    byte flag = in.readByte();
+                    int cmp = keyCodec.read(in).compareTo(key);
+                    Object value = flag == DELETED ? TOMBSTONE : valueCodec.read(in);
+                    if (cmp == 0) return value;
+                    if (cmp > 0) return null;
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read " + path, e);
+            }
+        }
+
+        ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException(path.toString());
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static DataInputStream stream(ByteBuffer buffer) {
+        return new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), buffer.remaining()));
+    }
+
+    // Reads a run's entries sequentially, for merging
+    private final class RunReader implements Closeable {
+        final Run run;
+        final int age;
+        final DataInputStream in;
+        long read;
+        Entry<Key> current;
+
+        RunReader(Run run, int age) throws IOException {
+            this.run = run;
+            this.age = age;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.path), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            if (read == run.count) return false;
+            byte flag = in.readByte();
+            Key key = keyCodec.read(in);
+            current = new Entry<>(key, flag == DELETED ? TOMBSTONE : valueCodec.read(in), age);
+            read++;
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private Path runPath(long id) {
+        return dir.resolve(String.format("run-%08d.sst", id));
+    }
+
+    // Writes the entries as runs of up to maxEntries each
+    private List<Run> writeRuns(Iterator<Entry<Key>> entries, long maxEntries, boolean dropTombstones)
+            throws IOException {
+        List<Run> runs = new ArrayList<>();
+        ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(scratch);
+        Entry<Key> pending = null;
+        while (pending != null || entries.hasNext()) {
+            long id;
+            synchronized (this) {
+                id = nextRunId++;
+            }
+            Path path = runPath(id);
+            long count = 0;
+            try (OutputStream file = Files.newOutputStream(path);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+                DataOutputStream index = new DataOutputStream(indexBytes);
+                int[] hashes = new int[64];
+                long offset = 0;
+                Key last = null;
+                while (count < maxEntries && (pending != null || entries.hasNext())) {
+                    Entry<Key> entry = pending != null ? pending : entries.next();
+                    pending = null;
+                    if (dropTombstones && entry.value == TOMBSTONE) continue;
+                    scratch.reset();
+                    entryOut.writeByte(entry.value == TOMBSTONE ? DELETED : VALUE);
+                    keyCodec.write(entryOut, entry.key);
+                    if (entry.value != TOMBSTONE) valueCodec.write(entryOut, cast(entry.value));
+                    if (count % INDEX_INTERVAL == 0) {
+                        keyCodec.write(index, entry.key);
+                        index.writeLong(offset);
+                    }
+                    if (count == hashes.length) hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                    hashes[(int) count] = entry.key.hashCode();
+                    scratch.writeTo(out);
+                    offset += scratch.size();
+                    last = entry.key;
+                    count++;
+                }
+                if (count > 0) {
+                    keyCodec.write(index, last);
+                    long indexAt = offset;
+                    out.writeInt((int) ((count + INDEX_INTERVAL - 1) / INDEX_INTERVAL));
+                    indexBytes.writeTo(out);
+                    long bloomAt = indexAt + 4 + indexBytes.size();
+                    BloomFilter bloom = new BloomFilter((int) count);
+                    for (int i = 0; i < count; i++) {
+                        bloom.add(hashes[i]);
+                    }
+                    bloom.write(out);
+                    out.writeLong(indexAt);
+                    out.writeLong(bloomAt);
+                    out.writeLong(count);
+                    out.writeInt(MAGIC);
+                    out.flush();
+                    file.flush();
+                }
+            }
+            // every entry was a dropped tombstone; the run is closed before it goes
+            if (count == 0) {
+                Files.delete(path);
+                break;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            runs.add(new Run(id));
+        }
+        return runs;
+    }
+
+    // -- Manifest -----------------------------------------------------------------------------------
+
+    // Caller holds the lock. One line per run, "level id", level 0 newest first
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(nextRunId).append('\n');
+        for (int level = 0; level < levels.size(); level++) {
+            for (Run run : levels.get(level)) {
+                sb.append(level).append(' ').append(run.id).append('\n');
+            }
+        }
+        Path temp = dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void loadManifest() throws IOException {
+        levels.add(new ArrayList<>());
+        Set<Path> live = new HashSet<>();
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            nextRunId = Long.parseLong(lines.get(0).trim());
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.isEmpty()) continue;
+                String[] parts = line.split(" ");
+                int level = Integer.parseInt(parts[0]);
+                while (levels.size() <= level) {
+                    levels.add(new ArrayList<>());
+                }
+                Run run = new Run(Long.parseLong(parts[1]));
+                levels.get(level).add(run);
+                live.add(run.path);
+            }
+        }
+        // runs written by a flush or compaction that never reached the manifest
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "run-*.sst")) {
+            for (Path file : files) {
+                if (!live.contains(file)) Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Flushes the memtable, stops the compaction thread and closes the runs.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            if (failure == null) flush();
+            closed = true;
+            notifyAll();
+        }
+        try {
+            compactor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (List<Run> level : levels) {
+                for (Run run : level) {
+                    run.channel.close();
+                }
+            }
+        }
+    }
+
+    public synchronized String toString() {
+        return "LsmTree(memtable=" + memtable.size() + ", runs=" + Arrays.toString(runsPerLevel()) + ")";
+    }
+
+    // -- Bloom filter -------------------------------------------------------------------------------
+
+    // A Bloom filter over key hash codes, probed by double hashing
+    static final class BloomFilter {
+        private final long[] bits;
+        private final int hashes;
+
+        BloomFilter(int keys) {
+            this(new long[Math.max(1, (int) (((long) keys * BLOOM_BITS_PER_KEY + 63) / 64))],
+                    Math.max(1, (int) Math.round(BLOOM_BITS_PER_KEY * Math.log(2))));
+        }
+
+        private BloomFilter(long[] bits, int hashes) {
+            this.bits = bits;
+            this.hashes = hashes;
+        }
+
+        void add(int hashCode) {
+            long h = mix(hashCode);
+            long size = bits.length * 64L;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod((int) h + i * (int) (h >>> 32), size);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(int hashCode) {
+            long h = mix(hashCode);
+            long size = bits.length * 64L;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod((int) h + i * (int) (h >>> 32), size);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        // The 64-bit finalizer of MurmurHash3, so that Integer keys spread out
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(hashes);
+            out.writeInt(bits.length);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+        }
+
+        static BloomFilter read(DataInputStream in) throws IOException {
+            int hashes = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return new BloomFilter(bits, hashes);
+        }
+    }
+}
+
+class LsmTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Random writes through a tiny memtable, so that runs flush and compact constantly
+    public static void modelTests(Path dir, int ops) throws IOException, InterruptedException {
+        TreeMap<Integer, String> model = new TreeMap<>();
+        Random random = new Random(35);
+        try (LsmTree<Integer, String> tree = new LsmTree<>(dir, Codec.INTEGER, Codec.STRING, 200)) {
+            for (int op = 0; op < ops; op++) {
+                int key = random.nextInt(ops / 4);
+                if (random.nextInt(3) == 0) {
+                    tree.remove(key);
+                    model.remove(key);
+                } else {
+                    String value = "v" + op;
+                    tree.insert(key, value);
+                    model.put(key, value);
+                }
+                if (op % 5000 == 0) check(tree, model, ops / 4);
+            }
+            tree.awaitCompaction();
+            check(tree, model, ops / 4);
+            System.out.println(tree + " flushes=" + tree.flushCount() + " compactions=" + tree.compactionCount());
+        }
+        try (LsmTree<Integer, String> tree = new LsmTree<>(dir, Codec.INTEGER, Codec.STRING, 200)) {
+            check(tree, model, ops / 4);
+        }
+    }
+
+    private static void check(LsmTree<Integer, String> tree, TreeMap<Integer, String> model, int range) {
+        for (int key = -1; key <= range; key++) {
+            String expected = model.get(key);
+            myAssert(expected == null ? tree.get(key) == null : expected.equals(tree.get(key)));
+        }
+    }
+
+    public static void bloomTests() {
+        LsmTree.BloomFilter bloom = new LsmTree.BloomFilter(10000);
+        for (int i = 0; i < 10000; i++) {
+            bloom.add(Integer.valueOf(i * 2).hashCode());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            myAssert(bloom.mightContain(Integer.valueOf(i * 2).hashCode()));
+            if (bloom.mightContain(Integer.valueOf(i * 2 + 1).hashCode())) falsePositives++;
+        }
+        // about 1% is expected at ten bits per key
+        myAssert(falsePositives < 300);
+    }
+
+    @Override
+    public void test() {
+        try {
+            main(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        bloomTests();
+        Path dir = Files.createTempDirectory("lsm");
+        modelTests(dir, 60000);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -1,6 +1,8 @@
 // A class for Min Heap
 // From https://www.geeksforgeeks.org/binary-heap/#
-class MinHeap {
+class MinHeap implements TreeShape {
+    private static final OpMetrics METRICS = OpMetrics.of(MinHeap.class);
+
     // To store array of elements in heap
     private int[] heapArray;
 
@@ -10,6 +12,9 @@ class MinHeap {
     // Current number of elements in the heap
     private int current_heap_size;
 
+    // Swaps done so far, for SlowOperationEvent
+    private long swaps;
+
     // Constructor
     public MinHeap(int n) {
         capacity = n;
@@ -19,6 +24,7 @@ class MinHeap {
 
     // Swapping using reference
     private void swap(int[] arr, int a, int b) {
+        swaps++;
         int temp = arr[a];
         arr[a] = arr[b];
         arr[b] = temp;
@@ -45,6 +51,14 @@ class MinHeap {
 
     // Inserts a new key
     public boolean insertKey(int key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long swapsBefore = swaps;
+        boolean inserted = siftUpNewKey(key);
+        if (event.slow()) event.commit("MinHeap", "insert", key, levels(), swaps - swapsBefore);
+        return inserted;
+    }
+
+    private boolean siftUpNewKey(int key) {
         if (current_heap_size == capacity) {
             // heap is full
             return false;
@@ -57,6 +71,7 @@ class MinHeap {
 
         // Fix the min heap property if it is violated
         while (i != 0 && heapArray[i] < heapArray[parent(i)]) {
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.SIFT_STEPS);
             swap(heapArray, i, parent(i));
             i = parent(i);
         }
@@ -87,7 +102,9 @@ class MinHeap {
             smallest = r;
         }
 
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.COMPARISONS, (l < current_heap_size ? 1 : 0) + (r < current_heap_size ? 1 : 0));
         if (smallest != key) {
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.SIFT_STEPS);
             swap(heapArray, key, smallest);
             MinHeapify(smallest);
         }
@@ -95,6 +112,37 @@ class MinHeap {
     // Method to remove minimum element
     // (or root) from min heap
     public int extractMin() {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long swapsBefore = swaps;
+        int min = removeRoot();
+        if (event.slow()) event.commit("MinHeap", "extractMin", min, levels(), swaps - swapsBefore);
+        return min;
+    }
+
+    // Levels in the heap, for a SlowOperationEvent
+    private int levels() {
+        return 32 - Integer.numberOfLeadingZeros(current_heap_size);
+    }
+
+    // The heap is a complete binary tree, so its shape follows from its size
+    public int height() {
+        return levels() - 1;
+    }
+
+    // Sum of the depths of all keys: full levels 0..h-1 give (h - 2) * 2^h + 2,
+    // and the n - 2^h + 1 keys on the last level add h each
+    public long pathLength() {
+        int h = height();
+        if (h < 0) return 0;
+        long full = 1L << h;
+        return (h - 2) * full + 2 + h * (current_heap_size - full + 1);
+    }
+
+    public double fillRatio() {
+        return capacity == 0 ? 1.0 : (double) current_heap_size / capacity;
+    }
+
+    private int removeRoot() {
         if (current_heap_size <= 0) {
             return Integer.MAX_VALUE;
         }
@@ -122,6 +170,7 @@ class MinHeap {
         heapArray[key] = new_val;
 
         while (key != 0 && heapArray[key] < heapArray[parent(key)]) {
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.SIFT_STEPS);
             swap(heapArray, key, parent(key));
             key = parent(key);
         }
@@ -0,0 +1,938 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A red-black tree whose nodes and values live outside the Java heap.
+ * <p>
+ * Nodes are fixed-width records in direct {@link ByteBuffer} chunks of
+ * 2^16 nodes each: left, right and parent node numbers, a colour byte, the
+ * offset of the value, and the key in the tree's {@link KeyLayout}. Values are
+ * serialized with a {@link Codec} into a separate off-heap value log. The heap
+ * holds only the chunk objects, a few thousand even for 100M entries, so the
+ * size of the index has next to no effect on garbage collection pauses.
+ * <p>
+ * Node 0 is the black sentinel of <i>Introduction to Algorithms</i>, which
+ * the insert and delete fixups follow (unlike {@link RedBlackTree}, which
+ * uses {@code null} leaves and temporary NIL nodes). Deleted nodes go on a
+ * free list threaded through the left link. Value records are rounded up to
+ * size classes half a power of two apart, as in {@link ValueSlab}, and a
+ * replaced or removed value's extent goes on a free list for its class, to
+ * be reused by the next value of that class; {@link #deadValueBytes()}
+ * reports the bytes waiting there.
+ * <p>
+ * {@link #ofLongs(Codec)} returns a tree that is a {@link TInterface} over
+ * {@code Long} keys. {@link #ofBytes(int, Codec)} takes {@code byte[]} keys of
+ * bounded length, ordered as unsigned bytes. Arrays are not
+ * {@code Comparable}, so that tree has the same operations but cannot be a
+ * {@code TInterface}. Like {@link BSTPrinceton}, inserting a {@code null}
+ * value removes the key.
+ * <p>
+ * Direct buffers are released when the collector reclaims them, and
+ * {@link #close()} drops the tree's references to them.
+ */
+public class OffHeapRedBlackTree<Key, Value> implements Closeable {
+
+    /**
+     * Stores keys of one type as fixed-width fields in a node record, and
+     * compares a key with a stored one without decoding it.
+     */
+    public interface KeyLayout<K> {
+        int width();
+        void write(ByteBuffer chunk, int offset, K key);
+        K read(ByteBuffer chunk, int offset);
+        int compare(K key, ByteBuffer chunk, int offset);
+    }
+
+    public static final KeyLayout<Long> LONG_KEYS = new KeyLayout<Long>() {
+        public int width() {
+            return Long.BYTES;
+        }
+
+        public void write(ByteBuffer chunk, int offset, Long key) {
+            chunk.putLong(offset, key);
+        }
+
+        public Long read(ByteBuffer chunk, int offset) {
+            return chunk.getLong(offset);
+        }
+
+        public int compare(Long key, ByteBuffer chunk, int offset) {
+            return Long.compare(key, chunk.getLong(offset));
+        }
+    };
+
+    /**
+     * Returns a layout for {@code byte[]} keys of at most {@code maxLength}
+     * bytes: a length followed by the bytes, compared as unsigned bytes and
+     * then by length, as {@link Arrays#compareUnsigned(byte[], byte[])} does.
+     *
+     * @param maxLength the longest key, at most 32767 bytes
+     */
+    public static KeyLayout<byte[]> byteKeys(int maxLength) {
+        if (maxLength < 1 || maxLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("key length must be in [1, " + Short.MAX_VALUE + "]: " + maxLength);
+        }
+        return new KeyLayout<byte[]>() {
+            public int width() {
+                return Short.BYTES + maxLength;
+            }
+
+            public void write(ByteBuffer chunk, int offset, byte[] key) {
+                if (key.length > maxLength) {
+                    throw new IllegalArgumentException("key of " + key.length + " bytes is longer than " + maxLength);
+                }
+                chunk.putShort(offset, (short) key.length);
+                chunk.put(offset + Short.BYTES, key);
+            }
+
+            public byte[] read(ByteBuffer chunk, int offset) {
+                byte[] key = new byte[chunk.getShort(offset)];
+                chunk.get(offset + Short.BYTES, key);
+                return key;
+            }
+
+            public int compare(byte[] key, ByteBuffer chunk, int offset) {
+                int length = chunk.getShort(offset);
+                int common = Math.min(key.length, length);
+                for (int i = 0; i < common; i++) {
+                    int cmp = Byte.compareUnsigned(key[i], chunk.get(offset + Short.BYTES + i));
+                    if (cmp != 0) return cmp;
+                }
+                return key.length - length;
+            }
+        };
+    }
+
+    /**
+     * An off-heap tree over {@code long} keys. It is a {@link TInterface}, and
+     * {@link #get(long)} looks a key up without boxing it.
+     */
+    public static class OfLong<Value> extends OffHeapRedBlackTree<Long, Value> implements TInterface<Long, Value> {
+        OfLong(Codec<Value> valueCodec) {
+            super(LONG_KEYS, valueCodec);
+        }
+
+        public Value get(long key) {
+            int node = findLong(key);
+            return node == NIL ? null : value(node);
+        }
+
+        public boolean contains(long key) {
+            return findLong(key) != NIL;
+        }
+
+        private int findLong(long key) {
+            ensureOpen();
+            int node = root;
+            while (node != NIL) {
+                long stored = chunk(node).getLong(base(node) + KEY);
+                if (key < stored) node = left(node);
+                else if (key > stored) node = right(node);
+                else return node;
+            }
+            return NIL;
+        }
+    }
+
+    public static <Value> OfLong<Value> ofLongs(Codec<Value> valueCodec) {
+        return new OfLong<>(valueCodec);
+    }
+
+    public static <Value> OffHeapRedBlackTree<byte[], Value> ofBytes(int maxKeyLength, Codec<Value> valueCodec) {
+        return new OffHeapRedBlackTree<>(byteKeys(maxKeyLength), valueCodec);
+    }
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+    static final int NIL = 0;
+
+    // Node record layout
+    private static final int LEFT = 0;
+    private static final int RIGHT = 4;
+    private static final int PARENT = 8;
+    private static final int COLOR = 12;
+    private static final int VALUE = 16;
+    static final int KEY = 24;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int VALUE_CHUNK_BYTES = 1 << 22;
+    private static final int MIN_EXTENT = 16;
+    // keeps the largest size class within an int
+    private static final int MAX_VALUE_BYTES = 1 << 30;
+
+    private final KeyLayout<Key> layout;
+    private final Codec<Value> valueCodec;
+    private final int nodeBytes;
+    private ByteBuffer[] nodeChunks = new ByteBuffer[16];
+    private int nodeChunkCount;
+    int root = NIL;
+    private int size;
+    // head of the free list of node numbers, linked through LEFT
+    private int free = NIL;
+    // node numbers [1, used) have been handed out at least once
+    private int used = 1;
+
+    // Value log: records of (int length, bytes), each in an extent of its size
+    // class, addressed by chunk << 32 | position
+    private ByteBuffer[] valueChunks = new ByteBuffer[16];
+    private int valueChunkCount;
+    // per size class, a stack of the handles of free extents
+    private long[][] freeExtents = new long[0][];
+    private int[] freeExtentCount = new int[0];
+    private long deadValueBytes;
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private boolean closed;
+
+    /**
+     * Initializes an empty tree.
+     *
+     * @param layout stores and compares the keys
+     * @param valueCodec serializes the values
+     */
+    public OffHeapRedBlackTree(KeyLayout<Key> layout, Codec<Value> valueCodec) {
+        if (layout == null || valueCodec == null) throw new IllegalArgumentException("layout or codec is null");
+        this.layout = layout;
+        this.valueCodec = valueCodec;
+        // round records up to 8 bytes so the value offsets stay aligned
+        this.nodeBytes = (KEY + layout.width() + 7) & ~7;
+        if ((long) nodeBytes << CHUNK_SHIFT > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("keys of " + layout.width() + " bytes are too wide");
+        }
+        addNodeChunk();
+        setColor(NIL, BLACK);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the off-heap memory reserved for nodes and values, in bytes.
+     *
+     * @return the reserved off-heap bytes
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < nodeChunkCount; i++) bytes += nodeChunks[i].capacity();
+        for (int i = 0; i < valueChunkCount; i++) bytes += valueChunks[i].capacity();
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes of the value log in extents freed by replaced or
+     * removed values and not yet reused.
+     *
+     * @return the free bytes in the value log
+     */
+    public long deadValueBytes() {
+        return deadValueBytes;
+    }
+
+    /**
+     * Releases the tree's off-heap chunks to the garbage collector. The tree
+     * cannot be used afterwards.
+     */
+    public void close() {
+        closed = true;
+        nodeChunks = null;
+        valueChunks = null;
+    }
+
+    void ensureOpen() {
+        if (closed) throw new IllegalStateException("tree is closed");
+    }
+
+    // -- Node record access -------------------------------------------------------------------------
+
+    ByteBuffer chunk(int node) {
+        return nodeChunks[node >>> CHUNK_SHIFT];
+    }
+
+    int base(int node) {
+        return (node & CHUNK_MASK) * nodeBytes;
+    }
+
+    int left(int node) {
+        return chunk(node).getInt(base(node) + LEFT);
+    }
+
+    int right(int node) {
+        return chunk(node).getInt(base(node) + RIGHT);
+    }
+
+    private int parent(int node) {
+        return chunk(node).getInt(base(node) + PARENT);
+    }
+
+    private boolean color(int node) {
+        return chunk(node).get(base(node) + COLOR) == 0 ? RED : BLACK;
+    }
+
+    private void setLeft(int node, int child) {
+        chunk(node).putInt(base(node) + LEFT, child);
+    }
+
+    private void setRight(int node, int child) {
+        chunk(node).putInt(base(node) + RIGHT, child);
+    }
+
+    private void setParent(int node, int parent) {
+        chunk(node).putInt(base(node) + PARENT, parent);
+    }
+
+    private void setColor(int node, boolean color) {
+        chunk(node).put(base(node) + COLOR, color == RED ? (byte) 0 : (byte) 1);
+    }
+
+    private int compare(Key key, int node) {
+        return layout.compare(key, chunk(node), base(node) + KEY);
+    }
+
+    private Key key(int node) {
+        return layout.read(chunk(node), base(node) + KEY);
+    }
+
+    Value value(int node) {
+        return readValue(chunk(node).getLong(base(node) + VALUE));
+    }
+
+    private void addNodeChunk() {
+        if (nodeChunkCount == nodeChunks.length) nodeChunks = Arrays.copyOf(nodeChunks, nodeChunkCount * 2);
+        nodeChunks[nodeChunkCount++] = ByteBuffer.allocateDirect(nodeBytes << CHUNK_SHIFT).order(ByteOrder.nativeOrder());
+    }
+
+    private int allocate(Key key, Value value) {
+        int node = free;
+        if (node == NIL) {
+            if (used == Integer.MAX_VALUE) throw new IllegalStateException("tree is full");
+            if (used >>> CHUNK_SHIFT == nodeChunkCount) addNodeChunk();
+            node = used;
+        }
+        // the layout and the codec may reject the entry, so write both before taking the slot
+        layout.write(chunk(node), base(node) + KEY, key);
+        long handle = writeValue(value);
+        if (node == free) free = left(node);
+        else used++;
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        setColor(node, RED);
+        chunk(node).putLong(base(node) + VALUE, handle);
+        size++;
+        return node;
+    }
+
+    private void release(int node) {
+        freeValue(chunk(node).getLong(base(node) + VALUE));
+        setLeft(node, free);
+        free = node;
+        size--;
+    }
+
+    // -- Value log ----------------------------------------------------------------------------------
+
+    private long writeValue(Value value) {
+        byte[] bytes;
+        try {
+            scratch.reset();
+            valueCodec.write(scratchOut, value);
+            bytes = scratch.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot encode value", e);
+        }
+        if (bytes.length > MAX_VALUE_BYTES) throw new IllegalArgumentException("value of " + bytes.length + " bytes is too large");
+        int sizeClass = sizeClass(Integer.BYTES + bytes.length);
+        long handle;
+        if (sizeClass < freeExtentCount.length && freeExtentCount[sizeClass] > 0) {
+            handle = freeExtents[sizeClass][--freeExtentCount[sizeClass]];
+            deadValueBytes -= classBytes(sizeClass);
+        } else {
+            int extent = classBytes(sizeClass);
+            ByteBuffer tail = valueChunkCount == 0 ? null : valueChunks[valueChunkCount - 1];
+            if (tail == null || tail.remaining() < extent) {
+                if (valueChunkCount == valueChunks.length) valueChunks = Arrays.copyOf(valueChunks, valueChunkCount * 2);
+                tail = ByteBuffer.allocateDirect(Math.max(VALUE_CHUNK_BYTES, extent)).order(ByteOrder.nativeOrder());
+                valueChunks[valueChunkCount++] = tail;
+            }
+            handle = (long) (valueChunkCount - 1) << 32 | tail.position();
+            tail.position(tail.position() + extent);
+        }
+        ByteBuffer chunk = valueChunks[(int) (handle >>> 32)];
+        int position = (int) handle;
+        chunk.putInt(position, bytes.length);
+        chunk.put(position + Integer.BYTES, bytes);
+        return handle;
+    }
+
+    // Size classes half a power of two apart: 16, 24, 32, 48, 64, ... bytes
+    static int sizeClass(int bytes) {
+        if (bytes <= MIN_EXTENT) return 0;
+        int shift = 31 - Integer.numberOfLeadingZeros(bytes - 1); // 2^shift < bytes <= 2^(shift+1)
+        int sizeClass = 2 * (shift - 3) - 1;
+        return bytes <= (1 << shift) + (1 << shift - 1) ? sizeClass : sizeClass + 1;
+    }
+
+    static int classBytes(int sizeClass) {
+        int power = MIN_EXTENT << sizeClass / 2;
+        return sizeClass % 2 == 0 ? power : power + power / 2;
+    }
+
+    private Value readValue(long handle) {
+        ByteBuffer chunk = valueChunks[(int) (handle >>> 32)];
+        int position = (int) handle;
+        byte[] bytes = new byte[chunk.getInt(position)];
+        chunk.get(position + Integer.BYTES, bytes);
+        try {
+            return valueCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot decode value", e);
+        }
+    }
+
+    private void freeValue(long handle) {
+        int sizeClass = sizeClass(Integer.BYTES + valueChunks[(int) (handle >>> 32)].getInt((int) handle));
+        if (sizeClass >= freeExtentCount.length) {
+            freeExtents = Arrays.copyOf(freeExtents, sizeClass + 1);
+            freeExtentCount = Arrays.copyOf(freeExtentCount, sizeClass + 1);
+        }
+        long[] stack = freeExtents[sizeClass];
+        if (stack == null) {
+            stack = freeExtents[sizeClass] = new long[16];
+        } else if (freeExtentCount[sizeClass] == stack.length) {
+            stack = freeExtents[sizeClass] = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[freeExtentCount[sizeClass]++] = handle;
+        deadValueBytes += classBytes(sizeClass);
+    }
+
+    // -- Lookup -------------------------------------------------------------------------------------
+
+    private int find(Key key) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        ensureOpen();
+        int node = root;
+        while (node != NIL) {
+            int cmp = compare(key, node);
+            if (cmp < 0) node = left(node);
+            else if (cmp > 0) node = right(node);
+            else return node;
+        }
+        return NIL;
+    }
+
+    public Value get(Key key) {
+        int node = find(key);
+        return node == NIL ? null : value(node);
+    }
+
+    public boolean contains(Key key) {
+        return find(key) != NIL;
+    }
+
+    /**
+     * Visits every entry in ascending key order.
+     */
+    public void forEach(BiConsumer<? super Key, ? super Value> visitor) {
+        ensureOpen();
+        int node = root;
+        if (node == NIL) return;
+        while (left(node) != NIL) node = left(node);
+        while (node != NIL) {
+            visitor.accept(key(node), value(node));
+            node = successor(node);
+        }
+    }
+
+    private int successor(int node) {
+        if (right(node) != NIL) {
+            node = right(node);
+            while (left(node) != NIL) node = left(node);
+            return node;
+        }
+        int parent = parent(node);
+        while (parent != NIL && node == right(parent)) {
+            node = parent;
+            parent = parent(parent);
+        }
+        return parent;
+    }
+
+    // -- Insertion ----------------------------------------------------------------------------------
+
+    public void insert(Key key, Value value) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        ensureOpen();
+        int parent = NIL;
+        int node = root;
+        int cmp = 0;
+        while (node != NIL) {
+            parent = node;
+            cmp = compare(key, node);
+            if (cmp < 0) {
+                node = left(node);
+            } else if (cmp > 0) {
+                node = right(node);
+            } else {
+                // free the old extent only once the new value is written, so a rejected value changes nothing
+                long handle = writeValue(value);
+                freeValue(chunk(node).getLong(base(node) + VALUE));
+                chunk(node).putLong(base(node) + VALUE, handle);
+                return;
+            }
+        }
+
+        int newNode = allocate(key, value);
+        setParent(newNode, parent);
+        if (parent == NIL) root = newNode;
+        else if (cmp < 0) setLeft(parent, newNode);
+        else setRight(parent, newNode);
+        fixAfterInsert(newNode);
+    }
+
+    private void fixAfterInsert(int node) {
+        while (color(parent(node)) == RED) {
+            int parent = parent(node);
+            int grandparent = parent(parent);
+            if (parent == left(grandparent)) {
+                int uncle = right(grandparent);
+                if (color(uncle) == RED) {
+                    // red uncle: recolor and continue from the grandparent
+                    setColor(parent, BLACK);
+                    setColor(uncle, BLACK);
+                    setColor(grandparent, RED);
+                    node = grandparent;
+                } else {
+                    // black uncle: rotate the inner grandchild outwards, then around the grandparent
+                    if (node == right(parent)) {
+                        node = parent;
+                        rotateLeft(node);
+                        parent = parent(node);
+                    }
+                    setColor(parent, BLACK);
+                    setColor(grandparent, RED);
+                    rotateRight(grandparent);
+                }
+            } else {
+                int uncle = left(grandparent);
+                if (color(uncle) == RED) {
+                    setColor(parent, BLACK);
+                    setColor(uncle, BLACK);
+                    setColor(grandparent, RED);
+                    node = grandparent;
+                } else {
+                    if (node == left(parent)) {
+                        node = parent;
+                        rotateRight(node);
+                        parent = parent(node);
+                    }
+                    setColor(parent, BLACK);
+                    setColor(grandparent, RED);
+                    rotateLeft(grandparent);
+                }
+            }
+        }
+        setColor(root, BLACK);
+    }
+
+    // -- Deletion -----------------------------------------------------------------------------------
+
+    public void remove(Key key) {
+        int node = find(key);
+        if (node == NIL) return;
+
+        int movedUp;
+        boolean removedColor = color(node);
+        if (left(node) == NIL) {
+            movedUp = right(node);
+            transplant(node, movedUp);
+        } else if (right(node) == NIL) {
+            movedUp = left(node);
+            transplant(node, movedUp);
+        } else {
+            // the in-order successor takes the node's place and colour
+            int successor = right(node);
+            while (left(successor) != NIL) successor = left(successor);
+            removedColor = color(successor);
+            movedUp = right(successor);
+            if (parent(successor) == node) {
+                setParent(movedUp, successor);
+            } else {
+                transplant(successor, movedUp);
+                setRight(successor, right(node));
+                setParent(right(successor), successor);
+            }
+            transplant(node, successor);
+            setLeft(successor, left(node));
+            setParent(left(successor), successor);
+            setColor(successor, color(node));
+        }
+        if (removedColor == BLACK) fixAfterDelete(movedUp);
+        // the fixup may have used the sentinel's parent link
+        setParent(NIL, NIL);
+        release(node);
+    }
+
+    private void fixAfterDelete(int node) {
+        while (node != root && color(node) == BLACK) {
+            int parent = parent(node);
+            if (node == left(parent)) {
+                int sibling = right(parent);
+                if (color(sibling) == RED) {
+                    setColor(sibling, BLACK);
+                    setColor(parent, RED);
+                    rotateLeft(parent);
+                    sibling = right(parent);
+                }
+                if (color(left(sibling)) == BLACK && color(right(sibling)) == BLACK) {
+                    setColor(sibling, RED);
+                    node = parent;
+                } else {
+                    if (color(right(sibling)) == BLACK) {
+                        setColor(left(sibling), BLACK);
+                        setColor(sibling, RED);
+                        rotateRight(sibling);
+                        sibling = right(parent);
+                    }
+                    setColor(sibling, color(parent));
+                    setColor(parent, BLACK);
+                    setColor(right(sibling), BLACK);
+                    rotateLeft(parent);
+                    node = root;
+                }
+            } else {
+                int sibling = left(parent);
+                if (color(sibling) == RED) {
+                    setColor(sibling, BLACK);
+                    setColor(parent, RED);
+                    rotateRight(parent);
+                    sibling = left(parent);
+                }
+                if (color(left(sibling)) == BLACK && color(right(sibling)) == BLACK) {
+                    setColor(sibling, RED);
+                    node = parent;
+                } else {
+                    if (color(left(sibling)) == BLACK) {
+                        setColor(right(sibling), BLACK);
+                        setColor(sibling, RED);
+                        rotateLeft(sibling);
+                        sibling = left(parent);
+                    }
+                    setColor(sibling, color(parent));
+                    setColor(parent, BLACK);
+                    setColor(left(sibling), BLACK);
+                    rotateRight(parent);
+                    node = root;
+                }
+            }
+        }
+        setColor(node, BLACK);
+    }
+
+    // Replaces the subtree at oldChild by the one at newChild, which may be the sentinel
+    private void transplant(int oldChild, int newChild) {
+        int parent = parent(oldChild);
+        if (parent == NIL) root = newChild;
+        else if (oldChild == left(parent)) setLeft(parent, newChild);
+        else setRight(parent, newChild);
+        setParent(newChild, parent);
+    }
+
+    // -- Rotations ----------------------------------------------------------------------------------
+
+    private void rotateLeft(int node) {
+        int rightChild = right(node);
+        setRight(node, left(rightChild));
+        if (left(rightChild) != NIL) setParent(left(rightChild), node);
+        replaceParentsChild(node, rightChild);
+        setLeft(rightChild, node);
+        setParent(node, rightChild);
+    }
+
+    private void rotateRight(int node) {
+        int leftChild = left(node);
+        setLeft(node, right(leftChild));
+        if (right(leftChild) != NIL) setParent(right(leftChild), node);
+        replaceParentsChild(node, leftChild);
+        setRight(leftChild, node);
+        setParent(node, leftChild);
+    }
+
+    private void replaceParentsChild(int oldChild, int newChild) {
+        int parent = parent(oldChild);
+        setParent(newChild, parent);
+        if (parent == NIL) root = newChild;
+        else if (oldChild == left(parent)) setLeft(parent, newChild);
+        else setRight(parent, newChild);
+    }
+
+    // -- Validation ---------------------------------------------------------------------------------
+
+    /**
+     * Checks the parent links, the key order, that no red node has a red
+     * child, that every path has the same number of black nodes, and that
+     * the free list accounts for every node not in the tree.
+     *
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    public void check() {
+        ensureOpen();
+        if (color(NIL) != BLACK || color(root) != BLACK) throw new IllegalStateException("red root or sentinel");
+        if (root != NIL && parent(root) != NIL) throw new IllegalStateException("root has a parent");
+        int[] count = {0};
+        blackHeight(root, count);
+        int freeNodes = 0;
+        for (int node = free; node != NIL; node = left(node)) freeNodes++;
+        if (count[0] != size || size + freeNodes != used - 1) {
+            throw new IllegalStateException(size + " entries, " + count[0] + " reachable, " + freeNodes + " free, " + (used - 1) + " used");
+        }
+    }
+
+    private int blackHeight(int node, int[] count) {
+        if (node == NIL) return 1;
+        count[0]++;
+        int l = left(node);
+        int r = right(node);
+        if (l != NIL && (parent(l) != node || compare(key(l), node) >= 0)) {
+            throw new IllegalStateException("bad left child of node " + node);
+        }
+        if (r != NIL && (parent(r) != node || compare(key(r), node) <= 0)) {
+            throw new IllegalStateException("bad right child of node " + node);
+        }
+        if (color(node) == RED && (color(l) == RED || color(r) == RED)) {
+            throw new IllegalStateException("red node " + node + " has a red child");
+        }
+        int height = blackHeight(l, count);
+        if (height != blackHeight(r, count)) throw new IllegalStateException("black heights differ at node " + node);
+        // keys must also respect every ancestor, which in-order adjacency implies
+        int next = successor(node);
+        if (next != NIL && compare(key(node), next) >= 0) throw new IllegalStateException("keys out of order at node " + node);
+        return height + (color(node) == BLACK ? 1 : 0);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach((key, value) -> sb.append(key instanceof byte[] ? Arrays.toString((byte[]) key) : key)
+                .append('=').append(value).append(' '));
+        return sb.toString();
+    }
+}
+
+class OffHeapRedBlackTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int ops) {
+        OffHeapRedBlackTree.OfLong<String> tree = OffHeapRedBlackTree.ofLongs(Codec.STRING);
+        TreeMap<Long, String> model = new TreeMap<>();
+        Random random = new Random(39);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            long key = (random.nextInt(range) - range / 2) * 3000000000L;
+            if (random.nextInt(3) == 0) {
+                tree.remove(key);
+                model.remove(key);
+            } else {
+                tree.insert(key, "v" + op);
+                model.put(key, "v" + op);
+            }
+            if (op % 1000 == 0) tree.check();
+        }
+        tree.check();
+        myAssert(tree.size() == model.size());
+        for (int k = -range / 2 - 1; k <= range / 2; k++) {
+            long key = k * 3000000000L;
+            myAssert(Objects.equals(tree.get(key), model.get(key)));
+            myAssert(Objects.equals(tree.get(Long.valueOf(key + 1)), null));
+        }
+        StringBuilder expected = new StringBuilder();
+        model.forEach((key, value) -> expected.append(key).append('=').append(value).append(' '));
+        myAssert(tree.toString().equals(expected.toString()));
+        myAssert(tree.deadValueBytes() > 0);
+        for (long key : model.keySet()) {
+            tree.remove(key);
+        }
+        tree.check();
+        myAssert(tree.isEmpty());
+
+        // freed value extents are reused, so rewriting values does not grow the log
+        for (int i = 0; i < 16; i++) {
+            myAssert(OffHeapRedBlackTree.classBytes(OffHeapRedBlackTree.sizeClass(OffHeapRedBlackTree.classBytes(i))) == OffHeapRedBlackTree.classBytes(i));
+            myAssert(OffHeapRedBlackTree.sizeClass(OffHeapRedBlackTree.classBytes(i) + 1) == i + 1);
+        }
+        long reserved = tree.offHeapBytes();
+        for (int op = 0; op < 10 * ops; op++) {
+            long key = random.nextInt(range);
+            if (op % 2 == 0) tree.insert(key, "value " + op);
+            else tree.remove(key);
+        }
+        myAssert(tree.offHeapBytes() == reserved);
+        tree.check();
+        rejectedValueTests();
+
+        // byte[] keys, in unsigned order
+        OffHeapRedBlackTree<byte[], Integer> bytes = OffHeapRedBlackTree.ofBytes(8, Codec.INTEGER);
+        TreeMap<byte[], Integer> bytesModel = new TreeMap<>(Arrays::compareUnsigned);
+        for (int op = 0; op < ops; op++) {
+            byte[] key = new byte[random.nextInt(4)];
+            random.nextBytes(key);
+            if (random.nextInt(3) == 0) {
+                bytes.remove(key);
+                bytesModel.remove(key);
+            } else {
+                bytes.insert(key, op);
+                bytesModel.put(key, op);
+            }
+        }
+        bytes.check();
+        myAssert(bytes.size() == bytesModel.size());
+        for (byte[] key : bytesModel.keySet()) {
+            myAssert(bytesModel.get(key).equals(bytes.get(key)));
+        }
+        try {
+            bytes.insert(new byte[9], 1);
+            myAssert(false);
+        } catch (IllegalArgumentException expectedFailure) {
+            // keys longer than the layout's width are rejected
+        }
+        bytes.check();
+        bytes.close();
+        try {
+            bytes.get(new byte[1]);
+            myAssert(false);
+        } catch (IllegalStateException expectedFailure) {
+            // closed
+        }
+    }
+
+    // A value the codec rejects leaves the tree exactly as it was
+    private static void rejectedValueTests() {
+        Codec<String> picky = new Codec<String>() {
+            public void write(DataOutput out, String value) throws IOException {
+                if (value.startsWith("!")) throw new IOException("rejected " + value);
+                Codec.STRING.write(out, value);
+            }
+
+            public String read(DataInput in) throws IOException {
+                return Codec.STRING.read(in);
+            }
+        };
+        OffHeapRedBlackTree.OfLong<String> tree = OffHeapRedBlackTree.ofLongs(picky);
+        tree.insert(1L, "aaaa");
+        try {
+            tree.insert(1L, "!aaa");
+            myAssert(false);
+        } catch (UncheckedIOException expectedFailure) {
+            // the old value stays
+        }
+        tree.insert(2L, "bbbb");
+        myAssert(tree.get(1L).equals("aaaa"));
+        myAssert(tree.get(2L).equals("bbbb"));
+        try {
+            tree.insert(3L, "!ccc");
+            myAssert(false);
+        } catch (UncheckedIOException expectedFailure) {
+            // no slot is taken
+        }
+        myAssert(!tree.contains(3L));
+        myAssert(tree.size() == 2);
+        tree.check();
+        tree.insert(3L, "cccc");
+        myAssert(tree.get(3L).equals("cccc"));
+        myAssert(tree.size() == 3);
+        tree.check();
+        tree.close();
+    }
+
+    // Heap trees of n entries make every full collection trace n nodes; the off-heap tree does not
+    public static void benchmark(int n) {
+        Random random = new Random(39);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextLong();
+        }
+        LongRedBlackMap<Integer> heap = new LongRedBlackMap<>();
+        for (long key : keys) {
+            heap.put(key, 1);
+        }
+        long heapPause = fullGcMillis();
+        myAssert(heap.size() == n);
+        heap = null;
+
+        OffHeapRedBlackTree.OfLong<Integer> offHeap = OffHeapRedBlackTree.ofLongs(Codec.INTEGER);
+        long start = System.nanoTime();
+        for (long key : keys) {
+            offHeap.insert(key, 1);
+        }
+        long insertNs = System.nanoTime() - start;
+        long offHeapPause = fullGcMillis();
+        int found = 0;
+        start = System.nanoTime();
+        for (long key : keys) {
+            if (offHeap.contains(key)) found++;
+        }
+        long lookupNs = System.nanoTime() - start;
+        myAssert(found == n);
+        System.out.printf("n=%d full GC: LongRedBlackMap=%d ms OffHeapRedBlackTree=%d ms (%d MB off-heap)%n",
+                n, heapPause, offHeapPause, offHeap.offHeapBytes() >> 20);
+        System.out.printf("OffHeapRedBlackTree: %d ns/insert %d ns/lookup%n", insertNs / n, lookupNs / n);
+        offHeap.close();
+    }
+
+    // Time the collectors report for an explicit full collection
+    private static long fullGcMillis() {
+        long before = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) before += gc.getCollectionTime();
+        System.gc();
+        long after = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) after += gc.getCollectionTime();
+        return after - before;
+    }
+
+    @Override
+    public void test() {
+        doTests(100000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(100000);
+        benchmark(2000000);
+    }
+}
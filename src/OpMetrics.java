@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in counters of the structural work the structures do: comparisons,
+ * nodes visited, rotations, recolourings, splay steps, skip list level hops
+ * and heap sift steps.
+ * <p>
+ * Each implementation registers one set of counters under its class name,
+ * shared by all its instances. Counting is off by default. Every
+ * instrumented site first reads the single volatile {@link #enabled} flag,
+ * which costs a load and a not-taken branch while disabled. Once
+ * {@link #enable()} is called, counts go to {@link LongAdder}s, so
+ * concurrent operations (under {@link LockedTree}, say) do not contend on
+ * one counter.
+ * <p>
+ * {@link #read()} copies all counters. Subtracting an earlier reading
+ * with {@link Reading#minus(Reading)} gives the work done in between,
+ * for example during a latency spike.
+ */
+public final class OpMetrics {
+
+    public enum Counter {
+        COMPARISONS,
+        NODES_VISITED,
+        /** AVLTree single rotations, RedBlackTree rotations */
+        ROTATIONS,
+        /** AVLTree double rotations */
+        DOUBLE_ROTATIONS,
+        /** RedBlackTree nodes whose colour changed */
+        RECOLORINGS,
+        ZIGS,
+        ZIG_ZIGS,
+        ZIG_ZAGS,
+        /** SkipList moves between levels */
+        LEVEL_HOPS,
+        /** MinHeap swaps while sifting up or down */
+        SIFT_STEPS
+    }
+
+    // Read by every instrumented site; see the class comment
+    static volatile boolean enabled;
+
+    private static final Map<String, OpMetrics> REGISTRY = new ConcurrentHashMap<>();
+
+    private final LongAdder[] counts = new LongAdder[Counter.values().length];
+
+    private OpMetrics() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the counters of an implementation, creating them on first use.
+     *
+     * @param type the implementation
+     */
+    public static OpMetrics of(Class<?> type) {
+        return REGISTRY.computeIfAbsent(type.getSimpleName(), name -> new OpMetrics());
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Sets every counter of every implementation to zero. */
+    public static void reset() {
+        for (OpMetrics metrics : REGISTRY.values()) {
+            for (LongAdder count : metrics.counts) {
+                count.reset();
+            }
+        }
+    }
+
+    // Callers check enabled first, so that a disabled site does not even make the call
+    void count(Counter counter) {
+        counts[counter.ordinal()].increment();
+    }
+
+    void count(Counter counter, long n) {
+        counts[counter.ordinal()].add(n);
+    }
+
+    public static Reading read() {
+        Map<String, Map<Counter, Long>> copy = new TreeMap<>();
+        for (Map.Entry<String, OpMetrics> entry : REGISTRY.entrySet()) {
+            Map<Counter, Long> values = new EnumMap<>(Counter.class);
+            for (Counter counter : Counter.values()) {
+                values.put(counter, entry.getValue().counts[counter.ordinal()].sum());
+            }
+            copy.put(entry.getKey(), values);
+        }
+        return new Reading(copy);
+    }
+
+    /** The counters of every implementation at one moment. */
+    public static final class Reading {
+        private final Map<String, Map<Counter, Long>> counts;
+
+        private Reading(Map<String, Map<Counter, Long>> counts) {
+            this.counts = counts;
+        }
+
+        /** Returns the names of the implementations, in alphabetical order. */
+        public List<String> implementations() {
+            return Collections.unmodifiableList(new ArrayList<>(counts.keySet()));
+        }
+
+        /**
+         * Returns a counter, or 0 if the implementation has not registered.
+         *
+         * @param implementation the simple class name, e.g. "AVLTree"
+         */
+        public long get(String implementation, Counter counter) {
+            Map<Counter, Long> values = counts.get(implementation);
+            return values == null ? 0 : values.get(counter);
+        }
+
+        /** Returns the counts accumulated since {@code earlier}. */
+        public Reading minus(Reading earlier) {
+            Map<String, Map<Counter, Long>> difference = new TreeMap<>();
+            for (String implementation : counts.keySet()) {
+                Map<Counter, Long> values = new EnumMap<>(Counter.class);
+                for (Counter counter : Counter.values()) {
+                    values.put(counter, get(implementation, counter) - earlier.get(implementation, counter));
+                }
+                difference.put(implementation, values);
+            }
+            return new Reading(difference);
+        }
+
+        // One line per implementation, listing its non-zero counters
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Map<Counter, Long>> entry : counts.entrySet()) {
+                sb.append(entry.getKey()).append(':');
+                for (Map.Entry<Counter, Long> value : entry.getValue().entrySet()) {
+                    if (value.getValue() != 0) sb.append(' ').append(value.getKey()).append('=').append(value.getValue());
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
+
+class OpMetricsTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int n) {
+        OpMetrics.disable();
+        OpMetrics.reset();
+        AVLTree<Integer> avl = new AVLTree<>();
+        for (int i = 0; i < n; i++) {
+            avl.insert(i);
+        }
+        OpMetrics.Reading before = OpMetrics.read();
+        myAssert(before.get("AVLTree", OpMetrics.Counter.COMPARISONS) == 0);
+
+        OpMetrics.enable();
+        // ascending inserts into an AVL tree rotate all the time
+        AVLTree<Integer> ascending = new AVLTree<>();
+        for (int i = 0; i < n; i++) {
+            ascending.insert(i);
+        }
+        // a zig-zag key order makes double rotations
+        AVLTree<Integer> zigzag = new AVLTree<>();
+        zigzag.insert(10);
+        zigzag.insert(5);
+        zigzag.insert(7);
+        RedBlackTree<Integer> redBlack = new RedBlackTree<>();
+        SkipList<Integer, Integer> skipList = new SkipList<>();
+        BSTPrinceton<Integer, Integer> bst = new BSTPrinceton<>();
+        SplayTree<Integer, Integer> splay = new SplayTree<>();
+        for (int i = 0; i < n; i++) {
+            int key = (i * 7919) % n;
+            redBlack.insertNode(key);
+            skipList.insert(key, i);
+            bst.insert(key, i);
+        }
+        for (int key = 0; key < 8; key++) {
+            splay.put(key, key);
+        }
+        splay.get(0);
+        splay.get(5);
+        MinHeap heap = new MinHeap(n);
+        for (int i = n; i > 0; i--) {
+            heap.insertKey(i);
+        }
+        heap.extractMin();
+        OpMetrics.disable();
+
+        OpMetrics.Reading delta = OpMetrics.read().minus(before);
+        System.out.print(delta);
+        myAssert(delta.get("AVLTree", OpMetrics.Counter.ROTATIONS) > 0);
+        myAssert(delta.get("AVLTree", OpMetrics.Counter.DOUBLE_ROTATIONS) == 1);
+        myAssert(delta.get("AVLTree", OpMetrics.Counter.COMPARISONS) > n);
+        myAssert(delta.get("RedBlackTree", OpMetrics.Counter.ROTATIONS) > 0);
+        myAssert(delta.get("RedBlackTree", OpMetrics.Counter.RECOLORINGS) > 0);
+        myAssert(delta.get("SkipList", OpMetrics.Counter.LEVEL_HOPS) > 0);
+        myAssert(delta.get("SkipList", OpMetrics.Counter.NODES_VISITED) > 0);
+        myAssert(delta.get("BSTPrinceton", OpMetrics.Counter.NODES_VISITED) > 0);
+        myAssert(delta.get("SplayTree", OpMetrics.Counter.ZIG_ZIGS) > 0);
+        myAssert(delta.get("MinHeap", OpMetrics.Counter.SIFT_STEPS) > 0);
+        myAssert(delta.get("NoSuchTree", OpMetrics.Counter.COMPARISONS) == 0);
+
+        // nothing is counted once disabled again
+        OpMetrics.Reading after = OpMetrics.read();
+        for (int i = 0; i < n; i++) {
+            ascending.contains(i);
+        }
+        myAssert(OpMetrics.read().minus(after).get("AVLTree", OpMetrics.Counter.COMPARISONS) == 0);
+        OpMetrics.reset();
+    }
+
+    // Lookup cost with the counters disabled and enabled
+    public static void benchmark(int n) {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (int i = 0; i < n; i++) {
+            tree.insert(i);
+        }
+        for (int round = 0; round < 3; round++) {
+            OpMetrics.disable();
+            long off = time(tree, n);
+            OpMetrics.enable();
+            long on = time(tree, n);
+            OpMetrics.disable();
+            System.out.printf("AVLTree contains(), n=%d: %d ns disabled, %d ns enabled%n", n, off / n, on / n);
+        }
+    }
+
+    private static long time(AVLTree<Integer> tree, int n) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            if (tree.contains(i)) found++;
+        }
+        myAssert(found == n);
+        return System.nanoTime() - start;
+    }
+
+    @Override
+    public void test() {
+        doTests(1000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(1000);
+        benchmark(1000000);
+    }
+}
@@ -1,13 +1,22 @@
 // Taken from
 // https://github.com/SvenWoltmann/binary-tree/blob/main/src/main/java/eu/happycoders/binarytree/RedBlackTree.java#L252
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Random;
+
 /**
  * A red-black tree implementation with <code>int</code> keys.
  *
  * @author <a href="sven@happycoders.eu">Sven Woltmann</a>
  */
-public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
+public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T>, TreeShape {
     static final boolean RED = false;
     static final boolean BLACK = true;
+    private static final OpMetrics METRICS = OpMetrics.of(RedBlackTree.class);
+    // rotations performed so far, for SlowOperationEvent
+    private long rotations;
     public class Node {
         Node(T value) {
             data = value;
@@ -25,6 +34,10 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         Node parent;
         Node left;
         Node right;
+        // Shape of the subtree, see update()
+        int size = 1;
+        int height;
+        long pathLength;
     }
     private class NilNode extends Node {
         private NilNode() {
@@ -33,11 +46,19 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         }
     }
     public Node searchNode(T key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        Node node = findNode(key);
+        if (event.slow()) event.commit("RedBlackTree", "get", key, depthOf(key), 0);
+        return node;
+    }
+
+    private Node findNode(T key) {
         Node node = root;
         while (node != null) {
-            if (key.compareTo(node.data) == 0) {
+            visit();
+            if (compare(key, node) == 0) {
                 return node;
-            } else if (key.compareTo(node.data) < 0) {
+            } else if (compare(key, node) < 0) {
                 node = node.left;
             } else {
                 node = node.right;
@@ -50,7 +71,7 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
     public T get(T key) {
         Node node = searchNode(key);
 
-        return node.data;
+        return node == null ? null : node.data;
     }
 
     public boolean contains(T key) {
@@ -67,23 +88,43 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
     // -- Insertion ----------------------------------------------------------------------------------
 
+    // As a map insert, a key already present is replaced by the equal one given
     public void insert(T key, T value) {
-        insertNode(key);
+        insert(key, false);
     }
 
+    // Throws IllegalArgumentException if the key is already present
     public void insertNode(T key) {
-        Node node = root;
+        insert(key, true);
+    }
+
+    private void insert(T key, boolean mustBeNew) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations;
+        insertNodeBelow(root, key, mustBeNew);
+        if (event.slow()) event.commit("RedBlackTree", "insert", key, depthOf(key), rotations - rotationsBefore);
+    }
+
+    // Inserts key into the subtree rooted at start, whose key range must cover
+    // key (start is the root for a plain insert). Returns the new node, or the
+    // node already holding key, which then holds the given key instead.
+    private Node insertNodeBelow(Node start, T key, boolean mustBeNew) {
+        Node node = start;
         Node parent = null;
 
         // Traverse the tree to the left or right depending on the key
         while (node != null) {
+            visit();
             parent = node;
-            if (key.compareTo(node.data) < 0) {
+            if (compare(key, node) < 0) {
                 node = node.left;
-            } else if (key.compareTo(node.data) > 0) {
+            } else if (compare(key, node) > 0) {
                 node = node.right;
-            } else {
+            } else if (mustBeNew) {
                 throw new IllegalArgumentException("BST already contains a node with key " + key);
+            } else {
+                node.data = key;
+                return node;
             }
         }
 
@@ -92,7 +133,7 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         newNode.color = RED;
         if (parent == null) {
             root = newNode;
-        } else if (key.compareTo(parent.data) < 0) {
+        } else if (compare(key, parent) < 0) {
             parent.left = newNode;
         } else {
             parent.right = newNode;
@@ -100,6 +141,70 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         newNode.parent = parent;
 
         fixRedBlackPropertiesAfterInsert(newNode);
+        updateUp(newNode);
+        return newNode;
+    }
+
+    // -- Batch operations ---------------------------------------------------------------------------
+
+    // Climbs from the finger (the node where the previous, smaller key's search
+    // ended) to the lowest ancestor whose subtree can contain key. Rotations keep
+    // parent pointers intact, so the finger stays valid across inserts.
+    private Node climb(Node finger, T key) {
+        Node node = finger;
+        while (node.parent != null
+                && !(node == node.parent.left && key.compareTo(node.parent.data) < 0)) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    /**
+     * Looks up keys, which must be in strictly ascending order, starting each
+     * search from where the previous one ended (finger search) instead of the
+     * root. Close keys then share almost all of their search path.
+     *
+     * @param keys the keys, in strictly ascending order
+     * @param results receives the stored item equal to keys[i], or null
+     * @return the number of keys found
+     */
+    public int getAll(T[] keys, T[] results) {
+        TInterface.checkBatch(keys, results.length);
+        int found = 0;
+        Node finger = root;
+        for (int i = 0; i < keys.length; i++) {
+            T key = keys[i];
+            Node node = finger == null ? null : climb(finger, key);
+            while (node != null) {
+                visit();
+                finger = node;
+                int cmp = compare(key, node);
+                if (cmp == 0) {
+                    break;
+                }
+                node = cmp < 0 ? node.left : node.right;
+            }
+            results[i] = node == null ? null : node.data;
+            if (node != null) found++;
+        }
+        return found;
+    }
+
+    /**
+     * Inserts keys, which must be in strictly ascending order, using the same
+     * finger search as {@link #getAll}: each key is placed starting from the node
+     * inserted just before it. Keys already present are replaced, as in
+     * {@link #insert(Comparable, Comparable)}.
+     *
+     * @param keys the keys, in strictly ascending order
+     * @param values ignored, as in insert(key, value)
+     */
+    public void insertAll(T[] keys, T[] values) {
+        TInterface.checkBatch(keys, values.length);
+        Node finger = null;
+        for (T key : keys) {
+            finger = insertNodeBelow(finger == null ? root : climb(finger, key), key, false);
+        }
     }
 
     private int countNodes(Node n) {
@@ -110,13 +215,174 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         return countNodes(root);
     }
 
+    // -- Shape --------------------------------------------------------------------------------------
+
+    /** Returns the number of keys, maintained in the nodes (unlike countNodes(), which counts them). */
+    public int size() {
+        return size(root);
+    }
+
+    /** Returns the number of edges on the longest path from the root, or -1 if empty. */
+    public int height() {
+        return height(root);
+    }
+
+    /** Returns the sum of the depths of all nodes, the root being at depth 0. */
+    public long pathLength() {
+        return pathLength(root);
+    }
+
+    // The temporary NIL node of a deletion counts as an empty subtree
+    private int size(Node node) {
+        return node == null || node.getClass() == NilNode.class ? 0 : node.size;
+    }
+
+    private int height(Node node) {
+        return node == null || node.getClass() == NilNode.class ? -1 : node.height;
+    }
+
+    private long pathLength(Node node) {
+        return node == null || node.getClass() == NilNode.class ? 0 : node.pathLength;
+    }
+
+    // Recomputes the shape of node's subtree from its children's
+    private void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.pathLength = pathLength(node.left) + size(node.left) + pathLength(node.right) + size(node.right);
+    }
+
+    // Recomputes node and all its ancestors. Insertion and deletion call it once,
+    // from where the tree changed, after their fixups: a rotation only updates
+    // the two nodes it moves, and any node it computed from a stale child is
+    // still an ancestor of the change afterwards.
+    private void updateUp(Node node) {
+        for (; node != null; node = node.parent) {
+            update(node);
+        }
+    }
+
+    // Throws if a stored size, height or path length differs from its recomputed value
+    void checkShape() {
+        checkShape(root);
+    }
+
+    private void checkShape(Node node) {
+        if (node == null) return;
+        checkShape(node.left);
+        checkShape(node.right);
+        if (node.size != 1 + size(node.left) + size(node.right)
+                || node.height != 1 + Math.max(height(node.left), height(node.right))
+                || node.pathLength != pathLength(node.left) + size(node.left) + pathLength(node.right) + size(node.right)) {
+            throw new IllegalStateException("Node " + node + "has a stale size, height or path length");
+        }
+    }
+
+    /**
+     * Throws if the tree is not a valid red-black tree: the root must be black
+     * and have no parent, keys must ascend, every child must point back at its
+     * parent, no red node may have a red child, every path must pass the same
+     * number of black nodes, and the stored shapes must be current.
+     */
+    void check() {
+        if (root != null && (root.color != BLACK || root.parent != null)) {
+            throw new IllegalStateException("Root " + root + "is red or has a parent");
+        }
+        blackHeight(root, null, null);
+        checkShape();
+    }
+
+    // Returns the number of black nodes on every path down from node
+    private int blackHeight(Node node, T lo, T hi) {
+        if (node == null) return 0;
+        if (node.getClass() == NilNode.class) throw new IllegalStateException("A deletion left its NIL node behind");
+        if ((lo != null && lo.compareTo(node.data) >= 0) || (hi != null && hi.compareTo(node.data) <= 0)) {
+            throw new IllegalStateException("Node " + node + "is out of order");
+        }
+        checkChild(node, node.left);
+        checkChild(node, node.right);
+        int left = blackHeight(node.left, lo, node.data);
+        int right = blackHeight(node.right, node.data, hi);
+        if (left != right) throw new IllegalStateException("Node " + node + "has black heights " + left + " and " + right);
+        return left + (node.color == BLACK ? 1 : 0);
+    }
+
+    private void checkChild(Node node, Node child) {
+        if (child == null) return;
+        if (child.parent != node) throw new IllegalStateException("Node " + child + "has a stale parent link");
+        if (node.color == RED && child.color == RED) throw new IllegalStateException("Red node " + node + "has a red child");
+    }
+
+    // -- Snapshots ----------------------------------------------------------------------------------
+
+    /**
+     * Writes the keys in sorted order in the {@link Snapshot} format.
+     *
+     * @param out receives the snapshot; it is flushed but not closed
+     * @param codec serializes the keys
+     */
+    public void snapshot(OutputStream out, Codec<T> codec) throws IOException {
+        Snapshot.Writer<T, T> writer = new Snapshot.Writer<>(out, countNodes(), codec, null);
+        snapshot(root, writer);
+        writer.finish();
+    }
+
+    private void snapshot(Node node, Snapshot.Writer<T, T> writer) throws IOException {
+        while (node != null) {
+            snapshot(node.left, writer);
+            writer.write(node.data, null);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot in linear time, with no rotations or
+     * recolouring. The keys are built into a balanced tree whose levels are all
+     * full except the deepest; that level is coloured red and the rest black, so
+     * every path has the same black height and no red node has a red child.
+     *
+     * @param in the snapshot
+     * @param codec reads the keys back
+     * @return the restored tree
+     * @throws IOException if reading fails or the keys are not in ascending order
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> restore(InputStream in, Codec<T> codec) throws IOException {
+        Snapshot.Reader<T, T> reader = new Snapshot.Reader<>(in, codec, null);
+        if (reader.size() < 0) throw new IOException("negative snapshot size " + reader.size());
+        @SuppressWarnings("unchecked")
+        T[] keys = (T[]) Array.newInstance(Comparable.class, reader.size());
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = reader.nextKey();
+            if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0)
+                throw new IOException("snapshot keys are not in ascending order at " + keys[i]);
+        }
+        RedBlackTree<T> tree = new RedBlackTree<>();
+        int n = keys.length;
+        // a perfect tree is all black; otherwise the partial bottom level is red
+        int redDepth = (n & (n + 1)) == 0 ? -1 : 31 - Integer.numberOfLeadingZeros(n);
+        tree.root = tree.build(keys, 0, n, 0, redDepth, null);
+        return tree;
+    }
+
+    private Node build(T[] keys, int lo, int hi, int depth, int redDepth, Node parent) {
+        if (lo >= hi) return null;
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node(keys[mid]);
+        node.color = depth == redDepth ? RED : BLACK;
+        node.parent = parent;
+        node.left = build(keys, lo, mid, depth + 1, redDepth, node);
+        node.right = build(keys, mid + 1, hi, depth + 1, redDepth, node);
+        update(node);
+        return node;
+    }
+
     private void fixRedBlackPropertiesAfterInsert(Node node) {
         Node parent = node.parent;
 
         // Case 1: Parent is null, we've reached the root, the end of the recursion
         if (parent == null) {
             // Uncomment the following line if you want to enforce black roots (rule 2):
-            node.color = BLACK;
+            recolor(node, BLACK);
             return;
         }
 
@@ -133,9 +399,9 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
         // Case 3: Uncle is red -> recolor parent, grandparent and uncle
         if (uncle != null && uncle.color == RED) {
-            parent.color = BLACK;
-            grandparent.color = RED;
-            uncle.color = BLACK;
+            recolor(parent, BLACK);
+            recolor(grandparent, RED);
+            recolor(uncle, BLACK);
 
             // System.out.println("Recolor parent" + parent + "node " + node);
 
@@ -167,8 +433,8 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
             rotateRight(grandparent);
 
             // Recolor original parent and grandparent
-            parent.color = BLACK;
-            grandparent.color = RED;
+            recolor(parent, BLACK);
+            recolor(grandparent, RED);
         }
 
         // Parent is right child of grandparent
@@ -188,8 +454,8 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
             rotateLeft(grandparent);
 
             // Recolor original parent and grandparent
-            parent.color = BLACK;
-            grandparent.color = RED;
+            recolor(parent, BLACK);
+            recolor(grandparent, RED);
         }
     }
 
@@ -206,12 +472,20 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
     // -- Deletion -----------------------------------------------------------------------------------
     public void deleteNode(T key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations;
+        removeNode(key);
+        if (event.slow()) event.commit("RedBlackTree", "remove", key, depthOf(key), rotations - rotationsBefore);
+    }
+
+    private void removeNode(T key) {
         Node node = root;
 
         // Find the node to be deleted
         while (node != null && !key.equals(node.data)) {
             // Traverse the tree to the left or right depending on the key
-            if (key.compareTo(node.data) < 0) {
+            visit();
+            if (compare(key, node) < 0) {
                 node = node.left;
             } else {
                 node = node.right;
@@ -229,10 +503,12 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         // properties after deleting a node.
         Node movedUpNode;
         boolean deletedNodeColor;
+        Node removedParent;
 
         // Node has zero or one child
         if (node.left == null || node.right == null) {
             //System.out.println("delete node with zero or one child " +  node);
+            removedParent = node.parent;
             movedUpNode = deleteNodeWithZeroOrOneChild(node);
             deletedNodeColor = node.color;
         }
@@ -247,6 +523,7 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
             node.data = inOrderSuccessor.data;
 
             // Delete inorder successor just as we would delete a node with 0 or 1 child
+            removedParent = inOrderSuccessor.parent;
             movedUpNode = deleteNodeWithZeroOrOneChild(inOrderSuccessor);
             deletedNodeColor = inOrderSuccessor.color;
         }
@@ -260,6 +537,10 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
                 replaceParentsChild(movedUpNode.parent, movedUpNode, null);
             }
         }
+
+        // Every node whose subtree lost the removed node is now above the moved-up
+        // node (rotations keep it below them), so one pass fixes all their shapes
+        updateUp(movedUpNode != null ? movedUpNode : removedParent);
     }
 
     private Node deleteNodeWithZeroOrOneChild(Node node) {
@@ -296,7 +577,7 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         // Case 1: Examined node is root, end of recursion
         if (node == root) {
             // Uncomment the following line if you want to enforce black roots (rule 2):
-            node.color = BLACK;
+            recolor(node, BLACK);
             return;
         }
 
@@ -311,11 +592,11 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
         // Cases 3+4: Black sibling with two black children
         if (isBlack(sibling.left) && isBlack(sibling.right)) {
-            sibling.color = RED;
+            recolor(sibling, RED);
 
             // Case 3: Black sibling with two black children + red parent
             if (node.parent.color == RED) {
-                node.parent.color = BLACK;
+                recolor(node.parent, BLACK);
             }
 
             // Case 4: Black sibling with two black children + black parent
@@ -332,8 +613,8 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
     private void handleRedSibling(Node node, Node sibling) {
         // Recolor...
-        sibling.color = BLACK;
-        node.parent.color = RED;
+        recolor(sibling, BLACK);
+        recolor(node.parent, RED);
 
         // ... and rotate
         if (node == node.parent.left) {
@@ -351,14 +632,14 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
         // Case 5: Black sibling with at least one red child + "outer nephew" is black
         // --> Recolor sibling and its child, and rotate around sibling
         if (nodeIsLeftChild && isBlack(sibling.right)) {
-            sibling.left.color = BLACK;
-            sibling.color = RED;
+            recolor(sibling.left, BLACK);
+            recolor(sibling, RED);
             //System.out.println("black sibling rotate right parent " + node.parent + "node " + node + "sibling " + sibling);
             rotateRight(sibling);
             sibling = node.parent.right;
         } else if (!nodeIsLeftChild && isBlack(sibling.left)) {
-            sibling.right.color = BLACK;
-            sibling.color = RED;
+            recolor(sibling.right, BLACK);
+            recolor(sibling, RED);
             //System.out.println("black sibling rotate left parent " + node.parent + "node " + node + "sibling " + sibling);
             rotateLeft(sibling);
             sibling = node.parent.left;
@@ -368,14 +649,14 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
         // Case 6: Black sibling with at least one red child + "outer nephew" is red
         // --> Recolor sibling + parent + sibling's child, and rotate around parent
-        sibling.color = node.parent.color;
-        node.parent.color = BLACK;
+        recolor(sibling, node.parent.color);
+        recolor(node.parent, BLACK);
         if (nodeIsLeftChild) {
-            sibling.right.color = BLACK;
+            recolor(sibling.right, BLACK);
             //System.out.println("black sib red child rotate left parent " + node.parent + "node " + node + "sibling " + sibling);
             rotateLeft(node.parent);
         } else {
-            sibling.left.color = BLACK;
+            recolor(sibling.left, BLACK);
             //System.out.println("black sib red child rotate right parent " + node.parent + "node " + node + "sibling " + sibling);
             rotateRight(node.parent);
         }
@@ -398,7 +679,35 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
     // -- Helpers for insertion and deletion ---------------------------------------------------------
 
+    // Number of nodes on the search path for key, for a SlowOperationEvent
+    private int depthOf(T key) {
+        int depth = 0;
+        for (Node node = root; node != null; depth++) {
+            int cmp = key.compareTo(node.data);
+            if (cmp == 0) return depth + 1;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return depth;
+    }
+
+    // key.compareTo(node.data), counted when metrics are enabled
+    private int compare(T key, Node node) {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.COMPARISONS);
+        return key.compareTo(node.data);
+    }
+
+    private static void visit() {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+    }
+
+    private void recolor(Node node, boolean color) {
+        if (OpMetrics.enabled && node.color != color) METRICS.count(OpMetrics.Counter.RECOLORINGS);
+        node.color = color;
+    }
+
     private void rotateRight(Node node) {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ROTATIONS);
+        rotations++;
         Node parent = node.parent;
         Node leftChild = node.left;
 
@@ -409,11 +718,15 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
         leftChild.right = node;
         node.parent = leftChild;
+        update(node);
+        update(leftChild);
 
         replaceParentsChild(parent, node, leftChild);
     }
 
     private void rotateLeft(Node node) {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ROTATIONS);
+        rotations++;
         Node parent = node.parent;
         Node rightChild = node.right;
 
@@ -424,6 +737,8 @@ public class RedBlackTree<T extends Comparable<T>> implements TInterface<T, T> {
 
         rightChild.left = node;
         node.parent = rightChild;
+        update(node);
+        update(rightChild);
 
         replaceParentsChild(parent, node, rightChild);
     }
@@ -548,6 +863,8 @@ class RedBlackTreeTest implements Tester{
      public void test() {
         RedBlackTree<Integer> rbTree = new RedBlackTree<>();
         doTests(rbTree);
+        mapTests();
+        checkTests();
      }
 
      public static void doTests(RedBlackTree<Integer> rbTree) {
@@ -555,6 +872,49 @@ class RedBlackTreeTest implements Tester{
         testDeletion(rbTree);
      }
 
+     // The TInterface side: a get that misses is null, and inserting a key that
+     // is already there, alone or in a batch, replaces it instead of throwing
+     public static void mapTests() {
+        RedBlackTree<Integer> rbTree = new RedBlackTree<>();
+        myAssert(rbTree.get(1) == null);
+        rbTree.insert(1, 1);
+        rbTree.insert(3, 3);
+        myAssert(rbTree.get(2) == null && rbTree.get(0) == null && rbTree.get(4) == null);
+        rbTree.insert(3, 3);
+        myAssert(rbTree.countNodes() == 2);
+        rbTree.insertAll(new Integer[] {1, 2, 3}, new Integer[] {1, 2, 3});
+        myAssert(rbTree.countNodes() == 3 && rbTree.get(2) == 2);
+        boolean thrown = false;
+        try {
+            rbTree.insertNode(2);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        myAssert(thrown);
+     }
+
+     // The red-black invariants hold after every insert and delete, and check()
+     // notices a node recoloured behind the tree's back
+     public static void checkTests() {
+        RedBlackTree<Integer> rbTree = new RedBlackTree<>();
+        Random random = new Random(28);
+        for (int op = 0; op < 4000; op++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(3) == 0) rbTree.remove(key);
+            else rbTree.insert(key, key);
+            rbTree.check();
+        }
+        myAssert(rbTree.root != null && rbTree.root.left != null);
+        rbTree.root.color = RedBlackTree.RED;
+        boolean thrown = false;
+        try {
+            rbTree.check();
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        myAssert(thrown);
+     }
+
 
      @Override
      public void insert() {
@@ -574,6 +934,8 @@ class RedBlackTreeTest implements Tester{
      public static void main(String[] args) {
          RedBlackTree<Integer> rbTree = new RedBlackTree<>();
          doTests(rbTree);
+         mapTests();
+         checkTests();
      }
 
  }
\ No newline at end of file
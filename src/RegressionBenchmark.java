@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Times the core operations of the guarded structures over repeated trials
+ * and writes the samples as JSON, for {@link BenchmarkCompare} to hold one
+ * run against another.
+ * <p>
+ * A trial builds a structure of n keys from empty in a random order, looks
+ * every key up in another random order and removes them all in a third,
+ * giving one sample per operation: the mean nanoseconds per call. Each size
+ * is run for a few discarded warm-up trials first. The file looks like
+ * <pre>
+ *     {"format": "trees-benchmark/1", "java": "17.0.9", ..., "unit": "ns/op",
+ *      "results": [
+ *        {"structure": "AVLTree", "operation": "insert", "size": 10000, "samples": [212.4, 208.9, ...]},
+ *        ...]}
+ * </pre>
+ * and is written by
+ * <pre>
+ *     java RegressionBenchmark [n,n,...] [trials] [output.json]
+ * </pre>
+ */
+public final class RegressionBenchmark {
+    public static final String FORMAT = "trees-benchmark/1";
+    public static final String[] OPERATIONS = {"insert", "get", "remove"};
+
+    private static final int WARMUP_TRIALS = 3;
+
+    private RegressionBenchmark() {
+    }
+
+    /**
+     * The guarded structures, by name.
+     */
+    public static Map<String, Supplier<TInterface<Integer, Integer>>> structures() {
+        Map<String, Supplier<TInterface<Integer, Integer>>> structures = new LinkedHashMap<>();
+        structures.put("BSTPrinceton", BSTPrinceton::new);
+        structures.put("AVLTree", AVLTree::new);
+        structures.put("RedBlackTree", RedBlackTree::new);
+        structures.put("SplayTree", SplayTree::new);
+        structures.put("SkipList", SkipList::new);
+        return structures;
+    }
+
+    /** The samples of one structure, operation and size, in nanoseconds per call. */
+    public static final class Series {
+        public final String structure;
+        public final String operation;
+        public final int size;
+        private final double[] samples;
+
+        public Series(String structure, String operation, int size, double[] samples) {
+            if (samples.length == 0) throw new IllegalArgumentException("no samples for " + structure + " " + operation);
+            this.structure = structure;
+            this.operation = operation;
+            this.size = size;
+            this.samples = samples.clone();
+        }
+
+        /** Identifies the series across result files. */
+        public String key() {
+            return structure + " " + operation + " n=" + size;
+        }
+
+        public double[] samples() {
+            return samples.clone();
+        }
+
+        public int count() {
+            return samples.length;
+        }
+
+        public double mean() {
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        /** Sample variance; 0 for a single sample. */
+        public double variance() {
+            if (samples.length < 2) return 0;
+            double mean = mean();
+            double sum = 0;
+            for (double sample : samples) {
+                sum += (sample - mean) * (sample - mean);
+            }
+            return sum / (samples.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ns/op over %d samples", key(), mean(), samples.length);
+        }
+    }
+
+    // Keys 0..n-1, scrambled, in an order drawn from random
+    private static Integer[] shuffledKeys(int n, Random random) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = LatencyBenchmark.scramble(i);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Integer swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        return keys;
+    }
+
+    /** One trial: mean nanoseconds per call of each of the {@link #OPERATIONS}. */
+    static double[] trial(TInterface<Integer, Integer> tree, int n, Random random) {
+        Integer[] insertOrder = shuffledKeys(n, random);
+        Integer[] getOrder = shuffledKeys(n, random);
+        Integer[] removeOrder = shuffledKeys(n, random);
+        double[] nanos = new double[OPERATIONS.length];
+
+        long start = System.nanoTime();
+        for (Integer key : insertOrder) {
+            tree.insert(key, key);
+        }
+        nanos[0] = (double) (System.nanoTime() - start) / n;
+
+        int found = 0;
+        start = System.nanoTime();
+        for (Integer key : getOrder) {
+            if (tree.get(key) != null) found++;
+        }
+        nanos[1] = (double) (System.nanoTime() - start) / n;
+
+        start = System.nanoTime();
+        for (Integer key : removeOrder) {
+            tree.remove(key);
+        }
+        nanos[2] = (double) (System.nanoTime() - start) / n;
+
+        if (found != n) throw new IllegalStateException(tree.getClass().getSimpleName() + " lost keys");
+        return nanos;
+    }
+
+    /** Runs {@code trials} measured trials of every structure at every size. */
+    public static List<Series> run(Map<String, Supplier<TInterface<Integer, Integer>>> structures,
+                                   int[] sizes, int trials, long seed) {
+        if (trials < 1) throw new IllegalArgumentException("trials must be positive: " + trials);
+        Random random = new Random(seed);
+        List<Series> results = new ArrayList<>();
+        for (Map.Entry<String, Supplier<TInterface<Integer, Integer>>> structure : structures.entrySet()) {
+            for (int n : sizes) {
+                for (int t = 0; t < WARMUP_TRIALS; t++) {
+                    trial(structure.getValue().get(), n, random);
+                }
+                double[][] samples = new double[OPERATIONS.length][trials];
+                for (int t = 0; t < trials; t++) {
+                    double[] nanos = trial(structure.getValue().get(), n, random);
+                    for (int op = 0; op < OPERATIONS.length; op++) {
+                        samples[op][t] = nanos[op];
+                    }
+                }
+                for (int op = 0; op < OPERATIONS.length; op++) {
+                    results.add(new Series(structure.getKey(), OPERATIONS[op], n, samples[op]));
+                }
+            }
+        }
+        return results;
+    }
+
+    /** The results as a JSON document, with the JVM and machine they were measured on. */
+    public static String toJson(List<Series> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"format\": ").append(Json.quote(FORMAT)).append(",\n");
+        sb.append("  \"java\": ").append(Json.quote(System.getProperty("java.version"))).append(",\n");
+        sb.append("  \"vm\": ").append(Json.quote(System.getProperty("java.vm.name"))).append(",\n");
+        sb.append("  \"os\": ").append(Json.quote(System.getProperty("os.name") + " " + System.getProperty("os.arch"))).append(",\n");
+        sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"timestamp\": ").append(Json.quote(Instant.now().toString())).append(",\n");
+        sb.append("  \"unit\": \"ns/op\",\n");
+        sb.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Series series = results.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"structure\": ").append(Json.quote(series.structure))
+                    .append(", \"operation\": ").append(Json.quote(series.operation))
+                    .append(", \"size\": ").append(series.size)
+                    .append(", \"samples\": [");
+            for (int s = 0; s < series.samples.length; s++) {
+                if (s > 0) sb.append(", ");
+                sb.append(String.format(Locale.ROOT, "%.3f", series.samples[s]));
+            }
+            sb.append("]}");
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * The results in a document written by {@link #toJson}.
+     *
+     * @throws IllegalArgumentException if the document is not JSON or not in {@link #FORMAT}
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Series> fromJson(String json) {
+        Object document = Json.parse(json);
+        if (!(document instanceof Map) || !FORMAT.equals(((Map<String, Object>) document).get("format"))) {
+            throw new IllegalArgumentException("not a " + FORMAT + " document");
+        }
+        Object list = ((Map<String, Object>) document).get("results");
+        if (!(list instanceof List)) throw new IllegalArgumentException("no results array");
+        List<Series> results = new ArrayList<>();
+        for (Object entry : (List<Object>) list) {
+            try {
+                Map<String, Object> result = (Map<String, Object>) entry;
+                List<Object> values = (List<Object>) result.get("samples");
+                double[] samples = new double[values.size()];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = (Double) values.get(i);
+                }
+                results.add(new Series((String) result.get("structure"), (String) result.get("operation"),
+                        ((Double) result.get("size")).intValue(), samples));
+            } catch (ClassCastException | NullPointerException e) {
+                throw new IllegalArgumentException("malformed result " + entry, e);
+            }
+        }
+        return results;
+    }
+
+    /** Metadata of a result document: everything but the results. */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> metadata(String json) {
+        Object document = Json.parse(json);
+        if (!(document instanceof Map)) throw new IllegalArgumentException("not a " + FORMAT + " document");
+        Map<String, Object> metadata = new LinkedHashMap<>((Map<String, Object>) document);
+        metadata.remove("results");
+        return metadata;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        int trials = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String json = toJson(run(structures(), sizes, trials, 1));
+        if (args.length > 2) {
+            Files.write(Paths.get(args[2]), json.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(json);
+        }
+    }
+}
+
+class RegressionBenchmarkTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void doTests(int n) {
+        List<RegressionBenchmark.Series> results = RegressionBenchmark.run(RegressionBenchmark.structures(), new int[]{n}, 3, 7);
+        myAssert(results.size() == RegressionBenchmark.structures().size() * RegressionBenchmark.OPERATIONS.length);
+        for (RegressionBenchmark.Series series : results) {
+            myAssert(series.count() == 3 && series.mean() > 0 && series.size == n);
+        }
+
+        // what is written reads back the same, to the three decimals written
+        String json = RegressionBenchmark.toJson(results);
+        List<RegressionBenchmark.Series> read = RegressionBenchmark.fromJson(json);
+        myAssert(read.size() == results.size());
+        for (int i = 0; i < read.size(); i++) {
+            myAssert(read.get(i).key().equals(results.get(i).key()));
+            double[] written = results.get(i).samples();
+            double[] parsed = read.get(i).samples();
+            for (int s = 0; s < written.length; s++) {
+                myAssert(Math.abs(written[s] - parsed[s]) <= 0.0005);
+            }
+        }
+        Map<String, Object> metadata = RegressionBenchmark.metadata(json);
+        myAssert(RegressionBenchmark.FORMAT.equals(metadata.get("format")) && "ns/op".equals(metadata.get("unit")));
+        myAssert(!metadata.containsKey("results"));
+
+        RegressionBenchmark.Series series = new RegressionBenchmark.Series("T", "get", 1, new double[]{1, 2, 3, 4});
+        myAssert(series.mean() == 2.5 && Math.abs(series.variance() - 5.0 / 3) < 1e-12);
+
+        boolean thrown = false;
+        try {
+            RegressionBenchmark.fromJson("{\"format\": \"other/1\", \"results\": []}");
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        myAssert(thrown);
+        thrown = false;
+        try {
+            RegressionBenchmark.fromJson("{\"format\": \"" + RegressionBenchmark.FORMAT + "\", \"results\": [{\"structure\": \"T\"}]}");
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        myAssert(thrown);
+    }
+
+    @Override
+    public void test() {
+        doTests(1000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(1000);
+    }
+}
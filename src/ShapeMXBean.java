@@ -0,0 +1,34 @@
+/**
+ * The JMX view of a {@link TreeShape}, registered by {@link ShapeMonitor}.
+ * Each attribute is read from figures the structure maintains as it changes;
+ * none of them traverses the structure.
+ */
+public interface ShapeMXBean {
+    /** The simple class name of the structure, e.g. "BSTPrinceton". */
+    String getStructure();
+
+    int getSize();
+
+    /** Edges on the longest path from the root; -1 if empty. */
+    int getHeight();
+
+    /**
+     * Levels (height + 1) over log2(size + 1): 1.0 for a perfectly balanced
+     * tree, at most 1.44 for an AVL tree and 2 for a red-black tree, and
+     * growing like n / log n as an unbalanced tree degenerates into a list.
+     * NaN if empty.
+     */
+    double getHeightRatio();
+
+    /**
+     * Nodes visited by a successful search, averaged over all keys; NaN if
+     * empty or if the structure has no single search tree.
+     */
+    double getAveragePathLength();
+
+    /** Nodes on each level, bottom first; empty unless the structure has levels. */
+    long[] getLevelCounts();
+
+    /** Fraction of a fixed capacity in use; NaN if the structure grows freely. */
+    double getFillRatio();
+}
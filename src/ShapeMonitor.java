@@ -0,0 +1,283 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Publishes the {@link TreeShape} of one structure instance as a
+ * {@link ShapeMXBean}, so that JConsole, a JMX exporter or a
+ * {@link javax.management.monitor.GaugeMonitor} can watch it.
+ * <p>
+ * Registration is opt-in and per instance:
+ * <pre>
+ *     ObjectName name = ShapeMonitor.register("orders", ordersTree);
+ *     ...
+ *     ShapeMonitor.unregister(name);
+ * </pre>
+ * registers {@code trees:type=BSTPrinceton,name=orders} with the platform
+ * MBean server. The structures maintain their shape as they change, so an
+ * attribute read costs O(1) whatever the size of the structure. Alerting on
+ * {@code HeightRatio}, e.g. above 2, catches an unbalanced tree fed sorted
+ * keys long before its operations turn linear.
+ * <p>
+ * Attributes are read without locking. While the structure is being
+ * modified by another thread they may be momentarily stale or mutually
+ * inconsistent, which is fine for monitoring.
+ */
+public final class ShapeMonitor implements ShapeMXBean {
+    private static final double LN_2 = Math.log(2);
+
+    private final TreeShape shape;
+
+    public ShapeMonitor(TreeShape shape) {
+        if (shape == null) throw new IllegalArgumentException("shape is null");
+        this.shape = shape;
+    }
+
+    /**
+     * Registers a monitor for {@code shape} with the platform MBean server.
+     *
+     * @param name the {@code name} key of the object name, unique per structure type
+     * @param shape the structure to monitor
+     * @return the object name, {@code trees:type=<class>,name=<name>}
+     * @throws IllegalArgumentException if the name is not a valid object name
+     *                                  value or is already registered
+     */
+    public static ObjectName register(String name, TreeShape shape) {
+        if (name == null) throw new IllegalArgumentException("name is null");
+        ObjectName objectName;
+        try {
+            objectName = new ObjectName("trees:type=" + shape.getClass().getSimpleName() + ",name=" + name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("not a valid MBean name: " + name, e);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new StandardMBean(new ShapeMonitor(shape), ShapeMXBean.class, true), objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException(objectName + " is already registered", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + objectName, e);
+        }
+        return objectName;
+    }
+
+    /**
+     * Removes a monitor registered by {@link #register}; does nothing if it is
+     * not registered.
+     */
+    public static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // already gone
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister " + name, e);
+        }
+    }
+
+    public String getStructure() {
+        return shape.getClass().getSimpleName();
+    }
+
+    public int getSize() {
+        return shape.size();
+    }
+
+    public int getHeight() {
+        return shape.height();
+    }
+
+    public double getHeightRatio() {
+        int size = shape.size();
+        if (size == 0) return Double.NaN;
+        return (shape.height() + 1) / (Math.log(size + 1.0) / LN_2);
+    }
+
+    public double getAveragePathLength() {
+        int size = shape.size();
+        long pathLength = shape.pathLength();
+        if (size == 0 || pathLength < 0) return Double.NaN;
+        return 1 + (double) pathLength / size;
+    }
+
+    public long[] getLevelCounts() {
+        return shape.levelCounts();
+    }
+
+    public double getFillRatio() {
+        return shape.fillRatio();
+    }
+}
+
+class ShapeMonitorTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Random inserts and removes, checking the maintained shape after each round
+    private static void randomOps(int ops) {
+        Random random = new Random(43);
+        BSTPrinceton<Integer, Integer> bst = new BSTPrinceton<>();
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> redBlack = new RedBlackTree<>();
+        SplayTree<Integer, Integer> splay = new SplayTree<>();
+        SkipList<Integer, Integer> skipList = new SkipList<>();
+        TreeSet<Integer> model = new TreeSet<>();
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            int key = random.nextInt(range);
+            if (random.nextInt(3) == 0) {
+                if (model.remove(key)) {
+                    redBlack.remove(key);
+                    skipList.remove(key);
+                }
+                bst.remove(key);
+                avl.remove(key);
+                splay.remove(key);
+            } else {
+                if (model.add(key)) {
+                    redBlack.insertNode(key);
+                }
+                bst.insert(key, key);
+                avl.insert(key);
+                splay.put(key, key);
+                skipList.put(key, key);
+            }
+            if (op % 500 == 0 || op == ops - 1) {
+                bst.checkShape();
+                avl.checkBalance();
+                redBlack.checkShape();
+                splay.checkShape();
+                skipList.checkShape();
+                for (TreeShape shape : new TreeShape[] {bst, avl, redBlack, splay, skipList}) {
+                    myAssert(shape.size() == model.size());
+                }
+                myAssert(bst.height() == new ShapeMonitor(bst).getHeight());
+                myAssert(skipList.levelCounts()[0] == model.size());
+            }
+        }
+    }
+
+    public static void doTests(int n) {
+        randomOps(20 * n);
+
+        // sorted input degenerates BSTPrinceton into a list, but not the balanced trees
+        BSTPrinceton<Integer, Integer> bst = new BSTPrinceton<>();
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> redBlack = new RedBlackTree<>();
+        for (int i = 0; i < n; i++) {
+            bst.put(i, i);
+            avl.insert(i);
+            redBlack.insertNode(i);
+        }
+        myAssert(bst.height() == n - 1);
+        myAssert(bst.pathLength() == (long) n * (n - 1) / 2);
+        ShapeMonitor degenerate = new ShapeMonitor(bst);
+        myAssert(degenerate.getHeightRatio() > n / 20.0);
+        myAssert(degenerate.getAveragePathLength() == (n + 1) / 2.0);
+        myAssert(new ShapeMonitor(avl).getHeightRatio() <= 1.45);
+        myAssert(new ShapeMonitor(redBlack).getHeightRatio() <= 2.0);
+        myAssert(new ShapeMonitor(avl).getAveragePathLength() < Math.log(n) / Math.log(2) + 1);
+        myAssert(Double.isNaN(new ShapeMonitor(new BSTPrinceton<Integer, Integer>()).getHeightRatio()));
+
+        // the heap is complete: its figures follow from its size
+        MinHeap heap = new MinHeap(2 * n);
+        for (int i = 0; i < n; i++) {
+            heap.insertKey(n - i);
+            long depths = 0;
+            for (int j = 0; j <= i; j++) {
+                depths += 31 - Integer.numberOfLeadingZeros(j + 1);
+            }
+            myAssert(heap.pathLength() == depths);
+        }
+        myAssert(heap.fillRatio() == 0.5);
+        myAssert(Double.isNaN(new ShapeMonitor(new SkipList<Integer, Integer>()).getFillRatio()));
+
+        // the attributes are visible through the platform MBean server
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ShapeMonitor.register("sorted", bst);
+            myAssert(name.toString().equals("trees:type=BSTPrinceton,name=sorted"));
+            myAssert(server.getAttribute(name, "Height").equals(n - 1));
+            myAssert(server.getAttribute(name, "Structure").equals("BSTPrinceton"));
+            myAssert((Double) server.getAttribute(name, "HeightRatio") > n / 20.0);
+            bst.put(-1, -1);
+            myAssert(server.getAttribute(name, "Size").equals(n + 1));
+            boolean rejected = false;
+            try {
+                ShapeMonitor.register("sorted", bst);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            myAssert(rejected);
+            ShapeMonitor.unregister(name);
+            myAssert(!server.isRegistered(name));
+            ShapeMonitor.unregister(name);
+
+            SkipList<Integer, Integer> skipList = new SkipList<>();
+            for (int i = 0; i < n; i++) {
+                skipList.put(i, i);
+            }
+            name = ShapeMonitor.register("levels", skipList);
+            long[] levels = (long[]) server.getAttribute(name, "LevelCounts");
+            myAssert(levels[0] == n && levels.length == skipList.height() + 1);
+            myAssert(Double.isNaN((Double) server.getAttribute(name, "AveragePathLength")));
+            ShapeMonitor.unregister(name);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Cost of maintaining the shape: ascending inserts into a red-black tree,
+    // which rotate often, against reading the shape
+    public static void benchmark(int n) {
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < n; i++) {
+                tree.insertNode(i);
+            }
+            long insert = System.nanoTime() - start;
+            ShapeMonitor monitor = new ShapeMonitor(tree);
+            start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += monitor.getAveragePathLength() + monitor.getHeightRatio();
+            }
+            long read = System.nanoTime() - start;
+            myAssert(sum > 0);
+            System.out.printf("RedBlackTree n=%d: insert %d ns, shape read %d ns, height %d, average path %.2f%n",
+                    n, insert / n, read / n, tree.height(), monitor.getAveragePathLength());
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(1000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(1000);
+        benchmark(1000000);
+    }
+}
@@ -1,6 +1,10 @@
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.Random;
 // https://gist.github.com/SylvanasSun/f2a3e30e3657d8727006887751c1d1de
 /**
@@ -17,12 +21,26 @@ import java.util.Random;
  *
  * @author SylvanasSun <sylvanas.sun@gmail.com>
  */
-public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInterface<K, V> {
+public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInterface<K, V>, TreeShape {
     protected static final Random randomGenerator = new Random();
     protected static final double DEFAULT_PROBABILITY = 0.5;
+    private static final OpMetrics METRICS = OpMetrics.of(SkipList.class);
     private Node<K, V> head;
     private double probability;
     private int size;
+    // The finger: the search path of the last write, one node per level
+    // (index 0 is the bottom), each the rightmost node on its level whose key
+    // is less than or equal to that write's key. Null before the first write.
+    // Lookups never move it, so concurrent readers share nothing mutable.
+    private Node<K, V>[] finger;
+    // Position of each finger node on the bottom level (head 0, first key 1)
+    private int[] fingerPos;
+    // The rightmost node on every level, i.e. the search path past the maximum
+    private Node<K, V>[] tails;
+    // Set by an append: the finger is then the tails and is copied out lazily
+    private boolean fingerAtTail;
+    // Number of key nodes on each level (index 0 is the bottom, i.e. size)
+    private long[] levelCounts = new long[1];
 
     public SkipList() {
         this(DEFAULT_PROBABILITY);
@@ -32,14 +50,26 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
         this.head = new Node<K, V>(null, null, 0);
         this.probability = probability;
         this.size = 0;
+        this.head.setWidth(1);
+        this.tails = newPath(1);
+        this.tails[0] = head;
     }
 
     public V get(K key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        V value = lookup(key);
+        if (event.slow())
+            event.commit("SkipList", "get", key, head.getLevel() + 1, 0);
+        return value;
+    }
+
+    private V lookup(K key) {
         checkKeyValidity(key);
-        Node<K, V> node = findNode(key);
-        if(node == null) return null;
-        if(node.key == null) return null;
-        if (node.getKey().compareTo(key) == 0)
+        // Past the maximum there is nothing to find
+        if (pastMaximum(key))
+            return null;
+        Node<K, V> node = floor(key);
+        if (node.getKey() != null && node.getKey().compareTo(key) == 0)
             return node.getValue();
         else
             return null;
@@ -50,60 +80,342 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
     }
 
     public void put(K key, V value) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        putEntry(key, value);
+        if (event.slow())
+            event.commit("SkipList", "put", key, head.getLevel() + 1, 0);
+    }
+
+    private void putEntry(K key, V value) {
         checkKeyValidity(key);
-        Node<K, V> node = findNode(key);
+        // Append fast path: link the new tower straight onto the tails
+        if (pastMaximum(key)) {
+            linkTower(true, key, value);
+            fingerAtTail = true;
+            return;
+        }
+        Node<K, V> node = search(key);
         if (node.getKey() != null && node.getKey().compareTo(key) == 0) {
-            node.setValue(value);
+            setTowerValue(node, value);
             return;
         }
+        linkTower(false, key, value);
+    }
+
+    /**
+     * Looks up keys, which must be in strictly ascending order. Each lookup is
+     * a finger search from the previous one, so neighbouring keys cost
+     * O(log d) for a gap of d elements rather than O(log n) from the head.
+     * The search climbs from the previous key's node rather than the shared
+     * finger, so concurrent lookups stay independent.
+     *
+     * @param keys the keys, in strictly ascending order
+     * @param results receives the value for keys[i] (or null) at index i
+     * @return the number of keys found
+     */
+    public int getAll(K[] keys, V[] results) {
+        TInterface.checkBatch(keys, results.length);
+        Node<K, V> node = head;
+        while (node.getDown() != null)
+            node = node.getDown();
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            results[i] = null;
+            if (pastMaximum(keys[i]))
+                continue;
+            node = floorFrom(node, keys[i]);
+            if (node.getKey() != null && node.getKey().compareTo(keys[i]) == 0) {
+                results[i] = node.getValue();
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Inserts keys[i] -> values[i], with keys in strictly ascending order. Each
+     * insert is a finger search from the previous one, and keys past the
+     * current maximum take the append fast path.
+     *
+     * @param keys the keys, in strictly ascending order
+     * @param values the values, values[i] belonging to keys[i]
+     */
+    public void insertAll(K[] keys, V[] values) {
+        TInterface.checkBatch(keys, values.length);
+        for (int i = 0; i < keys.length; i++) {
+            put(keys[i], values[i]);
+        }
+    }
+
+    // True if key is greater than every key in the list (or the list is empty)
+    private boolean pastMaximum(K key) {
+        K max = tails[0].getKey();
+        return max == null || max.compareTo(key) < 0;
+    }
+
+    // Moves the finger to the search path of key and returns its bottom node,
+    // the greatest node with key less than or equal to key.
+    private Node<K, V> search(K key) {
+        if (fingerAtTail) {
+            finger = tails.clone();
+            fingerPos = new int[finger.length];
+            for (int level = 0; level <= head.getLevel(); level++) {
+                fingerPos[level] = tailPosition(level);
+            }
+            fingerAtTail = false;
+        } else if (finger == null) {
+            finger = headPath();
+            fingerPos = new int[finger.length];
+        }
+        return fingerSearch(key);
+    }
+
+    // A tail's link runs to the virtual position size + 1 past the last key
+    private int tailPosition(int level) {
+        return size + 1 - tails[level].getWidth();
+    }
+
+    // The search path before every key: the head node on every level
+    private Node<K, V>[] headPath() {
+        Node<K, V>[] path = newPath(head.getLevel() + 1);
+        for (Node<K, V> node = head; node != null; node = node.getDown()) {
+            path[node.getLevel()] = node;
+        }
+        return path;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V>[] newPath(int levels) {
+        return (Node<K, V>[]) Array.newInstance(Node.class, levels);
+    }
+
+    // The greatest node with key less than or equal to key (the head if there
+    // is none), searched down from the head without touching the finger
+    private Node<K, V> floor(K key) {
+        return descend(head, key);
+    }
+
+    // A finger search that needs no path: from the bottom node of a smaller
+    // key, climbs the towers met on the way right until the next link on the
+    // level passes key, then descends from there to the floor of key
+    private Node<K, V> floorFrom(Node<K, V> node, K key) {
+        Node<K, V> next = node.getNext();
+        while (next != null && lessThanOrEqual(next.getKey(), key)) {
+            if (node.getUp() != null) {
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.LEVEL_HOPS);
+                node = node.getUp();
+            } else {
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+                node = next;
+            }
+            next = node.getNext();
+        }
+        return descend(node, key);
+    }
+
+    // From node, whose key is at most key, the greatest node on the bottom
+    // level with key less than or equal to key
+    private Node<K, V> descend(Node<K, V> node, K key) {
+        while (true) {
+            Node<K, V> next = node.getNext();
+            while (next != null && lessThanOrEqual(next.getKey(), key)) {
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+                node = next;
+                next = node.getNext();
+            }
+            if (node.getDown() == null)
+                return node;
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.LEVEL_HOPS);
+            node = node.getDown();
+        }
+    }
+
+    // The number of keys less than key (or equal to it too, if inclusive),
+    // searched down from the head by adding up the widths of the links taken
+    private int countBelow(K key, boolean inclusive) {
+        Node<K, V> node = head;
+        int pos = 0;
+        while (true) {
+            Node<K, V> next = node.getNext();
+            while (next != null && (inclusive ? lessThanOrEqual(next.getKey(), key) : !lessThanOrEqual(key, next.getKey()))) {
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+                pos += node.getWidth();
+                node = next;
+                next = node.getNext();
+            }
+            if (node.getDown() == null)
+                return pos;
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.LEVEL_HOPS);
+            node = node.getDown();
+        }
+    }
+
+    // Moves the finger from the search path of some earlier key to the search
+    // path of key and returns its bottom node. Climbs only until the finger on
+    // a level brackets key (from either side), then moves right and descends
+    // from there; the levels above are then already correct. Positions are
+    // carried along by adding up the widths of the links taken.
+    private Node<K, V> fingerSearch(K key) {
+        int top = head.getLevel();
+        int level = 0;
+        while (level < top && !brackets(finger[level], key)) {
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.LEVEL_HOPS);
+            level++;
+        }
+        Node<K, V> node = finger[level];
+        int pos = fingerPos[level];
+        // Ran out of levels while still right of key: restart from the head
+        if (node.getKey() != null && !lessThanOrEqual(node.getKey(), key)) {
+            node = head;
+            pos = 0;
+        }
+        while (true) {
+            Node<K, V> next = node.getNext();
+            while (next != null && lessThanOrEqual(next.getKey(), key)) {
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+                pos += node.getWidth();
+                node = next;
+                next = node.getNext();
+            }
+            finger[level] = node;
+            fingerPos[level] = pos;
+            if (level == 0)
+                return node;
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.LEVEL_HOPS);
+            node = node.getDown();
+            level--;
+        }
+    }
+
+    // node.key <= key < node.next.key, with head nodes counting as -infinity
+    private boolean brackets(Node<K, V> node, K key) {
+        if (node.getKey() != null && !lessThanOrEqual(node.getKey(), key))
+            return false;
+        Node<K, V> next = node.getNext();
+        return next == null || !lessThanOrEqual(next.getKey(), key);
+    }
+
+    // Inserts a new tower for key after the bottom node of the path (the tails
+    // when appending, otherwise the finger), linking each level from the path
+    // and leaving the path pointing at the new tower. Every link the tower
+    // splits is divided between the two halves; every link it passes under
+    // grows by one.
+    private void linkTower(boolean atTail, K key, V value) {
+        int p = pathPosition(atTail, 0) + 1; // position of the new key
+        Node<K, V> newNode = new Node<K, V>(key, value, 0);
+        splitLink(atTail, 0, newNode, p);
+        levelCounts[0]++;
 
-        Node<K, V> newNode = new Node<K, V>(key, value, node.getLevel());
-        horizontalInsert(node, newNode);
         // Decide level according to the probability function
-        int currentLevel = node.getLevel();
-        int headLevel = head.getLevel();
+        int level = 0;
         while (isBuildLevel()) {
-            // buiding a new level
-            if (currentLevel >= headLevel) {
-                Node<K, V> newHead = new Node<K, V>(null, null, headLevel + 1);
+            level++;
+            if (level > head.getLevel()) {
+                // buiding a new level, whose head link spans the whole list
+                Node<K, V> newHead = new Node<K, V>(null, null, level);
+                newHead.setWidth(size + 1);
                 verticalLink(newHead, head);
                 head = newHead;
-                headLevel = head.getLevel();
+                growPaths(level + 1);
+                if (levelCounts.length <= level)
+                    levelCounts = Arrays.copyOf(levelCounts, level + 1);
+                tails[level] = head;
+                if (!atTail) {
+                    finger[level] = head;
+                    fingerPos[level] = 0;
+                }
             }
-            // copy node and newNode to the upper level
-            while (node.getUp() == null) {
-                node = node.getPrevious();
-            }
-            node = node.getUp();
-
-            Node<K, V> tmp = new Node<K, V>(key, value, node.getLevel());
-            horizontalInsert(node, tmp);
+            // copy newNode to the upper level
+            Node<K, V> tmp = new Node<K, V>(key, value, level);
+            splitLink(atTail, level, tmp, p);
+            levelCounts[level]++;
             verticalLink(tmp, newNode);
             newNode = tmp;
-            currentLevel++;
+        }
+        Node<K, V>[] path = atTail ? tails : finger;
+        for (level++; level <= head.getLevel(); level++) {
+            path[level].setWidth(path[level].getWidth() + 1);
         }
         size++;
     }
 
+    // Position of the path node on a level, before size is bumped for the new key
+    private int pathPosition(boolean atTail, int level) {
+        return atTail ? tailPosition(level) : fingerPos[level];
+    }
+
+    // Links node (at position p) after the path node on level and moves the path there
+    private void splitLink(boolean atTail, int level, Node<K, V> node, int p) {
+        Node<K, V>[] path = atTail ? tails : finger;
+        Node<K, V> prev = path[level];
+        int q = pathPosition(atTail, level);
+        int w = prev.getWidth();
+        horizontalInsert(prev, node);
+        prev.setWidth(p - q);
+        node.setWidth(q + w + 1 - p);
+        path[level] = node;
+        if (!atTail)
+            fingerPos[level] = p;
+        if (node.getNext() == null)
+            tails[level] = node;
+    }
+
+    private void growPaths(int levels) {
+        if (tails.length < levels)
+            tails = Arrays.copyOf(tails, levels);
+        if (finger != null && finger.length < levels) {
+            finger = Arrays.copyOf(finger, levels);
+            fingerPos = Arrays.copyOf(fingerPos, levels);
+        }
+    }
+
+    // Sets the value on every level of the tower node belongs to, so that a
+    // search ending on any level sees the same value
+    protected void setTowerValue(Node<K, V> node, V value) {
+        while (node.getUp() != null)
+            node = node.getUp();
+        for (; node != null; node = node.getDown())
+            node.setValue(value);
+    }
+
     public void remove(K key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        unlink(key);
+        if (event.slow())
+            event.commit("SkipList", "remove", key, head.getLevel() + 1, 0);
+    }
+
+    private void unlink(K key) {
         checkKeyValidity(key);
-        Node<K, V> node = findNode(key);
-        if (node == null || node.getKey().compareTo(key) != 0)
-            throw new NoSuchElementException("The key is not exist!");
+        Node<K, V> node = pastMaximum(key) ? null : search(key);
+        if (node == null || node.getKey() == null || node.getKey().compareTo(key) != 0)
+            return;
 
-        // Move to the bottom
-        while (node.getDown() != null)
-            node = node.getDown();
-        // Because node is on the lowest level so we need remove by down-top
+        // The search ends on the lowest level so we remove by down-top
         Node<K, V> prev = null;
         Node<K, V> next = null;
+        int level = 0;
         for (; node != null; node = node.getUp()) {
             prev = node.getPrevious();
             next = node.getNext();
-            if (prev != null)
-                prev.setNext(next);
+            level = node.getLevel();
+            // The finger and the tails step back to the predecessor, whose
+            // link absorbs the removed one
+            if (finger[level] == node) {
+                finger[level] = prev;
+                fingerPos[level] -= prev.getWidth();
+            }
+            prev.setWidth(prev.getWidth() + node.getWidth() - 1);
+            prev.setNext(next);
             if (next != null)
                 next.setPrevious(prev);
+            if (next == null)
+                tails[level] = prev;
+            levelCounts[level]--;
+        }
+        // Links passing over the removed tower shrink by one
+        for (level++; level <= head.getLevel(); level++) {
+            finger[level].setWidth(finger[level].getWidth() - 1);
         }
 
         // Adjust head
@@ -122,36 +434,139 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
         return size;
     }
 
-    public boolean empty() {
-        return size == 0;
+    /**
+     * Returns the highest level in use; an empty list and a list of bottom
+     * level nodes only both have height 0.
+     */
+    public int height() {
+        return head.getLevel();
     }
 
-    protected Node<K, V> findNode(K key) {
-        Node<K, V> node = head;
-        Node<K, V> next = null;
-        Node<K, V> down = null;
-        K nodeKey = null;
+    /** Returns -1: a skip list has no single search tree to measure. */
+    public long pathLength() {
+        return -1;
+    }
+
+    /** Returns the number of nodes on each level in use, bottom first. */
+    public long[] levelCounts() {
+        return Arrays.copyOf(levelCounts, head.getLevel() + 1);
+    }
+
+    // Throws if the level counts differ from a walk along each level
+    void checkShape() {
+        Node<K, V> levelHead = head;
+        for (int level = head.getLevel(); level >= 0; level--) {
+            long count = 0;
+            for (Node<K, V> node = levelHead.getNext(); node != null; node = node.getNext())
+                count++;
+            if (count != levelCounts[level])
+                throw new IllegalStateException("level " + level + " has " + count + " nodes, counted " + levelCounts[level]);
+            levelHead = levelHead.getDown();
+        }
+    }
+
+    /**
+     * Returns the number of keys strictly less than {@code key}, in expected
+     * O(log n) time by adding up link widths along the search path.
+     *
+     * @param key the key
+     * @return the number of keys in the list strictly less than {@code key}
+     */
+    public int rank(K key) {
+        checkKeyValidity(key);
+        if (pastMaximum(key))
+            return size;
+        return countBelow(key, false);
+    }
 
+    /**
+     * Returns the key of the given rank, i.e. the ({@code rank}+1)st smallest
+     * key, in expected O(log n) time.
+     *
+     * @param rank the order statistic
+     * @return the key of the given rank
+     * @throws IllegalArgumentException unless {@code rank} is between 0 and size-1
+     */
+    public K select(int rank) {
+        if (rank < 0 || rank >= size)
+            throw new IllegalArgumentException("argument to select() is invalid: " + rank);
+        int target = rank + 1;
+        Node<K, V> node = head;
+        int pos = 0;
         while (true) {
-            // Searching nearest (less than or equal) node with special key
-            next = node.getNext();
-            while (next != null && lessThanOrEqual(next.getKey(), key)) {
-                node = next;
-                next = node.getNext();
-            }
-            nodeKey = node.getKey();
-            if (nodeKey != null && nodeKey.compareTo(key) == 0)
-                break;
-            // Descend to the bottom for continue search
-            down = node.getDown();
-            if (down != null) {
-                node = down;
-            } else {
-                break;
+            while (node.getNext() != null && pos + node.getWidth() <= target) {
+                pos += node.getWidth();
+                node = node.getNext();
             }
+            if (pos == target)
+                return node.getKey();
+            node = node.getDown();
         }
+    }
+
+    /**
+     * Returns the number of keys between {@code lo} and {@code hi}, both
+     * inclusive, in expected O(log n) time.
+     *
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @return the number of keys in the list between {@code lo} and {@code hi}
+     */
+    public int size(K lo, K hi) {
+        checkKeyValidity(lo);
+        checkKeyValidity(hi);
+        if (lo.compareTo(hi) > 0)
+            return 0;
+        int below = rank(lo);
+        // keys <= hi: the position of the search path's bottom node
+        if (pastMaximum(hi))
+            return size - below;
+        return countBelow(hi, true) - below;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
 
-        return node;
+    /**
+     * Writes the list in key order in the {@link Snapshot} format. Only the
+     * bottom level is written; towers are rebuilt on restore.
+     *
+     * @param out receives the snapshot; it is flushed but not closed
+     * @param keyCodec serializes the keys
+     * @param valueCodec serializes the values
+     */
+    public void snapshot(OutputStream out, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        Snapshot.Writer<K, V> writer = new Snapshot.Writer<>(out, size, keyCodec, valueCodec);
+        Node<K, V> node = head;
+        while (node.getDown() != null)
+            node = node.getDown();
+        for (node = node.getNext(); node != null; node = node.getNext())
+            writer.write(node.getKey(), node.getValue());
+        writer.finish();
+    }
+
+    /**
+     * Rebuilds a list from a snapshot in expected linear time: the keys arrive
+     * in ascending order, so every one takes the append fast path and its tower
+     * is linked straight onto the tails with no search.
+     *
+     * @param in the snapshot
+     * @param keyCodec reads the keys back
+     * @param valueCodec reads the values back
+     * @return the restored list, with the default probability
+     */
+    public static <K extends Comparable<K>, V> SkipList<K, V> restore(
+            InputStream in, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        Snapshot.Reader<K, V> reader = new Snapshot.Reader<>(in, keyCodec, valueCodec);
+        SkipList<K, V> list = new SkipList<>();
+        for (int i = reader.size(); i > 0; i--) {
+            K key = reader.nextKey();
+            if (!list.pastMaximum(key))
+                throw new IOException("snapshot keys are not in ascending order at " + key);
+            list.put(key, reader.nextValue());
+        }
+        return list;
     }
 
     protected void checkKeyValidity(K key) {
@@ -160,6 +575,7 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
     }
 
     protected boolean lessThanOrEqual(K a, K b) {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.COMPARISONS);
         return a.compareTo(b) <= 0;
     }
 
@@ -255,10 +671,8 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
             while (node.getPrevious() != null)
                 node = node.getPrevious();
 
-            if (node.getNext() != null)
-                node = node.getNext();
-
-            this.node = node;
+            // Skip the head; an empty list has nothing to yield
+            this.node = node.getNext();
         }
 
         @Override
@@ -283,6 +697,8 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
         private K key;
         private V value;
         private int level;
+        // Number of bottom-level positions the next link skips over
+        private int width;
         private Node<K, V> up, down, next, previous;
 
         public Node(K key, V value, int level) {
@@ -334,6 +750,14 @@ public class SkipList<K extends Comparable<K>, V> implements Iterable<K>, TInter
             this.level = level;
         }
 
+        public int getWidth() {
+            return width;
+        }
+
+        public void setWidth(int width) {
+            this.width = width;
+        }
+
         public Node<K, V> getUp() {
             return up;
         }
@@ -401,10 +825,37 @@ class SkipListTest implements Tester{
         }
     }
 
+    public static void rankTests(SkipList<Integer, Integer> skipList) {
+        Integer[] keys = {10, 20, 30, 40, 50, 60, 70, 80};
+        for (int i = keys.length - 1; i >= 0; i--) {
+            skipList.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            myAssert(skipList.rank(keys[i]) == i);
+            myAssert(skipList.rank(keys[i] + 1) == i + 1);
+            myAssert(skipList.select(i).equals(keys[i]));
+        }
+        myAssert(skipList.rank(0) == 0);
+        myAssert(skipList.size(15, 55) == 4);
+        myAssert(skipList.size(20, 20) == 1);
+        myAssert(skipList.size(55, 15) == 0);
+        skipList.remove(30);
+        myAssert(skipList.rank(40) == 2);
+        myAssert(skipList.select(2).equals(40));
+        myAssert(skipList.size(0, 100) == keys.length - 1);
+        // removing a missing key, inside the range or past either end, changes nothing
+        skipList.remove(35);
+        skipList.remove(5);
+        skipList.remove(90);
+        skipList.checkShape();
+        myAssert(skipList.size() == keys.length - 1 && skipList.rank(40) == 2);
+    }
+
     @Override
      public void test() {
         SkipList skipList = new SkipList();
         doTests(skipList);
+        rankTests(new SkipList<>());
      }
 
 
@@ -421,5 +872,6 @@ class SkipListTest implements Tester{
     public static void main(String[] args) {
         SkipList<Integer, String> skipList = new SkipList<>();
         doTests(skipList);
+        rankTests(new SkipList<>());
     }
 }
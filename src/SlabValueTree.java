@@ -0,0 +1,255 @@
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * A {@link TInterface} from keys to byte values that keeps the values in a
+ * {@link ValueSlab} and only a handle to them in the tree.
+ * <p>
+ * Any of the structures can hold the index. A map such as {@link BSTPrinceton}
+ * or {@link SkipList} stores the {@code long} handle as the value of its key.
+ * The set-like {@link AVLTree} and {@link RedBlackTree} keep only keys, so
+ * {@link #overSet} stores each key as an {@link Entry} that pairs it with the
+ * handle of its value. Either way the heap holds one small handle per key
+ * whatever the size of the values.
+ * <p>
+ * {@link #get(Comparable)} returns the slab's read-only view of the value,
+ * not a copy. It is valid until the key is updated or removed, or the slab
+ * is compacted. Inserting a {@code null} value removes the key.
+ */
+public class SlabValueTree<Key extends Comparable<Key>> implements TInterface<Key, ByteBuffer> {
+
+    /** A key and the handle of its value, ordered by key. */
+    public static final class Entry<Key extends Comparable<Key>> implements Comparable<Entry<Key>> {
+        final Key key;
+        long handle;
+
+        Entry(Key key, long handle) {
+            this.key = key;
+            this.handle = handle;
+        }
+
+        public int compareTo(Entry<Key> other) {
+            return key.compareTo(other.key);
+        }
+
+        // RedBlackTree matches nodes with equals(), so it must agree with compareTo()
+        public boolean equals(Object other) {
+            return other instanceof Entry && key.equals(((Entry<?>) other).key);
+        }
+
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        public String toString() {
+            return String.valueOf(key);
+        }
+    }
+
+    // exactly one of the two holds the index
+    private final TInterface<Key, Long> map;
+    private final TInterface<Entry<Key>, Entry<Key>> set;
+    private final ValueSlab slab;
+
+    /**
+     * Wraps an empty map from keys to value handles.
+     *
+     * @param map holds the handles; it must not be used directly afterwards
+     * @param slab holds the values; it may be shared with other trees
+     */
+    public SlabValueTree(TInterface<Key, Long> map, ValueSlab slab) {
+        this(map, null, slab);
+    }
+
+    private SlabValueTree(TInterface<Key, Long> map, TInterface<Entry<Key>, Entry<Key>> set, ValueSlab slab) {
+        if ((map == null && set == null) || slab == null) throw new IllegalArgumentException("tree or slab is null");
+        this.map = map;
+        this.set = set;
+        this.slab = slab;
+    }
+
+    /**
+     * Wraps an empty set-like tree, which keeps an {@link Entry} per key.
+     *
+     * @param set holds the entries; it must not be used directly afterwards
+     * @param slab holds the values; it may be shared with other trees
+     */
+    public static <Key extends Comparable<Key>> SlabValueTree<Key> overSet(
+            TInterface<Entry<Key>, Entry<Key>> set, ValueSlab slab) {
+        if (set == null) throw new IllegalArgumentException("tree or slab is null");
+        return new SlabValueTree<>(null, set, slab);
+    }
+
+    // The handle of key's value, or 0, which is never a live handle
+    private long handle(Key key) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        if (map != null) {
+            Long handle = map.get(key);
+            return handle == null ? 0 : handle;
+        }
+        Entry<Key> entry = set.get(new Entry<>(key, 0));
+        return entry == null ? 0 : entry.handle;
+    }
+
+    public ByteBuffer get(Key key) {
+        long handle = handle(key);
+        return handle == 0 ? null : slab.get(handle);
+    }
+
+    public boolean contains(Key key) {
+        return handle(key) != 0;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code value} into the slab and maps
+     * {@code key} to them, freeing the key's previous value.
+     */
+    public void insert(Key key, ByteBuffer value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        if (key == null) throw new IllegalArgumentException("key is null");
+        long handle = slab.put(value);
+        if (map != null) {
+            Long previous = map.get(key);
+            map.insert(key, handle);
+            if (previous != null) slab.free(previous);
+            return;
+        }
+        Entry<Key> entry = set.get(new Entry<>(key, 0));
+        if (entry != null) {
+            slab.free(entry.handle);
+            entry.handle = handle;
+        } else {
+            entry = new Entry<>(key, handle);
+            set.insert(entry, entry);
+        }
+    }
+
+    public void remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("key is null");
+        if (map != null) {
+            Long handle = map.get(key);
+            if (handle == null) return;
+            map.remove(key);
+            slab.free(handle);
+            return;
+        }
+        Entry<Key> entry = set.get(new Entry<>(key, 0));
+        if (entry == null) return;
+        set.remove(entry);
+        slab.free(entry.handle);
+    }
+
+    public String toString() {
+        return map != null ? map.toString() : set.toString();
+    }
+}
+
+class SlabValueTreeTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    private static void doTests(SlabValueTree<Integer> tree, ValueSlab slab, int ops) {
+        TreeMap<Integer, byte[]> model = new TreeMap<>();
+        Random random = new Random(40);
+        int range = ops / 4;
+        for (int op = 0; op < ops; op++) {
+            int key = random.nextInt(range);
+            if (random.nextInt(3) == 0) {
+                tree.remove(key);
+                model.remove(key);
+            } else {
+                byte[] value = new byte[random.nextInt(100)];
+                random.nextBytes(value);
+                tree.insert(key, ByteBuffer.wrap(value));
+                model.put(key, value);
+            }
+        }
+        myAssert(slab.liveValues() == model.size());
+        slab.compact();
+        slab.check();
+        for (int key = -1; key <= range; key++) {
+            ByteBuffer value = tree.get(key);
+            myAssert(Objects.equals(value, model.containsKey(key) ? ByteBuffer.wrap(model.get(key)) : null));
+            myAssert(tree.contains(key) == model.containsKey(key));
+        }
+        for (int key : model.keySet()) {
+            tree.remove(key);
+        }
+        myAssert(slab.liveValues() == 0 && slab.liveBytes() == 0);
+    }
+
+    public static void doTests(int ops) {
+        ValueSlab slab = new ValueSlab();
+        doTests(new SlabValueTree<Integer>(new BSTPrinceton<>(), slab), slab, ops);
+        doTests(SlabValueTree.overSet(new AVLTree<>(), slab), slab, ops);
+        doTests(SlabValueTree.overSet(new RedBlackTree<>(), slab), slab, ops);
+        doTests(new SlabValueTree<Integer>(new SkipList<>(), slab), slab, ops);
+        slab.close();
+    }
+
+    // Heap left behind by n values of the given size, stored on heap and in a slab
+    public static void benchmark(int n, int valueBytes) {
+        long before = usedHeap();
+        BSTPrinceton<Integer, byte[]> onHeap = new BSTPrinceton<>();
+        for (int i = 0; i < n; i++) {
+            onHeap.insert(scramble(i), new byte[valueBytes]);
+        }
+        long heapBytes = usedHeap() - before;
+        myAssert(onHeap.get(scramble(n / 2)).length == valueBytes);
+        onHeap = null;
+
+        before = usedHeap();
+        ValueSlab slab = new ValueSlab();
+        SlabValueTree<Integer> inSlab = new SlabValueTree<Integer>(new BSTPrinceton<>(), slab);
+        ByteBuffer value = ByteBuffer.allocate(valueBytes);
+        for (int i = 0; i < n; i++) {
+            inSlab.insert(scramble(i), value);
+        }
+        long slabHeapBytes = usedHeap() - before;
+        myAssert(inSlab.get(scramble(n / 2)).remaining() == valueBytes);
+        System.out.printf("n=%d values of %d bytes: heap %d MB on heap, %d MB with a slab (%d MB off-heap)%n",
+                n, valueBytes, heapBytes >> 20, slabHeapBytes >> 20, slab.reservedBytes() >> 20);
+        slab.close();
+    }
+
+    // BSTPrinceton is unbalanced, so keys go in in a scrambled order
+    private static int scramble(int i) {
+        return i * 0x9E3779B1;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public void test() {
+        doTests(20000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(20000);
+        benchmark(100000, 1000);
+    }
+}
@@ -0,0 +1,209 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Threshold;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * A Java Flight Recorder event for a tree operation that took longer than
+ * the event's threshold.
+ * <p>
+ * BSTPrinceton, AVLTree, RedBlackTree, SplayTree, SkipList and MinHeap time
+ * their public operations with this event. The threshold defaults to 10 ms
+ * and can be set per recording like any JFR threshold, e.g.
+ * {@code trees.SlowOperation#threshold=1 ms} in a .jfc file or
+ * {@code recording.enable(SlowOperationEvent.class).withThreshold(...)}.
+ * <p>
+ * When no recording has the event enabled, {@link #start()} returns a
+ * shared instance and {@link #slow()} returns false at once, so timed
+ * operations allocate nothing. The key hash, depth and rotation count are
+ * only computed for operations that are actually recorded.
+ */
+@Name("trees.SlowOperation")
+@Label("Slow Tree Operation")
+@Category("Trees")
+@Description("A tree operation that took longer than the threshold")
+@Threshold("10 ms")
+public class SlowOperationEvent extends Event {
+    @Label("Structure")
+    String structure;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Key Hash")
+    @Description("hashCode() of the key, or 0 for operations without one")
+    int keyHash;
+
+    @Label("Depth")
+    @Description("Nodes on the key's search path; levels for SkipList, height for MinHeap")
+    int depth;
+
+    @Label("Rotations")
+    @Description("Rotations performed; sift swaps for MinHeap")
+    long rotations;
+
+    private static final EventType TYPE = EventType.getEventType(SlowOperationEvent.class);
+
+    // Returned by start() while no recording has the event enabled; never committed
+    private static final SlowOperationEvent DISABLED = new SlowOperationEvent();
+
+    // Starts timing an operation
+    static SlowOperationEvent start() {
+        // escape analysis does not reliably remove the event object, e.g. in
+        // AVLTree's recursive remove, so don't create one that is not wanted
+        if (!TYPE.isEnabled()) return DISABLED;
+        SlowOperationEvent event = new SlowOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    // Stops timing; true if the operation is over the threshold of a running recording
+    boolean slow() {
+        if (this == DISABLED) return false;
+        end();
+        return shouldCommit();
+    }
+
+    void commit(String structure, String operation, Object key, int depth, long rotations) {
+        this.structure = structure;
+        this.operation = operation;
+        this.keyHash = key == null ? 0 : key.hashCode();
+        this.depth = depth;
+        this.rotations = rotations;
+        commit();
+    }
+}
+
+class SlowOperationEventTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    private static void workload(int n) {
+        BSTPrinceton<Integer, Integer> bst = new BSTPrinceton<>();
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> redBlack = new RedBlackTree<>();
+        SplayTree<Integer, Integer> splay = new SplayTree<>();
+        SkipList<Integer, Integer> skipList = new SkipList<>();
+        MinHeap heap = new MinHeap(n);
+        for (int i = 0; i < n; i++) {
+            int key = (i * 7919) % n;
+            bst.insert(key, i);
+            avl.insert(key);
+            redBlack.insertNode(key);
+            skipList.insert(key, i);
+            heap.insertKey(key);
+        }
+        splay.put(1, 1);
+        splay.get(1);
+        bst.get(n / 2);
+        avl.contains(n / 2);
+        redBlack.contains(n / 2);
+        skipList.get(n / 2);
+        heap.extractMin();
+        bst.remove(n / 2);
+        avl.remove(n / 2);
+        redBlack.remove(n / 2);
+        skipList.remove(n / 2);
+        splay.remove(1);
+    }
+
+    // Records the workload with the given threshold and returns the events
+    private static List<RecordedEvent> record(Duration threshold, int n) throws Exception {
+        Path file = Files.createTempFile("slow-ops", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(SlowOperationEvent.class).withThreshold(threshold).withoutStackTrace();
+            recording.start();
+            workload(n);
+            recording.stop();
+            recording.dump(file);
+        }
+        try {
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public static void doTests(int n) {
+        try {
+            List<RecordedEvent> events = record(Duration.ZERO, n);
+            Set<String> structures = new HashSet<>();
+            for (RecordedEvent event : events) {
+                myAssert(event.getEventType().getName().equals("trees.SlowOperation"));
+                structures.add(event.getString("structure") + "." + event.getString("operation"));
+                myAssert(event.getInt("depth") >= 0 && event.getLong("rotations") >= 0);
+            }
+            for (String expected : new String[] {"BSTPrinceton.put", "BSTPrinceton.get", "BSTPrinceton.remove",
+                    "AVLTree.insert", "AVLTree.contains", "AVLTree.remove",
+                    "RedBlackTree.insert", "RedBlackTree.get", "RedBlackTree.remove",
+                    "SplayTree.put", "SplayTree.get", "SplayTree.remove",
+                    "SkipList.put", "SkipList.get", "SkipList.remove",
+                    "MinHeap.insert", "MinHeap.extractMin"}) {
+                myAssert(structures.contains(expected));
+            }
+            boolean rotated = false;
+            for (RecordedEvent event : events) {
+                if (event.getString("structure").equals("AVLTree") && event.getLong("rotations") > 0) rotated = true;
+            }
+            myAssert(rotated);
+
+            // nothing this small takes a minute
+            myAssert(record(Duration.ofMinutes(1), n).isEmpty());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Operation cost with no recording running
+    public static void benchmark(int n) {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (int i = 0; i < n; i++) {
+            tree.insert(i);
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < n; i++) {
+                if (tree.contains(i)) found++;
+            }
+            myAssert(found == n);
+            System.out.printf("AVLTree contains(), n=%d, no recording: %d ns%n", n, (System.nanoTime() - start) / n);
+        }
+    }
+
+    @Override
+    public void test() {
+        doTests(1000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(1000);
+        benchmark(1000000);
+    }
+}
@@ -0,0 +1,403 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The binary snapshot format shared by {@link BSTPrinceton}, {@link AVLTree},
+ * {@link RedBlackTree} and {@link SkipList}.
+ * <p>
+ * A snapshot is the sorted contents of a structure:
+ * <pre>
+ *   int    magic "TSNP"
+ *   byte   version
+ *   byte   key encoding, byte value encoding (NONE for the set-like trees)
+ *   varint entry count
+ *   entries, in ascending key order
+ * </pre>
+ * {@link Codec#INTEGER} and {@link Codec#LONG} keys are written as zig-zag
+ * varints of the difference from the previous key, which for dense keys is a
+ * single byte each. Integer and long values are zig-zag varints, strings are
+ * a varint length and UTF-8 bytes, and any other codec writes its own bytes.
+ * <p>
+ * Because the entries come back sorted and counted, each structure restores
+ * by building itself directly in linear time instead of inserting and
+ * rebalancing entry by entry. To use a {@link java.nio.channels.FileChannel}
+ * pass {@code Channels.newOutputStream(channel)} or
+ * {@code Channels.newInputStream(channel)}.
+ */
+class Snapshot {
+    static final int MAGIC = 0x54534e50; // "TSNP"
+    static final byte VERSION = 1;
+
+    // Entry encodings
+    static final byte NONE = 0;
+    static final byte CODEC = 1;
+    static final byte INT = 2;      // zig-zag varint; delta-coded for keys
+    static final byte LONG = 3;     // zig-zag varint; delta-coded for keys
+    static final byte STRING = 4;   // varint length + UTF-8
+
+    private static byte encodingOf(Codec<?> codec) {
+        if (codec == null) return NONE;
+        if (codec == Codec.INTEGER) return INT;
+        if (codec == Codec.LONG) return LONG;
+        if (codec == Codec.STRING) return STRING;
+        return CODEC;
+    }
+
+    /**
+     * Writes a snapshot entry by entry. The caller promises {@code count}
+     * entries in strictly ascending key order.
+     */
+    static class Writer<K, V> {
+        private final DataOutputStream out;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private final byte keyEncoding;
+        private final byte valueEncoding;
+        private final long count;
+        private long written;
+        private long previousKey;
+
+        // valueCodec is null for structures whose values are their keys
+        Writer(OutputStream out, long count, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+            if (keyCodec == null) throw new IllegalArgumentException("key codec is null");
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            this.keyEncoding = encodingOf(keyCodec);
+            this.valueEncoding = encodingOf(valueCodec);
+            this.count = count;
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeByte(keyEncoding);
+            this.out.writeByte(valueEncoding);
+            writeVarLong(this.out, count);
+        }
+
+        void write(K key, V value) throws IOException {
+            if (written == count) throw new IllegalStateException("more entries than the " + count + " announced");
+            switch (keyEncoding) {
+                case INT:
+                case LONG:
+                    long k = ((Number) key).longValue();
+                    writeVarLong(out, zigZag(k - previousKey));
+                    previousKey = k;
+                    break;
+                default:
+                    writeEntry(out, keyEncoding, keyCodec, key);
+            }
+            if (valueEncoding != NONE) {
+                writeEntry(out, valueEncoding, valueCodec, value);
+            }
+            written++;
+        }
+
+        // Flushes the snapshot; the underlying stream stays open
+        void finish() throws IOException {
+            if (written != count) {
+                throw new IllegalStateException("wrote " + written + " of the " + count + " announced entries");
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads a snapshot back entry by entry: call {@link #nextKey()} and then,
+     * if the snapshot has values, {@link #nextValue()} for each entry.
+     */
+    static class Reader<K, V> {
+        private final DataInputStream in;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private final byte keyEncoding;
+        private final byte valueEncoding;
+        private final int count;
+        private long previousKey;
+
+        Reader(InputStream in, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            if (this.in.readInt() != MAGIC) throw new IOException("not a snapshot");
+            byte version = this.in.readByte();
+            if (version != VERSION) throw new IOException("unsupported snapshot version " + version);
+            this.keyEncoding = this.in.readByte();
+            this.valueEncoding = this.in.readByte();
+            if (keyEncoding != encodingOf(keyCodec) || valueEncoding != encodingOf(valueCodec)) {
+                throw new IllegalArgumentException("snapshot was written with different codecs");
+            }
+            long n = readVarLong(this.in);
+            if (n > Integer.MAX_VALUE) throw new IOException("snapshot too large: " + n + " entries");
+            this.count = (int) n;
+        }
+
+        int size() {
+            return count;
+        }
+
+        @SuppressWarnings("unchecked")
+        K nextKey() throws IOException {
+            switch (keyEncoding) {
+                case INT:
+                    previousKey += unZigZag(readVarLong(in));
+                    return (K) Integer.valueOf((int) previousKey);
+                case LONG:
+                    previousKey += unZigZag(readVarLong(in));
+                    return (K) Long.valueOf(previousKey);
+                default:
+                    return readEntry(in, keyEncoding, keyCodec);
+            }
+        }
+
+        V nextValue() throws IOException {
+            return readEntry(in, valueEncoding, valueCodec);
+        }
+    }
+
+    private static <T> void writeEntry(DataOutputStream out, byte encoding, Codec<T> codec, T value) throws IOException {
+        switch (encoding) {
+            case INT:
+                writeVarLong(out, zigZag((Integer) value));
+                break;
+            case LONG:
+                writeVarLong(out, zigZag((Long) value));
+                break;
+            case STRING:
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+                break;
+            default:
+                codec.write(out, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readEntry(DataInputStream in, byte encoding, Codec<T> codec) throws IOException {
+        switch (encoding) {
+            case INT:
+                return (T) Integer.valueOf((int) unZigZag(readVarLong(in)));
+            case LONG:
+                return (T) Long.valueOf(unZigZag(readVarLong(in)));
+            case STRING:
+                byte[] bytes = new byte[(int) readVarLong(in)];
+                in.readFully(bytes);
+                return (T) new String(bytes, StandardCharsets.UTF_8);
+            default:
+                return codec.read(in);
+        }
+    }
+
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+}
+
+class SnapshotTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    // Mirrors AVLTreeMain: build by inserting, snapshot, and time a restore
+    public static void restoreTests(int n) throws IOException {
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            AVLTree<Integer> avl = new AVLTree<>();
+            RedBlackTree<Integer> rb = new RedBlackTree<>();
+            BSTPrinceton<Integer, String> bst = new BSTPrinceton<>();
+            SkipList<Integer, String> skipList = new SkipList<>();
+            long start = System.nanoTime();
+            for (int i = 37; i != 0; i = (i + 37) % n) {
+                avl.insert(i);
+            }
+            System.out.println("AVLTree insert x" + (n - 1) + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+            for (int i = 1; i < n; i++) {
+                rb.insertNode(i);
+            }
+            Integer[] keys = new Integer[n / 10];
+            String[] values = new String[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = i * 10;
+                values[i] = "v" + i;
+            }
+            bst.insertAll(keys, values);
+            skipList.insertAll(keys, values);
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+                avl.snapshot(out, Codec.INTEGER);
+            }
+            System.out.println("AVLTree snapshot: " + Files.size(file) + " bytes");
+            start = System.nanoTime();
+            AVLTree<Integer> avl2;
+            try (InputStream in = Files.newInputStream(file)) {
+                avl2 = AVLTree.restore(in, Codec.INTEGER);
+            }
+            System.out.println("AVLTree restore: " + (System.nanoTime() - start) / 1000000 + " ms");
+            avl2.checkBalance();
+            myAssert(avl2.findMin() == 1 && avl2.findMax() == n - 1);
+            for (int i = 1; i < n; i += 97) {
+                myAssert(avl2.contains(i));
+            }
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+                rb.snapshot(out, Codec.INTEGER);
+            }
+            RedBlackTree<Integer> rb2;
+            try (InputStream in = Files.newInputStream(file)) {
+                rb2 = RedBlackTree.restore(in, Codec.INTEGER);
+            }
+            myAssert(rb2.countNodes() == n - 1);
+            for (int i = 0; i <= n; i += 97) {
+                myAssert(rb2.contains(i) == (i > 0 && i < n));
+            }
+            // the restored tree must keep working as a red-black tree
+            rb2.deleteNode(1);
+            rb2.insertNode(n);
+            myAssert(!rb2.contains(1) && rb2.contains(n));
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+                bst.snapshot(out, Codec.INTEGER, Codec.STRING);
+            }
+            BSTPrinceton<Integer, String> bst2;
+            try (InputStream in = Files.newInputStream(file)) {
+                bst2 = BSTPrinceton.restore(in, Codec.INTEGER, Codec.STRING);
+            }
+            myAssert(bst2.size() == keys.length);
+            myAssert(bst2.height() < 2 * (32 - Integer.numberOfLeadingZeros(keys.length)));
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+                skipList.snapshot(out, Codec.INTEGER, Codec.STRING);
+            }
+            SkipList<Integer, String> skipList2;
+            try (InputStream in = Files.newInputStream(file)) {
+                skipList2 = SkipList.restore(in, Codec.INTEGER, Codec.STRING);
+            }
+            myAssert(skipList2.size() == keys.length);
+            for (int i = 0; i < keys.length; i += 7) {
+                myAssert(values[i].equals(bst2.get(keys[i])));
+                myAssert(values[i].equals(skipList2.get(keys[i])));
+                myAssert(skipList2.rank(keys[i]) == i);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // A snapshot of the given keys, in the given order, with no values
+    static byte[] keysOnly(int count, int... keys) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.Writer<Integer, Integer> writer = new Snapshot.Writer<>(bytes, count, Codec.INTEGER, null);
+        for (int key : keys) {
+            writer.write(key, null);
+        }
+        writer.finish();
+        return bytes.toByteArray();
+    }
+
+    static boolean rejected(byte[] snapshot) {
+        int rejections = 0;
+        try {
+            AVLTree.restore(new ByteArrayInputStream(snapshot), Codec.INTEGER);
+        } catch (IOException e) {
+            rejections++;
+        }
+        try {
+            RedBlackTree.restore(new ByteArrayInputStream(snapshot), Codec.INTEGER);
+        } catch (IOException e) {
+            rejections++;
+        }
+        return rejections == 2;
+    }
+
+    // Restores must refuse keys out of order or repeated, and a negative count
+    public static void malformedTests() throws IOException {
+        myAssert(rejected(keysOnly(3, 1, 3, 2)));
+        myAssert(rejected(keysOnly(3, 1, 2, 2)));
+        myAssert(!rejected(keysOnly(3, 1, 2, 3)));
+
+        // the header of an empty snapshot, then a count of -1
+        byte[] empty = keysOnly(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(empty, 0, empty.length - 1);
+        Snapshot.writeVarLong(out, -1);
+        out.flush();
+        myAssert(rejected(bytes.toByteArray()));
+
+        ByteArrayOutputStream keyed = new ByteArrayOutputStream();
+        Snapshot.Writer<Integer, String> writer = new Snapshot.Writer<>(keyed, 2, Codec.INTEGER, Codec.STRING);
+        writer.write(5, "five");
+        writer.write(4, "four");
+        writer.finish();
+        int rejections = 0;
+        try {
+            BSTPrinceton.restore(new ByteArrayInputStream(keyed.toByteArray()), Codec.INTEGER, Codec.STRING);
+        } catch (IOException e) {
+            rejections++;
+        }
+        try {
+            SkipList.restore(new ByteArrayInputStream(keyed.toByteArray()), Codec.INTEGER, Codec.STRING);
+        } catch (IOException e) {
+            rejections++;
+        }
+        myAssert(rejections == 2);
+    }
+
+    @Override
+    public void test() {
+        try {
+            malformedTests();
+            restoreTests(100000);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        malformedTests();
+        restoreTests(1000000);
+    }
+}
@@ -11,15 +11,29 @@
 // Check out this visualization
     // https://www.cs.usfca.edu/%7Egalles/visualization/SplayTree.html
 
+import java.lang.reflect.Array;
+import java.util.Arrays;
 
-public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>{
+public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface<Key, Value>, TreeShape {
+    private static final OpMetrics METRICS = OpMetrics.of(SplayTree.class);
     private Node root;   // root of the BST
+    // rotations and splay steps so far, for SlowOperationEvent
+    private long rotations, visits;
+    // which way the search goes from the top node of a splay step, one level or two
+    private static final byte LEFT_LEFT = 0, LEFT_RIGHT = 1, LEFT = 2, RIGHT_LEFT = 3, RIGHT_RIGHT = 4, RIGHT = 5;
+    // the steps of the splay in progress, kept between calls; see splay()
+    @SuppressWarnings("unchecked")
+    private Node[] splayPath = (Node[]) Array.newInstance(Node.class, 16);
+    private byte[] splayTurns = new byte[16];
 
     // BST helper node data type
     private class Node {
         private Key key;            // key
         private Value value;        // associated data
         private Node left, right;   // left and right subtrees
+        private int size = 1;       // nodes in subtree
+        private int height;         // edges on the longest path down
+        private long pathLength;    // sum of the depths of the subtree's nodes below it
 
         public Node(Key key, Value value) {
             this.key = key;
@@ -43,21 +57,28 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
     // return value associated with the given key
     // if no such value, return null
     public Value get(Key key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations, visitsBefore = visits;
         root = splay(root, key);
-        if (root == null) {
-            return null;
-        }
-
-        if (key.equals((root.key))) {
-            return root.value;
+        Value value = null;
+        if (root != null && key.equals((root.key))) {
+            value = root.value;
         }
-        return null;
+        if (event.slow()) event.commit("SplayTree", "get", key, (int) (visits - visitsBefore), rotations - rotationsBefore);
+        return value;
     }
 
     /***************************************************************************
      *  Splay tree insertion.
      ***************************************************************************/
     public void put(Key key, Value value) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations, visitsBefore = visits;
+        insertAtRoot(key, value);
+        if (event.slow()) event.commit("SplayTree", "put", key, (int) (visits - visitsBefore), rotations - rotationsBefore);
+    }
+
+    private void insertAtRoot(Key key, Value value) {
         // splay key to root
         if (root == null) {
             root = new Node(key, value);
@@ -66,7 +87,7 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
 
         root = splay(root, key);
 
-        int cmp = key.compareTo(root.key);
+        int cmp = compare(key, root.key);
 
         // Insert new node at root
         if (cmp < 0) {
@@ -74,6 +95,8 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
             n.left = root.left;
             n.right = root;
             root.left = null;
+            update(n.right);
+            update(n);
             root = n;
         }
 
@@ -83,6 +106,8 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
             n.right = root.right;
             n.left = root;
             root.right = null;
+            update(n.left);
+            update(n);
             root = n;
         }
 
@@ -109,26 +134,32 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
      * child.
      */
     public void remove(Key key) {
+        SlowOperationEvent event = SlowOperationEvent.start();
+        long rotationsBefore = rotations, visitsBefore = visits;
+        deleteAtRoot(key);
+        if (event.slow()) event.commit("SplayTree", "remove", key, (int) (visits - visitsBefore), rotations - rotationsBefore);
+    }
+
+    private void deleteAtRoot(Key key) {
         if (root == null) return; // empty tree
 
         root = splay(root, key);
 
-        int cmp = key.compareTo(root.key);
+        int cmp = compare(key, root.key);
 
         if (cmp == 0) {
             if (root.left == null) {
                 root = root.right;
             } else {
-                System.out.println("In Delete");
-                System.out.println(root);
                 Node x = root.right;
                 root = root.left;
                 // NB: key == root->key, so after splay(key, root.left),
                 // the tree we get will have no right child tree
                 // and maximum node in left subtree will get splayed
                 // to root
-                splay(root, key);
+                root = splay(root, key);
                 root.right = x;
+                update(root);
             }
         }
         // else: it wasn't in the tree to remove
@@ -141,75 +172,89 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
     // splay key in the tree rooted at Node h. If a node with that key exists,
     //   it is splayed to the root of the tree. If it does not, the last node
     //   along the search path for the key is splayed to the root.
+    // The search path is walked down two levels at a time, recording each step
+    //   in splayPath and splayTurns, and then splayed back up from the bottom,
+    //   so a path as deep as the tree does not need as deep a stack.
     private Node splay(Node h, Key key) {
-        if (h == null) return null;
+        int steps = 0;
+        while (h != null) {
+            if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.NODES_VISITED);
+            visits++;
+
+            int cmp1 = compare(key, h.key);
+            Node child = cmp1 < 0 ? h.left : h.right;
+            // key found, or not in tree, so h is where the search ends
+            if (cmp1 == 0 || child == null) break;
+
+            int cmp2 = compare(key, child.key);
+            byte turn;
+            if (cmp1 < 0) turn = cmp2 < 0 ? LEFT_LEFT : cmp2 > 0 ? LEFT_RIGHT : LEFT;
+            else turn = cmp2 < 0 ? RIGHT_LEFT : cmp2 > 0 ? RIGHT_RIGHT : RIGHT;
+            if (steps == splayPath.length) {
+                splayPath = Arrays.copyOf(splayPath, 2 * steps);
+                splayTurns = Arrays.copyOf(splayTurns, 2 * steps);
+            }
+            splayPath[steps] = h;
+            splayTurns[steps++] = turn;
+            if (turn == LEFT || turn == RIGHT) {
+                h = null;
+                break;
+            }
+            h = cmp2 < 0 ? child.left : child.right;
+        }
 
-        int cmp1 = key.compareTo(h.key);
+        // h is the splayed subtree below the step being undone
+        while (steps > 0) {
+            Node top = splayPath[--steps];
+            splayPath[steps] = null;
+            h = splayStep(top, splayTurns[steps], h);
+        }
+        return h;
+    }
 
-        if (cmp1 < 0) {
-            // key not in tree, so we're done
-            if (h.left == null) {
-                return h;
-            }
-            int cmp2 = key.compareTo(h.left.key);
-            boolean doubleRotation = false;
-            if (cmp2 < 0) {
-                h.left.left = splay(h.left.left, key);
+    // One step of the splay at h, whose grandchild on the search path has
+    //   already been splayed into below (unused for a zig, which stops at the child)
+    private Node splayStep(Node h, byte turn, Node below) {
+        switch (turn) {
+            case LEFT_LEFT:
+                h.left.left = below;
                 h = rotateRight(h);
                 if (h.left == null) {
-                    System.out.println("LL rot R (Zig) " + key + " to " + h.key);
-                } else {
-                    System.out.println("LL rot R (Zig-Zig) " + key + " to " + h.key);
-                    doubleRotation = true;
+                    if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIGS);
+                    return h;
                 }
-            } else if (cmp2 > 0) {
-                h.left.right = splay(h.left.right, key);
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIG_ZIGS);
+                return rotateRight(h);
+            case LEFT_RIGHT:
+                h.left.right = below;
                 if (h.left.right != null) {
                     h.left = rotateLeft(h.left);
-                    // h.left != null
-                    System.out.println("LR rot L (Zig-Zag) " + key + " to " + h.key);
-                    doubleRotation = true;
-                }
-            }
-            if (h.left == null) {
-                return h;
-            } else {
-                if(!doubleRotation) {
-                    System.out.println("rot R (Zig) " + key + " to " + h.key);
+                    if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIG_ZAGS);
+                } else {
+                    if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIGS);
                 }
                 return rotateRight(h);
-            }
-        } else if (cmp1 > 0) {
-            // key not in tree, so we're done
-            if (h.right == null) {
-                return h;
-            }
-
-            int cmp2 = key.compareTo(h.right.key);
-            boolean doubleRotation = false;
-            if (cmp2 < 0) {
-                h.right.left = splay(h.right.left, key);
+            case RIGHT_LEFT:
+                h.right.left = below;
                 if (h.right.left != null) {
                     h.right = rotateRight(h.right);
-                    System.out.println("RL rot R (Zig-Zag) " + key + " to " + h.key);
-                    doubleRotation = true;
+                    if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIG_ZAGS);
+                } else {
+                    if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIGS);
                 }
-            } else if (cmp2 > 0) {
-                h.right.right = splay(h.right.right, key);
-                System.out.println("RR rot L (Zig-Zig) " + key + " to " + h.key);
-                doubleRotation = true;
+                return rotateLeft(h);
+            case RIGHT_RIGHT:
+                h.right.right = below;
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIG_ZIGS);
                 h = rotateLeft(h);
-            }
-
-            if (h.right == null) {
-                return h;
-            } else {
-                if(!doubleRotation) {
-                    System.out.println("rot L (Zig) " + key + " to " + h.key);
-                }
+                return h.right == null ? h : rotateLeft(h);
+            case LEFT:
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIGS);
+                return rotateRight(h);
+            default:
+                if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.ZIGS);
                 return rotateLeft(h);
-            }
-        } else return h;
+        }
     }
 
 
@@ -217,6 +262,12 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
      *  Helper functions.
      ***************************************************************************/
 
+    // compareTo(), counted when metrics are enabled
+    private int compare(Key a, Key b) {
+        if (OpMetrics.enabled) METRICS.count(OpMetrics.Counter.COMPARISONS);
+        return a.compareTo(b);
+    }
+
     // height of tree (1-node tree has height 0)
     public int height() {
         return height(root);
@@ -224,7 +275,7 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
 
     private int height(Node x) {
         if (x == null) return -1;
-        return 1 + Math.max(height(x.left), height(x.right));
+        return x.height;
     }
 
 
@@ -234,22 +285,62 @@ public class SplayTree<Key extends Comparable<Key>, Value> implements TInterface
 
     private int size(Node x) {
         if (x == null) return 0;
-        else return 1 + size(x.left) + size(x.right);
+        else return x.size;
+    }
+
+    // sum of the depths of all nodes (root at depth 0)
+    public long pathLength() {
+        return pathLength(root);
+    }
+
+    private long pathLength(Node x) {
+        if (x == null) return 0;
+        else return x.pathLength;
+    }
+
+    // recompute size, height and path length of x from its children;
+    // every change of a child link is followed by this, bottom-up
+    private void update(Node x) {
+        x.size = 1 + size(x.left) + size(x.right);
+        x.height = 1 + Math.max(height(x.left), height(x.right));
+        x.pathLength = pathLength(x.left) + size(x.left) + pathLength(x.right) + size(x.right);
+    }
+
+    // throws if a stored size, height or path length is stale
+    void checkShape() {
+        checkShape(root);
+    }
+
+    private void checkShape(Node x) {
+        if (x == null) return;
+        checkShape(x.left);
+        checkShape(x.right);
+        if (x.size != 1 + size(x.left) + size(x.right)
+                || x.height != 1 + Math.max(height(x.left), height(x.right))
+                || x.pathLength != pathLength(x.left) + size(x.left) + pathLength(x.right) + size(x.right)) {
+            throw new IllegalStateException("Node " + x + " has a stale size, height or path length");
+        }
     }
 
     // right rotate
     private Node rotateRight(Node h) {
+        rotations++;
         Node x = h.left;
         h.left = x.right;
         x.right = h;
+        update(h);
+        update(x);
         return x;
     }
 
     // left rotate
     private Node rotateLeft(Node h) {
+        rotations++;
         Node x = h.right;
         h.right = x.left;
         x.left = h;
+        update(h);
+        update(x);
         return x;
     }
     // -- toString() -----------------------------------------------------------------------------
@@ -0,0 +1,349 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An immutable sorted index on disk, frozen from the contents of any
+ * {@link TInterface} and queried through memory-mapped buffers.
+ * <p>
+ * Keys are stored as fixed-width longs in Eytzinger (BFS) order: slot 1 holds
+ * the median, and slots 2k and 2k+1 the children of slot k. A search is then a
+ * walk down the implicit tree with no data-dependent branches, whose first few
+ * levels share a handful of cache lines (and pages) across all lookups. Values
+ * live in a separate region, also in Eytzinger order, found through a table of
+ * offsets. Nothing is read onto the heap when the index is opened, so opening
+ * is instant and any number of processes can share one page-cached copy.
+ * <p>
+ * File layout, all big-endian:
+ * <pre>
+ *   int magic "TIDX", int version, long n
+ *   long keys[n + 1]       slot 0 unused
+ *   long offsets[n + 2]    value k spans offsets[k] .. offsets[k + 1]
+ *   values                 written by the value codec
+ * </pre>
+ * Keys must be {@code Integer} or {@code Long} (anything whose
+ * {@code longValue()} preserves the order). The index is read-only:
+ * {@code insert} and {@code remove} throw {@link UnsupportedOperationException}.
+ */
+public class StaticIndex<Key extends Number & Comparable<Key>, Value> implements TInterface<Key, Value>, Closeable {
+    private static final int MAGIC = 0x54494458; // "TIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    // keeps the key and offset regions within one buffer each
+    private static final int MAX_ENTRIES = Integer.MAX_VALUE / 8 - 4;
+
+    private final FileChannel channel;
+    private final Codec<Value> valueCodec;
+    private final int n;
+    private final LongBuffer keys;
+    private final LongBuffer offsets;
+    private final ByteBuffer values;
+
+    /**
+     * Writes the entries of {@code source} to {@code file} as a static index.
+     * The index is written to a temporary file beside {@code file} and moved
+     * over it atomically once on disk, so a process that has the old index
+     * mapped keeps reading the old file rather than one being rewritten.
+     *
+     * @param file the index file, replaced if it exists
+     * @param keys every key of {@code source}, in strictly ascending order
+     * @param source supplies the value of each key
+     * @param valueCodec serializes the values
+     * @throws IllegalArgumentException if the keys are not ascending or a key has no value
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public static <Key extends Number & Comparable<Key>, Value> void freeze(Path file, Iterable<Key> keys,
+            TInterface<Key, Value> source, Codec<Value> valueCodec) {
+        List<Key> sorted = new ArrayList<>();
+        for (Key key : keys) {
+            if (key == null) throw new IllegalArgumentException("key " + sorted.size() + " is null");
+            if (!sorted.isEmpty() && sorted.get(sorted.size() - 1).compareTo(key) >= 0) {
+                throw new IllegalArgumentException("keys are not strictly ascending at " + key);
+            }
+            sorted.add(key);
+        }
+        int n = sorted.size();
+        if (n > MAX_ENTRIES) throw new IllegalArgumentException("too many keys for a static index: " + n);
+        // order[k] is the sorted index of the key in Eytzinger slot k
+        int[] order = new int[n + 1];
+        layout(order, 1, 0, n);
+
+        long keysAt = HEADER_BYTES;
+        long offsetsAt = keysAt + 8L * (n + 1);
+        long valuesAt = offsetsAt + 8L * (n + 2);
+        Path temp;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write static index " + file, e);
+        }
+        boolean moved = false;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                // values first, recording where each one starts
+                long[] offset = new long[n + 2];
+                out.position(valuesAt);
+                DataOutputStream valueOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+                for (int k = 1; k <= n; k++) {
+                    Key key = sorted.get(order[k]);
+                    Value value = source.get(key);
+                    if (value == null) throw new IllegalArgumentException("no value for key " + key);
+                    offset[k] = valueOut.size();
+                    valueCodec.write(valueOut, value);
+                }
+                offset[n + 1] = valueOut.size();
+                valueOut.flush();
+
+                ByteBuffer keyRegion = ByteBuffer.allocate((int) offsetsAt);
+                keyRegion.putInt(MAGIC).putInt(VERSION).putLong(n);
+                keyRegion.putLong(0);
+                for (int k = 1; k <= n; k++) {
+                    keyRegion.putLong(sorted.get(order[k]).longValue());
+                }
+                ByteBuffer offsetRegion = ByteBuffer.allocate((int) (valuesAt - offsetsAt));
+                for (long o : offset) {
+                    offsetRegion.putLong(o);
+                }
+                writeFully(out, keyRegion, 0);
+                writeFully(out, offsetRegion, offsetsAt);
+                out.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write static index " + file, e);
+        } finally {
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // the write already failed; a stray temporary file is the lesser problem
+                }
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+    }
+
+    // Fills the subtree rooted at slot k in order, starting from sorted position
+    // next; returns the first position not used
+    private static int layout(int[] order, int k, int next, int n) {
+        if (k > n) return next;
+        next = layout(order, 2 * k, next, n);
+        order[k] = next++;
+        return layout(order, 2 * k + 1, next, n);
+    }
+
+    /**
+     * Opens a static index written by {@link #freeze}.
+     *
+     * @param file the index file
+     * @param valueCodec reads the values
+     * @throws UncheckedIOException if the file cannot be opened or is not an index
+     */
+    public StaticIndex(Path file, Codec<Value> valueCodec) {
+        this.valueCodec = valueCodec;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) throw new IOException("truncated header");
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("not a static index");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("unsupported static index version " + version);
+            long count = header.getLong();
+            if (count < 0 || count > MAX_ENTRIES) throw new IOException("bad entry count " + count);
+            this.n = (int) count;
+
+            long keysAt = HEADER_BYTES;
+            long offsetsAt = keysAt + 8L * (n + 1);
+            long valuesAt = offsetsAt + 8L * (n + 2);
+            long valueBytes = channel.size() - valuesAt;
+            if (valueBytes < 0 || valueBytes > Integer.MAX_VALUE) throw new IOException("bad value region");
+            // three maps keep each region within the 2 GB a single buffer can address
+            this.keys = map(keysAt, 8L * (n + 1)).asLongBuffer();
+            this.offsets = map(offsetsAt, 8L * (n + 2)).asLongBuffer();
+            this.values = map(valuesAt, valueBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open static index " + file, e);
+        }
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    // Returns the slot of the smallest key >= x, or 0 if every key is smaller
+    private int lowerBound(long x) {
+        int k = 1;
+        while (k <= n) {
+            // compiles to a conditional move rather than a branch
+            k = 2 * k + (keys.get(k) < x ? 1 : 0);
+        }
+        // undo the trailing right turns, plus the final left one
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    private int slot(Key key) {
+        if (key == null) throw new IllegalArgumentException("calls get() with a null key");
+        long x = key.longValue();
+        int k = lowerBound(x);
+        return k != 0 && keys.get(k) == x ? k : 0;
+    }
+
+    public Value get(Key key) {
+        int k = slot(key);
+        if (k == 0) return null;
+        int from = (int) offsets.get(k);
+        byte[] bytes = new byte[(int) offsets.get(k + 1) - from];
+        values.get(from, bytes);
+        try {
+            return valueCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("corrupt value in static index", e);
+        }
+    }
+
+    public boolean contains(Key key) {
+        return slot(key) != 0;
+    }
+
+    public void insert(Key key, Value value) {
+        throw new UnsupportedOperationException("a static index is read-only");
+    }
+
+    public void remove(Key key) {
+        throw new UnsupportedOperationException("a static index is read-only");
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // The mappings stay valid until they are garbage collected
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public String toString() {
+        return "StaticIndex(" + n + " keys)";
+    }
+}
+
+class StaticIndexTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    public static void freezeTests(Path file, int n) throws IOException {
+        BSTPrinceton<Integer, String> bst = new BSTPrinceton<>();
+        for (int i = 0; i < n; i++) {
+            int key = (int) ((i * 2654435761L) % (4L * n)) - 2 * n;
+            bst.put(key, "v" + key);
+        }
+        StaticIndex.freeze(file, bst.keys(), bst, Codec.STRING);
+        try (StaticIndex<Integer, String> index = new StaticIndex<>(file, Codec.STRING)) {
+            myAssert(index.size() == bst.size());
+            for (int key = -2 * n - 3; key < 2 * n + 3; key++) {
+                String expected = bst.get(key);
+                String actual = index.get(key);
+                myAssert(expected == null ? actual == null : expected.equals(actual));
+            }
+            try {
+                index.insert(1, "x");
+                myAssert(false);
+            } catch (UnsupportedOperationException expected) {
+            }
+        }
+
+        // a skip list iterates its own keys; every tree size up to a full level
+        for (int size = 0; size <= 16; size++) {
+            SkipList<Long, Integer> list = new SkipList<>();
+            for (long key = 0; key < size; key++) {
+                list.put(key * 3, (int) key);
+            }
+            StaticIndex.freeze(file, list, list, Codec.INTEGER);
+            try (StaticIndex<Long, Integer> index = new StaticIndex<>(file, Codec.INTEGER)) {
+                for (long key = -1; key <= 3 * size; key++) {
+                    Integer value = index.get(key);
+                    myAssert(key >= 0 && key % 3 == 0 && key < 3 * size ? value == key / 3 : value == null);
+                }
+            }
+        }
+
+        // refreezing replaces the file, so an index still open keeps its old contents
+        SkipList<Long, Integer> before = new SkipList<>();
+        before.put(1L, 1);
+        StaticIndex.freeze(file, before, before, Codec.INTEGER);
+        try (StaticIndex<Long, Integer> old = new StaticIndex<>(file, Codec.INTEGER)) {
+            SkipList<Long, Integer> after = new SkipList<>();
+            for (long key = 0; key < 1000; key++) {
+                after.put(key, -(int) key);
+            }
+            StaticIndex.freeze(file, after, after, Codec.INTEGER);
+            myAssert(old.size() == 1 && old.get(1L) == 1);
+            try (StaticIndex<Long, Integer> current = new StaticIndex<>(file, Codec.INTEGER)) {
+                myAssert(current.size() == 1000 && current.get(1L) == -1);
+            }
+        }
+        // and leaves nothing behind beside it
+        try (Stream<Path> siblings = Files.list(file.toAbsolutePath().getParent())) {
+            String prefix = file.getFileName().toString();
+            myAssert(siblings.noneMatch(p -> p.getFileName().toString().startsWith(prefix) && !p.equals(file.toAbsolutePath())));
+        }
+    }
+
+    @Override
+    public void test() {
+        try {
+            main(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("index", ".idx");
+        try {
+            freezeTests(file, 10000);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -4,5 +4,41 @@ public interface TInterface<Key extends Comparable<Key>, Value> {
     public Value get(Key key);
     public boolean contains(Key key);
 
+    // Looks up keys, which must be in strictly ascending order, writing the value
+    // for keys[i] (or null) to results[i]. Returns the number of keys found.
+    // Implementations override this to share one traversal across the batch.
+    public default int getAll(Key[] keys, Value[] results) {
+        checkBatch(keys, results.length);
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            results[i] = get(keys[i]);
+            if (results[i] != null) found++;
+        }
+        return found;
+    }
+
+    // Inserts keys[i] -> values[i] for every i; keys must be in strictly ascending order.
+    public default void insertAll(Key[] keys, Value[] values) {
+        checkBatch(keys, values.length);
+        for (int i = 0; i < keys.length; i++) {
+            insert(keys[i], values[i]);
+        }
+    }
+
     public String toString();
+
+    // Validates a batch for getAll()/insertAll(): no null keys, strictly
+    // ascending, and a paired array at least as long as the keys.
+    public static <Key extends Comparable<Key>> void checkBatch(Key[] keys, int pairedLength) {
+        if (keys == null) throw new IllegalArgumentException("batch keys are null");
+        if (pairedLength < keys.length) {
+            throw new IllegalArgumentException("paired array holds " + pairedLength + " entries for " + keys.length + " keys");
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) throw new IllegalArgumentException("batch key " + i + " is null");
+            if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0) {
+                throw new IllegalArgumentException("batch keys are not strictly ascending at index " + i);
+            }
+        }
+    }
 }
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 public class TTester {
@@ -8,6 +10,10 @@ public class TTester {
         testAVLTree();
         testRedBlackTree();
         testSkipList();
+        testLockFreeBST();
+        testBTree();
+        testArrayAVLTree();
+        testBatchOperations();
     }
 
     private static void testBSTPrinceton() {
@@ -132,6 +138,158 @@ public class TTester {
         System.out.println("----\n");
     }
 
+    private static void testLockFreeBST() {
+        System.out.println("Testing Lock-Free BST:");
+
+        TInterface<String, Integer> bst = new LockFreeBST<>();
+
+        // Insertion and retrieval tests
+        bst.insert("Apple", 5);
+        bst.insert("Banana", 8);
+        bst.insert("Orange", 15);
+        bst.insert("Grapes", 20);
+
+        System.out.println(assertEquals(bst.get("Apple"), 5));
+        System.out.println(assertEquals(bst.get("Banana"), 8));
+        System.out.println(assertEquals(bst.get("Orange"), 15));
+        System.out.println(assertEquals(bst.get("Grapes"), 20));
+
+        System.out.println(bst);
+
+        // Removal test
+        bst.remove("Apple");
+        System.out.println(assertEquals(bst.get("Apple"), null));
+
+        System.out.println("----\n");
+    }
+
+    private static void testBTree() {
+        System.out.println("Testing B-Tree:");
+
+        BTree<String, Integer> tree = new BTree<>(4);
+
+        // Insertion and retrieval tests
+        tree.insert("Apple", 5);
+        tree.insert("Banana", 8);
+        tree.insert("Orange", 15);
+        tree.insert("Grapes", 20);
+        tree.insert("Kiwi", 3);
+
+        System.out.println(assertEquals(tree.get("Apple"), 5));
+        System.out.println(assertEquals(tree.get("Banana"), 8));
+        System.out.println(assertEquals(tree.get("Orange"), 15));
+        System.out.println(assertEquals(tree.get("Grapes"), 20));
+        System.out.println(assertEquals(tree.floor("Cherry"), "Banana"));
+        System.out.println(assertEquals(tree.rank("Kiwi"), 3));
+
+        System.out.println(tree);
+
+        // Removal test
+        tree.remove("Apple");
+        System.out.println(assertEquals(tree.get("Apple"), null));
+
+        System.out.println("----\n");
+    }
+
+    private static void testArrayAVLTree() {
+        System.out.println("Testing Array AVL Tree:");
+
+        ArrayAVLTree<String, Integer> tree = new ArrayAVLTree<>(2);
+
+        // Insertion and retrieval tests
+        tree.insert("Apple", 5);
+        tree.insert("Banana", 8);
+        tree.insert("Orange", 15);
+        tree.insert("Grapes", 20);
+
+        System.out.println(assertEquals(tree.get("Apple"), 5));
+        System.out.println(assertEquals(tree.get("Banana"), 8));
+        System.out.println(assertEquals(tree.get("Orange"), 15));
+        System.out.println(assertEquals(tree.get("Grapes"), 20));
+
+        System.out.println(tree);
+
+        // Removal test, then the freed slot is reused
+        tree.remove("Apple");
+        System.out.println(assertEquals(tree.get("Apple"), null));
+        int capacity = tree.capacity();
+        tree.insert("Kiwi", 3);
+        System.out.println(assertEquals(tree.capacity(), capacity));
+
+        System.out.println("----\n");
+    }
+
+    // Integer key that counts its compareTo() calls
+    private static class CountingKey implements Comparable<CountingKey> {
+        static long comparisons = 0;
+        final int value;
+
+        CountingKey(int value) {
+            this.value = value;
+        }
+
+        public int compareTo(CountingKey other) {
+            comparisons++;
+            return Integer.compare(value, other.value);
+        }
+
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static void testBatchOperations() {
+        System.out.println("Testing batch getAll/insertAll:");
+
+        final int n = 20000;
+        final int batch = 500;
+        Random random = new Random(42);
+        CountingKey[] all = new CountingKey[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = new CountingKey(2 * i);
+        }
+        // a sorted batch of nearby keys, half of them (the odd ones) missing
+        CountingKey[] keys = new CountingKey[batch];
+        int start = random.nextInt(2 * n - 2 * batch);
+        for (int i = 0; i < batch; i++) {
+            keys[i] = new CountingKey(start + 2 * i + (i % 2));
+        }
+
+        // those that share one traversal across the batch, and BTree, which
+        // falls back on the default one lookup per key
+        List<TInterface<CountingKey, CountingKey>> structures = new ArrayList<>();
+        structures.add(new BSTPrinceton<>());
+        structures.add(new AVLTree<>());
+        structures.add(new RedBlackTree<>());
+        structures.add(new SkipList<>());
+        int sharedTraversals = structures.size();
+        structures.add(new BTree<>());
+        for (int s = 0; s < structures.size(); s++) {
+            TInterface<CountingKey, CountingKey> t = structures.get(s);
+            t.insertAll(all, all);
+
+            CountingKey.comparisons = 0;
+            CountingKey[] results = new CountingKey[batch];
+            int found = t.getAll(keys, results);
+            long batched = CountingKey.comparisons;
+
+            CountingKey.comparisons = 0;
+            boolean same = true;
+            for (int i = 0; i < batch; i++) {
+                CountingKey single = t.contains(keys[i]) ? keys[i] : null;
+                same &= assertEquals(results[i] == null ? null : results[i].value,
+                        single == null ? null : single.value);
+            }
+            long individual = CountingKey.comparisons;
+
+            System.out.println(t.getClass().getSimpleName() + ": " + assertEquals(found, batch / 2)
+                    + " " + same + " comparisons batched=" + batched + " individual=" + individual
+                    + (s < sharedTraversals ? " " + (batched <= individual) : ""));
+        }
+
+        System.out.println("----\n");
+    }
+
     private static boolean assertEquals(Object objectOne, Object objectTwo) {
         if (objectOne == null) {
             return objectTwo == null;
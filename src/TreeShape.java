@@ -0,0 +1,34 @@
+/**
+ * The shape of a structure: how many keys it holds and how deep they sit.
+ * <p>
+ * Implementations keep these figures up to date as they are modified, the way
+ * {@link BSTPrinceton} keeps subtree sizes, so every method here is O(1) (or
+ * O(levels) for {@link #levelCounts()}) and safe to poll. {@link ShapeMonitor}
+ * publishes them over JMX.
+ */
+public interface TreeShape {
+    /** Returns the number of keys. */
+    int size();
+
+    /**
+     * Returns the number of edges on the longest path from the root, or -1 if
+     * empty. For {@link SkipList} this is the top level.
+     */
+    int height();
+
+    /**
+     * Returns the sum of the depths of all nodes, the root being at depth 0,
+     * or -1 if the structure has no single search tree.
+     */
+    long pathLength();
+
+    /** Returns the number of nodes on each level, bottom first, for structures with levels. */
+    default long[] levelCounts() {
+        return new long[0];
+    }
+
+    /** Returns the fraction of a fixed capacity in use, or NaN if the structure grows freely. */
+    default double fillRatio() {
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,471 @@
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A slab allocator for byte values outside the Java heap.
+ * <p>
+ * Values are copied into slots of direct {@link ByteBuffer} pages. Slot sizes
+ * come in size classes half a power of two apart (16, 24, 32, 48, 64, ...
+ * bytes), and each page holds slots of one class. Freed slots go on a free
+ * list for their class. A value too large for a quarter of a page gets a
+ * dedicated page, which is released as soon as the value is freed.
+ * <p>
+ * A value is named by a {@code long} handle. The handle indexes a table
+ * of slot locations, so {@link #compact()} can move values out of sparsely
+ * filled pages and release those pages without changing any handle. The
+ * high half of a handle is a generation number, so using a handle after
+ * {@link #free(long)} fails instead of reading someone else's value.
+ * <p>
+ * {@link #get(long)} returns a read-only view of the slot, not a copy. The
+ * view is valid until the value is freed or {@link #compact()} runs.
+ */
+public class ValueSlab implements Closeable {
+    public static final int DEFAULT_PAGE_BYTES = 1 << 20;
+
+    // slot header: the handle's table index (-1 when the slot is free), then the length
+    private static final int HEADER = 8;
+    private static final int MIN_SLOT = 16;
+    private static final int DEDICATED = -1;
+
+    private final int pageBytes;
+    private final int[] classSize;
+
+    private ByteBuffer[] pages = new ByteBuffer[16];
+    // size class of each page, or DEDICATED
+    private int[] pageClass = new int[16];
+    private int[] pageLive = new int[16];
+    private int pageCount;
+    // indices of released pages, reused before pageCount grows
+    private int[] freePages = new int[16];
+    private int freePageCount;
+
+    // per size class, a stack of free slot locations (page << 32 | offset)
+    private final long[][] freeSlots;
+    private final int[] freeSlotCount;
+
+    // handle table: location of each live value, or the next free index
+    private long[] location = new long[64];
+    private int[] generation = new int[64];
+    private int tableUsed;
+    private int freeHandle = -1;
+
+    private int liveValues;
+    private long liveBytes;
+    private boolean closed;
+
+    public ValueSlab() {
+        this(DEFAULT_PAGE_BYTES);
+    }
+
+    /**
+     * Initializes an empty slab.
+     *
+     * @param pageBytes the size of a page, at least 1024 bytes
+     */
+    public ValueSlab(int pageBytes) {
+        if (pageBytes < 1024) throw new IllegalArgumentException("page of " + pageBytes + " bytes is too small");
+        this.pageBytes = pageBytes;
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = MIN_SLOT; size <= pageBytes / 4; size *= 2) {
+            sizes.add(size);
+            if (size + size / 2 <= pageBytes / 4) sizes.add(size + size / 2);
+        }
+        classSize = sizes.stream().mapToInt(Integer::intValue).toArray();
+        freeSlots = new long[classSize.length][16];
+        freeSlotCount = new int[classSize.length];
+    }
+
+    public int liveValues() {
+        return liveValues;
+    }
+
+    /**
+     * Returns the total length of the live values, in bytes.
+     *
+     * @return the live value bytes
+     */
+    public long liveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Returns the off-heap memory held in pages, in bytes.
+     *
+     * @return the reserved off-heap bytes
+     */
+    public long reservedBytes() {
+        long bytes = 0;
+        for (int page = 0; page < pageCount; page++) {
+            if (pages[page] != null) bytes += pages[page].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases all pages to the garbage collector. The slab cannot be used
+     * afterwards.
+     */
+    public void close() {
+        closed = true;
+        pages = null;
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("slab is closed");
+    }
+
+    // -- Values -------------------------------------------------------------------------------------
+
+    /**
+     * Copies the remaining bytes of {@code value} into the slab. The buffer's
+     * position is not changed.
+     *
+     * @return the handle of the stored value
+     */
+    public long put(ByteBuffer value) {
+        if (value == null) throw new IllegalArgumentException("value is null");
+        ensureOpen();
+        int length = value.remaining();
+        long slot = allocateSlot(HEADER + length);
+        ByteBuffer page = pages[(int) (slot >>> 32)];
+        int offset = (int) slot;
+        int index = newHandleIndex(slot);
+        page.putInt(offset, index);
+        page.putInt(offset + 4, length);
+        page.put(offset + HEADER, value, value.position(), length);
+        liveValues++;
+        liveBytes += length;
+        return (long) generation[index] << 32 | index;
+    }
+
+    public long put(byte[] value) {
+        if (value == null) throw new IllegalArgumentException("value is null");
+        return put(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Returns a read-only view of a value, positioned at 0 with the value's
+     * length as its limit.
+     *
+     * @throws IllegalArgumentException if the handle is not live
+     */
+    public ByteBuffer get(long handle) {
+        long slot = locate(handle);
+        ByteBuffer page = pages[(int) (slot >>> 32)];
+        int offset = (int) slot;
+        return page.slice(offset + HEADER, page.getInt(offset + 4)).asReadOnlyBuffer();
+    }
+
+    public int length(long handle) {
+        long slot = locate(handle);
+        return pages[(int) (slot >>> 32)].getInt((int) slot + 4);
+    }
+
+    /**
+     * Frees a value. Its handle, and any view returned by {@link #get(long)},
+     * must not be used again.
+     *
+     * @throws IllegalArgumentException if the handle is not live
+     */
+    public void free(long handle) {
+        long slot = locate(handle);
+        int pageIndex = (int) (slot >>> 32);
+        ByteBuffer page = pages[pageIndex];
+        int offset = (int) slot;
+        int index = (int) handle;
+        liveValues--;
+        liveBytes -= page.getInt(offset + 4);
+        page.putInt(offset, -1);
+        pageLive[pageIndex]--;
+        if (pageClass[pageIndex] == DEDICATED) releasePage(pageIndex);
+        else pushFreeSlot(pageClass[pageIndex], slot);
+        // retire the handle
+        generation[index]++;
+        location[index] = freeHandle;
+        freeHandle = index;
+    }
+
+    private long locate(long handle) {
+        ensureOpen();
+        int index = (int) handle;
+        if (index < 0 || index >= tableUsed || generation[index] != (int) (handle >>> 32)) {
+            throw new IllegalArgumentException("handle " + Long.toHexString(handle) + " is not live");
+        }
+        return location[index];
+    }
+
+    private int newHandleIndex(long slot) {
+        int index;
+        if (freeHandle >= 0) {
+            index = freeHandle;
+            freeHandle = (int) location[index];
+        } else {
+            if (tableUsed == location.length) {
+                location = Arrays.copyOf(location, tableUsed * 2);
+                generation = Arrays.copyOf(generation, tableUsed * 2);
+            }
+            index = tableUsed++;
+            // generations start at 1, so no live handle is 0
+            generation[index] = 1;
+        }
+        location[index] = slot;
+        return index;
+    }
+
+    // -- Slots and pages ----------------------------------------------------------------------------
+
+    private int classFor(int bytes) {
+        for (int c = 0; c < classSize.length; c++) {
+            if (classSize[c] >= bytes) return c;
+        }
+        return DEDICATED;
+    }
+
+    private long allocateSlot(int bytes) {
+        int c = classFor(bytes);
+        if (c == DEDICATED) {
+            int pageIndex = newPage(bytes, DEDICATED);
+            pageLive[pageIndex] = 1;
+            return (long) pageIndex << 32;
+        }
+        if (freeSlotCount[c] == 0) {
+            // carve a new page into free slots, lowest offset on top
+            int pageIndex = newPage(pageBytes, c);
+            ByteBuffer page = pages[pageIndex];
+            for (int offset = (pageBytes / classSize[c] - 1) * classSize[c]; offset >= 0; offset -= classSize[c]) {
+                page.putInt(offset, -1);
+                pushFreeSlot(c, (long) pageIndex << 32 | offset);
+            }
+        }
+        long slot = freeSlots[c][--freeSlotCount[c]];
+        pageLive[(int) (slot >>> 32)]++;
+        return slot;
+    }
+
+    private void pushFreeSlot(int c, long slot) {
+        if (freeSlotCount[c] == freeSlots[c].length) freeSlots[c] = Arrays.copyOf(freeSlots[c], freeSlotCount[c] * 2);
+        freeSlots[c][freeSlotCount[c]++] = slot;
+    }
+
+    private int newPage(int bytes, int c) {
+        int pageIndex;
+        if (freePageCount > 0) {
+            pageIndex = freePages[--freePageCount];
+        } else {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pageCount * 2);
+                pageClass = Arrays.copyOf(pageClass, pageCount * 2);
+                pageLive = Arrays.copyOf(pageLive, pageCount * 2);
+            }
+            pageIndex = pageCount++;
+        }
+        pages[pageIndex] = ByteBuffer.allocateDirect(bytes);
+        pageClass[pageIndex] = c;
+        pageLive[pageIndex] = 0;
+        return pageIndex;
+    }
+
+    private void releasePage(int pageIndex) {
+        pages[pageIndex] = null;
+        if (freePageCount == freePages.length) freePages = Arrays.copyOf(freePages, freePageCount * 2);
+        freePages[freePageCount++] = pageIndex;
+    }
+
+    // -- Compaction ---------------------------------------------------------------------------------
+
+    /**
+     * Moves values so that each size class uses as few pages as it can, and
+     * releases the pages that become empty. Handles stay valid; views from
+     * {@link #get(long)} do not.
+     *
+     * @return the number of bytes released
+     */
+    public long compact() {
+        ensureOpen();
+        long released = 0;
+        for (int c = 0; c < classSize.length; c++) {
+            released += compact(c);
+        }
+        return released;
+    }
+
+    private long compact(int c) {
+        int size = classSize[c];
+        int slotsPerPage = pageBytes / size;
+        List<Integer> classPages = new ArrayList<>();
+        int live = 0;
+        for (int page = 0; page < pageCount; page++) {
+            if (pages[page] != null && pageClass[page] == c) {
+                classPages.add(page);
+                live += pageLive[page];
+            }
+        }
+        int needed = (live + slotsPerPage - 1) / slotsPerPage;
+        if (classPages.size() == needed) return 0;
+
+        // keep the fullest pages; their free slots take in the values of the rest
+        classPages.sort((a, b) -> Integer.compare(pageLive[b], pageLive[a]));
+        freeSlotCount[c] = 0;
+        for (int i = needed - 1; i >= 0; i--) {
+            int page = classPages.get(i);
+            for (int offset = (slotsPerPage - 1) * size; offset >= 0; offset -= size) {
+                if (pages[page].getInt(offset) < 0) pushFreeSlot(c, (long) page << 32 | offset);
+            }
+        }
+        for (int i = needed; i < classPages.size(); i++) {
+            int from = classPages.get(i);
+            ByteBuffer source = pages[from];
+            for (int offset = 0; offset + size <= pageBytes && pageLive[from] > 0; offset += size) {
+                int index = source.getInt(offset);
+                if (index < 0) continue;
+                long slot = freeSlots[c][--freeSlotCount[c]];
+                int to = (int) (slot >>> 32);
+                pages[to].put((int) slot, source, offset, HEADER + source.getInt(offset + 4));
+                location[index] = slot;
+                pageLive[to]++;
+                pageLive[from]--;
+            }
+            releasePage(from);
+        }
+        return (long) (classPages.size() - needed) * pageBytes;
+    }
+
+    /**
+     * Checks that the handle table, the slot headers and the page counts
+     * agree.
+     *
+     * @throws IllegalStateException if they do not
+     */
+    public void check() {
+        ensureOpen();
+        int[] counted = new int[pageCount];
+        int values = 0;
+        long bytes = 0;
+        boolean[] freeIndex = new boolean[tableUsed];
+        for (int index = freeHandle; index >= 0; index = (int) location[index]) freeIndex[index] = true;
+        for (int index = 0; index < tableUsed; index++) {
+            if (freeIndex[index]) continue;
+            long slot = location[index];
+            int page = (int) (slot >>> 32);
+            if (pages[page] == null || pages[page].getInt((int) slot) != index) {
+                throw new IllegalStateException("handle index " + index + " does not own its slot");
+            }
+            counted[page]++;
+            values++;
+            bytes += pages[page].getInt((int) slot + 4);
+        }
+        for (int page = 0; page < pageCount; page++) {
+            if (pages[page] != null && counted[page] != pageLive[page]) {
+                throw new IllegalStateException("page " + page + " has " + counted[page] + " values, expected " + pageLive[page]);
+            }
+        }
+        if (values != liveValues || bytes != liveBytes) {
+            throw new IllegalStateException(values + " values of " + bytes + " bytes, expected " + liveValues + " of " + liveBytes);
+        }
+    }
+}
+
+class ValueSlabTest implements Tester {
+    static void myAssert(boolean b) {
+        if (!b) {
+            throw new RuntimeException("Bad state");
+        }
+    }
+
+    private static byte[] randomValue(Random random) {
+        // mostly small values, some larger than a quarter page
+        int length = random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(200);
+        byte[] value = new byte[length];
+        random.nextBytes(value);
+        return value;
+    }
+
+    private static void verify(ValueSlab slab, Map<Long, byte[]> model) {
+        slab.check();
+        myAssert(slab.liveValues() == model.size());
+        for (Map.Entry<Long, byte[]> entry : model.entrySet()) {
+            ByteBuffer view = slab.get(entry.getKey());
+            myAssert(view.isReadOnly() && view.equals(ByteBuffer.wrap(entry.getValue())));
+        }
+    }
+
+    public static void doTests(int ops) {
+        ValueSlab slab = new ValueSlab(1 << 16);
+        Map<Long, byte[]> model = new HashMap<>();
+        List<Long> handles = new ArrayList<>();
+        Random random = new Random(40);
+        for (int op = 0; op < ops; op++) {
+            if (!handles.isEmpty() && random.nextInt(3) == 0) {
+                long handle = handles.remove(random.nextInt(handles.size()));
+                slab.free(handle);
+                model.remove(handle);
+            } else {
+                byte[] value = randomValue(random);
+                long handle = slab.put(value);
+                myAssert(!model.containsKey(handle) && slab.length(handle) == value.length);
+                model.put(handle, value);
+                handles.add(handle);
+            }
+        }
+        verify(slab, model);
+
+        // freed handles are refused, even once their table entry is reused
+        long stale = handles.remove(0);
+        slab.free(stale);
+        model.remove(stale);
+        long reused = slab.put(new byte[3]);
+        model.put(reused, new byte[3]);
+        handles.add(reused);
+        try {
+            slab.get(stale);
+            myAssert(false);
+        } catch (IllegalArgumentException expected) {
+            // stale handle
+        }
+
+        // free most values, then compaction releases the emptied pages and keeps every handle
+        for (int i = handles.size() - 1; i >= 0; i--) {
+            if (random.nextInt(5) != 0) {
+                long handle = handles.remove(i);
+                slab.free(handle);
+                model.remove(handle);
+            }
+        }
+        long before = slab.reservedBytes();
+        long released = slab.compact();
+        myAssert(released > 0 && slab.reservedBytes() == before - released);
+        verify(slab, model);
+        myAssert(slab.compact() == 0);
+        for (int op = 0; op < ops / 10; op++) {
+            byte[] value = randomValue(random);
+            model.put(slab.put(value), value);
+        }
+        verify(slab, model);
+        slab.close();
+    }
+
+    @Override
+    public void test() {
+        doTests(20000);
+    }
+
+    @Override
+    public void insert() {
+
+    }
+
+    @Override
+    public void remove() {
+
+    }
+
+    public static void main(String[] args) {
+        doTests(20000);
+    }
+}